@@ -18,7 +18,7 @@ package nl.esciencecenter.esalsa.loadbalancer;
 
 import java.util.ArrayList;
 
-import nl.esciencecenter.esalsa.util.Block;
+import nl.esciencecenter.esalsa.util.BlockLayer;
 import nl.esciencecenter.esalsa.util.Distribution;
 import nl.esciencecenter.esalsa.util.Grid;
 import nl.esciencecenter.esalsa.util.Layer;
@@ -72,9 +72,6 @@ public class LoadBalancer {
 	/** The layer containing a single set with all blocks. */  
 	private final Layer combinedLayer;
 	
-	/** List of all blocks that have been created. */ 
-	private final ArrayList<Block> allBlocks = new ArrayList<Block>();
-		
 	/** Method to use when splitting */
 	private final String splitMethod; 
 	
@@ -106,22 +103,10 @@ public class LoadBalancer {
 		this.splitMethod = splitMethod; 
 		
 		// Create two layers here, one containing each block in a separate set, and one containing all blocks in one set.
-		blockLayer = new Layer("BLOCKS");
 		combinedLayer = new Layer("ALL");
+		combinedLayer.add(new Set(grid, 0));
 		
-		for (int y=0;y<grid.height;y++) { 
-			for (int x=0;x<grid.width;x++) { 
-			
-				Block b = grid.get(x, y);
-				
-				if (b != null) {					
-					blockLayer.add(new Set(b, y*grid.width + x));
-					allBlocks.add(b);
-				}
-			}
-		}
-		
-		combinedLayer.add(new Set(allBlocks, 0));
+		blockLayer = new BlockLayer("BLOCKS", combinedLayer.get(0), grid.width);
 		
 		// Add both layers to the store.  
 		layers.add(combinedLayer);
@@ -153,7 +138,7 @@ public class LoadBalancer {
 		
 		if (size <= subsets) { 
 			for (int i=0;i<size;i++) { 
-				output.add(new Set(set.get(i), i));
+				output.add(new Set(set.getX(i), set.getY(i), set.getWeight(i), i));
 			}	
 			
 			return;
@@ -256,82 +241,60 @@ public class LoadBalancer {
 	}
 	
 	/** 
-	 * Mark all blocks in a set with a certain value.
+	 * Assign work to cores by recursively numbering the sets in the various layers. 
 	 * 
-	 * @param set the set containing the blocks to mark.
-	 * @param value the value to mark the blocks with. 
+	 * @param set the set containing the blocks to assign.
+	 * @param first the number of the first core of the set.
+	 * @param result the distribution in which to store the core (+1) of each block.    
+	 * @return the number of cores encountered. 
 	 */
-	private void markAll(Set set, int value) { 
-		for (Block b : set) { 
-			b.setMark(value);
-		}
-	}
-	
-	/** 
-	 * Assign work to cores by recursively marking the sets in the various layers. 
-	 * 
-	 * @param set the set containing the blocks to mark. 
-	 * @return the number of new subsets encountered. 
-	 */
-	private int divideWork(Set set) { 
+	private int divideWork(Set set, int first, int [] result) { 
 		
-		if (set.countSubSets() == 0) { 
+		if (set.countSubSets() == 0) {
+			
+			for (int i=0;i<set.size();i++) { 
+				result[set.getY(i) * grid.width + set.getX(i)] = first+1;
+			}
+			
 			return 1;
 		}
 		
 		int count = 0;
 		
 		for (Set sub : set.getSubSets()) { 
-		
-			for (Block b : sub) { 
-				b.addToMark(count);
-			}
-
-			count += divideWork(sub);
+			count += divideWork(sub, first + count, result);
 		}
 
 		return count;
 	} 
 	
 	/** 
-	 * Assign work to cores by recursively marking the sets in the various layers. 
+	 * Assign work to cores by recursively numbering the sets in the various layers. 
 	 * 
 	 * This algorithm works as follows:
 	 * 
-	 * - Initially all blocks in the combined layer are marked with 0. 
-	 * - Next, we call {@link #divideWork(Set)} to assign all work in the subsets of the combined set. 
-	 *   
-	 * The {@link #divideWork(Set)} then recursively counts the number of subsets of the combined set, adding the number of 
-	 * subsets it has seen so far to the mark of each of the blocks in the subsets. 
+	 * The {@link #divideWork(Set, int, int[])} recursively traverses the subsets of the combined set, numbering the sets that 
+	 * have no subsets in the order in which they are found. All blocks of such a set are assigned to the core with that number.
 	 * 
 	 * As a result:
 	 * 
-	 * - all blocks in a CORE set will end up with the same mark
-	 * - all blocks in NODE set will have marks ranging from (X .. X+coresPerNode),
-	 * - all blocks in a CLUSTER set will have marks ranging from (Y ... Y+(corePerNode*nodesPerCLuster))          
+	 * - all blocks in a CORE set will be assigned to the same core
+	 * - all blocks in NODE set will be assigned to cores ranging from (X .. X+coresPerNode),
+	 * - all blocks in a CLUSTER set will be assigned to cores ranging from (Y ... Y+(corePerNode*nodesPerCLuster))          
 	 *   
+	 * @param result the distribution in which to store the core (+1) of each block.    
 	 */
-	private void divideWork() { 
-		markAll(combinedLayer.get(0), 0);
+	private void divideWork(int [] result) { 
 		
 		if (layers.size() == 2) { 
 			// No additional layers have been defined, so directly assign the blocks.
 		
-			int core = 0;
-			
-			for (int y=0;y<grid.height;y++) { 
-				for (int x=0;x<grid.width;x++) { 
-				
-					Block b = grid.get(x, y);
-					
-					if (b != null) {					
-						b.setMark(core++);
-					}
-				}
+			for (int i=0;i<grid.getCount();i++) { 
+				result[grid.getLocation(i)] = i+1;
 			}
 			
 		} else { 
-			divideWork(combinedLayer.get(0));
+			divideWork(combinedLayer.get(0), 0, result);
 		}
 	}
 	
@@ -360,8 +323,6 @@ public class LoadBalancer {
 			split(prev, "CORES", cores);
 		}
 		
-		divideWork();
-		
 		Layer layer = layers.get("CORES");
 				
 		if (layer == null || layer.size() != (cores*nodes*clusters)) { 
@@ -370,6 +331,9 @@ public class LoadBalancer {
 		}
 		
 		int [] result = new int[grid.width*grid.height];
+		
+		divideWork(result);
+		
 		int maxBlocksPerCore = 0;
 		int minBlocksPerCore = Integer.MAX_VALUE;
 		
@@ -384,16 +348,12 @@ public class LoadBalancer {
 			if (blocks < minBlocksPerCore) { 
 				minBlocksPerCore = blocks;
 			}
-			
-			for (Block b : s) { 
-				result[b.coordinate.y * grid.width + b.coordinate.x] = b.getMark()+1; 
-			}
 		}
 
 		return new Distribution(topography.width, topography.height, 
 				grid.blockWidth, grid.blockHeight, 
 				clusters, nodes, cores, 
 				minBlocksPerCore, maxBlocksPerCore, 
-				grid.width * grid.height, result);		
+				grid.width * grid.height, result, grid.offsetX, grid.offsetY);		
 	}
 }
\ No newline at end of file
@@ -16,11 +16,9 @@
 
 package nl.esciencecenter.esalsa.loadbalancer;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 
-import nl.esciencecenter.esalsa.util.Block;
 import nl.esciencecenter.esalsa.util.Set;
 
 import org.slf4j.Logger;
@@ -40,11 +38,11 @@ public class RoughlyRectangularSplit extends Split {
 	/** A logger used for debugging. */
 	private static final Logger logger = LoggerFactory.getLogger(RoughlyRectangularSplit.class);
 	
-	/** The amount of blocks per subset. */ 
-	protected final int workPerPart;
+	/** The amount of weight per subset. */ 
+	protected final long workPerPart;
 	
-	/** The amount of blocks left over. */
-	protected final int workLeft;
+	/** The amount of weight left over. */
+	protected final long workLeft;
 	
 	/**
 	 * Create a new RoughlyRectangularSplit for a given set and number of subsets.
@@ -60,8 +58,8 @@ public class RoughlyRectangularSplit extends Split {
 			throw new IllegalArgumentException("Cannot split set with " + set.size() + " work into " + subsets + " parts!");
 		}
 		
-		workPerPart = set.size() / subsets;
-		workLeft = set.size() % subsets;
+		workPerPart = set.getWeight() / subsets;
+		workLeft = set.getWeight() % subsets;
 	}
 
 	/**
@@ -71,22 +69,8 @@ public class RoughlyRectangularSplit extends Split {
 	 * @param subsets the number of subsets to split into. 
 	 * @return an array of length <code>parts</code> containing the size of each subset.  
 	 */
-	protected int [] splitWork(int work, int subsets) { 
-		
-		int [] result = new int[subsets];
-
-		int workPerPart = work / subsets;
-		int workLeft = work % subsets;
-		
-		for (int i=0;i<subsets;i++) {
-			result[i] = workPerPart;
-
-			if (i < workLeft) { 
-				result[i]++;
-			}
-		}
-		
-		return result;
+	protected long [] splitWork(long work, int subsets) { 
+		return splitWeight(work, subsets);
 	}
 	
 	/**
@@ -104,12 +88,12 @@ public class RoughlyRectangularSplit extends Split {
 	 * @param totalParts the total number of subsets to create. 
 	 * @return an array containing the amount of work for each slice.
 	 */
-	protected int [] splitWork(int work, int [] slices, int totalParts) { 
+	protected long [] splitWork(long work, int [] slices, int totalParts) { 
 		
-		int [] result = new int[slices.length];
+		long [] result = new long[slices.length];
 
-		int workPerSlice = work / totalParts;
-		int workLeftPerSlice = work % totalParts;
+		long workPerSlice = work / totalParts;
+		long workLeftPerSlice = work % totalParts;
 		
 		for (int i=0;i<slices.length;i++) {
 			result[i] = workPerSlice * slices[i];
@@ -118,7 +102,7 @@ public class RoughlyRectangularSplit extends Split {
 		int index = 0;
 		
 		while (workLeftPerSlice > 0) {
-			int assign = Math.min(slices[index], workLeftPerSlice);
+			long assign = Math.min(slices[index], workLeftPerSlice);
 			result[index] += assign;
 			workLeftPerSlice -= assign;
 			index++;
@@ -130,122 +114,84 @@ public class RoughlyRectangularSplit extends Split {
 	
 	/** 
 	 * Splits a set into <code>targetWork.length</code> subsets, such that subset <code>i</code> contains 
-	 * <code>targetWork[i]</code> work. 
+	 * (approximately) <code>targetWork[i]</code> weight and at least <code>minBlocks[i]</code> blocks. 
 	 * <p>
 	 * The split is performed by traversing horizontally over the source set, moving from bottom to top in a zigzag pattern.  
 	 *  
 	 * @param s the set to split. 
-	 * @param targetWork an array containing the number of block for each subset. 
+	 * @param targetWork an array containing the target weight for each subset. 
+	 * @param minBlocks an array containing the minimal number of blocks for each subset, or null if each subset requires at 
+	 * least one block.
 	 * @param reverse reverse the direction of the zigzag pattern.
 	 * @return an array containing the generates subsets. 
 	 */
-	protected Set [] splitHorizontal(Set s, int [] targetWork, boolean reverse) { 
+	protected Set [] splitHorizontal(Set s, long [] targetWork, int [] minBlocks, boolean reverse) { 
 		
 		final int direction = reverse ? 1 : 0;
 		
-		Set [] result = new Set[targetWork.length];
-		ArrayList<Block> tmp = new ArrayList<Block>();
-
-		int index = 0;
+		Partition partition = new Partition(s, targetWork, minBlocks);
 		
 		// start bottom left and zigzag horizontally 
 		// until we reach top right.
 		for (int y=s.minY;y<=s.maxY;y++) { 
+
+			int start = s.getRowStart(y);
+			int end = s.getRowEnd(y);
+			
 			if (y % 2 == direction) { 
 				// left to right
-				for (int x=s.minX;x<=s.maxX;x++) { 
-
-					Block b = s.get(x, y);
-
-					if (b != null) { 
-						tmp.add(b);
-
-						if (tmp.size() == targetWork[index]) { 
-							result[index] = new Set(tmp, index);
-							tmp.clear();
-							index++;
-						}
-					}	
+				for (int i=start;i<end;i++) { 
+					partition.add(i);
 				}
 			} else { 
 				// right to left
-				for (int x=s.maxX;x>=s.minX;x--) { 
-
-					Block b = s.get(x, y);
-
-					if (b != null) { 
-						tmp.add(b);
-
-						if (tmp.size() == targetWork[index]) { 
-							result[index] = new Set(tmp, index);
-							tmp.clear();
-							index++;
-						}
-					}	
+				for (int i=end-1;i>=start;i--) { 
+					partition.add(i);
 				}
 			}
 		}
 
-		return result;
+		return partition.getResult();
 	}
 
 	/** 
 	 * Splits a set into <code>targetWork.length</code> subsets, such that subset <code>i</code> contains 
-	 * <code>targetWork[i]</code> work. 
+	 * (approximately) <code>targetWork[i]</code> weight and at least <code>minBlocks[i]</code> blocks. 
 	 * <p>
 	 * The split is performed by traversing vertically over the source set, left to right up in a zigzag pattern.  
 	 *  
 	 * @param s the set to split. 
-	 * @param targetWork an array containing the number of block for each subset.
+	 * @param targetWork an array containing the target weight for each subset.
+	 * @param minBlocks an array containing the minimal number of blocks for each subset, or null if each subset requires at 
+	 * least one block.
 	 * @param reverse reverse the direction of the zigzag pattern. 
 	 * @return an array containing the generates subsets.
 	 */
-	protected Set [] splitVertical(Set s, int [] targetWork, boolean reverse) { 
+	protected Set [] splitVertical(Set s, long [] targetWork, int [] minBlocks, boolean reverse) { 
 		
 		final int direction = reverse ? 1 : 0;
 		
-		Set [] result = new Set[targetWork.length];
-		ArrayList<Block> tmp = new ArrayList<Block>();
-
-		int index = 0;
+		Partition partition = new Partition(s, targetWork, minBlocks);
 
 		for (int x=s.minX;x<=s.maxX;x++) { 
+
+			int start = s.getColumnStart(x);
+			int end = s.getColumnEnd(x);
+			
 			if (x % 2 == direction) { 
 				// top to bottom
-				for (int y=s.minY;y<=s.maxY;y++) { 
-
-					Block b = s.get(x, y);
-
-					if (b != null) { 
-						tmp.add(b);
-
-						if (tmp.size() == targetWork[index]) { 
-							result[index] = new Set(tmp, index);
-							tmp.clear();
-							index++;
-						}
-					}	
+				for (int i=start;i<end;i++) { 
+					partition.add(s.getColumnPosition(i));
 				}
 			} else { 
 				// right to left
-				for (int y=s.maxY;y>=s.minY;y--) { 
-
-					Block b = s.get(x, y);
-
-					if (b != null) { 
-						tmp.add(b);
-
-						if (tmp.size() == targetWork[index]) { 
-							result[index] = new Set(tmp, index);
-							tmp.clear();
-							index++;
-						}
-					}	
+				for (int i=end-1;i>=start;i--) { 
+					partition.add(s.getColumnPosition(i));
 				}
 			}
 		}
 
-		return result;
+		return partition.getResult();
 	}
 	
 	/** 
@@ -261,7 +207,7 @@ public class RoughlyRectangularSplit extends Split {
 			logger.debug("Splitting set of size " + set.size() + " into " + Arrays.toString(subSlices));
 		}
 		
-		int [] workPerSlice = splitWork(set.size(), subSlices, parts);
+		long [] workPerSlice = splitWork(set.getWeight(), subSlices, parts);
 
 		if (logger.isDebugEnabled()) { 
 			logger.debug(" Work per slice: " + Arrays.toString(workPerSlice));
@@ -269,13 +215,13 @@ public class RoughlyRectangularSplit extends Split {
 		
 		if (set.getWidth() < set.getHeight()) { 
 			
-			Set [] slices = splitHorizontal(set, workPerSlice, false);
+			Set [] slices = splitHorizontal(set, workPerSlice, subSlices, false);
 			
 			for (int i=0;i<slices.length;i++) { 
 
-				int [] workPerPart = splitWork(slices[i].size(), subSlices[i]);
+				long [] workPerPart = splitWork(slices[i].getWeight(), subSlices[i]);
 				
-				Set [] parts = splitVertical(slices[i], workPerPart, false);
+				Set [] parts = splitVertical(slices[i], workPerPart, null, false);
 				
 				for (int j=0;j<parts.length;j++) { 
 					result.add(parts[j]);
@@ -284,13 +230,13 @@ public class RoughlyRectangularSplit extends Split {
 		
 		} else { 
 			
-			Set [] slices = splitVertical(set, workPerSlice, false);
+			Set [] slices = splitVertical(set, workPerSlice, subSlices, false);
 
 			for (int i=0;i<slices.length;i++) { 
 
-				int [] workPerPart = splitWork(slices[i].size(), subSlices[i]);
+				long [] workPerPart = splitWork(slices[i].getWeight(), subSlices[i]);
 
-				Set [] parts = splitHorizontal(slices[i], workPerPart, false);
+				Set [] parts = splitHorizontal(slices[i], workPerPart, null, false);
 
 				for (int j=0;j<parts.length;j++) { 
 					result.add(parts[j]);
@@ -357,7 +303,8 @@ public class RoughlyRectangularSplit extends Split {
 	public void split(Collection<Set> result) { 
 
 		if (logger.isDebugEnabled()) { 
-			logger.debug("Attempting to split set of size " + set.size() + " into " + parts + " parts.");
+			logger.debug("Attempting to split set of size " + set.size() + " and weight " + set.getWeight() + " into " + parts 
+					+ " parts.");
 			logger.debug("Work per part: " + workPerPart);
 			logger.debug("Work left over: " + workLeft);
 		}
@@ -396,8 +343,9 @@ public class RoughlyRectangularSplit extends Split {
 			// The number of parts can be split into a perfect rectangular grid.
 			if (logger.isDebugEnabled()) { 
 				logger.debug("Grid is perfect rectangle: " + highRoot + "x" + lowRoot);
-				logger.debug("  Work per slice (low): " + (set.size() / lowRoot) + " leftover " + (set.size() % lowRoot));
-				logger.debug("  Work per slice (high): " + (set.size() / highRoot) + " leftover " + (set.size() % highRoot));
+				logger.debug("  Work per slice (low): " + (set.getWeight() / lowRoot) + " leftover " + (set.getWeight() % lowRoot));
+				logger.debug("  Work per slice (high): " + (set.getWeight() / highRoot) + " leftover " 
+						+ (set.getWeight() % highRoot));
 			}
 
 			split(createSubParts(highRoot, lowRoot, 0), result);
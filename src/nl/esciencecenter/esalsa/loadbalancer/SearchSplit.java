@@ -81,15 +81,15 @@ public class SearchSplit extends RoughlyRectangularSplit {
 		return communication;		
 	}
 
-	private Set [] findBestSplitFourWays(Set set, int [] workPerSlice) { 
+	private Set [] findBestSplitFourWays(Set set, long [] workPerSlice, int [] minBlocks) { 
 
 		// We now have 4 options here: >, <, ^, v
 		Set [][] solutions = new Set[4][];
 		
-		solutions[0] = splitHorizontal(set, workPerSlice, false);
-		solutions[1] = splitHorizontal(set, workPerSlice, true);
-		solutions[2] = splitVertical(set, workPerSlice, false);
-		solutions[3] = splitVertical(set, workPerSlice, true);
+		solutions[0] = splitHorizontal(set, workPerSlice, minBlocks, false);
+		solutions[1] = splitHorizontal(set, workPerSlice, minBlocks, true);
+		solutions[2] = splitVertical(set, workPerSlice, minBlocks, false);
+		solutions[3] = splitVertical(set, workPerSlice, minBlocks, true);
 		
 		// Now select the best of the four
 		Set [] best = solutions[0];
@@ -121,7 +121,7 @@ public class SearchSplit extends RoughlyRectangularSplit {
 	}
 	
 	@SuppressWarnings("rawtypes")
-	private Solution findBestSplit(Set set, int [] workPerSlice) { 
+	private Solution findBestSplit(Set set, long [] workPerSlice, int [] minBlocks) { 
 
 		Set [] best = null;
 		int [] bestPerm = null;
@@ -136,17 +136,27 @@ public class SearchSplit extends RoughlyRectangularSplit {
 		for (int i=0;i<permutations.size();i++) { 
 
 			int [] perm = (int []) permutations.get(i);
-			int [] work = new int[workPerSlice.length];
+			long [] work = new long[workPerSlice.length];
+			int [] min = null;
 			
 			for (int j=0;j<workPerSlice.length;j++) { 
 				work[j] = workPerSlice[perm[j]];
 			}
+			
+			if (minBlocks != null) { 
+				
+				min = new int[minBlocks.length];
+				
+				for (int j=0;j<minBlocks.length;j++) { 
+					min[j] = minBlocks[perm[j]];
+				}
+			}
 		
 			if (logger.isDebugEnabled()) { 
 				logger.debug(" TESTING: " + Arrays.toString(perm) + " " + Arrays.toString(work));
 			}
 			
-			Set [] tmp = findBestSplitFourWays(set, work);
+			Set [] tmp = findBestSplitFourWays(set, work, min);
 			int communication = getCommunication(tmp);
 			
 			if (communication < bestCommunication) { 
@@ -246,13 +256,13 @@ public class SearchSplit extends RoughlyRectangularSplit {
 			logger.debug("Splitting set of size " + set.size() + " into " + Arrays.toString(subSlices));
 		}
 		
-		int [] workPerSlice = splitWork(set.size(), subSlices, parts);
+		long [] workPerSlice = splitWork(set.getWeight(), subSlices, parts);
 
 		if (logger.isDebugEnabled()) { 
 			logger.debug(" Work per slice: " + Arrays.toString(workPerSlice));
 		}
 		
-		Solution solution = findBestSplit(set, workPerSlice);
+		Solution solution = findBestSplit(set, workPerSlice, subSlices);
 						
 		for (int i=0;i<solution.solution.length;i++) { 
 
@@ -260,9 +270,9 @@ public class SearchSplit extends RoughlyRectangularSplit {
 				logger.debug("Splitting SUB " + i + " ---------------------");
 			}
 			
-			int [] workPerPart = splitWork(solution.solution[i].size(), subSlices[solution.permutation[i]]);
+			long [] workPerPart = splitWork(solution.solution[i].getWeight(), subSlices[solution.permutation[i]]);
 			
-			Solution tmp = findBestSplit(solution.solution[i], workPerPart);
+			Solution tmp = findBestSplit(solution.solution[i], workPerPart, null);
 			
 			for (int j=0;j<tmp.solution.length;j++) { 
 				result.add(tmp.solution[j]);
@@ -16,10 +16,8 @@
 
 package nl.esciencecenter.esalsa.loadbalancer;
 
-import java.util.ArrayList;
 import java.util.Collection;
 
-import nl.esciencecenter.esalsa.util.Block;
 import nl.esciencecenter.esalsa.util.Set;
 
 /**
@@ -33,8 +31,8 @@ import nl.esciencecenter.esalsa.util.Set;
  */
 public class SimpleSplit extends Split {
 
-	/** The sizes of each of the subsets. */
-	private final int [] targetWork;
+	/** The target weight of each of the subsets. */
+	private final long [] targetWork;
 		
 	/** 
 	 * Create a SimpleSplit that will split the <code>set</code> into <code>subsets</code> parts.
@@ -46,128 +44,83 @@ public class SimpleSplit extends Split {
 	
 		super(set, subsets);
 		
-		targetWork = new int[subsets];
-		
 		if (set.size() < subsets) { 
 			throw new IllegalArgumentException("Cannot split set with " + set.size() + " work into " + subsets + " parts!");
 		}
 		
-		int div = set.size() / subsets;
-		int mod = set.size() % subsets;
-		
-		for (int i=0;i<subsets;i++) { 
-			targetWork[i] = div;
-			
-			if (i < mod) { 
-				targetWork[i]++;
-			}
-		}
+		targetWork = splitWeight(set.getWeight(), subsets);
 	}
 	
 	/** 
 	 * Splits a set into <code>targetWork.length</code> subsets, such that subset <code>i</code> contains 
-	 * <code>targetWork[i]</code> work. 
+	 * (approximately) <code>targetWork[i]</code> weight. 
 	 * <p>
 	 * The split is performed by traversing horizontally over the source set, moving from bottom to top in a zigzag pattern.  
 	 *  
-	 * @param s the set to split. 
-	 * @param targetWork an array containing the number of block for each subset. 
+	 * @param result the Collection to store the result in. 
 	 */
 	private void zigzagHorizontal(Collection<Set> result) { 
 
-		int index = 0;
-		
-		ArrayList<Block> tmp = new ArrayList<Block>();
+		Partition partition = new Partition(set, targetWork, null);
 	
 		// start bottom left and zigzag horizontally 
 		// until we reach top right.
 		for (int y=set.minY;y<=set.maxY;y++) { 
+
+			int start = set.getRowStart(y);
+			int end = set.getRowEnd(y);
+			
 			if (y % 2 == 0) { 
 				// left to right
-				for (int x=set.minX;x<=set.maxX;x++) { 
-
-					Block b = set.get(x, y);
-
-					if (b != null) { 
-						tmp.add(b);
-
-						if (tmp.size() == targetWork[index]) { 
-							result.add(new Set(tmp, index));
-							tmp.clear();
-							index++;
-						}
-					}	
+				for (int i=start;i<end;i++) { 
+					partition.add(i);
 				}
 			} else { 
 				// right to left
-				for (int x=set.maxX;x>=set.minX;x--) { 
-
-					Block b = set.get(x, y);
-
-					if (b != null) { 
-						tmp.add(b);
-
-						if (tmp.size() == targetWork[index]) { 
-							result.add(new Set(tmp, index));
-							tmp.clear();
-							index++;
-						}
-					}	
+				for (int i=end-1;i>=start;i--) { 
+					partition.add(i);
 				}
 			}
 		}
+		
+		for (Set s : partition.getResult()) { 
+			result.add(s);
+		}
 	}
 
 	/** 
 	 * Splits the set into <code>targetWork.length</code> subsets, such that subset <code>i</code> contains 
-	 * <code>targetWork[i]</code> work. 
+	 * (approximately) <code>targetWork[i]</code> weight. 
 	 * <p>
 	 * The split is performed by traversing vertically over the source set, left to right up in a zigzag pattern.  
 	 *  
-	 * @param s the set to split. 
-	 * @param targetWork an array containing the number of block for each subset. 
+	 * @param result the Collection to store the result in. 
 	 */
 	private void zigzagVertical(Collection<Set> result) { 
 
-		int index = 0;
-		
-		ArrayList<Block> tmp = new ArrayList<Block>();
+		Partition partition = new Partition(set, targetWork, null);
 	
 		for (int x=set.minX;x<=set.maxX;x++) { 
+
+			int start = set.getColumnStart(x);
+			int end = set.getColumnEnd(x);
+			
 			if (x % 2 == 0) { 
 				// top to bottom
-				for (int y=set.minY;y<=set.maxY;y++) { 
-
-					Block b = set.get(x, y);
-
-					if (b != null) { 
-						tmp.add(b);
-
-						if (tmp.size() == targetWork[index]) { 
-							result.add(new Set(tmp, index));
-							tmp.clear();
-							index++;
-						}
-					}	
+				for (int i=start;i<end;i++) { 
+					partition.add(set.getColumnPosition(i));
 				}
 			} else { 
 				// right to left
-				for (int y=set.maxY;y>=set.minY;y--) { 
-
-					Block b = set.get(x, y);
-
-					if (b != null) { 
-						tmp.add(b);
-
-						if (tmp.size() == targetWork[index]) { 
-							result.add(new Set(tmp, index));
-							tmp.clear();
-							index++;
-						}
-					}	
+				for (int i=end-1;i>=start;i--) { 
+					partition.add(set.getColumnPosition(i));
 				}
 			}
 		}
+		
+		for (Set s : partition.getResult()) { 
+			result.add(s);
+		}
 	}
 	
 	/**
@@ -17,13 +17,15 @@ package nl.esciencecenter.esalsa.loadbalancer;
 
 import java.util.Collection;
 
+import nl.esciencecenter.esalsa.util.Block;
 import nl.esciencecenter.esalsa.util.Set;
 
 /**
  * A Split is an abstract parent class of all splitters. 
  * 
  * A splitter is capable of splitting a set of blocks into a specified number of subsets. 
- * See {@link #split(Collection)} for details.
+ * See {@link #split(Collection)} for details. Splitters balance the weight of the subsets they create (see 
+ * {@link Block#getWeight()}), which is the same as balancing the number of blocks if all blocks have a weight of 1.
  * 
  * @author Jason Maassen <J.Maassen@esciencecenter.nl>
  * @version 1.0
@@ -54,4 +56,165 @@ public abstract class Split {
 	 * @param result
 	 */
 	public abstract void split(Collection<Set> result);
+	
+	/**
+	 * Splits a given amount of <code>weight</code> into <code>subsets</code> parts.
+	 * 
+	 * @param weight the amount weight to split.
+	 * @param subsets the number of subsets to split into. 
+	 * @return an array of length <code>subsets</code> containing the weight of each subset.  
+	 */
+	protected static long [] splitWeight(long weight, int subsets) { 
+		
+		long [] result = new long[subsets];
+
+		long weightPerPart = weight / subsets;
+		long weightLeft = weight % subsets;
+		
+		for (int i=0;i<subsets;i++) {
+			result[i] = weightPerPart;
+
+			if (i < weightLeft) { 
+				result[i]++;
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Partition divides a sequence of blocks into consecutive subsets, such that the weight of each subset is as close as possible 
+	 * to its target weight. 
+	 * <p>
+	 * The blocks of a set are added one at a time by their position in the set (see {@link Set#getX(int)}), in the order in which 
+	 * a splitter traverses them. A subset is closed as soon as its 
+	 * cumulative weight reaches the cumulative target weight, or before adding a block that would overshoot the cumulative 
+	 * target weight by more than it is currently short. Each subset receives at least a minimal number of blocks, and the last 
+	 * subset receives all remaining blocks. If all blocks have a weight of 1, subset <code>i</code> receives exactly 
+	 * <code>targetWeight[i]</code> blocks.       
+	 */
+	protected static class Partition { 
+		
+		/** The cumulative target weight of each subset. */
+		private final long [] boundary;
+		
+		/** The minimal number of blocks in each subset. */
+		private final int [] minBlocks;
+		
+		/** The number of blocks that must be left for subset i and all subsets after it. */
+		private final int [] reserved;
+		
+		/** The resulting subsets. */
+		private final Set [] result;
+		
+		/** The set containing the blocks. */
+		private final Set source;
+		
+		/** The positions of the blocks of the current subset. */
+		private final int [] tmp;
+		
+		/** The number of blocks in the current subset. */
+		private int count = 0;
+		
+		/** The number of blocks that have not been added yet. */
+		private int blocksLeft;
+		
+		/** The cumulative weight of all blocks added so far. */
+		private long weight = 0;
+		
+		/** The index of the current subset. */
+		private int index = 0;
+		
+		/**
+		 * Create a new Partition. 
+		 * 
+		 * @param source the set containing the blocks, all of which will be added.
+		 * @param targetWeight the target weight of each subset. 
+		 * @param minBlocks the minimal number of blocks in each subset, or null if each subset requires at least one block.
+		 */
+		protected Partition(Set source, long [] targetWeight, int [] minBlocks) { 
+			
+			this.source = source;
+			
+			tmp = new int[source.size()];
+			
+			boundary = new long[targetWeight.length];
+			reserved = new int[targetWeight.length+1];
+			result = new Set[targetWeight.length];
+			
+			long sum = 0;
+			
+			for (int i=0;i<targetWeight.length;i++) { 
+				sum += targetWeight[i];
+				boundary[i] = sum;
+			}
+			
+			if (minBlocks == null) { 
+				minBlocks = new int[targetWeight.length];
+				
+				for (int i=0;i<minBlocks.length;i++) { 
+					minBlocks[i] = 1;
+				}
+			}
+			
+			this.minBlocks = minBlocks;
+			
+			for (int i=targetWeight.length-1;i>=0;i--) { 
+				reserved[i] = reserved[i+1] + minBlocks[i];
+			}
+			
+			blocksLeft = source.size();
+		}
+		
+		/** 
+		 * Close the current subset. 
+		 */
+		private void close() { 
+			result[index] = new Set(source, tmp, count, index);
+			count = 0;
+			index++;
+		}
+		
+		/** 
+		 * Add the next block to the partition.
+		 * 
+		 * @param position the position of the block in the source set.
+		 */
+		protected void add(int position) {
+			
+			long w = source.getWeight(position);
+			
+			if (index < result.length-1 && count >= minBlocks[index]) {
+				
+				
+				// Close the current subset before adding this block if the following subsets need all remaining blocks, 
+				// or if adding this block would overshoot the boundary further than we currently are below it.  
+				if (blocksLeft == reserved[index+1] || (weight + w - boundary[index] > boundary[index] - weight)) { 
+					close();
+				}
+			}
+			
+			tmp[count++] = position;
+			weight += w;
+			blocksLeft--;
+			
+			if (index < result.length-1 && count >= minBlocks[index] && weight >= boundary[index]) {
+				close();
+			}
+		}
+		
+		/** 
+		 * Returns the subsets after all blocks have been added. 
+		 * 
+		 * @return the subsets.
+		 */
+		protected Set [] getResult() { 
+			
+			if (count > 0) { 
+				close();
+			}
+			
+			return result;
+		}
+	}
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.tools;
+
+import java.util.ArrayList;
+
+import nl.esciencecenter.esalsa.util.Components;
+import nl.esciencecenter.esalsa.util.Neighbours;
+import nl.esciencecenter.esalsa.util.Topography;
+import nl.esciencecenter.esalsa.util.TopographyFormat;
+
+/**
+ * CleanTopography is an application that finds small ocean basins that are not connected to the rest of the ocean, such as
+ * inland lakes and isolated ocean points, and reports how many blocks would no longer be active if these basins were filled
+ * with land. Optionally, a cleaned topography in which the small basins are filled is written.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ */
+public class CleanTopography {
+
+	/** The default minimum number of points of a basin that is not filled. */
+	private static final long DEFAULT_MIN_SIZE = 100;
+
+	/**
+	 * Main entry point into application.
+	 *
+	 * @param args the command line arguments provided by the user.
+	 */
+	public static void main(String [] args) {
+
+		if (args.length < 3) {
+			System.out.println("Usage: CleanTopography topography_file topography_width topography_height [--min-size POINTS] " +
+					"[--blocks width height]... [--output FILE] [--reader READER] [--cache] [--format FORMAT] [--variable NAME]\n" +
+					"\n" +
+					"Read a topography file of topography_width x topography_height, find the ocean basins that are not connected " +
+					"to the rest of the ocean, and report how many blocks would no longer be active if the small basins were " +
+					"filled with land.\n" +
+					"\n" +
+					"  [--min-size POINTS]     basins containing less than POINTS ocean points are small (default is " +
+					DEFAULT_MIN_SIZE + ").\n" +
+					"  [--blocks width height] report the number of active blocks of width x height. May be repeated.\n" +
+					"  [--output FILE]         write a topography in which the small basins are filled to FILE.\n" +
+					"  [--reader READER]       reader used to load the topography. Valid values are STREAM, MAPPED, PARALLEL and TILED.\n" +
+					"  [--cache]               load the topography from a cache file next to the topography file, or create it.\n" +
+					"  [--format FORMAT]       format of the topography file. Valid values are AUTO, INT32BE, INT32LE, INT16BE and " +
+					"INT16LE. AUTO also recognizes NetCDF files.\n" +
+					"  [--variable NAME]       read the topography from variable NAME of a NetCDF topography file.\n");
+
+			System.exit(1);
+		}
+
+		String topographyFile = args[0];
+		int width = Utils.parseInt("topography_width", args[1], 1);
+		int height = Utils.parseInt("topography_height", args[2], 1);
+
+		long minSize = DEFAULT_MIN_SIZE;
+		ArrayList<int []> blockSizes = new ArrayList<int []>();
+		String output = null;
+		int reader = Topography.STREAM;
+		boolean cache = false;
+		TopographyFormat format = null;
+		String variable = null;
+
+		int index = 3;
+
+		while (index < args.length) {
+
+			if (args[index].equals("--min-size")) {
+				Utils.checkOptions("--min-size", 1, index, args.length);
+				minSize = Utils.parseInt("--min-size", args[index+1], 0);
+				index += 2;
+			} else if (args[index].equals("--blocks")) {
+				Utils.checkOptions("--blocks", 2, index, args.length);
+				blockSizes.add(new int [] { Utils.parseInt("block_width", args[index+1], 1),
+						Utils.parseInt("block_height", args[index+2], 1) });
+				index += 3;
+			} else if (args[index].equals("--output")) {
+				Utils.checkOptions("--output", 1, index, args.length);
+				output = args[index+1];
+				index += 2;
+			} else if (args[index].equals("--reader")) {
+				Utils.checkOptions("--reader", 1, index, args.length);
+				reader = Utils.parseReader("--reader", args[index+1]);
+				index += 2;
+			} else if (args[index].equals("--cache")) {
+				cache = true;
+				index++;
+			} else if (args[index].equals("--format")) {
+				Utils.checkOptions("--format", 1, index, args.length);
+				format = Utils.parseFormat("--format", args[index+1]);
+				index += 2;
+			} else if (args[index].equals("--variable")) {
+				Utils.checkOptions("--variable", 1, index, args.length);
+				variable = args[index+1];
+				index += 2;
+			} else {
+				Utils.fatal("Unknown option " + args[index]);
+			}
+		}
+
+		try {
+			Topography t = new Topography(width, height, topographyFile, reader, cache,
+					Utils.getFormat(topographyFile, width, height, format, variable));
+
+			Components c = new Components(t.getOceanMask(), Neighbours.CYCLIC, Neighbours.TRIPOLE);
+
+			System.out.println("# Found " + c.getCount() + " basins, " + c.getSmallCount(minSize) + " of which contain less than "
+					+ minSize + " points (" + c.getSmallPoints(minSize) + " points in total)");
+
+			for (int [] size : blockSizes) {
+
+				int before = c.getActiveBlocks(size[0], size[1], 0);
+				int after = c.getActiveBlocks(size[0], size[1], minSize);
+
+				System.out.println("# Block size " + size[0] + "x" + size[1] + ": " + before + " active blocks, " + after
+						+ " after filling small basins (" + (before - after) + " eliminated)");
+			}
+
+			if (output != null) {
+				t.fillBasins(c, minSize).write(output);
+				System.out.println("# Wrote cleaned topography to " + output);
+			}
+		} catch (Exception e) {
+			Utils.fatal("Failed to clean topography " + topographyFile + "\n", e);
+		}
+	}
+}
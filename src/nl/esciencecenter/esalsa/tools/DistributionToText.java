@@ -66,5 +66,10 @@ public class DistributionToText {
 		for (int i=0;i<d.totalBlocks;i++) { 
 			System.out.println(d.getOwner(i));
 		}
+		
+		if (d.offsetX != 0 || d.offsetY != 0) { 
+			System.out.println(d.offsetX);
+			System.out.println(d.offsetY);
+		}
 	}
 }
@@ -36,6 +36,8 @@ import nl.esciencecenter.esalsa.util.Neighbours;
 import nl.esciencecenter.esalsa.util.Set;
 import nl.esciencecenter.esalsa.util.Topography;
 import nl.esciencecenter.esalsa.util.TopographyCanvas;
+import nl.esciencecenter.esalsa.util.TopographyFormat;
+import nl.esciencecenter.esalsa.util.WorkModel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -182,7 +184,7 @@ public class DistributionViewer {
 			
 			for (int y=0;y<grid.height;y++) { 
 				for (int x=0;x<grid.width;x++) { 
-					if (grid.get(x,y) == null) { 
+					if (!grid.isActive(x, y)) { 
 						view.fillBlock("WORK", x, y, Color.BLACK);
 					} else { 
 						view.fillBlock("WORK", x, y, Color.WHITE);
@@ -266,7 +268,7 @@ public class DistributionViewer {
 		Coordinate [] tmp = s.getNeighbours(neighbours);
 
 		for (Coordinate c : tmp) { 
-			if (grid.get(c.x, c.y) != null) { 
+			if (grid.isActive(c.x, c.y)) { 
 				view.fillBlock(layer, c.x, c.y, ocean);
 			} else { 
 				view.fillBlock(layer, c.x, c.y, land);
@@ -290,10 +292,10 @@ public class DistributionViewer {
 		double h = view.getHeight();
 
 		int posX = (int) ((p.x / w) * topography.width);
-		int posY = topography.height - (int) ((p.y / h) * topography.height);
+		int posY = topography.height - 1 - (int) ((p.y / h) * topography.height);
 
-		int bx = posX / grid.blockWidth;
-		int by = posY / grid.blockHeight;
+		int bx = ((posX - grid.offsetX + topography.width) % topography.width) / grid.blockWidth;
+		int by = ((posY - grid.offsetY + topography.height) % topography.height) / grid.blockHeight;
 
 		int commBlock = -1;
 		int commCore = -1;
@@ -396,7 +398,7 @@ public class DistributionViewer {
 
 					//System.out.println("Fill neighbour " + nx + "x" + ny);
 
-					if (grid.get(nx, ny) != null) { 
+					if (grid.isActive(nx, ny)) { 
 						view.fillBlock("FILL", nx, ny, HALO_COLOR_BLOCK);
 					} else { 
 						view.fillBlock("FILL", nx, ny, LAND_COLOR_BLOCK);
@@ -423,7 +425,7 @@ public class DistributionViewer {
 
 		for (int i=0;i<s.size();i++) { 
 
-			Coordinate c = s.get(i).coordinate;
+			Coordinate c = new Coordinate(s.getX(i), s.getY(i));
 
 			if (c.x < grid.width) { 
 				addLine(out, new Line(c, c.offset(1, 0)));
@@ -614,7 +616,12 @@ public class DistributionViewer {
 					"each gridpoint.\n" + 
 					"  distribution_file   a work distribution file.\n" + 
 					"  [--contrast]        color blocks according to work for high contrast image.\n" + 					
-					"  [--image image.png] store the result in a png image instead of showing it in a GUI.\n");
+					"  [--image image.png] store the result in a png image instead of showing it in a GUI.\n" + 
+					"  [--reader READER]   reader used to load the topography. Valid values are STREAM, MAPPED, PARALLEL and TILED.\n" + 
+					"  [--cache]           load the topography from a cache file next to the topography file, or create it.\n" + 
+					"  [--format FORMAT]   format of the topography file. Valid values are AUTO, INT32BE, INT32LE, INT16BE and " + 
+					"INT16LE. AUTO also recognizes NetCDF files.\n" + 
+					"  [--variable NAME]   read the topography from variable NAME of a NetCDF topography file.\n");
 
 			System.exit(1);
 		}
@@ -625,6 +632,13 @@ public class DistributionViewer {
 		String output = null;
 		boolean highconstrast= false;
 		boolean showGUI = true;	
+		int reader = Topography.STREAM;
+		
+		boolean cache = false;
+		
+		TopographyFormat format = null;
+		
+		String variable = null;
 		
 		int i=2;
 		
@@ -644,6 +658,37 @@ public class DistributionViewer {
 				showGUI = false;
 				i += 2;
 				
+			} else if (args[i].equals("--reader")) {
+				
+				if ((i+1) >= args.length) {
+					Utils.fatal("Option \"--reader\" requires parameter!");
+				}
+					
+				reader = Utils.parseReader("--reader", args[i+1]);
+				i += 2;
+				
+			} else if (args[i].equals("--cache")) { 
+				cache = true;
+				i++;
+				
+			} else if (args[i].equals("--format")) {
+				
+				if ((i+1) >= args.length) {
+					Utils.fatal("Option \"--format\" requires parameter!");
+				}
+					
+				format = Utils.parseFormat("--format", args[i+1]);
+				i += 2;
+				
+			} else if (args[i].equals("--variable")) {
+				
+				if ((i+1) >= args.length) {
+					Utils.fatal("Option \"--variable\" requires parameter!");
+				}
+					
+				variable = args[i+1];
+				i += 2;
+				
 			} else { 
 				Utils.fatal("Unknown option " + args[i]);
 			}
@@ -651,8 +696,9 @@ public class DistributionViewer {
 		
 		try { 			
 			Distribution d = new Distribution(distributionFile);
-			Topography t = new Topography(d.topographyWidth, d.topographyHeight, topographyFile);
-			Grid g = new Grid(t, d.blockWidth, d.blockHeight);
+			Topography t = new Topography(d.topographyWidth, d.topographyHeight, topographyFile, reader, cache, 
+					Utils.getFormat(topographyFile, d.topographyWidth, d.topographyHeight, format, variable));
+			Grid g = new Grid(t, d.blockWidth, d.blockHeight, WorkModel.BLOCKS, d.offsetX, d.offsetY);
 			Neighbours n = new Neighbours(g, d.blockWidth, d.blockHeight, Neighbours.CYCLIC, Neighbours.TRIPOLE);
 	
 			DistributionViewer dv = new DistributionViewer(d, t, g, n, showGUI, highconstrast);
@@ -22,6 +22,8 @@ import nl.esciencecenter.esalsa.util.Grid;
 import nl.esciencecenter.esalsa.util.Layers;
 import nl.esciencecenter.esalsa.util.Neighbours;
 import nl.esciencecenter.esalsa.util.Topography;
+import nl.esciencecenter.esalsa.util.TopographyFormat;
+import nl.esciencecenter.esalsa.util.WorkModel;
 
 /**
  * LoadBalancing is an application that generates a block distribution for POP. 
@@ -48,6 +50,12 @@ public class LoadBalancing {
 	/** The blockHeight as set by user */
 	private static int blockHeight = -1;
 
+	/** The x offset of the block grid as set by user */
+	private static int offsetX = 0;
+	
+	/** The y offset of the block grid as set by user */
+	private static int offsetY = 0;
+
 	/** The number of clusters as set by user */
 	private static int clusters = 1;
 	
@@ -78,6 +86,21 @@ public class LoadBalancing {
 	/** Name of the split methods to use */
 	private static String splitMethod = "roughlyrect";
 	
+	/** The reader used to load the topography */
+	private static int reader = Topography.STREAM;
+	
+	/** Should a cache file be used to load the topography ? */
+	private static boolean cache = false;
+	
+	/** The format of the topography file, or null to detect it */
+	private static TopographyFormat format = null;
+	
+	/** The NetCDF variable containing the topography, or null if the topography file is not a NetCDF file */
+	private static String variable = null;
+	
+	/** The work model used to determine the weight of each block */
+	private static WorkModel workModel = WorkModel.BLOCKS;
+	
 	/**
 	 * Print the usage on the console. 
 	 */
@@ -97,12 +120,23 @@ public class LoadBalancing {
 				"\n" + 
 				"Optional arguments:\n" + 
 				"   --clusters CLUSTERS        number of clusters to calculate ditribution for (default is 1).\n" +
+				"   --offset X Y               first topography point of the block grid. Requires the boundaries to allow the offset" + 
+				" (see OptimizeOffset). Default is 0 0.\n" +
 				"   --output FILE              store the resulting distribution in FILE.\n" + 
 				"   --image FILE               store an image of the resulting distribution in FILE.\n" + 
 				"   --statistics LAYER         print statistics on the resulting distribution on layer LAYER. Valid" +
 				" value for LAYER are CORES, NODES, CLUSTERS, ALL.\n" +
 				"   --method METHOD            method used to distribute the blocks. Valid values for METHOD are" + 
 				" SIMPLE, ROUGHLYRECT, and SEARCH. Default is ROUGHLYRECT.\n" + 				
+				"   --reader READER            reader used to load the topography. Valid values for READER are" + 
+				" STREAM, MAPPED, PARALLEL and TILED. Default is STREAM.\n" + 				
+				"   --cache                    load the topography from a cache file next to the topography file, or create it.\n" + 
+				"   --format FORMAT            format of the topography file. Valid values for FORMAT are AUTO, INT32BE, INT32LE," + 
+				" INT16BE and INT16LE. Default is AUTO, which also recognizes NetCDF files.\n" + 
+				"   --variable NAME            read the topography from variable NAME of a NetCDF topography file.\n" + 		
+				"   --weight MODEL             work model used to determine the weight of each block. Valid values for MODEL are" + 
+				" BLOCKS (each block has the same weight), POINTS (number of ocean points) and LEVELS (number of ocean levels)." + 
+				" Default is BLOCKS.\n" + 
 				"   --contrast                 color blocks according to work for a high contrast image.\n" + 		
 				"   --showgui                  show a graphical interface that allows the user to explore the distribution.\n" + 		
 				"   --help                     show this help.");
@@ -116,8 +150,9 @@ public class LoadBalancing {
 	private static void run() { 
 			
 		try { 
-			Topography topography = new Topography(topographyWidth, topographyHeight, topographyFile);
-			Grid grid = new Grid(topography, blockWidth, blockHeight);
+			Topography topography = new Topography(topographyWidth, topographyHeight, topographyFile, reader, cache, 
+					Utils.getFormat(topographyFile, topographyWidth, topographyHeight, format, variable));
+			Grid grid = new Grid(topography, blockWidth, blockHeight, workModel, offsetX, offsetY);
 			
 			Neighbours neighbours = new Neighbours(grid, blockWidth, blockHeight, Neighbours.CYCLIC, Neighbours.TRIPOLE);
 			
@@ -213,6 +248,12 @@ public class LoadBalancing {
 				index += 3;
 				blockSet = true;
 				 
+			} else if (args[index].equals("--offset")) { 
+				Utils.checkOptions("--offset", 2, index, args.length);
+				offsetX = Utils.parseInt("--offset", args[index+1], 0);
+				offsetY = Utils.parseInt("--offset", args[index+2], 0);
+				index += 3;
+				
 			} else if (args[index].equals("--clusters")) { 
 				Utils.checkOptions("--clusters", 1, index, args.length);
 				clusters = Utils.parseInt("--clusters", args[index+1], 1);
@@ -261,6 +302,30 @@ public class LoadBalancing {
 				splitMethod = args[index+1];
 				index += 2;
 				
+			} else if (args[index].equals("--reader")) { 
+				Utils.checkOptions("--reader", 1, index, args.length);
+				reader = Utils.parseReader("--reader", args[index+1]);
+				index += 2;
+				
+			} else if (args[index].equals("--cache")) { 
+				cache = true;
+				index++;
+				
+			} else if (args[index].equals("--format")) { 
+				Utils.checkOptions("--format", 1, index, args.length);
+				format = Utils.parseFormat("--format", args[index+1]);
+				index += 2;
+				
+			} else if (args[index].equals("--variable")) { 
+				Utils.checkOptions("--variable", 1, index, args.length);
+				variable = args[index+1];
+				index += 2;
+				
+			} else if (args[index].equals("--weight")) { 
+				Utils.checkOptions("--weight", 1, index, args.length);
+				workModel = Utils.parseWorkModel("--weight", args[index+1]);
+				index += 2;
+				
 			} else { 
 				Utils.fatal("Unknown option: " + args[index]);
 			}		
@@ -298,6 +363,10 @@ public class LoadBalancing {
 			Utils.fatal("Block height must divide grid height equally!");
 		}
 		
+		if (offsetX >= topographyWidth || offsetY >= topographyHeight) { 
+			Utils.fatal("Offset must fall within the grid");
+		}
+		
 		if (!showGUI && outputDistribution == null && outputImage == null && statistics == null) { 
 			System.out.println("WARNING: This application will not produce any output, since none of the outputs is selected!");
 		}
@@ -1,21 +1,25 @@
 package nl.esciencecenter.esalsa.tools;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 
+import nl.esciencecenter.esalsa.util.BlockWork;
 import nl.esciencecenter.esalsa.util.Grid;
 import nl.esciencecenter.esalsa.util.Topography;
+import nl.esciencecenter.esalsa.util.TopographyFormat;
+import nl.esciencecenter.esalsa.util.TopographyStatistics;
 
 public class OptimizeBlockSize {
 
 	private final static int HALO = 2;
 	
-	private static int [] findDividers(int value) { 
+	private static int [] findDividers(int value, int min) { 
 		
 		ArrayList<Integer> result = new ArrayList<Integer>();
 		
 		for (int i=1;i<=value;i++) { 
-			if (value % i == 0) { 
+			if (value % i == 0 && value / i >= min) { 
 				result.add(value / i);
 			}
 		}
@@ -30,17 +34,115 @@ public class OptimizeBlockSize {
 	}
 	
 	private static int test(Topography t, int blockWidth, int blockHeight) throws Exception { 
-		return new Grid(t, blockWidth, blockHeight).getCount() * (blockWidth + 2*HALO) * (blockHeight + 2*HALO); 
+		return cost(new Grid(t, blockWidth, blockHeight).getCount(), blockWidth, blockHeight); 
+	}
+	
+	private static int cost(int blocks, int blockWidth, int blockHeight) { 
+		return blocks * (blockWidth + 2*HALO) * (blockHeight + 2*HALO); 
+	}
+	
+	private static int [][] testAll(Topography t, int [] blockWidths, int [] blockHeights) throws Exception { 
+		
+		int [][] results = new int[blockWidths.length][blockHeights.length];
+		
+		for (int w=0;w<blockWidths.length;w++) { 
+			for (int h=0;h<blockHeights.length;h++) { 
+				results[w][h] = test(t, blockWidths[w], blockHeights[h]);
+			}
+		}
+		
+		return results;
+	}
+	
+	private static int [][] testAllStreaming(String topographyFile, int width, int height, TopographyFormat format, 
+			int [] blockWidths, int [] blockHeights) throws Exception { 
+		
+		int [] widths = new int[blockWidths.length * blockHeights.length];
+		int [] heights = new int[widths.length];
+		
+		for (int w=0;w<blockWidths.length;w++) { 
+			for (int h=0;h<blockHeights.length;h++) { 
+				widths[w*blockHeights.length+h] = blockWidths[w];
+				heights[w*blockHeights.length+h] = blockHeights[h];
+			}
+		}
+		
+		TopographyStatistics s = new TopographyStatistics(width, height, topographyFile, format, widths, heights, false);
+		
+		int [][] results = new int[blockWidths.length][blockHeights.length];
+		
+		for (int w=0;w<blockWidths.length;w++) { 
+			for (int h=0;h<blockHeights.length;h++) { 
+				results[w][h] = cost(s.getActiveBlocks(w*blockHeights.length+h), blockWidths[w], blockHeights[h]);
+			}
+		}
+		
+		return results;
+	}
+	
+	private static int [][] testAllBlockWork(BlockWork work, int [] blockWidths, int [] blockHeights) { 
+		
+		int [][] results = new int[blockWidths.length][blockHeights.length];
+		
+		for (int w=0;w<blockWidths.length;w++) { 
+			for (int h=0;h<blockHeights.length;h++) { 
+				results[w][h] = cost(work.getActiveBlocks(blockWidths[w], blockHeights[h]), blockWidths[w], blockHeights[h]);
+			}
+		}
+		
+		return results;
+	}
+	
+	private static BlockWork getBlockWork(String blockWorkFile, String topographyFile, int width, int height, int reader, 
+			boolean cache, TopographyFormat format, int minBlockWidth, int minBlockHeight) throws Exception { 
+		
+		if (new File(blockWorkFile).exists()) { 
+			
+			BlockWork work = new BlockWork(blockWorkFile);
+			
+			if (work.width != width || work.height != height) { 
+				throw new Exception("Block work file " + blockWorkFile + " is for a topography of " + work.width + "x" 
+						+ work.height);
+			}
+			
+			System.out.println("# Read block work from " + blockWorkFile);
+			return work;
+		}
+		
+		long memory = BlockWork.getMemory(width, height, minBlockWidth, minBlockHeight);
+		
+		if (memory > Runtime.getRuntime().maxMemory() / 2) { 
+			System.out.println("# WARNING: block work requires " + (memory / (1024*1024)) + " MB, use --min-blocksize to " 
+					+ "exclude small block sizes");
+		}
+		
+		BlockWork work = new BlockWork(new Topography(width, height, topographyFile, reader, cache, format), minBlockWidth, 
+				minBlockHeight);
+		work.save(blockWorkFile);
+		
+		System.out.println("# Wrote block work to " + blockWorkFile);
+		return work;
 	}
 	
 	public static void main(String [] args) { 
 		
 		if (args.length < 3) { 
-			System.out.println("Usage: OptimizeBlockSize topography_file topography_width topography_height\n" + 
+			System.out.println("Usage: OptimizeBlockSize topography_file topography_width topography_height [--reader READER] [--cache] [--format FORMAT] [--variable NAME] [--streaming] [--block-work FILE] [--min-blocksize WIDTH HEIGHT]\n" + 
 					"\n" + 
 					"Read a topography file of topography_width x topography_height, and find the optimal block size. " + 
 					"This optimization takes into account that smaller blocks allow more land to discarded, while each block " + 
-					"also adds extra computations in the HALO.\n");
+					"also adds extra computations in the HALO.\n" + 
+					"\n" + 
+					"  [--reader READER]  reader used to load the topography. Valid values are STREAM, MAPPED, PARALLEL and TILED.\n" + 
+					"  [--cache]          load the topography from a cache file next to the topography file, or create it.\n" + 
+					"  [--format FORMAT]  format of the topography file. Valid values are AUTO, INT32BE, INT32LE, INT16BE and INT16LE.\n" + 
+					"                     AUTO also recognizes NetCDF files.\n" + 
+					"  [--variable NAME]  read the topography from variable NAME of a NetCDF topography file.\n" + 
+					"  [--streaming]      count the blocks in a single pass over the topography file without loading it.\n" + 
+					"  [--block-work FILE] read the work of the blocks of all sizes from FILE, or compute it and write it to FILE\n" + 
+					"                     if FILE does not exist. FILE must be removed when the topography changes.\n" + 
+					"  [--min-blocksize WIDTH HEIGHT] only consider blocks of at least WIDTHxHEIGHT. Excluding small blocks\n" + 
+					"                     greatly reduces the memory required by --block-work.\n");
 
 			System.exit(1);
 		}
@@ -48,12 +150,56 @@ public class OptimizeBlockSize {
 		String topographyFile = args[0];
 		int width = Utils.parseInt("topography_width", args[1], 1);
 		int height = Utils.parseInt("topography_height", args[2], 1);
+		int reader = Topography.STREAM;
+		boolean cache = false;
+		TopographyFormat format = null;
+		String variable = null;
+		boolean streaming = false;
+		String blockWorkFile = null;
+		int minBlockWidth = 1;
+		int minBlockHeight = 1;
+		
+		int index = 3;
+		
+		while (index < args.length) { 
+
+			if (args[index].equals("--reader")) {
+				Utils.checkOptions("--reader", 1, index, args.length);
+				reader = Utils.parseReader("--reader", args[index+1]);
+				index += 2;
+			} else if (args[index].equals("--cache")) {
+				cache = true;
+				index++;
+			} else if (args[index].equals("--format")) {
+				Utils.checkOptions("--format", 1, index, args.length);
+				format = Utils.parseFormat("--format", args[index+1]);
+				index += 2;
+			} else if (args[index].equals("--variable")) {
+				Utils.checkOptions("--variable", 1, index, args.length);
+				variable = args[index+1];
+				index += 2;
+			} else if (args[index].equals("--streaming")) {
+				streaming = true;
+				index++;
+			} else if (args[index].equals("--block-work")) {
+				Utils.checkOptions("--block-work", 1, index, args.length);
+				blockWorkFile = args[index+1];
+				index += 2;
+			} else if (args[index].equals("--min-blocksize")) {
+				Utils.checkOptions("--min-blocksize", 2, index, args.length);
+				minBlockWidth = Utils.parseInt("--min-blocksize", args[index+1], 1, width);
+				minBlockHeight = Utils.parseInt("--min-blocksize", args[index+2], 1, height);
+				index += 3;
+			} else { 
+				Utils.fatal("Unknown option " + args[index]);
+			}
+		}
 	
 		try { 			
-			Topography t = new Topography(width, height, topographyFile);
-	
-			int [] blockWidths = findDividers(width);
-			int [] blockHeights = findDividers(height);
+			format = Utils.getFormat(topographyFile, width, height, format, variable);
+			
+			int [] blockWidths = findDividers(width, minBlockWidth);
+			int [] blockHeights = findDividers(height, minBlockHeight);
 			
 			System.out.println("# Possible block widths " + Arrays.toString(blockWidths));
 			System.out.println("# Possible block heights " + Arrays.toString(blockHeights));
@@ -62,9 +208,22 @@ public class OptimizeBlockSize {
 			int bestW = 0;
 			int bestH = 0;
 			
+			// Remember the result of each test, so we do not need to repeat them when searching for solutions close to the best. 
+			int [][] results;
+			
+			if (blockWorkFile != null) { 
+				results = testAllBlockWork(getBlockWork(blockWorkFile, topographyFile, width, height, reader, cache, format, 
+						minBlockWidth, minBlockHeight), 
+						blockWidths, blockHeights);
+			} else if (streaming) { 
+				results = testAllStreaming(topographyFile, width, height, format, blockWidths, blockHeights);
+			} else { 
+				results = testAll(new Topography(width, height, topographyFile, reader, cache, format), blockWidths, blockHeights);
+			}
+			
 			for (int w=0;w<blockWidths.length;w++) { 
 				for (int h=0;h<blockHeights.length;h++) { 
-					int tmp = test(t, blockWidths[w], blockHeights[h]);
+					int tmp = results[w][h];
 					
 //					System.out.println(blockWidths[w] + " " + blockHeights[h] + " " + tmp);
 					
@@ -90,7 +249,7 @@ public class OptimizeBlockSize {
 			
 			for (int w=0;w<blockWidths.length;w++) { 
 				for (int h=0;h<blockHeights.length;h++) { 
-					int tmp = test(t, blockWidths[w], blockHeights[h]);
+					int tmp = results[w][h];
 
 					for (int i=0;i<max.length;i++) { 
 						if (tmp < max[i]) { 
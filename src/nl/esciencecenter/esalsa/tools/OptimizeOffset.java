@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.tools;
+
+import nl.esciencecenter.esalsa.util.BlockOffsets;
+import nl.esciencecenter.esalsa.util.Neighbours;
+import nl.esciencecenter.esalsa.util.Topography;
+import nl.esciencecenter.esalsa.util.TopographyFormat;
+
+/**
+ * OptimizeOffset is an application that reports the number of active blocks for each offset of the block grid allowed by the
+ * boundaries, and selects the offset that results in the smallest number of active blocks. The selected offset can be passed
+ * to LoadBalancing using the --offset option.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ * @see BlockOffsets
+ */
+public class OptimizeOffset {
+
+	/**
+	 * Main entry point into application.
+	 *
+	 * @param args the command line arguments provided by the user.
+	 */
+	public static void main(String [] args) {
+
+		if (args.length < 5) {
+			System.out.println("Usage: OptimizeOffset topography_file topography_width topography_height block_width " +
+					"block_height [--boundary-w BOUNDARY] [--boundary-v BOUNDARY] [--reader READER] [--cache] [--format FORMAT] " +
+					"[--variable NAME]\n" +
+					"\n" +
+					"Read a topography file of topography_width x topography_height and report the number of active blocks of " +
+					"block_width x block_height for each offset of the block grid allowed by the boundaries.\n" +
+					"\n" +
+					"  [--boundary-w BOUNDARY] boundary in the W direction. Valid values are CYCLIC and CLOSED (default is CYCLIC).\n" +
+					"  [--boundary-v BOUNDARY] boundary in the V direction. Valid values are TRIPOLE, CYCLIC and CLOSED (default is " +
+					"TRIPOLE).\n" +
+					"  [--reader READER]       reader used to load the topography. Valid values are STREAM, MAPPED, PARALLEL and TILED.\n" +
+					"  [--cache]               load the topography from a cache file next to the topography file, or create it.\n" +
+					"  [--format FORMAT]       format of the topography file. Valid values are AUTO, INT32BE, INT32LE, INT16BE and " +
+					"INT16LE. AUTO also recognizes NetCDF files.\n" +
+					"  [--variable NAME]       read the topography from variable NAME of a NetCDF topography file.\n");
+
+			System.exit(1);
+		}
+
+		String topographyFile = args[0];
+		int width = Utils.parseInt("topography_width", args[1], 1);
+		int height = Utils.parseInt("topography_height", args[2], 1);
+		int blockWidth = Utils.parseInt("block_width", args[3], 1);
+		int blockHeight = Utils.parseInt("block_height", args[4], 1);
+
+		int boundaryW = Neighbours.CYCLIC;
+		int boundaryV = Neighbours.TRIPOLE;
+		int reader = Topography.STREAM;
+		boolean cache = false;
+		TopographyFormat format = null;
+		String variable = null;
+
+		int index = 5;
+
+		while (index < args.length) {
+
+			if (args[index].equals("--boundary-w")) {
+				Utils.checkOptions("--boundary-w", 1, index, args.length);
+				boundaryW = Utils.parseBoundary("--boundary-w", args[index+1]);
+
+				if (boundaryW == Neighbours.TRIPOLE) {
+					Utils.fatal("Argument for option --boundary-w must be CYCLIC or CLOSED");
+				}
+
+				index += 2;
+			} else if (args[index].equals("--boundary-v")) {
+				Utils.checkOptions("--boundary-v", 1, index, args.length);
+				boundaryV = Utils.parseBoundary("--boundary-v", args[index+1]);
+				index += 2;
+			} else if (args[index].equals("--reader")) {
+				Utils.checkOptions("--reader", 1, index, args.length);
+				reader = Utils.parseReader("--reader", args[index+1]);
+				index += 2;
+			} else if (args[index].equals("--cache")) {
+				cache = true;
+				index++;
+			} else if (args[index].equals("--format")) {
+				Utils.checkOptions("--format", 1, index, args.length);
+				format = Utils.parseFormat("--format", args[index+1]);
+				index += 2;
+			} else if (args[index].equals("--variable")) {
+				Utils.checkOptions("--variable", 1, index, args.length);
+				variable = args[index+1];
+				index += 2;
+			} else {
+				Utils.fatal("Unknown option " + args[index]);
+			}
+		}
+
+		if (width % blockWidth != 0 || height % blockHeight != 0) {
+			Utils.fatal("Block size must divide topography equally!");
+		}
+
+		try {
+			Topography t = new Topography(width, height, topographyFile, reader, cache,
+					Utils.getFormat(topographyFile, width, height, format, variable));
+
+			BlockOffsets offsets = new BlockOffsets(t.getOceanMask(), blockWidth, blockHeight, boundaryW, boundaryV);
+
+			System.out.println("# offset_x offset_y active_blocks");
+
+			for (int y=0;y<blockHeight;y++) {
+				for (int x=0;x<blockWidth;x++) {
+					if (offsets.isAllowed(x, y)) {
+						System.out.println(x + " " + y + " " + offsets.getActiveBlocks(x, y));
+					}
+				}
+			}
+
+			int [] best = offsets.getBestOffset();
+			int before = offsets.getActiveBlocks(0, 0);
+			int after = offsets.getActiveBlocks(best[0], best[1]);
+
+			System.out.println("# Best offset " + best[0] + " " + best[1] + ": " + after + " active blocks, " + before
+					+ " at offset 0 0 (" + (before - after) + " eliminated)");
+		} catch (Exception e) {
+			Utils.fatal("Failed to optimize offset for " + topographyFile + "\n", e);
+		}
+	}
+}
@@ -16,11 +16,15 @@
 
 package nl.esciencecenter.esalsa.tools;
 
+import java.util.ArrayList;
+
 import nl.esciencecenter.esalsa.util.Distribution;
 import nl.esciencecenter.esalsa.util.Grid;
 import nl.esciencecenter.esalsa.util.Neighbours;
 import nl.esciencecenter.esalsa.util.Statistics;
 import nl.esciencecenter.esalsa.util.Topography;
+import nl.esciencecenter.esalsa.util.TopographyFormat;
+import nl.esciencecenter.esalsa.util.WorkModel;
 
 /**
  * PrintStatistics is an application that prints information about a given POP distribution.
@@ -39,7 +43,7 @@ public class PrintStatistics {
 	public static void main(String [] args) { 
 
 		if (args.length < 3) { 			
-			System.out.println("Usage: PrintStatistics topography_file distribution_file statistics_name\n" + 
+			System.out.println("Usage: PrintStatistics topography_file distribution_file statistics_name [--reader READER] [--cache] [--format FORMAT] [--variable NAME] [--edit x y width height value]... [--output FILE]\n" + 
 					"\n" + 
 					"Read a topography file and work distribution file and print statistics on the work distribution and " + 
 					"communication per cluster, node or core.\n" + 
@@ -47,20 +51,98 @@ public class PrintStatistics {
 					"  topography_file    a topography file that contains the index of the deepest ocean level at " + 
 					"each gridpoint.\n" + 
 					"  distribution_file  a work distribution file.\n" + 
-					"  statistics_name    name of the statistics to print. Valid values are CLUSTER, NODE, CORE, ALL.");
+					"  statistics_name    name of the statistics to print. Valid values are CLUSTER, NODE, CORE, ALL.\n" + 
+					"  [--reader READER]  reader used to load the topography. Valid values are STREAM, MAPPED, PARALLEL and TILED.\n" + 
+					"  [--cache]          load the topography from a cache file next to the topography file, or create it.\n" + 
+					"  [--format FORMAT]  format of the topography file. Valid values are AUTO, INT32BE, INT32LE, INT16BE and INT16LE.\n" + 
+					"                     AUTO also recognizes NetCDF files.\n" + 
+					"  [--variable NAME]  read the topography from variable NAME of a NetCDF topography file.\n" + 
+					"  [--edit x y width height value]\n" + 
+					"                     set the topography points in the rectangle to value (0 is land), patch the distribution\n" + 
+					"                     and print the statistics again. May be repeated. Cannot be combined with the TILED reader,\n" + 
+					"                     which is read only.\n" + 
+					"  [--output FILE]    write the patched distribution to FILE.");
 			
 			System.exit(1);
 		}
 		
+		int reader = Topography.STREAM;
+		boolean cache = false;
+		TopographyFormat format = null;
+		String variable = null;
+		ArrayList<int []> edits = new ArrayList<int []>();
+		String output = null;
+		
+		int i=3;
+		
+		while (i<args.length) { 
+
+			if (args[i].equals("--reader")) {
+				Utils.checkOptions("--reader", 1, i, args.length);
+				reader = Utils.parseReader("--reader", args[i+1]);
+				i += 2;
+			} else if (args[i].equals("--cache")) {
+				cache = true;
+				i++;
+			} else if (args[i].equals("--format")) {
+				Utils.checkOptions("--format", 1, i, args.length);
+				format = Utils.parseFormat("--format", args[i+1]);
+				i += 2;
+			} else if (args[i].equals("--variable")) {
+				Utils.checkOptions("--variable", 1, i, args.length);
+				variable = args[i+1];
+				i += 2;
+			} else if (args[i].equals("--edit")) {
+				Utils.checkOptions("--edit", 5, i, args.length);
+				edits.add(new int [] { Utils.parseInt("x", args[i+1], 0), Utils.parseInt("y", args[i+2], 0), 
+						Utils.parseInt("width", args[i+3], 1), Utils.parseInt("height", args[i+4], 1), 
+						Utils.parseInt("value", args[i+5], 0) });
+				i += 6;
+			} else if (args[i].equals("--output")) {
+				Utils.checkOptions("--output", 1, i, args.length);
+				output = args[i+1];
+				i += 2;
+			} else { 
+				Utils.fatal("Unknown option " + args[i]);
+			}
+		}
+		
+		if (edits.size() > 0 && reader == Topography.TILED) { 
+			Utils.fatal("Option --edit cannot be used with the TILED reader, since it is read only");
+		}
+		
 		try { 			
 			Distribution d = new Distribution(args[1]);			
-			Topography t = new Topography(d.topographyWidth, d.topographyHeight, args[0]);
-			Grid g = new Grid(t, d.blockWidth, d.blockHeight);
+			Topography t = new Topography(d.topographyWidth, d.topographyHeight, args[0], reader, cache, 
+					Utils.getFormat(args[0], d.topographyWidth, d.topographyHeight, format, variable));
+			Grid g = new Grid(t, d.blockWidth, d.blockHeight, WorkModel.BLOCKS, d.offsetX, d.offsetY);
 			Neighbours n = new Neighbours(g, d.blockWidth, d.blockHeight, Neighbours.CYCLIC, Neighbours.TRIPOLE);
 		
-			Statistics s = new Statistics(d.toLayers(), n);
+			Statistics s = new Statistics(d, n);
 			s.printStatistics(args[2], System.out);
 			
+			// Only the sets affected by an edit are recomputed, the statistics of all others are reused.
+			for (int [] edit : edits) { 
+				
+				t.fill(edit[0], edit[1], edit[2], edit[3], edit[4]);
+				
+				int [] changed = g.update(t, WorkModel.BLOCKS, edit[0], edit[1], edit[2], edit[3]);
+				
+				d = d.update(g, n, changed);
+				s = s.update(d, changed);
+				
+				System.out.println("# Edit " + edit[0] + " " + edit[1] + " " + edit[2] + " " + edit[3] + " changed " 
+						+ changed.length + " blocks");
+				
+				s.printStatistics(args[2], System.out);
+			}
+			
+			t.clearDirtyRectangles();
+			
+			if (output != null) { 
+				d.write(output);
+			}
+			
 		} catch (Exception e) {
 			Utils.fatal("Failed to print statistics!", e);
 		}
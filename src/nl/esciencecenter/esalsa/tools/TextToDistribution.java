@@ -77,10 +77,22 @@ public class TextToDistribution {
 				distribution[i] = Integer.parseInt(r.readLine().trim());
 			}
 
+			// The grid offset is optional. 
+			int offsetX = 0;
+			int offsetY = 0;
+			
+			String line = r.readLine();
+			
+			if (line != null && line.trim().length() > 0) { 
+				offsetX = Integer.parseInt(line.trim());
+				offsetY = Integer.parseInt(r.readLine().trim());
+			}
+			
 			r.close();
 			
 			d = new Distribution(topographyWidth, topographyHeight, blockWidth, blockHeight, 
-					clusters, nodesPerCluster, coresPerNode, minBlocksPerCore, maxBlocksPerCore, totalBlocks, distribution);
+					clusters, nodesPerCluster, coresPerNode, minBlocksPerCore, maxBlocksPerCore, totalBlocks, distribution, 
+					offsetX, offsetY);
 
 		} catch (IOException e) {
 			Utils.fatal("Failed to read input file: " + args[0] + "\n", e);					
@@ -24,6 +24,7 @@ import nl.esciencecenter.esalsa.util.Grid;
 import nl.esciencecenter.esalsa.util.Line;
 import nl.esciencecenter.esalsa.util.Topography;
 import nl.esciencecenter.esalsa.util.TopographyCanvas;
+import nl.esciencecenter.esalsa.util.TopographyFormat;
 
 /**
  * TopographyViewer is an application that displays a POP topography and block distribution.
@@ -56,7 +57,12 @@ public class TopographyViewer {
 					"  [--blocks width height] divide the topology into blocks of width c height.\n" + 
 			
 					"  [--contrast]            color blocks according to work for high contrast image.\n" + 					
-					"  [--image image.png]     store the result in a png image instead of showing it in a GUI.\n");
+					"  [--image image.png]     store the result in a png image instead of showing it in a GUI.\n" + 
+					"  [--reader READER]       reader used to load the topography. Valid values are STREAM, MAPPED, PARALLEL and TILED.\n" + 
+					"  [--cache]               load the topography from a cache file next to the topography file, or create it.\n" + 
+					"  [--format FORMAT]       format of the topography file. Valid values are AUTO, INT32BE, INT32LE, INT16BE and " + 
+					"INT16LE. AUTO also recognizes NetCDF files.\n" + 
+					"  [--variable NAME]       read the topography from variable NAME of a NetCDF topography file.\n");
 
 			System.exit(1);
 		}
@@ -71,6 +77,14 @@ public class TopographyViewer {
 		boolean highcontrast = false;
 		
 		String output = null;
+		
+		int reader = Topography.STREAM;
+		
+		boolean cache = false;
+		
+		TopographyFormat format = null;
+		
+		String variable = null;
 
 		int i=3;
 		
@@ -99,13 +113,45 @@ public class TopographyViewer {
 				output = args[i+1];
 				i += 2;
 				
+			} else if (args[i].equals("--reader")) {
+				
+				if ((i+1) >= args.length) {
+					Utils.fatal("Option \"--reader\" requires parameter!");
+				}
+					
+				reader = Utils.parseReader("--reader", args[i+1]);
+				i += 2;
+				
+			} else if (args[i].equals("--cache")) { 
+				cache = true;
+				i++;
+				
+			} else if (args[i].equals("--format")) {
+				
+				if ((i+1) >= args.length) {
+					Utils.fatal("Option \"--format\" requires parameter!");
+				}
+					
+				format = Utils.parseFormat("--format", args[i+1]);
+				i += 2;
+				
+			} else if (args[i].equals("--variable")) {
+				
+				if ((i+1) >= args.length) {
+					Utils.fatal("Option \"--variable\" requires parameter!");
+				}
+					
+				variable = args[i+1];
+				i += 2;
+				
 			} else { 
 				Utils.fatal("Unknown option " + args[i]);
 			}
 		}
 		
 		try { 			
-			Topography t = new Topography(width, height, topographyFile);
+			Topography t = new Topography(width, height, topographyFile, reader, cache, 
+					Utils.getFormat(topographyFile, width, height, format, variable));
 			Grid g = new Grid(t, blockWidth, blockHeight);
 			
 			Color c = new Color(128, 128, 128, 128);
@@ -15,6 +15,12 @@
  */
 package nl.esciencecenter.esalsa.tools;
 
+import nl.esciencecenter.esalsa.util.Neighbours;
+import nl.esciencecenter.esalsa.util.NetCDFFile;
+import nl.esciencecenter.esalsa.util.Topography;
+import nl.esciencecenter.esalsa.util.TopographyFormat;
+import nl.esciencecenter.esalsa.util.WorkModel;
+
 /**
  * Utils is a container class for various static methods used in the applications in this package. 
  *  
@@ -120,4 +126,119 @@ public class Utils {
 		
 		return result;		
 	}	
-}
+
+	/** 
+	 * Parse a string containing the name of a topography reader. Valid values are STREAM, MAPPED, PARALLEL and TILED (case 
+	 * insensitive).   
+	 * If the string does not contain a valid reader name, an error is printed and the application is terminated. 
+	 * 
+	 * @param option the current command line option. 
+	 * @param toParse the string to parse
+	 * @return the reader constant as defined in {@link Topography}. 
+	 */
+	public static int parseReader(String option, String toParse) { 
+		
+		if (toParse.equalsIgnoreCase("stream")) { 
+			return Topography.STREAM;
+		} else if (toParse.equalsIgnoreCase("mapped")) { 
+			return Topography.MAPPED;
+		} else if (toParse.equalsIgnoreCase("parallel")) { 
+			return Topography.PARALLEL;
+		} else if (toParse.equalsIgnoreCase("tiled")) { 
+			return Topography.TILED;
+		}
+		
+		fatal("Argument for option " + option + " must be STREAM, MAPPED, PARALLEL or TILED (got " + toParse + ")");
+		return -1;
+	}
+	
+	/** 
+	 * Parse a string containing the name of a work model. Valid values are BLOCKS, POINTS and LEVELS (case insensitive).   
+	 * If the string does not contain a valid work model name, an error is printed and the application is terminated. 
+	 * 
+	 * @param option the current command line option. 
+	 * @param toParse the string to parse
+	 * @return the work model as defined in {@link WorkModel}. 
+	 */
+	public static WorkModel parseWorkModel(String option, String toParse) { 
+		
+		if (toParse.equalsIgnoreCase("blocks")) { 
+			return WorkModel.BLOCKS;
+		} else if (toParse.equalsIgnoreCase("points")) { 
+			return WorkModel.POINTS;
+		} else if (toParse.equalsIgnoreCase("levels")) { 
+			return WorkModel.LEVELS;
+		}
+		
+		fatal("Argument for option " + option + " must be BLOCKS, POINTS or LEVELS (got " + toParse + ")");
+		return null;
+	}
+	
+	/** 
+	 * Parse a string containing the name of a boundary. Valid values are TRIPOLE, CYCLIC and CLOSED (case insensitive).   
+	 * If the string does not contain a valid boundary name, an error is printed and the application is terminated. 
+	 * 
+	 * @param option the current command line option. 
+	 * @param toParse the string to parse
+	 * @return the boundary as defined in {@link Neighbours}. 
+	 */
+	public static int parseBoundary(String option, String toParse) { 
+		
+		if (toParse.equalsIgnoreCase("tripole")) { 
+			return Neighbours.TRIPOLE;
+		} else if (toParse.equalsIgnoreCase("cyclic")) { 
+			return Neighbours.CYCLIC;
+		} else if (toParse.equalsIgnoreCase("closed")) { 
+			return Neighbours.CLOSED;
+		}
+		
+		fatal("Argument for option " + option + " must be TRIPOLE, CYCLIC or CLOSED (got " + toParse + ")");
+		return -1;
+	}
+	
+	/** 
+	 * Parse a string containing the name of a topography file format. Valid values are AUTO, INT32BE, INT32LE, INT16BE and 
+	 * INT16LE (case insensitive).   
+	 * If the string does not contain a valid format name, an error is printed and the application is terminated. 
+	 * 
+	 * @param option the current command line option. 
+	 * @param toParse the string to parse
+	 * @return the format as defined in {@link TopographyFormat}, or null for AUTO. 
+	 */
+	public static TopographyFormat parseFormat(String option, String toParse) { 
+		
+		if (toParse.equalsIgnoreCase("auto")) { 
+			return null;
+		}
+		
+		TopographyFormat result = TopographyFormat.get(toParse);
+		
+		if (result == null) { 
+			fatal("Argument for option " + option + " must be AUTO, INT32BE, INT32LE, INT16BE or INT16LE (got " + toParse + ")");
+		}
+		
+		return result;
+	}
+	
+	/** 
+	 * Select the format used to read a topography file. If a NetCDF variable name is given, the topography file is read as a 
+	 * NetCDF file and the format of the variable is returned. Otherwise, the format given is returned. 
+	 * 
+	 * @param topographyFile the topography file.
+	 * @param width the width of the topography.
+	 * @param height the height of the topography.
+	 * @param format the format selected on the command line, or null to detect it. 
+	 * @param variable the name of the NetCDF variable selected on the command line, or null.
+	 * @return the format used to read the topography file, or null to detect it.
+	 * @throws Exception if the NetCDF file does not contain a suitable variable.
+	 */
+	public static TopographyFormat getFormat(String topographyFile, int width, int height, TopographyFormat format, 
+			String variable) throws Exception { 
+		
+		if (variable == null) { 
+			return format;
+		}
+		
+		return NetCDFFile.getFormat(topographyFile, variable, width, height);
+	}
+}
\ No newline at end of file
@@ -19,8 +19,8 @@ package nl.esciencecenter.esalsa.util;
 /**
  * Block represents a block in a POP work distribution. 
  * 
- * It consists of an immutable <code>Coordinate</code>, and an <code>int</code> mark that can be used to label the block with an 
- * arbitrary integer value.   
+ * It consists of an immutable <code>Coordinate</code>, an immutable weight describing the relative amount of work in the block, 
+ * and an <code>int</code> mark that can be used to label the block with an arbitrary integer value.   
  * 
  * @author Jason Maassen <J.Maassen@esciencecenter.nl>
  * @version 1.0
@@ -32,16 +32,45 @@ public class Block {
 	/** The Coordinate of the block. */
 	public final Coordinate coordinate;
 	
+	/** The weight of the block, that is, the relative amount of work it represents. */
+	private final int weight;
+	
 	/** Mark use to label the block */
 	private int mark = 0;
 
 	/**
-	 * Constructor to create a new Block. 
+	 * Constructor to create a new Block with a weight of 1. 
 	 * 
 	 * @param coordinate coordinate of the block.
 	 */
 	public Block(Coordinate coordinate) {
+		this(coordinate, 1);
+	}
+	
+	/**
+	 * Constructor to create a new Block with the given weight. 
+	 * 
+	 * @param coordinate coordinate of the block.
+	 * @param weight the weight of the block. Must be at least 1.
+	 */
+	public Block(Coordinate coordinate, int weight) {
+		
+		if (weight < 1) { 
+			throw new IllegalArgumentException("Illegal block weight " + weight);
+		}
+		
 		this.coordinate = coordinate;
+		this.weight = weight;
+	}
+	
+	/** 
+	 * Retrieve the weight of the block, that is, the relative amount of work it represents. 
+	 * 
+	 * @return the weight of the block.
+	 * @see WorkModel
+	 */
+	public int getWeight() {
+		return weight;
 	}
 	
 	@Override
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.esciencecenter.esalsa.util;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * BlockLayer is a layer containing one set for each block of a set.
+ *
+ * The single block sets are not stored, but created on demand from the blocks of the set, so a layer of a grid with
+ * millions of blocks does not hold millions of Set objects. The index of each single block set is the location of its
+ * block in the grid, that is, y*gridWidth + x. The sets are returned in the order of the blocks in the set.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ * @see Layer
+ * @see Set
+ */
+public class BlockLayer extends Layer {
+
+	/** The set containing all blocks of this layer. */
+	private final Set blocks;
+
+	/** The width of the grid in blocks. */
+	private final int gridWidth;
+
+	/**
+	 * Creates a layer containing one set for each block of a set.
+	 *
+	 * @param name the name for the layer.
+	 * @param blocks the set containing the blocks.
+	 * @param gridWidth the width of the grid in blocks, used to compute the index of each set.
+	 */
+	public BlockLayer(String name, Set blocks, int gridWidth) {
+		super(name);
+		this.blocks = blocks;
+		this.gridWidth = gridWidth;
+	}
+
+	/**
+	 * Not supported, since the sets of a BlockLayer are defined by its blocks.
+	 *
+	 * @param collection ignored.
+	 * @throws UnsupportedOperationException always.
+	 */
+	@Override
+	public void addAll(Collection<Set> collection) {
+		throw new UnsupportedOperationException("Cannot add sets to layer " + name);
+	}
+
+	/**
+	 * Not supported, since the sets of a BlockLayer are defined by its blocks.
+	 *
+	 * @param set ignored.
+	 * @throws UnsupportedOperationException always.
+	 */
+	@Override
+	public void add(Set set) {
+		throw new UnsupportedOperationException("Cannot add sets to layer " + name);
+	}
+
+	/**
+	 * Retrieves the Set at a given index. A new Set object is created on each call.
+	 *
+	 * @param index the index of the set to retrieve. Must be between 0 (inclusive) and {@link #size()} (exclusive).
+	 * @return the set at the given index.
+	 */
+	@Override
+	public Set get(int index) {
+
+		if (index < 0 || index >= blocks.size()) {
+			throw new NoSuchElementException("Invalid index: " + index);
+		}
+
+		int x = blocks.getX(index);
+		int y = blocks.getY(index);
+
+		return new Set(x, y, blocks.getWeight(index), y*gridWidth + x);
+	}
+
+	/**
+	 * Retrieves the Set in this layer that contains the Block with Coordinate (x,y).
+	 *
+	 * @param x the x location of the block.
+	 * @param y the y location of the block.
+	 * @return the set that contains the specified block, or null if no set contained the block.
+	 */
+	@Override
+	public Set locate(int x, int y) {
+
+		int position = blocks.getPosition(x, y);
+
+		if (position < 0) {
+			return null;
+		}
+
+		return get(position);
+	}
+
+	@Override
+	public int size() {
+		return blocks.size();
+	}
+
+	@Override
+	public Iterator<Set> iterator() {
+
+		return new Iterator<Set>() {
+
+			/** The index of the next set to return. */
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < blocks.size();
+			}
+
+			@Override
+			public Set next() {
+
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				return get(index++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Cannot remove sets from layer " + name);
+			}
+		};
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BlockOffsets determines the number of active blocks for each possible origin of the block grid.
+ *
+ * When a boundary is {@link Neighbours#CYCLIC}, the position of the first block column (or row) is arbitrary. Shifting the
+ * origin of the block grid may turn blocks that contain only a few ocean points into land-only blocks, thereby reducing the
+ * number of active blocks. Offsets are only evaluated in the range 0 to blockWidth-1 (or blockHeight-1), as larger offsets
+ * result in the same blocks.
+ *
+ * If the boundary in the W direction is {@link Neighbours#CLOSED}, only x offset 0 is allowed. If the boundary in the V
+ * direction is {@link Neighbours#TRIPOLE}, the fold of the top row must map blocks onto blocks, so only x offsets for which
+ * 2*offset is a multiple of the block width are allowed. Y offsets are only allowed if the boundary in the V direction is
+ * CYCLIC.
+ *
+ * The number of ocean points in each block is computed in constant time using a summed-area table of the ocean mask, so all
+ * offsets are evaluated using O(width*height) operations in total.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ * @see Grid#Grid(Topography, int, int, WorkModel, int, int)
+ */
+public class BlockOffsets {
+
+	/** A logger used for debugging */
+	private static final Logger logger = LoggerFactory.getLogger(BlockOffsets.class);
+
+	/** The width of a block in topography points. */
+	public final int blockWidth;
+
+	/** The height of a block in topography points. */
+	public final int blockHeight;
+
+	/** The width of the topography. */
+	private final int width;
+
+	/** The height of the topography. */
+	private final int height;
+
+	/** The number of active blocks for offset (x, y), stored at y*blockWidth + x, or -1 if the offset is not allowed. */
+	private final int [] active;
+
+	/**
+	 * Determine the number of active blocks for all allowed offsets of the block grid.
+	 *
+	 * @param mask the ocean mask of the topography.
+	 * @param blockWidth the width of a block in topography points.
+	 * @param blockHeight the height of a block in topography points.
+	 * @param boundaryW the boundary in the W direction (CYCLIC or CLOSED, as defined in {@link Neighbours}).
+	 * @param boundaryV the boundary in the V direction (TRIPOLE, CYCLIC or CLOSED, as defined in {@link Neighbours}).
+	 * @throws Exception if the block size does not divide the topography equally, or the offsets could not be evaluated.
+	 */
+	public BlockOffsets(OceanMask mask, final int blockWidth, final int blockHeight, int boundaryW, int boundaryV)
+			throws Exception {
+
+		if (!(boundaryW == Neighbours.CYCLIC || boundaryW == Neighbours.CLOSED)) {
+			throw new IllegalArgumentException("Illegal boundaryW " + boundaryW);
+		}
+
+		if (boundaryV < 0 || boundaryV > Neighbours.CLOSED) {
+			throw new IllegalArgumentException("Illegal boundaryV " + boundaryV);
+		}
+
+		if (blockWidth <= 0 || mask.width % blockWidth != 0) {
+			throw new Exception("Illegal blockWidth " + blockWidth);
+		}
+
+		if (blockHeight <= 0 || mask.height % blockHeight != 0) {
+			throw new Exception("Illegal blockHeight " + blockHeight);
+		}
+
+		if ((long) (mask.width + 1) * (long) (mask.height + 1) > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Ocean mask of " + mask.width + "x" + mask.height + " is too large");
+		}
+
+		this.blockWidth = blockWidth;
+		this.blockHeight = blockHeight;
+		this.width = mask.width;
+		this.height = mask.height;
+
+		final int [] table = getSummedAreaTable(mask);
+
+		active = new int[blockWidth * blockHeight];
+
+		ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+		for (int y=0;y<blockHeight;y++) {
+			for (int x=0;x<blockWidth;x++) {
+
+				boolean allowed = (x == 0 || (boundaryW == Neighbours.CYCLIC
+						&& (boundaryV != Neighbours.TRIPOLE || (2 * x) % blockWidth == 0)))
+						&& (y == 0 || boundaryV == Neighbours.CYCLIC);
+
+				if (!allowed) {
+					active[y*blockWidth + x] = -1;
+					continue;
+				}
+
+				final int offsetX = x;
+				final int offsetY = y;
+
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						active[offsetY*blockWidth + offsetX] = countActiveBlocks(table, offsetX, offsetY);
+						return null;
+					}
+				});
+			}
+		}
+
+		Parallel.invokeAll(tasks);
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("Evaluated " + tasks.size() + " offsets of " + blockWidth + "x" + blockHeight + " blocks");
+		}
+	}
+
+	/**
+	 * Create a summed-area table of the ocean mask. Entry y*(width+1) + x contains the number of ocean points in the
+	 * rectangle (0,0) (inclusive) to (x,y) (exclusive).
+	 *
+	 * @param mask the ocean mask.
+	 * @return the summed-area table.
+	 */
+	private int [] getSummedAreaTable(OceanMask mask) {
+
+		int stride = width + 1;
+
+		int [] table = new int[stride * (height + 1)];
+
+		for (int y=0;y<height;y++) {
+
+			int row = 0;
+
+			for (int x=0;x<width;x++) {
+
+				if (mask.isOcean(x, y)) {
+					row++;
+				}
+
+				table[(y+1)*stride + x + 1] = table[y*stride + x + 1] + row;
+			}
+		}
+
+		return table;
+	}
+
+	/**
+	 * Returns the number of ocean points in a rectangle that does not wrap around the topography.
+	 *
+	 * @param table the summed-area table.
+	 * @param x the x position of the rectangle.
+	 * @param y the y position of the rectangle.
+	 * @param w the width of the rectangle.
+	 * @param h the height of the rectangle.
+	 * @return the number of ocean points in the rectangle.
+	 */
+	private int getOceanPoints(int [] table, int x, int y, int w, int h) {
+
+		int stride = width + 1;
+
+		return table[(y+h)*stride + x + w] - table[y*stride + x + w] - table[(y+h)*stride + x] + table[y*stride + x];
+	}
+
+	/**
+	 * Count the active blocks of a block grid starting at a given offset. Blocks that wrap around the topography are split into
+	 * (at most four) rectangles.
+	 *
+	 * @param table the summed-area table.
+	 * @param offsetX the x offset of the block grid.
+	 * @param offsetY the y offset of the block grid.
+	 * @return the number of active blocks.
+	 */
+	private int countActiveBlocks(int [] table, int offsetX, int offsetY) {
+
+		int result = 0;
+
+		for (int py=offsetY;py<height+offsetY;py+=blockHeight) {
+
+			int y = py % height;
+			int h1 = Math.min(blockHeight, height - y);
+
+			for (int px=offsetX;px<width+offsetX;px+=blockWidth) {
+
+				int x = px % width;
+				int w1 = Math.min(blockWidth, width - x);
+
+				int points = getOceanPoints(table, x, y, w1, h1);
+
+				if (w1 < blockWidth) {
+					points += getOceanPoints(table, 0, y, blockWidth - w1, h1);
+				}
+
+				if (h1 < blockHeight) {
+					points += getOceanPoints(table, x, 0, w1, blockHeight - h1);
+
+					if (w1 < blockWidth) {
+						points += getOceanPoints(table, 0, 0, blockWidth - w1, blockHeight - h1);
+					}
+				}
+
+				if (points > 0) {
+					result++;
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Checks if the block grid may start at a given offset.
+	 *
+	 * @param offsetX the x offset of the block grid (0 to blockWidth-1).
+	 * @param offsetY the y offset of the block grid (0 to blockHeight-1).
+	 * @return if the offset is allowed by the boundaries.
+	 */
+	public boolean isAllowed(int offsetX, int offsetY) {
+		return getActiveBlocks(offsetX, offsetY) >= 0;
+	}
+
+	/**
+	 * Returns the number of active blocks of a block grid starting at a given offset.
+	 *
+	 * @param offsetX the x offset of the block grid (0 to blockWidth-1).
+	 * @param offsetY the y offset of the block grid (0 to blockHeight-1).
+	 * @return the number of active blocks, or -1 if the offset is not allowed by the boundaries.
+	 */
+	public int getActiveBlocks(int offsetX, int offsetY) {
+
+		if (offsetX < 0 || offsetX >= blockWidth || offsetY < 0 || offsetY >= blockHeight) {
+			throw new IllegalArgumentException("Offset out of bounds! " + offsetX + "x" + offsetY);
+		}
+
+		return active[offsetY*blockWidth + offsetX];
+	}
+
+	/**
+	 * Returns the allowed offset with the smallest number of active blocks. If several offsets have the same number of active
+	 * blocks, the first one (row by row) is returned, so offset (0, 0) is preferred.
+	 *
+	 * @return an array containing the x and y offset.
+	 */
+	public int [] getBestOffset() {
+
+		int best = 0;
+
+		for (int i=1;i<active.length;i++) {
+			if (active[i] >= 0 && active[i] < active[best]) {
+				best = i;
+			}
+		}
+
+		return new int [] { best % blockWidth, best / blockWidth };
+	}
+}
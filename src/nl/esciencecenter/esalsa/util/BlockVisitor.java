@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.util;
+
+/**
+ * BlockVisitor is called for each block visited by {@link Grid#visit(BlockVisitor)}, {@link Set#visit(BlockVisitor)} or
+ * their rectangle variants. Blocks are passed by coordinate and index, so visiting does not require any Block or Coordinate
+ * objects to be created.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ * @see Grid
+ * @see Set
+ */
+public interface BlockVisitor {
+
+	/**
+	 * Visit a block.
+	 *
+	 * @param x the x coordinate of the block.
+	 * @param y the y coordinate of the block.
+	 * @param index the index of the block in the Grid or Set that is visited.
+	 * @return if the remaining blocks should be visited.
+	 */
+	public boolean visit(int x, int y, int index);
+}
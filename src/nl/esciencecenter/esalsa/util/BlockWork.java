@@ -0,0 +1,570 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BlockWork stores the work (number of ocean points) and depth (sum of the number of levels) of each block for every block size
+ * that divides the topography equally.
+ *
+ * The sums are computed using the summed area tables of the {@link Topography}, which are created in a single pass over the
+ * topography, after which each block requires four lookups per table. If the topography is not stored in memory, the sums of
+ * all block sizes are instead accumulated in a single pass over the rows of the topography. Once created, a BlockWork can be
+ * saved to a file, so tools can evaluate all block sizes without reading the topography again. A {@link Grid} for any of the
+ * block sizes can be created from the stored sums using {@link #getGrid(int, int, WorkModel)}.
+ *
+ * Two ints are stored for each block of each block size, so a BlockWork requires 8*S(width)*S(height) bytes, where S(n) is
+ * the sum of the divisors of n. For a 3600x2400 topography this is about 22 ints per topography point (roughly 780 MB). Most
+ * of this is used by the smallest block sizes, which can be excluded using a minimum block width and height. The memory
+ * required can be estimated in advance using {@link #getMemory(int, int, int, int)}.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ * @see Topography
+ * @see Grid
+ */
+public class BlockWork {
+
+	/** A logger used for debugging */
+	private static final Logger logger = LoggerFactory.getLogger(BlockWork.class);
+
+	/** Magic number identifying a block work file ("BLKW"). */
+	private static final int MAGIC = 0x424C4B57;
+
+	/** The version of the block work file format. */
+	private static final int VERSION = 1;
+
+	/** The width of the topography. */
+	public final int width;
+
+	/** The height of the topography. */
+	public final int height;
+
+	/** The block widths for which the sums are stored, in increasing order. */
+	private final int [] blockWidths;
+
+	/** The block heights for which the sums are stored, in increasing order. */
+	private final int [] blockHeights;
+
+	/** The work of each block, for each block size (w*blockHeights.length + h), stored row by row. */
+	private final int [][] work;
+
+	/** The depth of each block, for each block size (w*blockHeights.length + h), stored row by row. */
+	private final int [][] depth;
+
+	/**
+	 * Compute the work and depth of each block for all block sizes that divide a topography equally.
+	 *
+	 * @param topo the topography to divide.
+	 * @throws Exception if the sums could not be computed.
+	 */
+	public BlockWork(Topography topo) throws Exception {
+		this(topo, 1, 1);
+	}
+
+	/**
+	 * Compute the work and depth of each block for all block sizes that divide a topography equally and are at least
+	 * minBlockWidth x minBlockHeight.
+	 *
+	 * @param topo the topography to divide.
+	 * @param minBlockWidth the minimum block width.
+	 * @param minBlockHeight the minimum block height.
+	 * @throws Exception if the sums could not be computed.
+	 */
+	public BlockWork(final Topography topo, int minBlockWidth, int minBlockHeight) throws Exception {
+
+		if (minBlockWidth <= 0 || minBlockWidth > topo.width) {
+			throw new IllegalArgumentException("Illegal minBlockWidth " + minBlockWidth);
+		}
+
+		if (minBlockHeight <= 0 || minBlockHeight > topo.height) {
+			throw new IllegalArgumentException("Illegal minBlockHeight " + minBlockHeight);
+		}
+
+		this.width = topo.width;
+		this.height = topo.height;
+
+		blockWidths = getDivisors(width, minBlockWidth);
+		blockHeights = getDivisors(height, minBlockHeight);
+
+		work = new int[blockWidths.length * blockHeights.length][];
+		depth = new int[work.length][];
+
+		if (!topo.canUseTables()) {
+			stream(topo);
+		} else {
+			// Create the tables first, as the tasks run on the thread pool.
+			topo.createTables();
+
+			ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+			for (int w=0;w<blockWidths.length;w++) {
+				for (int h=0;h<blockHeights.length;h++) {
+
+					final int size = w*blockHeights.length + h;
+					final int bw = blockWidths[w];
+					final int bh = blockHeights[h];
+
+					tasks.add(new Callable<Object>() {
+						@Override
+						public Object call() throws Exception {
+
+							int gridWidth = width / bw;
+							int gridHeight = height / bh;
+
+							int [] tmpWork = new int[gridWidth * gridHeight];
+							int [] tmpDepth = new int[tmpWork.length];
+
+							for (int y=0;y<gridHeight;y++) {
+								for (int x=0;x<gridWidth;x++) {
+									tmpWork[y*gridWidth + x] = topo.getRectangleWork(x*bw, y*bh, bw, bh);
+									tmpDepth[y*gridWidth + x] = topo.getRectangleSum(x*bw, y*bh, bw, bh);
+								}
+							}
+
+							work[size] = tmpWork;
+							depth[size] = tmpDepth;
+							return null;
+						}
+					});
+				}
+			}
+
+			Parallel.invokeAll(tasks);
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("Computed block work for " + work.length + " block sizes of topography " + width + "x" + height);
+		}
+	}
+
+	/**
+	 * Read the work and depth of each block from a file created by {@link #save(String)}.
+	 *
+	 * @param filename the file to read.
+	 * @throws Exception if the file could not be read.
+	 */
+	@SuppressWarnings("resource")
+	public BlockWork(String filename) throws Exception {
+
+		DataInputStream in = null;
+
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new Exception("File " + filename + " is not a block work file");
+			}
+
+			width = in.readInt();
+			height = in.readInt();
+
+			if (width <= 0 || height <= 0) {
+				throw new Exception("Illegal topography dimensions " + width + "x" + height);
+			}
+
+			blockWidths = readDivisors(in, width);
+			blockHeights = readDivisors(in, height);
+
+			work = new int[blockWidths.length * blockHeights.length][];
+			depth = new int[work.length][];
+
+			for (int w=0;w<blockWidths.length;w++) {
+				for (int h=0;h<blockHeights.length;h++) {
+
+					int blocks = (width / blockWidths[w]) * (height / blockHeights[h]);
+
+					work[w*blockHeights.length + h] = readInts(in, blocks);
+					depth[w*blockHeights.length + h] = readInts(in, blocks);
+				}
+			}
+		} finally {
+			try {
+				in.close();
+			} catch (Exception e) {
+				// ignored
+			}
+		}
+	}
+
+	/**
+	 * Compute the work and depth of each block for all block sizes in a single pass over the rows of a topography. For each
+	 * block width, the sums of the columns of blocks are accumulated from the first row onwards. When a row of blocks of a
+	 * block height ends, the sums of its blocks are found by subtracting the column sums at the end of the previous row of
+	 * blocks.
+	 *
+	 * @param topo the topography to divide.
+	 */
+	private void stream(Topography topo) {
+
+		long [][] columnWork = new long[blockWidths.length][];
+		long [][] columnDepth = new long[blockWidths.length][];
+
+		long [][] previousWork = new long[work.length][];
+		long [][] previousDepth = new long[work.length][];
+
+		for (int w=0;w<blockWidths.length;w++) {
+
+			int gridWidth = width / blockWidths[w];
+
+			columnWork[w] = new long[gridWidth];
+			columnDepth[w] = new long[gridWidth];
+
+			for (int h=0;h<blockHeights.length;h++) {
+
+				int size = w*blockHeights.length + h;
+
+				work[size] = new int[gridWidth * (height / blockHeights[h])];
+				depth[size] = new int[work[size].length];
+				previousWork[size] = new long[gridWidth];
+				previousDepth[size] = new long[gridWidth];
+			}
+		}
+
+		int [] values = new int[width];
+		long [] rowWork = new long[width+1];
+		long [] rowDepth = new long[width+1];
+
+		for (int y=0;y<height;y++) {
+
+			topo.getRow(y, values);
+
+			for (int x=0;x<width;x++) {
+				rowWork[x+1] = rowWork[x] + (values[x] > 0 ? 1 : 0);
+				rowDepth[x+1] = rowDepth[x] + values[x];
+			}
+
+			for (int w=0;w<blockWidths.length;w++) {
+
+				int bw = blockWidths[w];
+
+				for (int i=0;i<columnWork[w].length;i++) {
+					columnWork[w][i] += rowWork[(i+1)*bw] - rowWork[i*bw];
+					columnDepth[w][i] += rowDepth[(i+1)*bw] - rowDepth[i*bw];
+				}
+			}
+
+			for (int h=0;h<blockHeights.length;h++) {
+
+				if ((y+1) % blockHeights[h] != 0) {
+					continue;
+				}
+
+				int row = (y+1) / blockHeights[h] - 1;
+
+				for (int w=0;w<blockWidths.length;w++) {
+
+					int size = w*blockHeights.length + h;
+					int gridWidth = columnWork[w].length;
+
+					for (int i=0;i<gridWidth;i++) {
+						work[size][row*gridWidth + i] = (int) (columnWork[w][i] - previousWork[size][i]);
+						depth[size][row*gridWidth + i] = (int) (columnDepth[w][i] - previousDepth[size][i]);
+					}
+
+					System.arraycopy(columnWork[w], 0, previousWork[size], 0, gridWidth);
+					System.arraycopy(columnDepth[w], 0, previousDepth[size], 0, gridWidth);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes required to store the work and depth of all block sizes that divide a topography equally and
+	 * are at least minBlockWidth x minBlockHeight.
+	 *
+	 * @param width the width of the topography.
+	 * @param height the height of the topography.
+	 * @param minBlockWidth the minimum block width.
+	 * @param minBlockHeight the minimum block height.
+	 * @return the number of bytes required.
+	 */
+	public static long getMemory(int width, int height, int minBlockWidth, int minBlockHeight) {
+		return 8L * getBlocks(width, minBlockWidth) * getBlocks(height, minBlockHeight);
+	}
+
+	/**
+	 * Returns the total number of blocks in one dimension for all block sizes that divide a value and are at least a given
+	 * minimum.
+	 *
+	 * @param value the value to divide.
+	 * @param min the minimum block size.
+	 * @return the sum of value/d over all divisors d of value that are at least min.
+	 */
+	private static long getBlocks(int value, int min) {
+
+		int [] divisors = getDivisors(value, Math.max(1, min));
+
+		long result = 0;
+
+		for (int i=0;i<divisors.length;i++) {
+			result += value / divisors[i];
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the divisors of a value that are at least a given minimum, in increasing order.
+	 *
+	 * @param value the value to divide.
+	 * @param min the minimum divisor.
+	 * @return the divisors of the value.
+	 */
+	private static int [] getDivisors(int value, int min) {
+
+		ArrayList<Integer> result = new ArrayList<Integer>();
+
+		for (int i=min;i<=value;i++) {
+			if (value % i == 0) {
+				result.add(i);
+			}
+		}
+
+		int [] tmp = new int[result.size()];
+
+		for (int i=0;i<tmp.length;i++) {
+			tmp[i] = result.get(i);
+		}
+
+		return tmp;
+	}
+
+	/**
+	 * Read a list of block sizes and check that they divide a value equally.
+	 *
+	 * @param in the stream to read from.
+	 * @param value the value the block sizes must divide.
+	 * @return the block sizes.
+	 * @throws Exception if the block sizes could not be read or are illegal.
+	 */
+	private static int [] readDivisors(DataInputStream in, int value) throws Exception {
+
+		int count = in.readInt();
+
+		if (count <= 0 || count > value) {
+			throw new Exception("Illegal number of block sizes " + count);
+		}
+
+		int [] result = readInts(in, count);
+
+		for (int i=0;i<count;i++) {
+			if (result[i] <= 0 || value % result[i] != 0 || (i > 0 && result[i] <= result[i-1])) {
+				throw new Exception("Illegal block size " + result[i]);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Read an array of ints.
+	 *
+	 * @param in the stream to read from.
+	 * @param length the number of ints to read.
+	 * @return the ints read.
+	 * @throws IOException if the ints could not be read.
+	 */
+	private static int [] readInts(DataInputStream in, int length) throws IOException {
+
+		int [] result = new int[length];
+
+		for (int i=0;i<length;i++) {
+			result[i] = in.readInt();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Write an array of ints.
+	 *
+	 * @param out the stream to write to.
+	 * @param values the ints to write.
+	 * @throws IOException if the ints could not be written.
+	 */
+	private static void writeInts(DataOutputStream out, int [] values) throws IOException {
+		for (int i=0;i<values.length;i++) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	/**
+	 * Writes the work and depth of each block to a file.
+	 *
+	 * @param filename the file to write to.
+	 * @throws IOException if an error occurred while writing to the file.
+	 */
+	public void save(String filename) throws IOException {
+
+		DataOutputStream out = null;
+
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			out.writeInt(width);
+			out.writeInt(height);
+
+			out.writeInt(blockWidths.length);
+			writeInts(out, blockWidths);
+
+			out.writeInt(blockHeights.length);
+			writeInts(out, blockHeights);
+
+			for (int i=0;i<work.length;i++) {
+				writeInts(out, work[i]);
+				writeInts(out, depth[i]);
+			}
+		} finally {
+			try {
+				out.close();
+			} catch (Exception e) {
+				// ignored
+			}
+		}
+	}
+
+	/**
+	 * Returns the block widths for which the sums are stored, in increasing order.
+	 *
+	 * @return the block widths.
+	 */
+	public int [] getBlockWidths() {
+		return blockWidths.clone();
+	}
+
+	/**
+	 * Returns the block heights for which the sums are stored, in increasing order.
+	 *
+	 * @return the block heights.
+	 */
+	public int [] getBlockHeights() {
+		return blockHeights.clone();
+	}
+
+	/**
+	 * Returns the index of a block size in {@link #work} and {@link #depth}.
+	 *
+	 * @param blockWidth the width of a block in topography points.
+	 * @param blockHeight the height of a block in topography points.
+	 * @return the index of the block size.
+	 */
+	private int getSize(int blockWidth, int blockHeight) {
+
+		int w = Arrays.binarySearch(blockWidths, blockWidth);
+		int h = Arrays.binarySearch(blockHeights, blockHeight);
+
+		if (w < 0 || h < 0) {
+			throw new IllegalArgumentException("No block work stored for block size " + blockWidth + "x" + blockHeight);
+		}
+
+		return w*blockHeights.length + h;
+	}
+
+	/**
+	 * Returns the work (that is, the number of ocean points) of each block of a block size.
+	 *
+	 * @param blockWidth the width of a block in topography points.
+	 * @param blockHeight the height of a block in topography points.
+	 * @return an array containing the work of each block, stored row by row, where the work of block (x,y) is stored at index
+	 * y*(width/blockWidth)+x.
+	 */
+	public int [] getWork(int blockWidth, int blockHeight) {
+		return work[getSize(blockWidth, blockHeight)];
+	}
+
+	/**
+	 * Returns the depth (that is, the sum of the topography values) of each block of a block size.
+	 *
+	 * @param blockWidth the width of a block in topography points.
+	 * @param blockHeight the height of a block in topography points.
+	 * @return an array containing the depth of each block, stored row by row, where the depth of block (x,y) is stored at index
+	 * y*(width/blockWidth)+x.
+	 */
+	public int [] getDepth(int blockWidth, int blockHeight) {
+		return depth[getSize(blockWidth, blockHeight)];
+	}
+
+	/**
+	 * Returns the number of active blocks (that is, blocks containing at least one ocean point) of a block size. This is the
+	 * number of blocks a {@link Grid} of this block size would contain.
+	 *
+	 * @param blockWidth the width of a block in topography points.
+	 * @param blockHeight the height of a block in topography points.
+	 * @return the number of active blocks.
+	 */
+	public int getActiveBlocks(int blockWidth, int blockHeight) {
+
+		int [] tmp = getWork(blockWidth, blockHeight);
+
+		int result = 0;
+
+		for (int i=0;i<tmp.length;i++) {
+			if (tmp[i] > 0) {
+				result++;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Create a Grid for a block size from the stored sums, without accessing the topography. The result is the same as
+	 * {@link Grid#Grid(Topography, int, int, WorkModel)} for the {@link WorkModel#BLOCKS}, {@link WorkModel#POINTS} and
+	 * {@link WorkModel#LEVELS} work models.
+	 *
+	 * @param blockWidth the width of a block in topography points.
+	 * @param blockHeight the height of a block in topography points.
+	 * @param model the work model used to determine the weight of each block.
+	 * @return a Grid for the block size.
+	 */
+	public Grid getGrid(int blockWidth, int blockHeight, WorkModel model) {
+
+		int size = getSize(blockWidth, blockHeight);
+
+		int [] weights;
+
+		if (model == WorkModel.BLOCKS) {
+			weights = null;
+		} else if (model == WorkModel.POINTS) {
+			weights = work[size];
+		} else if (model == WorkModel.LEVELS) {
+			weights = depth[size];
+		} else {
+			throw new IllegalArgumentException("Unsupported work model " + model);
+		}
+
+		return new Grid(width / blockWidth, height / blockHeight, blockWidth, blockHeight, work[size], weights);
+	}
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Components labels the connected components (basins) of the ocean points of an {@link OceanMask}.
+ *
+ * Two ocean points are connected if they are horizontal or vertical neighbours. The east and west boundary are connected if
+ * the boundary in the W direction is {@link Neighbours#CYCLIC}. The north boundary is connected to itself if the boundary in the
+ * V direction is {@link Neighbours#TRIPOLE}, in which case point (x, height-1) is a neighbour of point (width-1-x, height-1),
+ * or to the south boundary if it is {@link Neighbours#CYCLIC}.
+ *
+ * The labelling uses a union-find structure. The rows are divided into bands which are labelled in parallel, after which the
+ * bands are merged by joining the rows at their boundaries. Since the root of each set is always its smallest index, a single
+ * final pass in index order assigns each component a label. The components are labelled 0 to N-1 in the order in which their
+ * first point occurs (row by row).
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ * @see OceanMask
+ * @see Grid#labelComponents(Components)
+ */
+public class Components {
+
+	/** A logger used for debugging */
+	private static final Logger logger = LoggerFactory.getLogger(Components.class);
+
+	/** The label of land points. */
+	public static final int LAND = -1;
+
+	/** The width of the labelled area. */
+	public final int width;
+
+	/** The height of the labelled area. */
+	public final int height;
+
+	/** The label of each point, stored row by row, or LAND for land points. */
+	private final int [] labels;
+
+	/** The number of points in each component. */
+	private final long [] sizes;
+
+	/**
+	 * Label the connected components of the ocean points of an OceanMask.
+	 *
+	 * @param mask the ocean mask to label.
+	 * @param boundaryW the boundary in the W direction (CYCLIC or CLOSED, as defined in {@link Neighbours}).
+	 * @param boundaryV the boundary in the V direction (TRIPOLE, CYCLIC or CLOSED, as defined in {@link Neighbours}).
+	 * @throws Exception if the labelling failed.
+	 */
+	public Components(final OceanMask mask, final int boundaryW, final int boundaryV) throws Exception {
+
+		if (!(boundaryW == Neighbours.CYCLIC || boundaryW == Neighbours.CLOSED)) {
+			throw new IllegalArgumentException("Illegal boundaryW " + boundaryW);
+		}
+
+		if (boundaryV < 0 || boundaryV > Neighbours.CLOSED) {
+			throw new IllegalArgumentException("Illegal boundaryV " + boundaryV);
+		}
+
+		if ((long) mask.width * (long) mask.height > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Ocean mask of " + mask.width + "x" + mask.height + " is too large to label");
+		}
+
+		this.width = mask.width;
+		this.height = mask.height;
+
+		// During the labelling, each entry contains the index of its parent, which is never larger than its own index.
+		final int [] parent = new int[width * height];
+
+		int [] start = Parallel.split(height, 4 * Parallel.getThreads());
+
+		ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+		for (int i=0;i<start.length-1;i++) {
+
+			final int y0 = start[i];
+			final int y1 = start[i+1];
+
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					labelBand(mask, parent, y0, y1, boundaryW, boundaryV);
+					return null;
+				}
+			});
+		}
+
+		Parallel.invokeAll(tasks);
+
+		// Join the bands at their boundaries.
+		for (int i=1;i<start.length-1;i++) {
+			joinRows(parent, start[i]-1, start[i]);
+		}
+
+		if (boundaryV == Neighbours.CYCLIC && height > 1) {
+			joinRows(parent, height-1, 0);
+		}
+
+		// Replace the parents by labels. When entry i is reached, all entries before it already contain their label.
+		int count = 0;
+
+		for (int i=0;i<parent.length;i++) {
+
+			int p = parent[i];
+
+			if (p == LAND) {
+				continue;
+			}
+
+			parent[i] = (p == i) ? count++ : parent[p];
+		}
+
+		labels = parent;
+		sizes = new long[count];
+
+		for (int i=0;i<labels.length;i++) {
+			if (labels[i] != LAND) {
+				sizes[labels[i]]++;
+			}
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("Found " + count + " ocean components in " + width + "x" + height + " points");
+		}
+	}
+
+	/**
+	 * Find the root of the set containing an entry, halving the path on the way.
+	 *
+	 * @param parent the parent of each entry.
+	 * @param i the entry.
+	 * @return the root of the set containing the entry.
+	 */
+	static int find(int [] parent, int i) {
+
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+
+		return i;
+	}
+
+	/**
+	 * Join the sets containing two entries. The root with the largest index is attached to the other root.
+	 *
+	 * @param parent the parent of each entry.
+	 * @param a the first entry.
+	 * @param b the second entry.
+	 */
+	static void union(int [] parent, int a, int b) {
+
+		a = find(parent, a);
+		b = find(parent, b);
+
+		if (a < b) {
+			parent[b] = a;
+		} else if (b < a) {
+			parent[a] = b;
+		}
+	}
+
+	/**
+	 * Label the rows y0 (inclusive) to y1 (exclusive), only joining points within these rows.
+	 *
+	 * @param mask the ocean mask to label.
+	 * @param parent the parent of each entry.
+	 * @param y0 the first row of the band.
+	 * @param y1 the end of the band.
+	 * @param boundaryW the boundary in the W direction.
+	 * @param boundaryV the boundary in the V direction.
+	 */
+	private void labelBand(OceanMask mask, int [] parent, int y0, int y1, int boundaryW, int boundaryV) {
+
+		for (int y=y0;y<y1;y++) {
+
+			int offset = y * width;
+
+			for (int x=0;x<width;x++) {
+
+				int i = offset + x;
+
+				if (!mask.isOcean(x, y)) {
+					parent[i] = LAND;
+					continue;
+				}
+
+				parent[i] = i;
+
+				if (x > 0 && parent[i-1] != LAND) {
+					union(parent, i-1, i);
+				}
+
+				if (y > y0 && parent[i-width] != LAND) {
+					union(parent, i-width, i);
+				}
+			}
+
+			if (boundaryW == Neighbours.CYCLIC && width > 1 && parent[offset] != LAND && parent[offset+width-1] != LAND) {
+				union(parent, offset, offset+width-1);
+			}
+
+			if (y == height-1 && boundaryV == Neighbours.TRIPOLE) {
+				for (int x=0;x<width/2;x++) {
+					if (parent[offset+x] != LAND && parent[offset+width-1-x] != LAND) {
+						union(parent, offset+x, offset+width-1-x);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Join the ocean points of two rows that are vertical neighbours.
+	 *
+	 * @param parent the parent of each entry.
+	 * @param ya the first row.
+	 * @param yb the second row.
+	 */
+	private void joinRows(int [] parent, int ya, int yb) {
+
+		for (int x=0;x<width;x++) {
+
+			int a = ya * width + x;
+			int b = yb * width + x;
+
+			if (parent[a] != LAND && parent[b] != LAND) {
+				union(parent, a, b);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of components.
+	 *
+	 * @return the number of components.
+	 */
+	public int getCount() {
+		return sizes.length;
+	}
+
+	/**
+	 * Returns the label of the component containing a point.
+	 *
+	 * @param x the x coordinate of the point.
+	 * @param y the y coordinate of the point.
+	 * @return the label of the component containing the point, or LAND if the point is a land point.
+	 */
+	public int getLabel(int x, int y) {
+		return labels[y * width + x];
+	}
+
+	/**
+	 * Returns the number of ocean points in a component.
+	 *
+	 * @param label the label of the component.
+	 * @return the number of ocean points in the component.
+	 */
+	public long getSize(int label) {
+		return sizes[label];
+	}
+
+	/**
+	 * Returns the number of components containing less than minSize ocean points.
+	 *
+	 * @param minSize the minimum number of points of a component that is not small.
+	 * @return the number of small components.
+	 */
+	public int getSmallCount(long minSize) {
+
+		int result = 0;
+
+		for (int i=0;i<sizes.length;i++) {
+			if (sizes[i] < minSize) {
+				result++;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the total number of ocean points in components containing less than minSize ocean points.
+	 *
+	 * @param minSize the minimum number of points of a component that is not small.
+	 * @return the number of points in small components.
+	 */
+	public long getSmallPoints(long minSize) {
+
+		long result = 0;
+
+		for (int i=0;i<sizes.length;i++) {
+			if (sizes[i] < minSize) {
+				result += sizes[i];
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the number of active blocks of size blockWidth x blockHeight if all components containing less than minSize ocean
+	 * points are filled with land. A block is active if it contains at least one point of a component that is not small. Using
+	 * a minSize of 0 returns the number of active blocks of the unchanged topography.
+	 *
+	 * @param blockWidth the width of a block in points.
+	 * @param blockHeight the height of a block in points.
+	 * @param minSize the minimum number of points of a component that is not filled.
+	 * @return the number of active blocks.
+	 * @throws Exception if the block size does not divide the labelled area equally.
+	 */
+	public int getActiveBlocks(final int blockWidth, final int blockHeight, final long minSize) throws Exception {
+
+		if (blockWidth <= 0 || width % blockWidth != 0) {
+			throw new Exception("Illegal blockWidth " + blockWidth);
+		}
+
+		if (blockHeight <= 0 || height % blockHeight != 0) {
+			throw new Exception("Illegal blockHeight " + blockHeight);
+		}
+
+		final int blocksX = width / blockWidth;
+
+		int [] start = Parallel.split(height / blockHeight, 4 * Parallel.getThreads());
+
+		ArrayList<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+
+		for (int i=0;i<start.length-1;i++) {
+
+			final int by0 = start[i];
+			final int by1 = start[i+1];
+
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+
+					int active = 0;
+
+					for (int by=by0;by<by1;by++) {
+						for (int bx=0;bx<blocksX;bx++) {
+							if (isActive(bx*blockWidth, by*blockHeight, blockWidth, blockHeight, minSize)) {
+								active++;
+							}
+						}
+					}
+
+					return active;
+				}
+			});
+		}
+
+		int result = 0;
+
+		for (Integer active : Parallel.invokeAll(tasks)) {
+			result += active;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Checks if a rectangular area contains at least one point of a component containing at least minSize ocean points.
+	 *
+	 * @param x the x position of the rectangle.
+	 * @param y the y position of the rectangle.
+	 * @param w the width of the rectangle.
+	 * @param h the height of the rectangle.
+	 * @param minSize the minimum number of points of a component.
+	 * @return if the area contains a point of a component containing at least minSize points.
+	 */
+	private boolean isActive(int x, int y, int w, int h, long minSize) {
+
+		for (int j=y;j<y+h;j++) {
+
+			int offset = j * width;
+
+			for (int i=x;i<x+w;i++) {
+
+				int label = labels[offset + i];
+
+				if (label != LAND && sizes[label] >= minSize) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Copy the labels of a row segment into an array.
+	 *
+	 * @param x the x coordinate of the first point.
+	 * @param y the row.
+	 * @param length the number of points to copy.
+	 * @param dest the array to copy the labels to.
+	 * @param offset the position of the first label in the array.
+	 */
+	void getRow(int x, int y, int length, int [] dest, int offset) {
+		System.arraycopy(labels, y * width + x, dest, offset, length);
+	}
+}
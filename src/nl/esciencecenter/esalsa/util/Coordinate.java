@@ -32,6 +32,9 @@ public class Coordinate {
 	/** The y coordinate. */
 	public final int y;
 	
+	/** The packed value used to indicate that a coordinate does not exist. */
+	public static final long NONE = -1L;
+	
 	/** 
 	 * Create a new Coordinate representing the specified (x,y) location. 
 	 * 
@@ -54,6 +57,40 @@ public class Coordinate {
 		return new Coordinate(x+dx, y+dy);
 	}
 	
+	/** 
+	 * Pack a non-negative (x,y) location into a single long, so locations can be stored and compared without creating 
+	 * Coordinate objects. 
+	 * 
+	 * @param x the x coordinate.
+	 * @param y the y coordinate.
+	 * @return the packed location.
+	 */
+	public static long pack(int x, int y) { 
+		return ((long) y << 32) | (x & 0xFFFFFFFFL);
+	}
+	
+	/** 
+	 * Returns the x coordinate of a packed location. 
+	 * 
+	 * @param packed the packed location.
+	 * @return the x coordinate.
+	 * @see #pack(int, int)
+	 */
+	public static int unpackX(long packed) { 
+		return (int) packed;
+	}
+	
+	/** 
+	 * Returns the y coordinate of a packed location. 
+	 * 
+	 * @param packed the packed location.
+	 * @return the y coordinate.
+	 * @see #pack(int, int)
+	 */
+	public static int unpackY(long packed) { 
+		return (int) (packed >> 32);
+	}
+	
 	@Override
 	public int hashCode() {
 		return x + y * 31;
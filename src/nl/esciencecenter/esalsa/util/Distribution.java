@@ -20,11 +20,11 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 
 
 /**
@@ -37,6 +37,9 @@ import java.util.Collection;
  */
 public class Distribution {
 
+	/** Marks the optional trailer containing the grid offset, which is only written if the offset is not 0. */
+	private static final int OFFSET_MAGIC = 0x4f464653;
+
 	/** The width of the topography for which this distribution was generated. */ 
 	public final int topographyWidth;
 	
@@ -67,8 +70,25 @@ public class Distribution {
 	/** The total number of block in this distribution */
 	public final int totalBlocks;
 
-	/** The distribution itself. Position <code>i</code> contains the core on which the block should be placed   */  
-	private final int [] distribution;
+	/** The x coordinate of the first topography point of the first block column. */
+	public final int offsetX;
+	
+	/** The y coordinate of the first topography point of the first block row. */
+	public final int offsetY;
+
+	/** The number of owners stored in each chunk of the distribution. Must be a power of two. */
+	private static final int CHUNK_SIZE = 1024;
+	
+	/** 
+	 * The distribution itself, stored in chunks of {@link #CHUNK_SIZE} entries. Position <code>i</code> of the distribution 
+	 * (chunk i / CHUNK_SIZE, entry i % CHUNK_SIZE) contains the core on which the block should be placed. Chunks are never 
+	 * changed once the distribution is created, so a patched copy created by {@link #update(Grid, Neighbours, int[])} shares 
+	 * all chunks that do not contain a changed block.
+	 */  
+	private final int [][] distribution;
+	
+	/** The number of blocks of each core, or null if it has not been computed yet. */
+	private volatile int [] blocksPerCore;
 	
 	/** 
 	 * Create a new distribution.
@@ -90,6 +110,33 @@ public class Distribution {
 			int clusters, int nodesPerCluster, int coresPerNode, 
 			int minBlocksPerCore, int maxBlocksPerCore,
 			int totalBlocks, int[] distribution) {
+		
+		this(topographyWidth, topographyHeight, blockWidth, blockHeight, clusters, nodesPerCluster, coresPerNode, 
+				minBlocksPerCore, maxBlocksPerCore, totalBlocks, distribution, 0, 0);
+	}
+	
+	/** 
+	 * Create a new distribution for a grid of blocks that starts at topography point (offsetX, offsetY).
+	 * 
+	 * @param topographyWidth the width of the topography used for the distribution.  
+	 * @param topographyHeight the height of the topography used for the distribution.
+	 * @param blockWidth the width of the blocks used for the distribution.
+	 * @param blockHeight the height of the blocks use for the distribution.
+	 * @param clusters the number of clusters used for the distribution.
+	 * @param nodesPerCluster the number of nodes per clusters used for the distribution.
+	 * @param coresPerNode the number of cores per node used for the distribution.
+	 * @param minBlocksPerCore the minimal number of blocks per core in the distribution.
+	 * @param maxBlocksPerCore the maximal number of blocks per core in the distribution.
+	 * @param totalBlocks the total number of blocks in the distribution.
+	 * @param distribution the distribution to store.
+	 * @param offsetX the x coordinate of the first topography point of the first block column.
+	 * @param offsetY the y coordinate of the first topography point of the first block row.
+	 */
+	public Distribution(int topographyWidth, int topographyHeight, 
+			int blockWidth, int blockHeight, 
+			int clusters, int nodesPerCluster, int coresPerNode, 
+			int minBlocksPerCore, int maxBlocksPerCore,
+			int totalBlocks, int[] distribution, int offsetX, int offsetY) {
 
 		this.topographyWidth = topographyWidth;
 		this.topographyHeight = topographyHeight;
@@ -101,12 +148,17 @@ public class Distribution {
 		this.minBlocksPerCore = minBlocksPerCore;
 		this.maxBlocksPerCore = maxBlocksPerCore;
 		this.totalBlocks = totalBlocks;
-		this.distribution = distribution;
+		this.distribution = toChunks(distribution, totalBlocks);
+		this.offsetX = offsetX;
+		this.offsetY = offsetY;
 	}
 
 	/** 
 	 * Create a new Distribution by reading it contents for a file. 
 	 * 
+	 * If the file ends after the distribution itself, as is the case for all distributions without a grid offset, the offset 
+	 * is 0. 
+	 * 
 	 * @param filename the file to read. 
 	 * @throws IOException if the file could not be read.
 	 * @throws IOException if the file could not be read.
@@ -181,15 +233,26 @@ public class Distribution {
 						+ expectedBlocks);
 			}
 			
-			distribution = new int[totalBlocks];
+			int [] tmp = new int[totalBlocks];
 			
 			for (int i=0;i<totalBlocks;i++) { 
-				distribution[i] = in.readInt();
+				tmp[i] = in.readInt();
 				
-				if (distribution[i] < 0 || distribution[i] > (clusters * nodesPerCluster * coresPerNode)) { 
-					throw new Exception("Inconsistent block number at position " + i + ": " + distribution[i]);
+				if (tmp[i] < 0 || tmp[i] > (clusters * nodesPerCluster * coresPerNode)) { 
+					throw new Exception("Inconsistent block number at position " + i + ": " + tmp[i]);
 				}
-			}			
+			}
+			
+			distribution = toChunks(tmp, totalBlocks);
+			
+			int [] offset = readOffset(in);
+			
+			if (offset[0] < 0 || offset[0] >= topographyWidth || offset[1] < 0 || offset[1] >= topographyHeight) { 
+				throw new Exception("Illegal offset " + offset[0] + "x" + offset[1]);
+			}
+			
+			offsetX = offset[0];
+			offsetY = offset[1];
 		} finally {
 			try { 
 				in.close();
@@ -199,6 +262,30 @@ public class Distribution {
 		}
 	}
 	
+	/** 
+	 * Read the optional trailer containing the grid offset. 
+	 * 
+	 * @param in the stream to read from, positioned after the distribution.
+	 * @return an array containing the x and y offset.
+	 * @throws Exception if the trailer could not be read.
+	 */
+	private static int [] readOffset(DataInputStream in) throws Exception { 
+		
+		int magic;
+		
+		try { 
+			magic = in.readInt();
+		} catch (EOFException e) {
+			return new int [] { 0, 0 };
+		}
+		
+		if (magic != OFFSET_MAGIC) { 
+			throw new Exception("Unexpected data after distribution");
+		}
+		
+		return new int [] { in.readInt(), in.readInt() };
+	}
+	
 	/** 
 	 * Returns the number of the core that owns the block at the given index. 
 	 * 
@@ -206,12 +293,244 @@ public class Distribution {
 	 * @return the owner of the block.
 	 */
 	public int getOwner(int index) { 
-		return distribution[index];
+		return getOwner(distribution, index);
+	}
+	
+	/** 
+	 * Returns the owner stored at a given index of a chunked distribution. 
+	 * 
+	 * @param chunks the chunks of the distribution.
+	 * @param index the index of the block.
+	 * @return the owner of the block.
+	 */
+	private static int getOwner(int [][] chunks, int index) { 
+		return chunks[index / CHUNK_SIZE][index & (CHUNK_SIZE-1)];
+	}
+	
+	/** 
+	 * Changes the owner stored at a given index of a patched copy of the distribution. A chunk of the copy is copied before it 
+	 * is changed for the first time, so the chunks of this distribution are never changed. 
+	 * 
+	 * @param chunks the chunks of the patched copy.
+	 * @param index the index of the block.
+	 * @param owner the new owner of the block.
+	 */
+	private void setOwner(int [][] chunks, int index, int owner) { 
+		
+		int chunk = index / CHUNK_SIZE;
+		
+		if (chunks[chunk] == distribution[chunk]) { 
+			chunks[chunk] = distribution[chunk].clone();
+		}
+		
+		chunks[chunk][index & (CHUNK_SIZE-1)] = owner;
+	}
+	
+	/** 
+	 * Split a distribution into chunks of {@link #CHUNK_SIZE} entries.
+	 * 
+	 * @param distribution the distribution to split.
+	 * @param totalBlocks the number of blocks in the distribution.
+	 * @return the chunks of the distribution.
+	 */
+	private static int [][] toChunks(int [] distribution, int totalBlocks) { 
+		
+		if (distribution.length < totalBlocks) { 
+			throw new IllegalArgumentException("Distribution contains " + distribution.length + " blocks, expected " 
+					+ totalBlocks);
+		}
+		
+		int [][] result = new int[(totalBlocks + CHUNK_SIZE - 1) / CHUNK_SIZE][];
+		
+		for (int i=0;i<result.length;i++) { 
+			result[i] = Arrays.copyOfRange(distribution, i*CHUNK_SIZE, Math.min(totalBlocks, (i+1)*CHUNK_SIZE));
+		}
+		
+		return result;
+	}
+	
+	/** 
+	 * Returns the number of blocks of each core, counting them first if needed. 
+	 * 
+	 * @return an array containing the number of blocks of each core. The array must not be changed.
+	 */
+	private int [] getBlocksPerCore() { 
+		
+		int [] result = blocksPerCore;
+		
+		if (result == null) { 
+			
+			result = new int[clusters * nodesPerCluster * coresPerNode];
+			
+			for (int i=0;i<totalBlocks;i++) { 
+				
+				int owner = getOwner(i);
+				
+				if (owner > 0) { 
+					result[owner-1]++;
+				}
+			}
+			
+			blocksPerCore = result;
+		}
+		
+		return result;
+	}
+	
+	/** 
+	 * Create a copy of this distribution in which the owners of the blocks changed by 
+	 * {@link Grid#update(Topography, WorkModel, int, int, int, int)} are patched. 
+	 * 
+	 * Blocks that no longer contain any ocean points are removed from the distribution. Blocks that now contain ocean points 
+	 * are assigned to the core owning most of their neighbours, or to the core with the fewest blocks if none of their 
+	 * neighbours is owned by a core. All other blocks keep their owner, so the result may no longer be balanced optimally after 
+	 * large edits.  
+	 * <p>
+	 * The copy shares all chunks of the distribution that contain no changed block, and the number of blocks per core is 
+	 * patched rather than recounted, so the cost of an update depends on the number of changed blocks only.
+	 * 
+	 * @param grid the updated grid.
+	 * @param neighbours the neighbour function of the grid.
+	 * @param locations the locations (y*grid.width + x) of the changed blocks.
+	 * @return the patched distribution.
+	 * @throws Exception if the grid does not match this distribution.
+	 */
+	public Distribution update(Grid grid, Neighbours neighbours, int [] locations) throws Exception { 
+		
+		if (grid.blockWidth != blockWidth || grid.blockHeight != blockHeight || grid.width * blockWidth != topographyWidth 
+				|| grid.height * blockHeight != topographyHeight || grid.offsetX != offsetX || grid.offsetY != offsetY) { 
+			throw new Exception("Grid does not match distribution");
+		}
+		
+		int totalCores = clusters * nodesPerCluster * coresPerNode;
+		
+		int [][] result = distribution.clone();
+		int [] blocksPerCore = getBlocksPerCore().clone();
+		
+		// Remove the blocks that became land first, so they are never selected as neighbouring owner.
+		for (int location : locations) { 
+			
+			int owner = getOwner(result, location);
+			
+			if (owner > 0 && !grid.isActive(location % grid.width, location / grid.width)) { 
+				blocksPerCore[owner-1]--;
+				setOwner(result, location, 0);
+			}
+		}
+
+		for (int location : locations) { 
+			
+			Coordinate c = new Coordinate(location % grid.width, location / grid.width);
+			
+			if (getOwner(result, location) == 0 && grid.isActive(c.x, c.y)) { 
+				
+				int owner = getNeighbourOwner(result, grid.width, neighbours.getNeighbours(c, false));
+				
+				if (owner == 0) { 
+					for (int i=0;i<totalCores;i++) { 
+						if (owner == 0 || blocksPerCore[i] < blocksPerCore[owner-1]) { 
+							owner = i+1;
+						}
+					}
+				}
+				
+				blocksPerCore[owner-1]++;
+				setOwner(result, location, owner);
+			}
+		}
+		
+		int min = Integer.MAX_VALUE;
+		int max = 0;
+		
+		for (int i=0;i<totalCores;i++) { 
+			min = Math.min(min, blocksPerCore[i]);
+			max = Math.max(max, blocksPerCore[i]);
+		}
+		
+		return new Distribution(this, min, max, result, blocksPerCore);
+	}
+	
+	/** 
+	 * Create a patched copy of a distribution. 
+	 * 
+	 * @param original the distribution to copy the settings from.
+	 * @param minBlocksPerCore the minimal number of blocks per core in the patched distribution.
+	 * @param maxBlocksPerCore the maximal number of blocks per core in the patched distribution.
+	 * @param distribution the chunks of the patched distribution.
+	 * @param blocksPerCore the number of blocks of each core in the patched distribution.
+	 */
+	private Distribution(Distribution original, int minBlocksPerCore, int maxBlocksPerCore, int [][] distribution, 
+			int [] blocksPerCore) {
+		
+		this.topographyWidth = original.topographyWidth;
+		this.topographyHeight = original.topographyHeight;
+		this.blockWidth = original.blockWidth;
+		this.blockHeight = original.blockHeight;
+		this.clusters = original.clusters;
+		this.nodesPerCluster = original.nodesPerCluster;
+		this.coresPerNode = original.coresPerNode;
+		this.minBlocksPerCore = minBlocksPerCore;
+		this.maxBlocksPerCore = maxBlocksPerCore;
+		this.totalBlocks = original.totalBlocks;
+		this.distribution = distribution;
+		this.blocksPerCore = blocksPerCore;
+		this.offsetX = original.offsetX;
+		this.offsetY = original.offsetY;
+	}
+	
+	/** 
+	 * Returns the core owning most of the given neighbours. If several cores own the same number of neighbours, the core with 
+	 * the lowest number is returned.
+	 * 
+	 * @param owners the chunks containing the owner of each block.
+	 * @param gridWidth the width of the grid in blocks.
+	 * @param neighbours the neighbours of a block, as returned by {@link Neighbours#getNeighbours(Coordinate, boolean)}.
+	 * @return the owner (1-based), or 0 if none of the neighbours is owned by a core.
+	 */
+	private static int getNeighbourOwner(int [][] owners, int gridWidth, Coordinate [][] neighbours) { 
+		
+		int best = 0;
+		int bestCount = 0;
+		
+		for (int i=0;i<9;i++) { 
+			
+			Coordinate n = neighbours[i/3][i%3];
+			
+			if (n == null) { 
+				continue;
+			}
+			
+			int owner = getOwner(owners, n.y*gridWidth + n.x);
+			
+			if (owner == 0) { 
+				continue;
+			}
+			
+			int count = 0;
+			
+			for (int j=0;j<9;j++) { 
+				
+				Coordinate m = neighbours[j/3][j%3];
+				
+				if (m != null && getOwner(owners, m.y*gridWidth + m.x) == owner) { 
+					count++;
+				}
+			}
+			
+			if (count > bestCount || (count == bestCount && owner < best)) { 
+				best = owner;
+				bestCount = count;
+			}
+		}
+		
+		return best;
 	}
 	
 	/** 
 	 * Writes a block distribution to disk. 
 	 * 
+	 * If the grid does not start at the origin, the offset is appended after the distribution.
+	 * 
 	 * @param filename the filename of the file to write the distribution to. 
 	 * @throws IOException if an error occurred while writing to the file.
 	 */
@@ -238,7 +557,14 @@ public class Distribution {
 			out.writeInt(totalBlocks);
 			
 			for (int i=0;i<totalBlocks;i++) { 
-				out.writeInt(distribution[i]);
+				out.writeInt(getOwner(i));
+			}
+			
+			// Only write the offset if needed, so the file remains readable by POP if the grid starts at the origin.
+			if (offsetX != 0 || offsetY != 0) { 
+				out.writeInt(OFFSET_MAGIC);
+				out.writeInt(offsetX);
+				out.writeInt(offsetY);
 			}
 		} finally {
 			try { 
@@ -271,7 +597,6 @@ public class Distribution {
 	 * @see Set
 	 * @see Block
 	 */
-	@SuppressWarnings({ "rawtypes", "unchecked" })
 	public Layers toLayers() { 
 
 		// Start by computing some constants. 
@@ -285,86 +610,95 @@ public class Distribution {
 		Layer clusterLayer = new Layer("CLUSTERS");		
 		Layer nodesLayer = new Layer("NODES");
 		Layer coresLayer = new Layer("CORES");
-		Layer blockLayer = new Layer("BLOCKS");
 		Layer combinedLayer = new Layer("ALL");
 		
+		// Create a layer containing one set with all blocks, and a layer containing one set per block of that set.  
+		Set all = createSets(blocksPerRow, 1, totalCores)[0];
+		combinedLayer.add(all);
+		
+		Layer blockLayer = new BlockLayer("BLOCKS", all, blocksPerRow);
+		
 		layers.add(combinedLayer);
 		layers.add(blockLayer);
 		layers.add(coresLayer);
 		layers.add(nodesLayer);
 		layers.add(clusterLayer);
 
-		// Then create all non-zero blocks in the distribution.  
-		Collection [] tmp = new Collection[totalCores];
-		ArrayList<Block> allBlocks = new ArrayList<Block>();
+		// Create a layers containing one set per core, node and cluster. 
+		Set [] cores = createSets(blocksPerRow, totalCores, 1);
+		Set [] nodes = createSets(blocksPerRow, totalNodes, coresPerNode);
+		Set [] clusterSets = createSets(blocksPerRow, clusters, coresPerNode * nodesPerCluster);
+		
+		for (int i=0;i<totalCores;i++) { 
+			coresLayer.add(cores[i]);
+		}
+		
+		for (int i=0;i<totalNodes;i++) {
+			nodes[i].addSubSets(Arrays.asList(cores).subList(i*coresPerNode, (i+1)*coresPerNode));
+			nodesLayer.add(nodes[i]);
+		}
+
+		for (int i=0;i<clusters;i++) {
+			clusterSets[i].addSubSets(Arrays.asList(nodes).subList(i*nodesPerCluster, (i+1)*nodesPerCluster));
+			clusterLayer.add(clusterSets[i]);
+		}
+		
+		return layers;
+	}
+	
+	/**
+	 * Divide the blocks of the distribution over a number of sets, where set <code>i</code> contains the blocks assigned to 
+	 * cores <code>i*coresPerSet</code> (inclusive) to <code>(i+1)*coresPerSet</code> (exclusive).
+	 * <p>
+	 * The distribution is traversed in location order, so the blocks of each set are found row by row, and are stored in the 
+	 * sets without creating any Block objects.  
+	 * 
+	 * @param blocksPerRow the width of the grid in blocks.
+	 * @param sets the number of sets to create.
+	 * @param coresPerSet the number of cores per set.
+	 * @return the sets.
+	 */
+	private Set [] createSets(int blocksPerRow, int sets, int coresPerSet) { 
+		
+		// Note: we subtract one here, since the distribution uses a Fortran friendly 1-based notation (0=unused, 1...N=used).
+		int [] count = new int[sets];
 		
-		// Traverse the distribution array.
 		for (int i=0;i<totalBlocks;i++) { 
-			// Note: we subtract one here, since the distribution uses a Fortran friendly 1-based notation (0=unused, 1...N=used).
-			int coreNumber = distribution[i]-1;
 			
-			// If a coreNumber is zero or higher, it represents a valid block 
-			if (coreNumber >= 0) { 
-				ArrayList current = (ArrayList) tmp[coreNumber];
-				
-				if (current == null) { 
-					current = new ArrayList();
-					tmp[coreNumber] = current;
-				}
-
-				// Create the block, and add to the block list of the core, the blockLayer, and the allBlocks list.
-				Block b = new Block(new Coordinate(i % blocksPerRow, i / blocksPerRow));
-				
-				current.add(b);
-				blockLayer.add(new Set(b, i));
-				allBlocks.add(b);
-			} 
+			int owner = getOwner(i);
+			
+			if (owner > 0) { 
+				count[(owner-1) / coresPerSet]++;
+			}
 		}
-
-		// Create a layer containing one set with all blocks. 
-		combinedLayer.add(new Set(allBlocks, 0));
 		
-		// Create a layers containing one set per core. 
-		for (int i=0;i<totalCores;i++) { 
-			coresLayer.add(new Set(tmp[i], i));
+		int [][] x = new int[sets][];
+		int [][] y = new int[sets][];
+		
+		for (int i=0;i<sets;i++) { 
+			x[i] = new int[count[i]];
+			y[i] = new int[count[i]];
+			count[i] = 0;
 		}
 		
-		// Create a layers containing one set per node. 
-		for (int i=0;i<totalNodes;i++) {
+		for (int i=0;i<totalBlocks;i++) { 
 			
-			ArrayList<Set> coresOfNode = new ArrayList<Set>();
-			ArrayList<Block> blocksOfNode = new ArrayList<Block>();
+			int owner = getOwner(i);
 			
-			for (int j=0;j<coresPerNode;j++) {
-				Set core = coresLayer.get(i*coresPerNode+j);
-
-				coresOfNode.add(core);
-				core.getAll(blocksOfNode);
+			if (owner > 0) { 
+				int set = (owner-1) / coresPerSet;
+				x[set][count[set]] = i % blocksPerRow;
+				y[set][count[set]] = i / blocksPerRow;
+				count[set]++;
 			}
-			
-			Set node = new Set(blocksOfNode, i);
-			node.addSubSets(coresOfNode);
-			nodesLayer.add(node);
 		}
-
-		// Create a layers containing one set per cluster. 
-		for (int i=0;i<clusters;i++) {
-					
-			ArrayList<Set> nodesOfCluster = new ArrayList<Set>();
-			ArrayList<Block> blocksOfCluster = new ArrayList<Block>();
-					
-			for (int j=0;j<nodesPerCluster;j++) {
-				Set node = nodesLayer.get(i*nodesPerCluster+j);
-				
-				nodesOfCluster.add(node);
-				node.getAll(blocksOfCluster);
-			}
-					
-			Set cluster = new Set(blocksOfCluster, i);
-			cluster.addSubSets(nodesOfCluster);
-			clusterLayer.add(cluster);
+		
+		Set [] result = new Set[sets];
+		
+		for (int i=0;i<sets;i++) { 
+			result[i] = new Set(x[i], y[i], null, i);
 		}
 		
-		return layers;
+		return result;
 	}
 }
@@ -17,8 +17,11 @@
 package nl.esciencecenter.esalsa.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 
 import org.slf4j.Logger;
@@ -26,6 +29,16 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Grid represents an rectangular grid of Blocks.
+ * 
+ * The grid does not store a Block object for each location. Instead, the occupied locations are stored in a bitset, and the 
+ * location and weight of each block are stored in dense arrays, ordered row by row. Each block can therefore be identified by 
+ * its index (0 to {@link #getCount()}-1), which is found in O(1) using the number of blocks stored before each word of the 
+ * bitset. Block objects are only created when they are requested using {@link #get(int, int)}, {@link #getBlock(int)} or 
+ * {@link #iterator()}. Once created, the same Block object is returned for a location, so marks set on a block are kept. 
+ * 
+ * Since Block objects are created on demand, a Grid should not be used by multiple threads concurrently, except through the 
+ * primitive methods {@link #isActive(int, int)}, {@link #getIndex(int, int)}, {@link #getLocation(int)} and 
+ * {@link #getWeight(int)}.
  *    
  * @author Jason Maassen <J.Maassen@esciencecenter.nl>
  * @version 1.0
@@ -50,12 +63,36 @@ public class Grid implements Iterable<Block> {
 	/** The height of a block in topography points. */
 	public final int blockHeight;
 	
-	/** An array of length width*height to store blocks in this grid. */ 
-	private final Block [] blocks;
+	/** The x coordinate of the first topography point of the first block column. */
+	public final int offsetX;
+	
+	/** The y coordinate of the first topography point of the first block row. */
+	public final int offsetY;
+	
+	/** The occupancy of the grid. Bit i%64 of word i/64 is set if location i (stored row by row) contains a block. */ 
+	private final long [] occupied;
+	
+	/** The number of blocks stored before each word of {@link #occupied}. */
+	private final int [] ranks;
+	
+	/** The locations (y*width + x) of the blocks in this grid in increasing order. Only the first count entries are used. */
+	private int [] locations;
+	
+	/** The weight of each block, stored in the same order as {@link #locations}. */
+	private int [] weights;
+	
+	/** The Block objects created so far, stored in the same order as {@link #locations}, or null if none were created yet. */
+	private Block [] blocks;
 
 	/** The number of active blocks in this grid. */ 
 	private int count = 0; 
 	
+	/** The component of each block, stored row by row, or null if the components have not been labelled. */
+	private int [] components;
+	
+	/** The number of components found by {@link #labelComponents(Components)}. */
+	private int componentCount = 0;
+	
 	/** 
 	 * Create an empty grid of size width x height.  
 	 * 
@@ -68,8 +105,13 @@ public class Grid implements Iterable<Block> {
 		this.height = height;
 		this.blockWidth = blockWidth;
 		this.blockHeight = blockHeight;
+		this.offsetX = 0;
+		this.offsetY = 0;
 		
-		blocks = new Block[width*height];
+		occupied = new long[(width*height + 63) >>> 6];
+		ranks = new int[occupied.length];
+		locations = new int[16];
+		weights = new int[16];
 		
 		if (logger.isDebugEnabled()) {   
 			logger.debug("Created Grid " + width + "x" + height);
@@ -77,7 +119,7 @@ public class Grid implements Iterable<Block> {
 	}
 	
 	/** 
-	 * Create grid by subdividing a Topography into blocks of size blockWidth x blockHeight points.
+	 * Create grid by subdividing a Topography into blocks of size blockWidth x blockHeight points. Each block has a weight of 1.
 	 *  
 	 * Only Blocks containing at least one ocean point will be stored. As a result, after creation, 
 	 * some locations in the grid may not contain a block.      
@@ -90,44 +132,366 @@ public class Grid implements Iterable<Block> {
 	 * @see Block 
 	 */	
 	public Grid(Topography topo, int blockWidth, int blockHeight) throws Exception {
+		this(topo, blockWidth, blockHeight, WorkModel.BLOCKS);
+	}
+	
+	/** 
+	 * Create grid by subdividing a Topography into blocks of size blockWidth x blockHeight points, using a work model to 
+	 * determine the weight of each block.
+	 *  
+	 * Only Blocks containing at least one ocean point will be stored. As a result, after creation, 
+	 * some locations in the grid may not contain a block.      
+	 * 
+	 * @param topo the Topography to divide. 
+	 * @param blockWidth the width of a block in topography points.  
+	 * @param blockHeight the height of a block in topography points.
+	 * @param model the work model used to determine the weight of each block.
+	 * @throws Exception if the block size does not divide the topography equally.
+	 * @see Topography
+	 * @see Block 
+	 * @see WorkModel
+	 */	
+	public Grid(Topography topo, int blockWidth, int blockHeight, WorkModel model) throws Exception {
+		this(topo, blockWidth, blockHeight, model, 0, 0);
+	}
+	
+	/** 
+	 * Create grid by subdividing a Topography into blocks of size blockWidth x blockHeight points, starting at topography point 
+	 * (offsetX, offsetY) and using a work model to determine the weight of each block.
+	 * 
+	 * Blocks wrap around the edges of the topography, so the last block column (or row) contains the first offsetX columns 
+	 * (or offsetY rows) of the topography. The weight of a block that wraps around is the sum of the weights of its parts. 
+	 * Whether the boundaries allow the offset is checked by {@link Neighbours}.
+	 *  
+	 * Only Blocks containing at least one ocean point will be stored. As a result, after creation, 
+	 * some locations in the grid may not contain a block.      
+	 * 
+	 * @param topo the Topography to divide. 
+	 * @param blockWidth the width of a block in topography points.  
+	 * @param blockHeight the height of a block in topography points.
+	 * @param model the work model used to determine the weight of each block.
+	 * @param offsetX the x coordinate of the first topography point of the first block column.
+	 * @param offsetY the y coordinate of the first topography point of the first block row.
+	 * @throws Exception if the block size does not divide the topography equally.
+	 * @see Topography
+	 * @see Block 
+	 * @see WorkModel
+	 * @see BlockOffsets
+	 */	
+	public Grid(Topography topo, int blockWidth, int blockHeight, WorkModel model, int offsetX, int offsetY) throws Exception {
 		
-		if (topo.width % blockWidth != 0) {
-			throw new Exception("Cannot subdivide topography: block width " + blockWidth + 
-					" is not a divider of width " + topo.width);
+		checkBlockSize(topo.width, topo.height, blockWidth, blockHeight);
+		checkOffset(topo.width, topo.height, offsetX, offsetY);
+
+		this.width = topo.width / blockWidth;
+		this.height = topo.height / blockHeight;
+
+		this.blockWidth = blockWidth;
+		this.blockHeight = blockHeight;
+		this.offsetX = offsetX;
+		this.offsetY = offsetY;
+		
+		if (logger.isDebugEnabled()) { 
+			logger.debug("Creating new grid from topography " + width + "x" + height + " at offset " + offsetX + "x" + offsetY);
 		}
 		
-		if (topo.height % blockHeight != 0) {		
-			throw new Exception("Cannot subdivide topography: block height " + blockHeight + 
-					" is not a divider of height " + topo.height);
+		occupied = new long[(width*height + 63) >>> 6];
+		ranks = new int[occupied.length];
+		locations = new int[16];
+		weights = new int[16];
+		
+		scan(topo.getOceanMask(), topo, model);
+
+		if (logger.isDebugEnabled()) { 
+			logger.debug("Created new grid from topography with " + getCount() + " active elements.");
 		}
+	}		
+	
+	/**
+	 * Create grid by subdividing an OceanMask into blocks of size blockWidth x blockHeight points. Each block has a weight of 1.
+	 *  
+	 * Only Blocks containing at least one ocean point will be stored. As a result, after creation, 
+	 * some locations in the grid may not contain a block.      
+	 * 
+	 * @param mask the OceanMask to divide. 
+	 * @param blockWidth the width of a block in topography points.  
+	 * @param blockHeight the height of a block in topography points.
+	 * @throws Exception if the block size does not divide the mask equally.
+	 * @see OceanMask
+	 * @see Block 
+	 */	
+	public Grid(OceanMask mask, int blockWidth, int blockHeight) throws Exception {
+		this(mask, blockWidth, blockHeight, 0, 0);
+	}
+	
+	/**
+	 * Create grid by subdividing an OceanMask into blocks of size blockWidth x blockHeight points, starting at point 
+	 * (offsetX, offsetY). Each block has a weight of 1.
+	 *  
+	 * Only Blocks containing at least one ocean point will be stored. As a result, after creation, 
+	 * some locations in the grid may not contain a block.      
+	 * 
+	 * @param mask the OceanMask to divide. 
+	 * @param blockWidth the width of a block in topography points.  
+	 * @param blockHeight the height of a block in topography points.
+	 * @param offsetX the x coordinate of the first point of the first block column.
+	 * @param offsetY the y coordinate of the first point of the first block row.
+	 * @throws Exception if the block size does not divide the mask equally.
+	 * @see OceanMask
+	 * @see Block 
+	 */	
+	public Grid(OceanMask mask, int blockWidth, int blockHeight, int offsetX, int offsetY) throws Exception {
+		
+		checkBlockSize(mask.width, mask.height, blockWidth, blockHeight);
+		checkOffset(mask.width, mask.height, offsetX, offsetY);
 
-		this.width = topo.width / blockWidth;
-		this.height = topo.height / blockHeight;
+		this.width = mask.width / blockWidth;
+		this.height = mask.height / blockHeight;
 
 		this.blockWidth = blockWidth;
 		this.blockHeight = blockHeight;
+		this.offsetX = offsetX;
+		this.offsetY = offsetY;
+		
+		occupied = new long[(width*height + 63) >>> 6];
+		ranks = new int[occupied.length];
+		locations = new int[16];
+		weights = new int[16];
 		
+		scan(mask, null, null);
+
 		if (logger.isDebugEnabled()) { 
-			logger.debug("Creating new grid from topography " + width + "x" + height);
+			logger.debug("Created new grid from ocean mask with " + getCount() + " active elements.");
+		}
+	}
+
+	/**
+	 * Create grid from the precomputed work of each block. Only blocks with a work larger than 0 will be stored.
+	 *
+	 * @param width the width of the grid in blocks.
+	 * @param height the height of the grid in blocks.
+	 * @param blockWidth the width of a block in topography points.
+	 * @param blockHeight the height of a block in topography points.
+	 * @param work the number of ocean points of each block, stored row by row.
+	 * @param weight the weight of each block, stored row by row, or null if each block has a weight of 1.
+	 * @see BlockWork#getGrid(int, int, WorkModel)
+	 */
+	Grid(int width, int height, int blockWidth, int blockHeight, int [] work, int [] weight) {
+
+		this(width, height, blockWidth, blockHeight);
+
+		for (int i=0;i<work.length;i++) {
+			if (work[i] > 0) {
+				append(i, (weight == null) ? 1 : Math.max(1, weight[i]));
+			}
+		}
+
+		updateRanks(0);
+	}
+
+	/**
+	 * Find the active blocks and their weights. The block rows are divided into bands which are scanned in parallel. The 
+	 * results of the bands are appended in order, so the result does not depend on the number of threads. 
+	 * 
+	 * @param mask the OceanMask divided by this grid.
+	 * @param topo the Topography divided by this grid, or null if each block has a weight of 1.
+	 * @param model the work model used to determine the weight of each block, or null if each block has a weight of 1.
+	 * @throws Exception if the blocks could not be scanned.
+	 */
+	private void scan(final OceanMask mask, final Topography topo, final WorkModel model) throws Exception { 
+		
+		int [] start = Parallel.split(height, 4 * Parallel.getThreads());
+		
+		ArrayList<Callable<int []>> tasks = new ArrayList<Callable<int []>>();
+		
+		for (int i=0;i<start.length-1;i++) { 
+			
+			final int y0 = start[i];
+			final int y1 = start[i+1];
+			
+			tasks.add(new Callable<int []>() {
+				@Override
+				public int [] call() throws Exception {
+					return scanRows(mask, topo, model, y0, y1);
+				}
+			});
+		}
+		
+		List<int []> bands = Parallel.invokeAll(tasks);
+		
+		int total = 0;
+		
+		for (int [] band : bands) { 
+			total += (band[0] - 1) / 2;
 		}
 		
-		blocks = new Block[width*height];
+		ensureCapacity(total);
+		
+		for (int [] band : bands) { 
+			for (int i=1;i<band[0];i+=2) { 
+				append(band[i], band[i+1]);
+			}
+		}
+		
+		updateRanks(0);
+	}
+	
+	/**
+	 * Find the active blocks and their weights in the block rows y0 (inclusive) to y1 (exclusive). Whether a block is active 
+	 * only depends on the ocean mask. Only active blocks require the work model.
+	 * 
+	 * @param mask the OceanMask divided by this grid.
+	 * @param topo the Topography divided by this grid, or null if each block has a weight of 1.
+	 * @param model the work model used to determine the weight of each block, or null if each block has a weight of 1.
+	 * @param y0 the first block row.
+	 * @param y1 the end of the block rows.
+	 * @return an array containing the number of used entries, followed by (location, weight) pairs.
+	 */
+	private int [] scanRows(OceanMask mask, Topography topo, WorkModel model, int y0, int y1) { 
+		
+		int [] result = new int[1 + 2*(y1-y0)*width];
+		int used = 1;
 		
-		for (int y=0;y<height;y++) { 
+		for (int y=y0;y<y1;y++) { 
 			for (int x=0;x<width;x++) {
-				
-				int tmp = topo.getRectangleWork(x*blockWidth, y*blockHeight, blockWidth, blockHeight);
-				
-				if (tmp > 0) {
-					put(new Block(new Coordinate(x, y)));					
+				if (hasOcean(mask, x, y)) {
+					result[used++] = y*width + x;
+					result[used++] = (model == null) ? 1 : Math.max(1, getWeight(topo, model, x, y));
 				} 				
 			}
 		}
-
-		if (logger.isDebugEnabled()) { 
-			logger.debug("Created new grid from topography with " + getCount() + " active elements.");
+		
+		result[0] = used;
+		return result;
+	}
+	
+	/**
+	 * Checks if a block size divides a topography equally.
+	 * 
+	 * @param width the width of the topography.
+	 * @param height the height of the topography.
+	 * @param blockWidth the width of a block in topography points.  
+	 * @param blockHeight the height of a block in topography points.
+	 * @throws Exception if the block size does not divide the topography equally.
+	 */
+	private static void checkBlockSize(int width, int height, int blockWidth, int blockHeight) throws Exception { 
+		
+		if (width % blockWidth != 0) {
+			throw new Exception("Cannot subdivide topography: block width " + blockWidth + 
+					" is not a divider of width " + width);
 		}
-	}		
+		
+		if (height % blockHeight != 0) {		
+			throw new Exception("Cannot subdivide topography: block height " + blockHeight + 
+					" is not a divider of height " + height);
+		}
+	}
+	
+	/**
+	 * Checks if an offset falls within a topography.
+	 * 
+	 * @param width the width of the topography.
+	 * @param height the height of the topography.
+	 * @param offsetX the x coordinate of the first topography point of the first block column.
+	 * @param offsetY the y coordinate of the first topography point of the first block row.
+	 */
+	private static void checkOffset(int width, int height, int offsetX, int offsetY) { 
+		
+		if (offsetX < 0 || offsetX >= width || offsetY < 0 || offsetY >= height) {
+			throw new IllegalArgumentException("Offset out of bounds! " + offsetX + "x" + offsetY);
+		}
+	}
+	
+	/**
+	 * Returns the x coordinate of the first topography point of a block column.
+	 * 
+	 * @param x the block column.
+	 * @return the x coordinate of the first topography point of the block column.
+	 */
+	public int getTopographyX(int x) { 
+		return (offsetX + x*blockWidth) % (width*blockWidth);
+	}
+	
+	/**
+	 * Returns the y coordinate of the first topography point of a block row.
+	 * 
+	 * @param y the block row.
+	 * @return the y coordinate of the first topography point of the block row.
+	 */
+	public int getTopographyY(int y) { 
+		return (offsetY + y*blockHeight) % (height*blockHeight);
+	}
+	
+	/**
+	 * Checks if the block at a given location contains at least one ocean point. A block that wraps around the edges of the
+	 * mask is split into (at most four) rectangles.
+	 * 
+	 * @param mask the OceanMask divided by this grid. 
+	 * @param x the x coordinate of the block.
+	 * @param y the y coordinate of the block.
+	 * @return if the block contains at least one ocean point.
+	 */
+	private boolean hasOcean(OceanMask mask, int x, int y) { 
+		
+		int px = getTopographyX(x);
+		int py = getTopographyY(y);
+		
+		int w1 = Math.min(blockWidth, mask.width - px);
+		int h1 = Math.min(blockHeight, mask.height - py);
+		
+		if (mask.hasOcean(px, py, w1, h1)) { 
+			return true;
+		}
+		
+		if (w1 < blockWidth && mask.hasOcean(0, py, blockWidth - w1, h1)) { 
+			return true;
+		}
+		
+		if (h1 < blockHeight && mask.hasOcean(px, 0, w1, blockHeight - h1)) { 
+			return true;
+		}
+		
+		return w1 < blockWidth && h1 < blockHeight && mask.hasOcean(0, 0, blockWidth - w1, blockHeight - h1);
+	}
+	
+	/**
+	 * Returns the weight of the block at a given location. The weight of a block that wraps around the edges of the topography 
+	 * is the sum of the weights of its parts, except for {@link WorkModel#BLOCKS}, where each block has a weight of 1.
+	 * 
+	 * @param topo the Topography divided by this grid. 
+	 * @param model the work model used to determine the weight.
+	 * @param x the x coordinate of the block.
+	 * @param y the y coordinate of the block.
+	 * @return the weight of the block.
+	 */
+	private int getWeight(Topography topo, WorkModel model, int x, int y) { 
+		
+		int px = getTopographyX(x);
+		int py = getTopographyY(y);
+		
+		int w1 = Math.min(blockWidth, topo.width - px);
+		int h1 = Math.min(blockHeight, topo.height - py);
+		
+		if (model == WorkModel.BLOCKS || (w1 == blockWidth && h1 == blockHeight)) { 
+			return model.getWeight(topo, px, py, blockWidth, blockHeight);
+		}
+		
+		int weight = model.getWeight(topo, px, py, w1, h1);
+		
+		if (w1 < blockWidth) { 
+			weight += model.getWeight(topo, 0, py, blockWidth - w1, h1);
+		}
+		
+		if (h1 < blockHeight) { 
+			weight += model.getWeight(topo, px, 0, w1, blockHeight - h1);
+			
+			if (w1 < blockWidth) { 
+				weight += model.getWeight(topo, 0, 0, blockWidth - w1, blockHeight - h1);
+			}
+		}
+		
+		return weight;
+	}
 	
 	/**
 	 *  Checks if the given coordinate falls within this grid. 
@@ -160,6 +524,132 @@ public class Grid implements Iterable<Block> {
 		return count;
 	}
 	
+	/**
+	 * Checks if a location contains a block.
+	 * 
+	 * @param location the location (y*width + x) to check.
+	 * @return if the location contains a block.
+	 */
+	private boolean isOccupied(int location) { 
+		return (occupied[location >>> 6] & (1L << location)) != 0;
+	}
+	
+	/**
+	 * Returns the number of blocks stored before a location.
+	 * 
+	 * @param location the location (y*width + x).
+	 * @return the number of blocks stored before the location.
+	 */
+	private int rank(int location) { 
+		return ranks[location >>> 6] + Long.bitCount(occupied[location >>> 6] & ((1L << location) - 1));
+	}
+	
+	/**
+	 * Recompute the number of blocks stored before each word of {@link #occupied}, starting at a given word.
+	 * 
+	 * @param word the first word for which the number of blocks may have changed.
+	 */
+	private void updateRanks(int word) { 
+		
+		for (int i=Math.max(1, word);i<ranks.length;i++) { 
+			ranks[i] = ranks[i-1] + Long.bitCount(occupied[i-1]);
+		}
+	}
+	
+	/**
+	 * Ensure the dense arrays can store at least a given number of blocks.
+	 * 
+	 * @param size the number of blocks to store.
+	 */
+	private void ensureCapacity(int size) { 
+		
+		if (size <= locations.length) { 
+			return;
+		}
+		
+		int length = Math.max(size, 2*locations.length);
+		
+		int [] tmp = new int[length];
+		System.arraycopy(locations, 0, tmp, 0, count);
+		locations = tmp;
+		
+		tmp = new int[length];
+		System.arraycopy(weights, 0, tmp, 0, count);
+		weights = tmp;
+		
+		if (blocks != null) { 
+			Block [] b = new Block[length];
+			System.arraycopy(blocks, 0, b, 0, count);
+			blocks = b;
+		}
+	}
+	
+	/**
+	 * Append a block after all blocks stored so far, without creating a Block object. The ranks must be updated afterwards using 
+	 * {@link #updateRanks(int)}.
+	 * 
+	 * @param location the location (y*width + x) of the block, which must be larger than all locations stored so far.
+	 * @param weight the weight of the block.
+	 */
+	private void append(int location, int weight) { 
+		
+		ensureCapacity(count+1);
+		
+		occupied[location >>> 6] |= 1L << location;
+		locations[count] = location;
+		weights[count] = weight;
+		count++;
+	}
+	
+	/**
+	 * Insert an empty location at a given index, shifting the blocks stored after it. The weight and Block of the new entry 
+	 * must be set by the caller.
+	 * 
+	 * @param location the location (y*width + x) to insert, which must not contain a block.
+	 * @param index the index at which to insert the location, which must be equal to rank(location).
+	 */
+	private void insert(int location, int index) { 
+		
+		ensureCapacity(count+1);
+		
+		System.arraycopy(locations, index, locations, index+1, count-index);
+		System.arraycopy(weights, index, weights, index+1, count-index);
+		
+		if (blocks != null) { 
+			System.arraycopy(blocks, index, blocks, index+1, count-index);
+			blocks[index] = null;
+		}
+		
+		occupied[location >>> 6] |= 1L << location;
+		locations[index] = location;
+		count++;
+		
+		updateRanks((location >>> 6) + 1);
+	}
+	
+	/**
+	 * Remove the block stored at a given index, shifting the blocks stored after it.
+	 * 
+	 * @param index the index of the block to remove.
+	 */
+	private void remove(int index) { 
+		
+		int location = locations[index];
+		
+		System.arraycopy(locations, index+1, locations, index, count-index-1);
+		System.arraycopy(weights, index+1, weights, index, count-index-1);
+		
+		if (blocks != null) { 
+			System.arraycopy(blocks, index+1, blocks, index, count-index-1);
+			blocks[count-1] = null;
+		}
+		
+		occupied[location >>> 6] &= ~(1L << location);
+		count--;
+		
+		updateRanks((location >>> 6) + 1);
+	}
+	
 	/**
 	 * Stores a Block in the grid. 
 	 * 
@@ -172,11 +662,19 @@ public class Grid implements Iterable<Block> {
 			throw new IllegalArgumentException("Coordinate out of bounds! " + b.coordinate);
 		}
 		
-		if (blocks[b.coordinate.y*width + b.coordinate.x] == null) { 
-			count++;
+		int location = b.coordinate.y*width + b.coordinate.x;
+		int index = rank(location);
+		
+		if (!isOccupied(location)) { 
+			insert(location, index);
 		}
 		
-		blocks[b.coordinate.y*width + b.coordinate.x] = b;
+		if (blocks == null) { 
+			blocks = new Block[locations.length];
+		}
+		
+		weights[index] = b.getWeight();
+		blocks[index] = b;
 	}
 	
 	/** 
@@ -192,6 +690,119 @@ public class Grid implements Iterable<Block> {
 		}
 	}
 	
+	/**
+	 * Returns the range of block columns (or rows) overlapping a range of topography columns (or rows). 
+	 * 
+	 * @param start the first topography column of the range.
+	 * @param length the number of topography columns in the range.
+	 * @param offset the first topography column of the first block column.
+	 * @param size the width of the topography.
+	 * @param blockSize the width of a block.
+	 * @param blocks the number of block columns.
+	 * @return an array containing the first block column and the number of block columns, which may wrap around.
+	 */
+	private static int [] getBlockRange(int start, int length, int offset, int size, int blockSize, int blocks) { 
+		
+		if (length > size - blockSize) { 
+			return new int [] { 0, blocks };
+		}
+		
+		int first = (((start - offset) % size) + size) % size / blockSize;
+		int last = (((start + length - 1 - offset) % size) + size) % size / blockSize;
+		
+		return new int [] { first, (last - first + blocks) % blocks + 1 };
+	}
+	
+	/**
+	 * Recompute the blocks overlapping a rectangle of the topography after it has been edited, for example using 
+	 * {@link Topography#fill(int, int, int, int, int)}. Blocks that no longer contain any ocean points are removed, blocks that 
+	 * now contain ocean points are added, and the weight of the remaining blocks is recomputed. All other blocks are left 
+	 * untouched. 
+	 * 
+	 * The Block objects of changed blocks are replaced, so any marks set on them are lost. If any block changed, the labels 
+	 * found by {@link #labelComponents(Components)} are discarded, as the edit may have connected or separated components.
+	 * 
+	 * @param topo the edited topography.
+	 * @param model the work model used to determine the weight of each block.
+	 * @param x the x position of the edited rectangle in the topography.
+	 * @param y the y position of the edited rectangle in the topography.
+	 * @param w the width of the edited rectangle.
+	 * @param h the height of the edited rectangle.
+	 * @return the locations (y*width + x) of the blocks that were added, removed or changed weight, in increasing order.
+	 * @throws Exception if the topography does not match this grid.
+	 * @see Topography#getDirtyRectangles()
+	 */
+	public int [] update(Topography topo, WorkModel model, int x, int y, int w, int h) throws Exception { 
+		
+		if (topo.width != width * blockWidth || topo.height != height * blockHeight) { 
+			throw new Exception("Topography of " + topo.width + "x" + topo.height + " does not match grid of " + width + "x" 
+					+ height + " blocks of " + blockWidth + "x" + blockHeight);
+		}
+		
+		if (x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > topo.width || y + h > topo.height) { 
+			throw new IllegalArgumentException("Rectangle out of bounds! " + x + "x" + y + " " + w + "x" + h);
+		}
+		
+		int [] columns = getBlockRange(x, w, offsetX, topo.width, blockWidth, width);
+		int [] rows = getBlockRange(y, h, offsetY, topo.height, blockHeight, height);
+		
+		OceanMask mask = topo.getOceanMask();
+		
+		int [] result = new int[columns[1] * rows[1]];
+		int changed = 0;
+		
+		for (int j=0;j<rows[1];j++) { 
+			
+			int by = (rows[0] + j) % height;
+			
+			for (int i=0;i<columns[1];i++) { 
+				
+				int bx = (columns[0] + i) % width;
+				int location = by*width + bx;
+				
+				boolean ocean = hasOcean(mask, bx, by);
+				int weight = ocean ? Math.max(1, getWeight(topo, model, bx, by)) : 0;
+				int index = rank(location);
+				
+				if (isOccupied(location)) {
+					if (!ocean) { 
+						remove(index);
+					} else if (weights[index] != weight) { 
+						weights[index] = weight;
+						
+						if (blocks != null) { 
+							blocks[index] = null;
+						}
+					} else { 
+						continue;
+					}
+				} else if (ocean) { 
+					insert(location, index);
+					weights[index] = weight;
+				} else { 
+					continue;
+				}
+				
+				result[changed++] = location;
+			}
+		}
+		
+		result = Arrays.copyOf(result, changed);
+		Arrays.sort(result);
+		
+		if (changed > 0) { 
+			components = null;
+			componentCount = 0;
+		}
+		
+		if (logger.isDebugEnabled()) { 
+			logger.debug("Updated grid for rectangle " + x + "x" + y + " " + w + "x" + h + ": " + changed + " blocks changed, " 
+					+ count + " active blocks.");
+		}
+		
+		return result;
+	}
+	
 	/** 
 	 * Retrieves all Blocks in this grid and store them in a Collection. 
 	 * 
@@ -200,10 +811,8 @@ public class Grid implements Iterable<Block> {
 	 * @see Collection
 	 */	
 	public void getAll(Collection<Block> out) {
-		for (Block b : blocks) {
-			if (b != null) { 
-				out.add(b);
-			}
+		for (int i=0;i<count;i++) {
+			out.add(getBlock(i));
 		}
 	}
 
@@ -228,15 +837,118 @@ public class Grid implements Iterable<Block> {
 	 */
 	public Block get(int x, int y) { 
 		
+		int index = getIndex(x, y);
+		
+		if (index < 0) { 
+			return null;
+		}
+		
+		return getBlock(index);
+	}
+	
+	/**
+	 * Checks if a location contains a block, without creating a Block object.
+	 * 
+	 * @param x the x coordinate of the location to check.
+	 * @param y the y coordinate of the location to check.
+	 * @return if the location contains a block.
+	 */
+	public boolean isActive(int x, int y) { 
+		
+		if (!inRange(x, y)) { 
+			throw new IllegalArgumentException("Coordiate out of bounds! " + x + "x" + y);
+		}
+		
+		return isOccupied(y*width + x);
+	}
+	
+	/**
+	 * Returns the index of the block at a given location. Blocks are numbered 0 to {@link #getCount()}-1 row by row.
+	 * 
+	 * @param x the x coordinate of the location.
+	 * @param y the y coordinate of the location.
+	 * @return the index of the block at the given location, or -1 if the location is empty.
+	 */
+	public int getIndex(int x, int y) { 
+		
 		if (!inRange(x, y)) { 
 			throw new IllegalArgumentException("Coordiate out of bounds! " + x + "x" + y);
 		}
 		
-		return blocks[y*width + x];
+		int location = y*width + x;
+		
+		if (!isOccupied(location)) { 
+			return -1;
+		}
+		
+		return rank(location);
+	}
+	
+	/**
+	 * Returns the location (y*width + x) of a block.
+	 * 
+	 * @param index the index of the block.
+	 * @return the location of the block.
+	 */
+	public int getLocation(int index) { 
+		
+		if (index < 0 || index >= count) { 
+			throw new IllegalArgumentException("Index out of bounds! " + index);
+		}
+		
+		return locations[index];
+	}
+	
+	/**
+	 * Returns the weight of a block.
+	 * 
+	 * @param index the index of the block.
+	 * @return the weight of the block.
+	 */
+	public int getWeight(int index) { 
+		
+		if (index < 0 || index >= count) { 
+			throw new IllegalArgumentException("Index out of bounds! " + index);
+		}
+		
+		return weights[index];
+	}
+	
+	/**
+	 * Returns the Block with a given index, creating the Block object if needed.
+	 * 
+	 * @param index the index of the block.
+	 * @return the Block with the given index.
+	 * @see Block
+	 */
+	public Block getBlock(int index) { 
+		
+		if (index < 0 || index >= count) { 
+			throw new IllegalArgumentException("Index out of bounds! " + index);
+		}
+		
+		if (blocks == null) { 
+			blocks = new Block[locations.length];
+		}
+		
+		Block b = blocks[index];
+		
+		if (b == null) { 
+			b = new Block(new Coordinate(locations[index] % width, locations[index] / width), weights[index]);
+			blocks[index] = b;
+		}
+		
+		return b;
 	}
 	
 	@Override
 	public Iterator<Block> iterator() {
+		
+		// Create all Block objects, so the iterator can skip the unused entries at the end. 
+		for (int i=0;i<count;i++) { 
+			getBlock(i);
+		}
+		
 		return new BlockIterator(blocks);
 	}
 	
@@ -255,21 +967,313 @@ public class Grid implements Iterable<Block> {
 	 */
 	public Block [] getRectangle(int x, int y, int width, int height) { 
 		
-		ArrayList<Block> result = new ArrayList<Block>();
+		final ArrayList<Block> result = new ArrayList<Block>();
+		
+		visitRectangle(x, y, width, height, new BlockVisitor() {
+			@Override
+			public boolean visit(int bx, int by, int index) {
+				result.add(getBlock(index));
+				return true;
+			}
+		});
 		
-		for (int j=y;j<y+height;j++) { 
-			for (int i=x;i<x+width;i++) {
-				if (inRange(x, y)) {
+		return result.toArray(new Block[result.size()]);		
+	}
+	
+	/**
+	 * Returns the first location (y*width + x) at or after a given location that contains a block. Empty stretches of the grid 
+	 * are skipped 64 locations at a time.
+	 * 
+	 * @param location the location to start at.
+	 * @return the first location at or after the given location that contains a block, or -1 if there is no such location.
+	 */
+	public int nextLocation(int location) { 
+		return nextLocation(location, width*height);
+	}
+	
+	/**
+	 * Returns the first location (y*width + x) at or after a given location and before an end location that contains a block. 
+	 * Empty stretches of the grid are skipped 64 locations at a time, and no locations at or after the end are inspected.
+	 * 
+	 * @param location the location to start at.
+	 * @param end the location to stop at (exclusive).
+	 * @return the first location in [location, end) that contains a block, or -1 if there is no such location.
+	 */
+	public int nextLocation(int location, int end) { 
+		
+		if (location < 0) { 
+			throw new IllegalArgumentException("Location out of bounds! " + location);
+		}
+		
+		end = Math.min(end, width*height);
+		
+		if (location >= end) { 
+			return -1;
+		}
+		
+		int word = location >>> 6;
+		int last = (end - 1) >>> 6;
+		long bits = occupied[word] & (-1L << location);
+		
+		while (bits == 0) { 
+			
+			word++;
+			
+			if (word > last) { 
+				return -1;
+			}
+			
+			bits = occupied[word];
+		}
+		
+		int result = (word << 6) + Long.numberOfTrailingZeros(bits);
+		
+		return (result < end) ? result : -1;
+	}
+	
+	/**
+	 * Visit all blocks in this grid, row by row, without creating Block objects.
+	 * 
+	 * @param visitor the visitor to call for each block.
+	 * @return false if the visitor stopped the visit, true otherwise. 
+	 */
+	public boolean visit(BlockVisitor visitor) { 
+		
+		for (int i=0;i<count;i++) { 
+			if (!visitor.visit(locations[i] % width, locations[i] / width, i)) { 
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Visit all blocks in a rectangular subsection of this grid, row by row, without creating Block objects. The subsection is 
+	 * enclosed by the locations (x,y) (inclusive) and (x+width,y+height) (exclusive). Locations outside the grid are ignored.
+	 * 
+	 * @param x the x coordinate of the subsection.  
+	 * @param y the y coordinate of the subsection.	  
+	 * @param width the width of the subsection. 
+	 * @param height the height of the subsection.
+	 * @param visitor the visitor to call for each block.
+	 * @return false if the visitor stopped the visit, true otherwise. 
+	 */
+	public boolean visitRectangle(int x, int y, int width, int height, BlockVisitor visitor) { 
+		
+		int x0 = Math.max(x, 0);
+		int x1 = Math.min(x + width, this.width);
+		int y0 = Math.max(y, 0);
+		int y1 = Math.min(y + height, this.height);
+		
+		if (x0 >= x1) { 
+			return true;
+		}
+		
+		for (int j=y0;j<y1;j++) { 
+			
+			int offset = j*this.width;
+			int end = offset + x1;
+			
+			int location = nextLocation(offset + x0, end);
+			int index = -1;
+			
+			while (location >= 0) { 
+				
+				// Blocks in a row are numbered consecutively, so only the first index is computed. 
+				index = (index < 0) ? rank(location) : index + 1;
+				
+				if (!visitor.visit(location - offset, j, index)) { 
+					return false;
+				}
+				
+				location = nextLocation(location + 1, end);
+			}
+		}
+		
+		return true;
+	}
+	
+	/** 
+	 * Label the connected components of the blocks in this grid, using the connected components of the ocean points of the 
+	 * topography the grid was created from.
+	 * 
+	 * Two blocks belong to the same component if they contain ocean points of the same component. As a result, blocks in 
+	 * different components never need to exchange ocean data, while a block containing points of several components joins 
+	 * these components. The components are labelled 0 to N-1 in the order in which their first block occurs (row by row). 
+	 * 
+	 * The ocean points of each band of block rows are scanned in parallel. The resulting (block, component) pairs are joined 
+	 * afterwards.
+	 * 
+	 * @param points the connected components of the ocean points.
+	 * @return the number of components.
+	 * @throws Exception if the components could not be labelled.
+	 * @see Components
+	 */
+	public int labelComponents(final Components points) throws Exception { 
+		
+		if (points.width != width * blockWidth || points.height != height * blockHeight) { 
+			throw new IllegalArgumentException("Components of " + points.width + "x" + points.height + " do not match grid of " 
+					+ width + "x" + height + " blocks of " + blockWidth + "x" + blockHeight);
+		}
+		
+		int [] start = Parallel.split(height, 4 * Parallel.getThreads());
+		
+		ArrayList<Callable<int []>> tasks = new ArrayList<Callable<int []>>();
+		
+		for (int i=0;i<start.length-1;i++) { 
+			
+			final int y0 = start[i];
+			final int y1 = start[i+1];
+			
+			tasks.add(new Callable<int []>() {
+				@Override
+				public int [] call() throws Exception {
+					return getComponentPairs(points, y0, y1);
+				}
+			});
+		}
+		
+		List<int []> pairs = Parallel.invokeAll(tasks);
+		
+		int [] parent = new int[width*height];
+		
+		for (int i=0;i<parent.length;i++) { 
+			parent[i] = isOccupied(i) ? i : Components.LAND;
+		}
+		
+		// The first block found containing each point component.
+		int [] first = new int[points.getCount()];
+		
+		for (int i=0;i<first.length;i++) { 
+			first[i] = -1;
+		}
+		
+		for (int [] p : pairs) { 
+			for (int i=1;i<p[0];i+=2) { 
+				
+				int block = p[i];
+				int label = p[i+1];
+				
+				if (first[label] < 0) { 
+					first[label] = block;
+				} else { 
+					Components.union(parent, first[label], block);
+				}
+			}
+		}
+		
+		// Replace the parents by labels, as in Components.
+		int result = 0;
+		
+		for (int i=0;i<parent.length;i++) {
+			
+			int p = parent[i];
+			
+			if (p != Components.LAND) {
+				parent[i] = (p == i) ? result++ : parent[p];
+			}
+		}
+		
+		components = parent;
+		componentCount = result;
+		
+		if (logger.isDebugEnabled()) { 
+			logger.debug("Found " + result + " components in grid with " + getCount() + " active blocks"); 
+		}
+		
+		return result;
+	}
+	
+	/** 
+	 * Find the point components contained in each block of the block rows y0 (inclusive) to y1 (exclusive). 
+	 * 
+	 * @param points the connected components of the ocean points.
+	 * @param y0 the first block row.
+	 * @param y1 the end of the block rows.
+	 * @return an array containing the number of used entries, followed by (block index, component label) pairs.
+	 */
+	private int [] getComponentPairs(Components points, int y0, int y1) { 
+		
+		int [] result = new int[1 + 2*(y1-y0)*width];
+		int used = 1;
+		
+		int [] row = new int[blockWidth];
+		
+		for (int y=y0;y<y1;y++) { 
+			for (int x=0;x<width;x++) {
+				
+				if (!isOccupied(y*width + x)) { 
+					continue;
+				}
+				
+				int px = getTopographyX(x);
+				int w1 = Math.min(blockWidth, points.width - px);
+				
+				// Points are mostly part of the same component as their predecessor, so only changes are recorded. 
+				int last = Components.LAND;
+				
+				for (int j=0;j<blockHeight;j++) { 
 					
-					Block b = blocks[j*this.width + i];	
+					int py = (getTopographyY(y) + j) % points.height;
 					
-					if (b != null) {
-						result.add(b);
+					points.getRow(px, py, w1, row, 0);
+					
+					if (w1 < blockWidth) { 
+						points.getRow(0, py, blockWidth - w1, row, w1);
 					}
-				}				
+					
+					for (int i=0;i<blockWidth;i++) { 
+						
+						int label = row[i];
+						
+						if (label != Components.LAND && label != last) {
+							
+							if (used + 2 > result.length) { 
+								int [] tmp = new int[2*result.length];
+								System.arraycopy(result, 0, tmp, 0, used);
+								result = tmp;
+							}
+							
+							result[used++] = y*width + x;
+							result[used++] = label;
+							last = label;
+						}
+					}
+				}
 			}
 		}
 		
-		return result.toArray(new Block[result.size()]);		
+		result[0] = used;
+		return result;
+	}
+	
+	/** 
+	 * Returns the number of components found by the last call to {@link #labelComponents(Components)}.
+	 * 
+	 * @return the number of components.
+	 */
+	public int getComponentCount() { 
+		return componentCount;
+	}
+	
+	/** 
+	 * Returns the component of the block at a given location, as found by {@link #labelComponents(Components)}.
+	 * 
+	 * @param c the location of the block.
+	 * @return the component of the block, or {@link Components#LAND} if the location is empty.
+	 * @throws IllegalStateException if the components have not been labelled.
+	 */
+	public int getComponent(Coordinate c) {
+		
+		if (components == null) { 
+			throw new IllegalStateException("Components have not been labelled");
+		}
+		
+		if (!inRange(c)) { 
+			throw new IllegalArgumentException("Coordinate out of bounds! " + c);
+		}
+		
+		return components[c.y*width + c.x];
 	}
 }
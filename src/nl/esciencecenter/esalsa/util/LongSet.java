@@ -0,0 +1,152 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.util;
+
+import java.util.Arrays;
+
+/**
+ * LongSet is a set of non-negative longs, such as packed coordinates, stored in an open addressing hash table using linear
+ * probing. Unlike a HashSet&lt;Long&gt;, adding a value does not create any objects.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ * @see Coordinate#pack(int, int)
+ */
+final class LongSet {
+
+	/** The value used to mark an empty slot of the table. */
+	private static final long EMPTY = -1L;
+
+	/** The hash table, of which the length is always a power of two. */
+	private long [] table;
+
+	/** The number of values in the set. */
+	private int size = 0;
+
+	/**
+	 * Create an empty LongSet able to store a given number of values without growing.
+	 *
+	 * @param capacity the expected number of values.
+	 */
+	LongSet(int capacity) {
+
+		int length = 16;
+
+		while (length < 2 * capacity) {
+			length <<= 1;
+		}
+
+		table = new long[length];
+		Arrays.fill(table, EMPTY);
+	}
+
+	/**
+	 * Returns the slot of a value in a table, or of the empty slot where it should be stored.
+	 *
+	 * @param table the table to search.
+	 * @param value the value to find.
+	 * @return the slot of the value.
+	 */
+	private static int find(long [] table, long value) {
+
+		int mask = table.length - 1;
+		int slot = (int) ((value * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+
+		while (table[slot] != EMPTY && table[slot] != value) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Add a value to the set.
+	 *
+	 * @param value the non-negative value to add.
+	 * @return if the value was added, that is, it was not in the set yet.
+	 */
+	boolean add(long value) {
+
+		if (value < 0) {
+			throw new IllegalArgumentException("Illegal value " + value);
+		}
+
+		int slot = find(table, value);
+
+		if (table[slot] == value) {
+			return false;
+		}
+
+		table[slot] = value;
+		size++;
+
+		if (2 * size > table.length) {
+
+			long [] tmp = new long[2 * table.length];
+			Arrays.fill(tmp, EMPTY);
+
+			for (int i=0;i<table.length;i++) {
+				if (table[i] != EMPTY) {
+					tmp[find(tmp, table[i])] = table[i];
+				}
+			}
+
+			table = tmp;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks if the set contains a value.
+	 *
+	 * @param value the value to check.
+	 * @return if the set contains the value.
+	 */
+	boolean contains(long value) {
+		return value >= 0 && table[find(table, value)] == value;
+	}
+
+	/**
+	 * Returns the number of values in the set.
+	 *
+	 * @return the number of values in the set.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the values in the set, in no particular order.
+	 *
+	 * @return an array containing the values in the set.
+	 */
+	long [] toArray() {
+
+		long [] result = new long[size];
+		int count = 0;
+
+		for (int i=0;i<table.length;i++) {
+			if (table[i] != EMPTY) {
+				result[count++] = table[i];
+			}
+		}
+
+		return result;
+	}
+}
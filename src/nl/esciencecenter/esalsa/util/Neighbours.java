@@ -62,6 +62,9 @@ public class Neighbours {
 	/** The grid containing the blocks to use. */
 	private final Grid grid;
 	
+	/** The number of block columns by which the tripole fold is shifted due to the x offset of the grid. */
+	private final int tripoleShift;
+	
 	public Neighbours(Grid grid, int blockWidth, int blockHeight, int boundaryW, int boundaryV) { 
 
 		// Ensure the boundary wrapping settings are correct. 
@@ -73,7 +76,17 @@ public class Neighbours {
 			throw new IllegalArgumentException("Illegal boundaryV " + boundaryV);
 		}
 
+		// A grid that does not start at the origin must wrap around, and the tripole fold must map blocks onto blocks.
+		if (grid.offsetX != 0 && (boundaryW != CYCLIC || (boundaryV == TRIPOLE && (2 * grid.offsetX) % blockWidth != 0))) { 
+			throw new IllegalArgumentException("Illegal grid offsetX " + grid.offsetX);
+		}
+		
+		if (grid.offsetY != 0 && boundaryV != CYCLIC) { 
+			throw new IllegalArgumentException("Illegal grid offsetY " + grid.offsetY);
+		}
+		
 		this.grid = grid;
+		this.tripoleShift = (2 * grid.offsetX) / blockWidth;
 		this.boundaryW = boundaryW;
 		this.boundaryV = boundaryV;
 
@@ -84,6 +97,23 @@ public class Neighbours {
 		this.messageSizeTripole = blockWidth * (HALOWIDTH+1);
 	}
 	
+	/**
+	 * Shift the x coordinate of a tripole neighbor to compensate for the x offset of the grid. Block column x starts at 
+	 * topography point offsetX + x*blockWidth, which is mirrored by the fold onto the block column that is 2*offsetX/blockWidth 
+	 * columns to the west of the one used by POP. 
+	 * 
+	 * @param x the x coordinate of the tripole neighbor of a grid without offset.
+	 * @return the x coordinate of the tripole neighbor.
+	 */
+	private int shiftTripole(int x) { 
+		
+		if (tripoleShift == 0) { 
+			return x;
+		}
+		
+		return ((x - tripoleShift) % grid.width + grid.width) % grid.width;
+	}
+	
 	/**
 	 * Retrieve the north neighbor of the given source coordinate. 
 	 * 
@@ -96,31 +126,43 @@ public class Neighbours {
 	 * @param includeLand should land only coordinates be returned ?
 	 * @return the coordinate of the north neighbor of the source, or null if no valid neighbor exists.  
 	 */
-	public Coordinate getNeighbourNorth(Coordinate c, boolean includeLand) { 
+	public Coordinate getNeighbourNorth(Coordinate c, boolean includeLand) {
+		return toCoordinate(getNeighbourNorth(c.x, c.y, includeLand));
+	}
+
+	/**
+	 * Primitive version of {@link #getNeighbourNorth(Coordinate, boolean)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @param includeLand should land only coordinates be returned ?
+	 * @return the packed coordinate of the neighbor, or {@link Coordinate#NONE} if no valid neighbor exists.
+	 */
+	private long getNeighbourNorth(int cx, int cy, boolean includeLand) { 
 
-		int x = c.x;
-		int y = c.y + 1;
+		int x = cx;
+		int y = cy + 1;
 		
 		if (y >= grid.height) { 
 			switch (boundaryV) { 
 			case CLOSED:
-				return null;
+				return Coordinate.NONE;
 			case CYCLIC:
 				y = 0;
 				break;
 			case TRIPOLE:
 				// POP_numBlocksX - iBlock + 1 				
-				x = (grid.width - (c.x+1) + 1) - 1;
-				y = c.y;
+				x = shiftTripole((grid.width - (cx+1) + 1) - 1);
+				y = cy;
 				break;
 			}
 		}
 		
-		if (!includeLand && grid.get(x, y) == null) { 
-			return null;
+		if (!includeLand && !grid.isActive(x, y)) { 
+			return Coordinate.NONE;
 		}
 		
-		return new Coordinate(x, y);
+		return Coordinate.pack(x, y);
 	}
 
 	/**
@@ -135,27 +177,39 @@ public class Neighbours {
 	 * @param includeLand should land only coordinates be returned ?
 	 * @return the coordinate of the south neighbor of the source, or null if no valid neighbor exists.  
 	 */
-	public Coordinate getNeighbourSouth(Coordinate c, boolean includeLand) { 
+	public Coordinate getNeighbourSouth(Coordinate c, boolean includeLand) {
+		return toCoordinate(getNeighbourSouth(c.x, c.y, includeLand));
+	}
+
+	/**
+	 * Primitive version of {@link #getNeighbourSouth(Coordinate, boolean)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @param includeLand should land only coordinates be returned ?
+	 * @return the packed coordinate of the neighbor, or {@link Coordinate#NONE} if no valid neighbor exists.
+	 */
+	private long getNeighbourSouth(int cx, int cy, boolean includeLand) { 
 
-		int x = c.x;
-		int y = c.y - 1;
+		int x = cx;
+		int y = cy - 1;
 		
 		if (y < 0) { 
 			switch (boundaryV) { 
 			case CLOSED:
 			case TRIPOLE:
-				return null;
+				return Coordinate.NONE;
 			case CYCLIC:
 				y = grid.height-1;
 				break;
 			}
 		}
 
-		if (!includeLand && grid.get(x, y) == null) { 
-			return null;
+		if (!includeLand && !grid.isActive(x, y)) { 
+			return Coordinate.NONE;
 		}
 		
-		return new Coordinate(x, y);
+		return Coordinate.pack(x, y);
 	}
 
 	/**
@@ -171,25 +225,37 @@ public class Neighbours {
 	 * @return the coordinate of the east neighbor of the source, or null if no valid neighbor exists.  
 	 */
 	public Coordinate getNeighbourEast(Coordinate c, boolean includeLand) {
+		return toCoordinate(getNeighbourEast(c.x, c.y, includeLand));
+	}
+
+	/**
+	 * Primitive version of {@link #getNeighbourEast(Coordinate, boolean)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @param includeLand should land only coordinates be returned ?
+	 * @return the packed coordinate of the neighbor, or {@link Coordinate#NONE} if no valid neighbor exists.
+	 */
+	private long getNeighbourEast(int cx, int cy, boolean includeLand) {
 		
-		int x = c.x + 1;
-		int y = c.y;
+		int x = cx + 1;
+		int y = cy;
 		
 		if (x >= grid.width) { 
 			switch (boundaryW) { 
 			case CLOSED:
-				return null;
+				return Coordinate.NONE;
 			case CYCLIC:
 				x = 0;
 				break;
 			}
 		}
 
-		if (!includeLand && grid.get(x, y) == null) { 
-			return null;
+		if (!includeLand && !grid.isActive(x, y)) { 
+			return Coordinate.NONE;
 		}
 		
-		return new Coordinate(x, y);		
+		return Coordinate.pack(x, y);		
 	}
 
 	/**
@@ -205,25 +271,37 @@ public class Neighbours {
 	 * @return the coordinate of the west neighbor of the source, or null if no valid neighbor exists.  
 	 */
 	public Coordinate getNeighbourWest(Coordinate c, boolean includeLand) {
+		return toCoordinate(getNeighbourWest(c.x, c.y, includeLand));
+	}
+
+	/**
+	 * Primitive version of {@link #getNeighbourWest(Coordinate, boolean)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @param includeLand should land only coordinates be returned ?
+	 * @return the packed coordinate of the neighbor, or {@link Coordinate#NONE} if no valid neighbor exists.
+	 */
+	private long getNeighbourWest(int cx, int cy, boolean includeLand) {
 	
-		int x = c.x - 1;
-		int y = c.y;
+		int x = cx - 1;
+		int y = cy;
 		
 		if (x < 0) { 
 			switch (boundaryW) { 
 			case CLOSED:
-				return null;
+				return Coordinate.NONE;
 			case CYCLIC:
 				x = grid.width-1;
 				break;
 			}
 		}
 
-		if (!includeLand && grid.get(x, y) == null) { 
-			return null;
+		if (!includeLand && !grid.isActive(x, y)) { 
+			return Coordinate.NONE;
 		}
 		
-		return new Coordinate(x, y);		
+		return Coordinate.pack(x, y);		
 	}
 
 	/**
@@ -240,14 +318,26 @@ public class Neighbours {
 	 * @return the coordinate of the north east neighbor of the source, or null if no valid neighbor exists.  
 	 */
 	public Coordinate getNeighbourNorthEast(Coordinate c, boolean includeLand) {
+		return toCoordinate(getNeighbourNorthEast(c.x, c.y, includeLand));
+	}
+
+	/**
+	 * Primitive version of {@link #getNeighbourNorthEast(Coordinate, boolean)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @param includeLand should land only coordinates be returned ?
+	 * @return the packed coordinate of the neighbor, or {@link Coordinate#NONE} if no valid neighbor exists.
+	 */
+	private long getNeighbourNorthEast(int cx, int cy, boolean includeLand) {
 		
-		int x = c.x + 1;
-		int y = c.y + 1;
+		int x = cx + 1;
+		int y = cy + 1;
 
 		if (x >= grid.width) { 
 			switch (boundaryW) { 
 			case CLOSED:
-				return null;
+				return Coordinate.NONE;
 			case CYCLIC:
 				x = 0;
 				break;
@@ -257,7 +347,7 @@ public class Neighbours {
 		if (y >= grid.height) { 
 			switch (boundaryV) { 
 			case CLOSED:
-				return null;
+				return Coordinate.NONE;
 			case CYCLIC:
 				y = 0;
 				break;
@@ -265,22 +355,23 @@ public class Neighbours {
 				// inbr =  POP_numBlocksX - iBlock 
 	            // if (inbr == 0) inbr = POP_numBlocksX
 	            // jnbr = -jBlock
-				x = (grid.width - (c.x+1)) - 1;
+				x = (grid.width - (cx+1)) - 1;
 				
 				if (x < 0) { 
 					x = grid.width-1;
 				}
 				
-				y = c.y;
+				x = shiftTripole(x);
+				y = cy;
 				break;
 			}
 		}
 
-		if (!includeLand && grid.get(x, y) == null) { 
-			return null;
+		if (!includeLand && !grid.isActive(x, y)) { 
+			return Coordinate.NONE;
 		}
 		
-		return new Coordinate(x, y);		
+		return Coordinate.pack(x, y);		
 	}
 
 	/**
@@ -297,14 +388,26 @@ public class Neighbours {
 	 * @return the coordinate of the north west neighbor of the source, or null if no valid neighbor exists.  
 	 */
 	public Coordinate getNeighbourNorthWest(Coordinate c, boolean includeLand) {
+		return toCoordinate(getNeighbourNorthWest(c.x, c.y, includeLand));
+	}
+
+	/**
+	 * Primitive version of {@link #getNeighbourNorthWest(Coordinate, boolean)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @param includeLand should land only coordinates be returned ?
+	 * @return the packed coordinate of the neighbor, or {@link Coordinate#NONE} if no valid neighbor exists.
+	 */
+	private long getNeighbourNorthWest(int cx, int cy, boolean includeLand) {
 		
-		int x = c.x - 1;
-		int y = c.y + 1;
+		int x = cx - 1;
+		int y = cy + 1;
 
 		if (x < 0) { 
 			switch (boundaryW) { 
 			case CLOSED:
-				return null;
+				return Coordinate.NONE;
 			case CYCLIC:
 				x = grid.width-1;
 				break;
@@ -314,7 +417,7 @@ public class Neighbours {
 		if (y >= grid.height) { 
 			switch (boundaryV) { 
 			case CLOSED:
-				return null;
+				return Coordinate.NONE;
 			case CYCLIC:
 				y = 0;
 				break;
@@ -322,22 +425,23 @@ public class Neighbours {
 				//inbr =  POP_numBlocksX - iBlock + 2 
 	            //if (inbr > POP_numBlocksX) inbr = 1
 	            //jnbr = -jBlock
-				x = (grid.width - (c.x+1) + 2) - 1;
+				x = (grid.width - (cx+1) + 2) - 1;
 				
 				if (x >= grid.width) { 
 					x = 0;
 				}
 
-				y = c.y;
+				x = shiftTripole(x);
+				y = cy;
 				break;
 			}
 		}
 
-		if (!includeLand && grid.get(x, y) == null) { 
-			return null;
+		if (!includeLand && !grid.isActive(x, y)) { 
+			return Coordinate.NONE;
 		}
 		
-		return new Coordinate(x, y);		
+		return Coordinate.pack(x, y);		
 	}
 	
 	/**
@@ -353,15 +457,27 @@ public class Neighbours {
 	 * @param includeLand should land only coordinates be returned ?
 	 * @return the coordinate of the south east neighbor of the source, or null if no valid neighbor exists.  
 	 */
-	public Coordinate getNeighbourSouthEast(Coordinate c, boolean includeLand) { 
+	public Coordinate getNeighbourSouthEast(Coordinate c, boolean includeLand) {
+		return toCoordinate(getNeighbourSouthEast(c.x, c.y, includeLand));
+	}
+
+	/**
+	 * Primitive version of {@link #getNeighbourSouthEast(Coordinate, boolean)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @param includeLand should land only coordinates be returned ?
+	 * @return the packed coordinate of the neighbor, or {@link Coordinate#NONE} if no valid neighbor exists.
+	 */
+	private long getNeighbourSouthEast(int cx, int cy, boolean includeLand) { 
 
-		int x = c.x + 1;
-		int y = c.y - 1;
+		int x = cx + 1;
+		int y = cy - 1;
 		
 		if (x >= grid.width) { 
 			switch (boundaryW) { 
 			case CLOSED:
-				return null;
+				return Coordinate.NONE;
 			case CYCLIC:
 				x = 0;
 				break;
@@ -372,18 +488,18 @@ public class Neighbours {
 			switch (boundaryV) { 
 			case CLOSED:
 			case TRIPOLE:
-				return null;
+				return Coordinate.NONE;
 			case CYCLIC:
 				y = grid.height-1;
 				break;
 			}
 		}
 
-		if (!includeLand && grid.get(x, y) == null) { 
-			return null;
+		if (!includeLand && !grid.isActive(x, y)) { 
+			return Coordinate.NONE;
 		}
 		
-		return new Coordinate(x, y);
+		return Coordinate.pack(x, y);
 	}
 
 	/**
@@ -399,15 +515,27 @@ public class Neighbours {
 	 * @param includeLand should land only coordinates be returned ?
 	 * @return the coordinate of the south west neighbor of the source, or null if no valid neighbor exists.  
 	 */
-	public Coordinate getNeighbourSouthWest(Coordinate c, boolean includeLand) { 
+	public Coordinate getNeighbourSouthWest(Coordinate c, boolean includeLand) {
+		return toCoordinate(getNeighbourSouthWest(c.x, c.y, includeLand));
+	}
+
+	/**
+	 * Primitive version of {@link #getNeighbourSouthWest(Coordinate, boolean)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @param includeLand should land only coordinates be returned ?
+	 * @return the packed coordinate of the neighbor, or {@link Coordinate#NONE} if no valid neighbor exists.
+	 */
+	private long getNeighbourSouthWest(int cx, int cy, boolean includeLand) { 
 
-		int x = c.x - 1;
-		int y = c.y - 1;
+		int x = cx - 1;
+		int y = cy - 1;
 		
 		if (x < 0) { 
 			switch (boundaryW) { 
 			case CLOSED:
-				return null;
+				return Coordinate.NONE;
 			case CYCLIC:
 				x = grid.width-1;
 				break;
@@ -418,20 +546,63 @@ public class Neighbours {
 			switch (boundaryV) { 
 			case CLOSED:
 			case TRIPOLE:
-				return null;
+				return Coordinate.NONE;
 			case CYCLIC:
 				y = grid.height-1;
 				break;
 			}
 		}
 
-		if (!includeLand && grid.get(x, y) == null) { 
-			return null;
+		if (!includeLand && !grid.isActive(x, y)) { 
+			return Coordinate.NONE;
 		}
 		
-		return new Coordinate(x, y);
+		return Coordinate.pack(x, y);
 	}
 
+	/**
+	 * Convert a packed coordinate to a Coordinate. 
+	 * 
+	 * @param packed the packed coordinate, or {@link Coordinate#NONE}.
+	 * @return the Coordinate, or null if packed is {@link Coordinate#NONE}.
+	 */
+	private static Coordinate toCoordinate(long packed) { 
+		
+		if (packed == Coordinate.NONE) { 
+			return null;
+		}
+		
+		return new Coordinate(Coordinate.unpackX(packed), Coordinate.unpackY(packed));
+	}
+	
+	/**
+	 * Retrieve a neighbor of the source coordinate (x,y) as a packed coordinate, without creating any Coordinate objects. The 
+	 * neighbor is selected by its row and column in the matrix returned by {@link #getNeighbours(Coordinate, boolean)}, so 
+	 * row 0 column 0 selects the north west neighbor, and row 2 column 2 the south east neighbor.
+	 * 
+	 * @param x the x coordinate of the source.
+	 * @param y the y coordinate of the source.
+	 * @param row the row of the neighbor in the matrix (0 to 2).
+	 * @param column the column of the neighbor in the matrix (0 to 2).
+	 * @param includeLand should land only coordinates be returned ?
+	 * @return the packed coordinate of the neighbor, or {@link Coordinate#NONE} if no valid neighbor exists.
+	 * @see Coordinate#pack(int, int)
+	 */
+	public long getNeighbour(int x, int y, int row, int column, boolean includeLand) { 
+		
+		switch (row*3 + column) { 
+		case 0: return getNeighbourNorthWest(x, y, includeLand);
+		case 1: return getNeighbourNorth(x, y, includeLand);
+		case 2: return getNeighbourNorthEast(x, y, includeLand);
+		case 3: return getNeighbourWest(x, y, includeLand);
+		case 5: return getNeighbourEast(x, y, includeLand);
+		case 6: return getNeighbourSouthWest(x, y, includeLand);
+		case 7: return getNeighbourSouth(x, y, includeLand);
+		case 8: return getNeighbourSouthEast(x, y, includeLand);
+		default: return Coordinate.NONE;
+		}
+	}
+	
 	/**
 	 * Retrieve a 3x3 matrix containing all neighbors for the given source coordinate.
 	 * 
@@ -492,10 +663,21 @@ public class Neighbours {
 	 * @param c the source coordinate. 
 	 * @return the amount of communication needed with the north neighbor of the source, or 0 if no valid neighbor exists.  
 	 */
-	public int getMessageSizeNorth(Coordinate c) { 
+	public int getMessageSizeNorth(Coordinate c) {
+		return getMessageSizeNorth(c.x, c.y);
+	}
+
+	/**
+	 * Primitive version of {@link #getMessageSizeNorth(Coordinate)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @return the amount of communication needed with the neighbor, or 0 if no valid neighbor exists.
+	 */
+	private int getMessageSizeNorth(int cx, int cy) { 
 		
-		int x = c.x;
-		int y = c.y + 1;
+		int x = cx;
+		int y = cy + 1;
 		
 		int messageSize = messageSizeNorthSouth;
 		
@@ -508,14 +690,14 @@ public class Neighbours {
 				messageSize = messageSizeNorthSouth;
 				break;
 			case TRIPOLE:
-				x = (grid.width - (c.x+1) + 1) - 1;
-				y = c.y;
+				x = shiftTripole((grid.width - (cx+1) + 1) - 1);
+				y = cy;
 				messageSize = messageSizeTripole;
 				break;
 			}
 		}
 		
-		if (grid.get(x, y) == null) { 
+		if (!grid.isActive(x, y)) { 
 			return 0;
 		}
 
@@ -533,8 +715,19 @@ public class Neighbours {
 	 * @param c the source coordinate. 
 	 * @return the amount of communication needed with the south neighbor of the source, or 0 if no valid neighbor exists.  
 	 */
-	public int getMessageSizeSouth(Coordinate c) { 
-		return (getNeighbourSouth(c, false) == null ? 0 : messageSizeNorthSouth); 
+	public int getMessageSizeSouth(Coordinate c) {
+		return getMessageSizeSouth(c.x, c.y);
+	}
+
+	/**
+	 * Primitive version of {@link #getMessageSizeSouth(Coordinate)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @return the amount of communication needed with the neighbor, or 0 if no valid neighbor exists.
+	 */
+	private int getMessageSizeSouth(int cx, int cy) { 
+		return (getNeighbourSouth(cx, cy, false) == Coordinate.NONE ? 0 : messageSizeNorthSouth); 
 	}
 
 	/**
@@ -549,7 +742,18 @@ public class Neighbours {
 	 * @return the amount of communication needed with the east neighbor of the source, or 0 if no valid neighbor exists.  
 	 */
 	public int getMessageSizeEast(Coordinate c) {
-		return (getNeighbourEast(c, false) == null ? 0 : messageSizeEastWest); 
+		return getMessageSizeEast(c.x, c.y);
+	}
+
+	/**
+	 * Primitive version of {@link #getMessageSizeEast(Coordinate)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @return the amount of communication needed with the neighbor, or 0 if no valid neighbor exists.
+	 */
+	private int getMessageSizeEast(int cx, int cy) {
+		return (getNeighbourEast(cx, cy, false) == Coordinate.NONE ? 0 : messageSizeEastWest); 
 	}
 
 	/**
@@ -564,7 +768,18 @@ public class Neighbours {
 	 * @return the amount of communication needed with the west neighbor of the source, or 0 if no valid neighbor exists.  
 	 */
 	public int getMessageSizeWest(Coordinate c) {
-		return (getNeighbourWest(c, false) == null ? 0 : messageSizeEastWest); 
+		return getMessageSizeWest(c.x, c.y);
+	}
+
+	/**
+	 * Primitive version of {@link #getMessageSizeWest(Coordinate)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @return the amount of communication needed with the neighbor, or 0 if no valid neighbor exists.
+	 */
+	private int getMessageSizeWest(int cx, int cy) {
+		return (getNeighbourWest(cx, cy, false) == Coordinate.NONE ? 0 : messageSizeEastWest); 
 	}
 
 	/**
@@ -580,9 +795,20 @@ public class Neighbours {
 	 * @return the amount of communication needed with the north east neighbor of the source, or 0 if no valid neighbor exists.  
 	 */
 	public int getMessageSizeNorthEast(Coordinate c) {
+		return getMessageSizeNorthEast(c.x, c.y);
+	}
+
+	/**
+	 * Primitive version of {@link #getMessageSizeNorthEast(Coordinate)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @return the amount of communication needed with the neighbor, or 0 if no valid neighbor exists.
+	 */
+	private int getMessageSizeNorthEast(int cx, int cy) {
 		
-		int x = c.x + 1;
-		int y = c.y + 1;
+		int x = cx + 1;
+		int y = cy + 1;
 
 		int messageSize = messageSizeCorner;
 		
@@ -607,20 +833,21 @@ public class Neighbours {
 				// inbr =  POP_numBlocksX - iBlock 
 	            // if (inbr == 0) inbr = POP_numBlocksX
 	            // jnbr = -jBlock
-				x = (grid.width - (c.x+1)) - 1;
+				x = (grid.width - (cx+1)) - 1;
 				
 				if (x < 0) { 
 					x = grid.width-1;
 				}
 				
-				y = c.y;
+				x = shiftTripole(x);
+				y = cy;
 				
 				messageSize = messageSizeTripole;
 				break;
 			}
 		}
 
-		if (grid.get(x, y) == null) { 
+		if (!grid.isActive(x, y)) { 
 			return 0;
 		}
 		
@@ -640,9 +867,20 @@ public class Neighbours {
 	 * @return the amount of communication needed with the north west neighbor of the source, or 0 if no valid neighbor exists.  
 	 */
 	public int getMessageSizeNorthWest(Coordinate c) {
+		return getMessageSizeNorthWest(c.x, c.y);
+	}
+
+	/**
+	 * Primitive version of {@link #getMessageSizeNorthWest(Coordinate)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @return the amount of communication needed with the neighbor, or 0 if no valid neighbor exists.
+	 */
+	private int getMessageSizeNorthWest(int cx, int cy) {
 
-		int x = c.x - 1;
-		int y = c.y + 1;
+		int x = cx - 1;
+		int y = cy + 1;
 
 		int messageSize = messageSizeCorner;
 		
@@ -667,19 +905,20 @@ public class Neighbours {
 				//inbr =  POP_numBlocksX - iBlock + 2 
 	            //if (inbr > POP_numBlocksX) inbr = 1
 	            //jnbr = -jBlock
-				x = (grid.width - (c.x+1) + 2) - 1;
+				x = (grid.width - (cx+1) + 2) - 1;
 				
 				if (x >= grid.width) { 
 					x = 0;
 				}
 
-				y = c.y;
+				x = shiftTripole(x);
+				y = cy;
 				messageSize = messageSizeTripole;
 				break;
 			}
 		}
 
-		if (grid.get(x, y) == null) { 
+		if (!grid.isActive(x, y)) { 
 			return 0;
 		}
 
@@ -698,8 +937,19 @@ public class Neighbours {
 	 * @param c the source coordinate. 
 	 * @return the amount of communication needed with the south east neighbor of the source, or 0 if no valid neighbor exists.  
 	 */
-	public int getMessageSizeSouthEast(Coordinate c) { 
-		return (getNeighbourSouthEast(c, false) == null ? 0 : messageSizeCorner);
+	public int getMessageSizeSouthEast(Coordinate c) {
+		return getMessageSizeSouthEast(c.x, c.y);
+	}
+
+	/**
+	 * Primitive version of {@link #getMessageSizeSouthEast(Coordinate)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @return the amount of communication needed with the neighbor, or 0 if no valid neighbor exists.
+	 */
+	private int getMessageSizeSouthEast(int cx, int cy) { 
+		return (getNeighbourSouthEast(cx, cy, false) == Coordinate.NONE ? 0 : messageSizeCorner);
 	}
 
 	/**
@@ -714,8 +964,19 @@ public class Neighbours {
 	 * @param c the source coordinate. 
 	 * @return the amount of communication needed with the south west neighbor of the source, or 0 if no valid neighbor exists.  
 	 */
-	public int getMessageSizeSouthWest(Coordinate c) { 
-		return (getNeighbourSouthWest(c, false) == null ? 0 : messageSizeCorner);
+	public int getMessageSizeSouthWest(Coordinate c) {
+		return getMessageSizeSouthWest(c.x, c.y);
+	}
+
+	/**
+	 * Primitive version of {@link #getMessageSizeSouthWest(Coordinate)}.
+	 * 
+	 * @param cx the x coordinate of the source.
+	 * @param cy the y coordinate of the source.
+	 * @return the amount of communication needed with the neighbor, or 0 if no valid neighbor exists.
+	 */
+	private int getMessageSizeSouthWest(int cx, int cy) { 
+		return (getNeighbourSouthWest(cx, cy, false) == Coordinate.NONE ? 0 : messageSizeCorner);
 	}
 
 	/**
@@ -738,31 +999,45 @@ public class Neighbours {
 	 * @return the amount of communication needed with the specified neighbor of the source, or 0 if no valid neighbor exists.  
 	 */
 	public int getCommunication(Coordinate c, int dx, int dy) {
+		return getCommunication(c.x, c.y, dx, dy);
+	}
+
+	/**
+	 * Retrieve the amount of communication needed to a specified neighbor of the source coordinate (x,y), without creating any 
+	 * Coordinate objects. The result is the same as {@link #getCommunication(Coordinate, int, int)}.
+	 * 
+	 * @param x the x coordinate of the source. 
+	 * @param y the y coordinate of the source. 
+	 * @param dx the x offset of the neighbor coordinate. 
+	 * @param dy the y offset of the neighbor coordinate.
+	 * @return the amount of communication needed with the specified neighbor of the source, or 0 if no valid neighbor exists.  
+	 */
+	public int getCommunication(int x, int y, int dx, int dy) {
 
 		switch (dx) { 
 		case -1: { 
 			switch (dy) { 
-			case -1: return getMessageSizeNorthWest(c);
-			case 0: return getMessageSizeWest(c);
-			case 1: return getMessageSizeNorthEast(c);
+			case -1: return getMessageSizeNorthWest(x, y);
+			case 0: return getMessageSizeWest(x, y);
+			case 1: return getMessageSizeNorthEast(x, y);
 			default: return 0;
 			}
 		}
 
 		case 0: {
 			switch (dy) { 
-			case -1: return getMessageSizeWest(c);
+			case -1: return getMessageSizeWest(x, y);
 			case 0: return 0;
-			case 1: return getMessageSizeEast(c);
+			case 1: return getMessageSizeEast(x, y);
 			default: return 0;
 			}
 		}
 			
 		case 1: {
 			switch (dy) { 
-			case -1: return getMessageSizeSouthWest(c);
-			case 0: return getMessageSizeSouth(c);
-			case 1: return getMessageSizeSouthEast(c);
+			case -1: return getMessageSizeSouthWest(x, y);
+			case 0: return getMessageSizeSouth(x, y);
+			case 1: return getMessageSizeSouthEast(x, y);
 			default: return 0;
 			}
 		}
@@ -0,0 +1,511 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * NetCDFFile reads the header of a NetCDF-3 file (classic or 64-bit offset format), which describes the dimensions and
+ * variables stored in the file.
+ *
+ * Only the header is read. The values of a non-record variable are stored contiguously as big-endian numbers, so a topography
+ * variable (such as the KMT variable of a POP grid) can be read directly by {@link Topography} using the {@link TopographyFormat}
+ * returned by {@link Variable#getFormat()}, without converting the file first.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ * @see TopographyFormat
+ */
+public class NetCDFFile {
+
+	/** A logger used for debugging */
+	private static final Logger logger = LoggerFactory.getLogger(NetCDFFile.class);
+
+	/** The name of the variable containing the topography in POP grid files. */
+	public static final String DEFAULT_VARIABLE = "KMT";
+
+	/** Type of 8-bit signed integers. */
+	public static final int NC_BYTE = 1;
+
+	/** Type of 8-bit characters. */
+	public static final int NC_CHAR = 2;
+
+	/** Type of 16-bit signed integers. */
+	public static final int NC_SHORT = 3;
+
+	/** Type of 32-bit signed integers. */
+	public static final int NC_INT = 4;
+
+	/** Type of 32-bit floating point numbers. */
+	public static final int NC_FLOAT = 5;
+
+	/** Type of 64-bit floating point numbers. */
+	public static final int NC_DOUBLE = 6;
+
+	/** Tag of a list of dimensions. */
+	private static final int NC_DIMENSION = 10;
+
+	/** Tag of a list of variables. */
+	private static final int NC_VARIABLE = 11;
+
+	/** Tag of a list of attributes. */
+	private static final int NC_ATTRIBUTE = 12;
+
+	/** Version byte of the classic format. */
+	private static final int CLASSIC = 1;
+
+	/** Version byte of the 64-bit offset format. */
+	private static final int OFFSET_64BIT = 2;
+
+	/**
+	 * Variable describes a variable stored in a NetCDF file.
+	 */
+	public static class Variable {
+
+		/** The name of the variable. */
+		public final String name;
+
+		/** The type of the variable (NC_BYTE, NC_CHAR, NC_SHORT, NC_INT, NC_FLOAT or NC_DOUBLE). */
+		public final int type;
+
+		/** The length of each dimension of the variable, slowest varying dimension first. */
+		private final int [] shape;
+
+		/** If the variable is a record variable, that is, its first dimension is the unlimited dimension. */
+		public final boolean isRecord;
+
+		/** The position of the first value of the variable in the file. */
+		public final long begin;
+
+		/**
+		 * Create a Variable.
+		 *
+		 * @param name the name of the variable.
+		 * @param type the type of the variable.
+		 * @param shape the length of each dimension of the variable.
+		 * @param isRecord if the variable is a record variable.
+		 * @param begin the position of the first value of the variable in the file.
+		 */
+		private Variable(String name, int type, int [] shape, boolean isRecord, long begin) {
+			this.name = name;
+			this.type = type;
+			this.shape = shape;
+			this.isRecord = isRecord;
+			this.begin = begin;
+		}
+
+		/**
+		 * Returns the length of each dimension of the variable, slowest varying dimension first.
+		 *
+		 * @return the length of each dimension of the variable.
+		 */
+		public int [] getShape() {
+			return shape.clone();
+		}
+
+		/**
+		 * Checks if this variable can be read as a topography of size width x height. This is the case if it is a non-record
+		 * variable of integers, whose last two dimensions are height and width, and whose other dimensions (if any) have length 1.
+		 *
+		 * @param width the width of the topography.
+		 * @param height the height of the topography.
+		 * @return if this variable can be read as a topography of size width x height.
+		 */
+		public boolean isTopography(int width, int height) {
+
+			if (isRecord || (type != NC_INT && type != NC_SHORT) || shape.length < 2) {
+				return false;
+			}
+
+			for (int i=0;i<shape.length-2;i++) {
+				if (shape[i] != 1) {
+					return false;
+				}
+			}
+
+			return shape[shape.length-2] == height && shape[shape.length-1] == width;
+		}
+
+		/**
+		 * Returns the format of the values of this variable.
+		 *
+		 * @return the format of the values of this variable.
+		 * @throws Exception if the variable is a record variable or does not contain integers.
+		 */
+		public TopographyFormat getFormat() throws Exception {
+
+			if (isRecord) {
+				throw new Exception("Variable " + name + " is a record variable, which is not stored contiguously");
+			}
+
+			switch (type) {
+			case NC_INT:
+				return TopographyFormat.INT32_BIG_ENDIAN.atOffset(begin);
+			case NC_SHORT:
+				return TopographyFormat.INT16_BIG_ENDIAN.atOffset(begin);
+			default:
+				throw new Exception("Variable " + name + " has unsupported type " + type + ", expected an int or short variable");
+			}
+		}
+	}
+
+	/** The name of the file. */
+	public final String file;
+
+	/** The variables in the file. */
+	private final ArrayList<Variable> variables = new ArrayList<Variable>();
+
+	/**
+	 * Read the header of a NetCDF file.
+	 *
+	 * @param file the NetCDF file.
+	 * @throws Exception if the header could not be read or the file is not a NetCDF-3 file.
+	 */
+	public NetCDFFile(String file) throws Exception {
+
+		this.file = file;
+
+		DataInputStream in = null;
+
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			int magic = in.readInt();
+
+			if ((magic >>> 8) != 0x434446) {
+				throw new Exception("Not a NetCDF file");
+			}
+
+			int version = magic & 0xFF;
+
+			if (version != CLASSIC && version != OFFSET_64BIT) {
+				throw new Exception("Unsupported NetCDF version " + version);
+			}
+
+			// The number of records, which is not needed as record variables cannot be read.
+			in.readInt();
+
+			// Read the dimensions. A length of 0 indicates the unlimited dimension.
+			int [] dimensions = new int[readListHeader(in, NC_DIMENSION)];
+
+			for (int i=0;i<dimensions.length;i++) {
+				readName(in);
+				dimensions[i] = in.readInt();
+			}
+
+			skipAttributes(in);
+
+			int count = readListHeader(in, NC_VARIABLE);
+
+			for (int i=0;i<count;i++) {
+
+				String name = readName(in);
+
+				int [] shape = new int[in.readInt()];
+				boolean isRecord = false;
+
+				for (int d=0;d<shape.length;d++) {
+
+					int id = in.readInt();
+
+					if (id < 0 || id >= dimensions.length) {
+						throw new Exception("Variable " + name + " uses unknown dimension " + id);
+					}
+
+					shape[d] = dimensions[id];
+
+					if (d == 0 && shape[d] == 0) {
+						isRecord = true;
+					}
+				}
+
+				skipAttributes(in);
+
+				int type = in.readInt();
+
+				// The size of the variable, which may be truncated for large variables, so it is not used.
+				in.readInt();
+
+				long begin = (version == CLASSIC) ? (in.readInt() & 0xFFFFFFFFL) : in.readLong();
+
+				variables.add(new Variable(name, type, shape, isRecord, begin));
+			}
+		} catch (EOFException e) {
+			throw new Exception("Failed to read NetCDF header of file " + file + ": unexpected end of file", e);
+		} catch (Exception e) {
+			throw new Exception("Failed to read NetCDF header of file " + file, e);
+		} finally {
+			try {
+				in.close();
+			} catch (Exception e) {
+				// ignored
+			}
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("NetCDF file " + file + " contains " + variables.size() + " variables");
+		}
+	}
+
+	/**
+	 * Read the header of a list of dimensions, attributes or variables.
+	 *
+	 * @param in the stream to read from.
+	 * @param tag the expected tag of the list.
+	 * @return the number of elements in the list.
+	 * @throws Exception if the header could not be read or has an unexpected tag.
+	 */
+	private static int readListHeader(DataInputStream in, int tag) throws Exception {
+
+		int found = in.readInt();
+		int count = in.readInt();
+
+		if (found == 0 && count == 0) {
+			// An absent list.
+			return 0;
+		}
+
+		if (found != tag || count < 0) {
+			throw new Exception("Unexpected list tag " + found + " (expected " + tag + ")");
+		}
+
+		return count;
+	}
+
+	/**
+	 * Read a name, which is stored as its length followed by its UTF-8 encoded bytes, padded to a multiple of 4 bytes.
+	 *
+	 * @param in the stream to read from.
+	 * @return the name.
+	 * @throws Exception if the name could not be read.
+	 */
+	private static String readName(DataInputStream in) throws Exception {
+
+		int length = in.readInt();
+
+		if (length < 0) {
+			throw new Exception("Illegal name length " + length);
+		}
+
+		byte [] bytes = new byte[length];
+		in.readFully(bytes);
+		skipFully(in, pad(length));
+
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Skip a list of attributes.
+	 *
+	 * @param in the stream to read from.
+	 * @throws Exception if the attributes could not be skipped.
+	 */
+	private static void skipAttributes(DataInputStream in) throws Exception {
+
+		int count = readListHeader(in, NC_ATTRIBUTE);
+
+		for (int i=0;i<count;i++) {
+
+			readName(in);
+
+			int type = in.readInt();
+			int length = in.readInt();
+
+			long size = (long) length * getTypeSize(type);
+
+			skipFully(in, size + pad(size));
+		}
+	}
+
+	/**
+	 * Returns the number of padding bytes needed to round a size up to a multiple of 4 bytes.
+	 *
+	 * @param size the size.
+	 * @return the number of padding bytes.
+	 */
+	private static int pad(long size) {
+		return (int) ((4 - (size & 3)) & 3);
+	}
+
+	/**
+	 * Skip a number of bytes.
+	 *
+	 * @param in the stream to read from.
+	 * @param bytes the number of bytes to skip.
+	 * @throws Exception if the bytes could not be skipped.
+	 */
+	private static void skipFully(DataInputStream in, long bytes) throws Exception {
+
+		while (bytes > 0) {
+
+			long skipped = in.skip(bytes);
+
+			if (skipped <= 0) {
+				// skip may return 0 before the end of the stream, so check by reading a single byte.
+				in.readByte();
+				skipped = 1;
+			}
+
+			bytes -= skipped;
+		}
+	}
+
+	/**
+	 * Returns the size in bytes of a single value of a type.
+	 *
+	 * @param type the type.
+	 * @return the size of a single value of the type.
+	 * @throws Exception if the type is unknown.
+	 */
+	private static int getTypeSize(int type) throws Exception {
+
+		switch (type) {
+		case NC_BYTE:
+		case NC_CHAR:
+			return 1;
+		case NC_SHORT:
+			return 2;
+		case NC_INT:
+		case NC_FLOAT:
+			return 4;
+		case NC_DOUBLE:
+			return 8;
+		default:
+			throw new Exception("Unknown type " + type);
+		}
+	}
+
+	/**
+	 * Returns the variables in the file.
+	 *
+	 * @return the variables in the file.
+	 */
+	public List<Variable> getVariables() {
+		return Collections.unmodifiableList(variables);
+	}
+
+	/**
+	 * Returns the variable with the given name.
+	 *
+	 * @param name the name of the variable.
+	 * @return the variable, or null if the file does not contain the variable.
+	 */
+	public Variable getVariable(String name) {
+
+		for (Variable v : variables) {
+			if (v.name.equals(name)) {
+				return v;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Checks if a file starts with the header of a NetCDF-3 file.
+	 *
+	 * @param file the file to check.
+	 * @return if the file is a NetCDF-3 file.
+	 */
+	public static boolean isNetCDF(String file) {
+
+		DataInputStream in = null;
+
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+
+			int magic = in.readInt();
+
+			return (magic >>> 8) == 0x434446 && ((magic & 0xFF) == CLASSIC || (magic & 0xFF) == OFFSET_64BIT);
+		} catch (Exception e) {
+			return false;
+		} finally {
+			try {
+				in.close();
+			} catch (Exception e) {
+				// ignored
+			}
+		}
+	}
+
+	/**
+	 * Returns the format of a topography variable of size width x height in a NetCDF file.
+	 *
+	 * If no variable name is given, the {@link #DEFAULT_VARIABLE} variable is used if it exists. Otherwise, the file must contain
+	 * exactly one variable that can be read as a topography of size width x height.
+	 *
+	 * @param file the NetCDF file.
+	 * @param name the name of the variable, or null to select it automatically.
+	 * @param width the width of the topography.
+	 * @param height the height of the topography.
+	 * @return the format of the topography variable.
+	 * @throws Exception if the header could not be read, or no suitable variable was found.
+	 */
+	public static TopographyFormat getFormat(String file, String name, int width, int height) throws Exception {
+
+		NetCDFFile nc = new NetCDFFile(file);
+
+		Variable variable = nc.getVariable(name == null ? DEFAULT_VARIABLE : name);
+
+		if (variable == null && name != null) {
+			throw new Exception("NetCDF file " + file + " does not contain variable " + name);
+		}
+
+		if (variable == null) {
+
+			for (Variable v : nc.variables) {
+				if (v.isTopography(width, height)) {
+
+					if (variable != null) {
+						throw new Exception("NetCDF file " + file + " contains several topography variables, select one by name");
+					}
+
+					variable = v;
+				}
+			}
+
+			if (variable == null) {
+				throw new Exception("NetCDF file " + file + " does not contain a topography variable of " + width + "x" + height);
+			}
+		}
+
+		if (!variable.isTopography(width, height)) {
+			throw new Exception("Variable " + variable.name + " of NetCDF file " + file + " is not an integer topography of "
+					+ width + "x" + height + " (shape " + Arrays.toString(variable.shape) + ", type " + variable.type + ")");
+		}
+
+		TopographyFormat result = variable.getFormat();
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("Reading topography from variable " + variable.name + " of NetCDF file " + file + " using format "
+					+ result);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.util;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * OceanMask stores which points of a topography are ocean points (that is, have a non-0 value), using a single bit per point.
+ *
+ * The bits are stored row by row in an array of longs, where each row starts at a new long. The number of ocean points in a row
+ * segment is counted using {@link Long#bitCount(long)} on whole longs, so 64 points are counted at once. Since the mask
+ * requires 1/32th of the memory of a topography stored as ints, it is well suited for tools that only need to know which
+ * blocks are active.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ * @see Topography
+ */
+public class OceanMask {
+
+	/** The width of the mask */
+	public final int width;
+
+	/** The height of the mask */
+	public final int height;
+
+	/** The number of longs used to store a row. */
+	private final int wordsPerRow;
+
+	/** The bits of the mask, stored row by row. Bit x%64 of word y*wordsPerRow + x/64 is set for ocean point (x,y). */
+	private final long [] bits;
+
+	/**
+	 * Create an empty OceanMask of size width x height.
+	 *
+	 * @param width the width of the mask.
+	 * @param height the height of the mask.
+	 */
+	OceanMask(int width, int height) {
+
+		this.width = width;
+		this.height = height;
+
+		wordsPerRow = (width + 63) >>> 6;
+
+		long words = (long) wordsPerRow * (long) height;
+
+		if (words > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Ocean mask of " + width + "x" + height + " is too large");
+		}
+
+		bits = new long[(int) words];
+	}
+
+	/**
+	 * Create an OceanMask by reading a topography file one row at a time. The topography itself is not stored.
+	 *
+	 * The input file must contain width*height big-endian 32-bit integers, stored row by row.
+	 *
+	 * @param width the width of the topography.
+	 * @param height the height of the topography.
+	 * @param inputfile the input file from which to read the topography data.
+	 * @throws Exception if the mask could not be created.
+	 */
+	public OceanMask(int width, int height, String inputfile) throws Exception {
+		this(width, height, inputfile, TopographyFormat.INT32_BIG_ENDIAN);
+	}
+
+	/**
+	 * Create an OceanMask by reading a topography file of the given format one row at a time. The topography itself is not
+	 * stored.
+	 *
+	 * @param width the width of the topography.
+	 * @param height the height of the topography.
+	 * @param inputfile the input file from which to read the topography data.
+	 * @param format the format of the input file, or null to detect it.
+	 * @throws Exception if the mask could not be created.
+	 */
+	public OceanMask(int width, int height, String inputfile, TopographyFormat format) throws Exception {
+
+		this(width, height);
+
+		if (format == null) {
+			format = TopographyFormat.detect(inputfile, width, height);
+		}
+
+		RandomAccessFile file = null;
+
+		try {
+			file = new RandomAccessFile(inputfile, "r");
+
+			FileChannel channel = file.getChannel();
+
+			long rowSize = format.getSize(width, 1);
+
+			if (channel.size() < format.getPosition(width, height)) {
+				throw new Exception("File too short: expected " + format.getPosition(width, height) + " bytes but found "
+						+ channel.size());
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate((int) rowSize);
+
+			int [] row = new int[width];
+
+			for (int y=0;y<height;y++) {
+
+				buffer.clear();
+
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer, format.getPosition(width, y) + buffer.position()) < 0) {
+						throw new Exception("Unexpected end of file");
+					}
+				}
+
+				buffer.flip();
+				format.getDecoder(buffer).get(row);
+
+				setRow(y, row);
+			}
+		} catch (Exception e) {
+			throw new Exception("Failed to read ocean mask from file " + inputfile, e);
+		} finally {
+			try {
+				file.close();
+			} catch (Exception e) {
+				// ignored
+			}
+		}
+	}
+
+	/**
+	 * Set the bits of a row according to the values of the topography in that row.
+	 *
+	 * Different threads may set different rows at the same time, as rows never share a long.
+	 *
+	 * @param y the row to set.
+	 * @param values an array of length width containing the values of the topography in the row.
+	 */
+	void setRow(int y, int [] values) {
+
+		int offset = y * wordsPerRow;
+
+		for (int w=0;w<wordsPerRow;w++) {
+
+			int start = w << 6;
+			int end = Math.min(start + 64, width);
+
+			long word = 0;
+
+			for (int x=start;x<end;x++) {
+				if (values[x] > 0) {
+					word |= 1L << (x - start);
+				}
+			}
+
+			bits[offset + w] = word;
+		}
+	}
+
+	/**
+	 * Checks if point (x,y) is an ocean point.
+	 *
+	 * @param x the x coordinate of the point.
+	 * @param y the y coordinate of the point.
+	 * @return if the point is an ocean point.
+	 */
+	public boolean isOcean(int x, int y) {
+		return (bits[y * wordsPerRow + (x >>> 6)] & (1L << (x & 63))) != 0;
+	}
+
+	/**
+	 * Returns the number of ocean points in a rectangular area of the mask.
+	 *
+	 * @param x the x position of the rectangle.
+	 * @param y the y position of the rectangle.
+	 * @param w the width of the rectangle.
+	 * @param h the height of the rectangle.
+	 * @return the number of ocean points in the specified rectangular area.
+	 */
+	public int getRectangleWork(int x, int y, int w, int h) {
+
+		int endX = Math.min(x+w, width);
+		int endY = Math.min(y+h, height);
+
+		if (endX <= x || endY <= y) {
+			return 0;
+		}
+
+		int firstWord = x >>> 6;
+		int lastWord = (endX-1) >>> 6;
+
+		long firstMask = -1L << (x & 63);
+		long lastMask = -1L >>> (63 - ((endX-1) & 63));
+
+		int work = 0;
+
+		for (int j=y;j<endY;j++) {
+
+			int offset = j * wordsPerRow;
+
+			if (firstWord == lastWord) {
+				work += Long.bitCount(bits[offset + firstWord] & firstMask & lastMask);
+			} else {
+				work += Long.bitCount(bits[offset + firstWord] & firstMask);
+
+				for (int i=firstWord+1;i<lastWord;i++) {
+					work += Long.bitCount(bits[offset + i]);
+				}
+
+				work += Long.bitCount(bits[offset + lastWord] & lastMask);
+			}
+		}
+
+		return work;
+	}
+
+	/**
+	 * Checks if a rectangular area of the mask contains at least one ocean point. This is the case if a block covering the area
+	 * is active.
+	 *
+	 * @param x the x position of the rectangle.
+	 * @param y the y position of the rectangle.
+	 * @param w the width of the rectangle.
+	 * @param h the height of the rectangle.
+	 * @return if the specified rectangular area contains an ocean point.
+	 */
+	public boolean hasOcean(int x, int y, int w, int h) {
+
+		int endX = Math.min(x+w, width);
+		int endY = Math.min(y+h, height);
+
+		if (endX <= x || endY <= y) {
+			return false;
+		}
+
+		int firstWord = x >>> 6;
+		int lastWord = (endX-1) >>> 6;
+
+		long firstMask = -1L << (x & 63);
+		long lastMask = -1L >>> (63 - ((endX-1) & 63));
+
+		for (int j=y;j<endY;j++) {
+
+			int offset = j * wordsPerRow;
+
+			if (firstWord == lastWord) {
+				if ((bits[offset + firstWord] & firstMask & lastMask) != 0) {
+					return true;
+				}
+			} else {
+				if ((bits[offset + firstWord] & firstMask) != 0 || (bits[offset + lastWord] & lastMask) != 0) {
+					return true;
+				}
+
+				for (int i=firstWord+1;i<lastWord;i++) {
+					if (bits[offset + i] != 0) {
+						return true;
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the number of ocean points in the mask.
+	 *
+	 * @return the number of ocean points in the mask.
+	 */
+	public long getOceanPoints() {
+
+		long result = 0;
+
+		for (int i=0;i<bits.length;i++) {
+			result += Long.bitCount(bits[i]);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Parallel is a utility class capable of running a list of independent tasks on a shared pool of threads.
+ *
+ * The pool contains one thread per available processor. Its threads are daemon threads, so they do not prevent an application
+ * from terminating.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ */
+public class Parallel {
+
+	/** The number of threads in the pool. */
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	/** The pool used to run all tasks, or null if it has not been created yet. */
+	private static ExecutorService pool;
+
+	/**
+	 * Returns the number of threads used to run tasks.
+	 *
+	 * @return the number of threads used to run tasks.
+	 */
+	public static int getThreads() {
+		return THREADS;
+	}
+
+	/**
+	 * Returns the pool used to run all tasks, creating it first if needed.
+	 *
+	 * @return the pool used to run all tasks.
+	 */
+	private static synchronized ExecutorService getPool() {
+
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+
+				private int count = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "eSalsa-Parallel-" + count++);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+
+		return pool;
+	}
+
+	/**
+	 * Splits the range 0 (inclusive) to <code>length</code> (exclusive) into at most <code>parts</code> consecutive parts of
+	 * (almost) equal size.
+	 *
+	 * @param length the length of the range to split.
+	 * @param parts the desired number of parts.
+	 * @return an array of length <code>N+1</code> containing the start of each of the <code>N</code> parts, followed by
+	 * <code>length</code>.
+	 */
+	public static int [] split(int length, int parts) {
+
+		int count = Math.max(1, Math.min(parts, length));
+
+		int [] result = new int[count+1];
+
+		for (int i=0;i<=count;i++) {
+			result[i] = (int) (((long) length * i) / count);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Run all tasks and wait until they have finished.
+	 *
+	 * If a single task is provided, it is run by the current thread. Tasks may not call this method themselves, as they would 
+	 * wait for threads in the same pool.
+	 *
+	 * @param tasks the tasks to run.
+	 * @return the results of the tasks, in the same order as the tasks.
+	 * @throws Exception if any of the tasks failed.
+	 */
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws Exception {
+
+		ArrayList<T> result = new ArrayList<T>(tasks.size());
+
+		if (tasks.size() == 1) {
+			result.add(tasks.get(0).call());
+			return result;
+		}
+
+		List<Future<T>> futures = getPool().invokeAll(tasks);
+
+		try {
+			for (Future<T> f : futures) {
+				result.add(f.get());
+			}
+		} catch (ExecutionException e) {
+
+			Throwable cause = e.getCause();
+
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+
+			throw e;
+		}
+
+		return result;
+	}
+}
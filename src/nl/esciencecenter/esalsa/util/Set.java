@@ -19,13 +19,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
  * Set represents a set of Blocks. 
  * 
+ * The coordinates and weights of the blocks are stored in int arrays, sorted row by row, so a set does not hold any Block or 
+ * Coordinate objects. Blocks are addressed by their position in these arrays (see {@link #getX(int)}, {@link #getY(int)} and 
+ * {@link #getWeight(int)}). Block objects are only created by the methods that return them, such as {@link #get(int)}.  
+ * 
  * @author Jason Maassen <J.Maassen@esciencecenter.nl>
  * @version 1.0
  * @since 1.0
@@ -46,8 +49,14 @@ public class Set implements Iterable<Block> {
 	/** The largest y coordinate found in all blocks of the set. */ 
 	public final int maxY;
 
-	/** The blocks in this set. */ 
-	private final Block [] blocks;
+	/** The x coordinates of the blocks in this set, sorted row by row. */ 
+	private final int [] blockX;
+	
+	/** The y coordinates of the blocks in this set, sorted row by row. */ 
+	private final int [] blockY;
+	
+	/** The weights of the blocks in this set, or null if all blocks have a weight of 1. */ 
+	private final int [] blockWeight;
 	
 	/** A list of subsets of this set. */ 
 	private ArrayList<Set> subSets;
@@ -58,11 +67,37 @@ public class Set implements Iterable<Block> {
 	/** The amount of external (out of set) communication required by the block in this set. */ 
 	private int communication = -1;
 	
+	/** The sum of the weights of the blocks in this set, or -1 if it has not been computed yet. */ 
+	private long weight = -1;
+	
 	/** The index of this set on the layer it belogs to. */ 
 	public final int index;
 	
+	/** 
+	 * The position+1 of the block at each location of the bounding box (stored row by row), or 0 if the location is not part 
+	 * of this set. Created on the first call to {@link #get(int, int)}, or null if it has not been created yet.
+	 */
+	private volatile int [] lookup;
+	
+	/** 
+	 * The position of the first block of each row of the bounding box, followed by {@link #size()}. Since the blocks are 
+	 * sorted row by row, the blocks of row y are found at positions rows[y-minY] (inclusive) to rows[y-minY+1] (exclusive). 
+	 * Null if it has not been created yet.
+	 */
+	private volatile int [] rows;
+	
+	/** 
+	 * The index of the blocks by column. The first getWidth()+1 entries contain the start of each column, followed by 
+	 * {@link #size()}, relative to the start of the remaining entries, which contain the positions of the blocks sorted by column 
+	 * and then by row. Null if it has not been created yet.
+	 */
+	private volatile int [] columns;
+	
 	/** A Comparator used to sort blocks on their coordinates (smallest first). */   
-	private class BlockComparator implements Comparator<Block> {
+	private static final Comparator<Block> BLOCK_COMPARATOR = new BlockComparator();
+	
+	/** A Comparator used to sort blocks on their coordinates (smallest first). */   
+	private static class BlockComparator implements Comparator<Block> {
 
 		@Override
 		public int compare(Block o1, Block o2) {
@@ -90,10 +125,18 @@ public class Set implements Iterable<Block> {
 	 * @param block the block to insert into this set.
 	 */
 	public Set(Block block, int index) {
-		this.index = index;
-		blocks = new Block[] { block };
-		minX = maxX = block.coordinate.x;
-		minY = maxY = block.coordinate.y;
+		this(block.coordinate.x, block.coordinate.y, block.getWeight(), index);
+	}
+	
+	/** 
+	 * Create a Set containing a single block at location (x,y).
+	 * 
+	 * @param x the x coordinate of the block.
+	 * @param y the y coordinate of the block.
+	 * @param weight the weight of the block. Must be at least 1.
+	 */
+	public Set(int x, int y, int weight, int index) {
+		this(new int [] { x }, new int [] { y }, checkWeight(weight) == 1 ? null : new int [] { weight }, index);
 	}
 	
 	/** 
@@ -102,135 +145,246 @@ public class Set implements Iterable<Block> {
 	 * @param collection the blocks to add to the set.  
 	 */
 	public Set(Collection<Block> collection, int index) {
+		this(toArrays(collection == null ? new Block[0] : collection.toArray(new Block[collection.size()])), index);
+	}
+	
+	/** 
+	 * Create a Set containing all Blocks in the array provided. 
+	 * 
+	 * The array may not be null or empty. 
+	 * 
+	 * @param blocks the blocks to add to the set.
+	 */
+	public Set(Block [] blocks, int index) {
+		this(toArrays(checkBlocks(blocks).clone()), index);
+	}
 
-		this.index = index;
+	/**
+	 * Create a Set containing all blocks of a grid.
+	 * 
+	 * @param grid the grid containing the blocks.  
+	 */
+	public Set(Grid grid, int index) {
+		this(toArrays(grid), index);
+	}
+	
+	/**
+	 * Create a Set containing a selection of the blocks of another set.  
+	 * 
+	 * @param set the set containing the blocks.
+	 * @param positions the positions of the selected blocks in <code>set</code>, in any order. 
+	 * @param count the number of selected blocks, which are stored at the start of <code>positions</code>.  
+	 */
+	public Set(Set set, int [] positions, int count, int index) {
+		this(toArrays(set, positions, count), index);
+	}
+	
+	/**
+	 * Creates a new containing the same blocks as the set provided.   
+	 * 
+	 * @param set the set to copy the blocks from.  
+	 */
+	public Set(Set set, int index) {
 
-		if (collection == null || collection.size() == 0) { 
-			//throw new IllegalArgumentException("Empty Set not allowed!");
-			blocks = new Block[0];
+		this.index = index;
+		
+		minX = set.minX;
+		maxX = set.maxX;
+		minY = set.minY;
+		maxY = set.maxY;
+		
+		// The blocks of a set never change, so the arrays can be shared. 
+		blockX = set.blockX;
+		blockY = set.blockY;
+		blockWeight = set.blockWeight;
+		lookup = set.lookup;
+		rows = set.rows;
+		columns = set.columns;
+	}
+	
+	/**
+	 * Create a Set from the coordinates and weights of its blocks.
+	 * 
+	 * @param blocks an array containing the x coordinates, y coordinates and weights (or null) of the blocks.
+	 */
+	private Set(int [][] blocks, int index) {
+		this(blocks[0], blocks[1], blocks[2], index);
+	}
+	
+	/**
+	 * Create a Set from the coordinates and weights of its blocks. The arrays are not copied.
+	 * 
+	 * @param blockX the x coordinates of the blocks, sorted row by row.
+	 * @param blockY the y coordinates of the blocks, sorted row by row.
+	 * @param blockWeight the weights of the blocks, or null if all blocks have a weight of 1.
+	 */
+	Set(int [] blockX, int [] blockY, int [] blockWeight, int index) {
+		
+		this.index = index;
+		this.blockX = blockX;
+		this.blockY = blockY;
+		this.blockWeight = blockWeight;
+		
+		if (blockX.length == 0) { 
 			minX = maxX = minY = maxY = 0;
 			return;
 		}
-
-		this.blocks = collection.toArray(new Block[collection.size()]);		
-		Arrays.sort(this.blocks, new BlockComparator());
-
-		int tmpMinX = Integer.MAX_VALUE;
-		int tmpMinY = Integer.MAX_VALUE;
 		
+		int tmpMinX = Integer.MAX_VALUE;
 		int tmpMaxX = Integer.MIN_VALUE;
-		int tmpMaxY = Integer.MIN_VALUE;
 		
-		for (int i=0;i<this.blocks.length;i++) { 
-			
-			Block block = this.blocks[i];
+		for (int i=0;i<blockX.length;i++) { 
 			
-			if (block.coordinate.x < tmpMinX) {   
-				tmpMinX = block.coordinate.x;
+			if (blockX[i] < tmpMinX) {   
+				tmpMinX = blockX[i];
 			}
 		
-			if (block.coordinate.x > tmpMaxX) { 
-				tmpMaxX = block.coordinate.x;
-			}
-		
-			if (block.coordinate.y < tmpMinY) { 
-				tmpMinY = block.coordinate.y;
-			}
-		
-			if (block.coordinate.y > tmpMaxY) { 
-				tmpMaxY = block.coordinate.y;
+			if (blockX[i] > tmpMaxX) { 
+				tmpMaxX = blockX[i];
 			}
 		}
 		
 		minX = tmpMinX;
 		maxX = tmpMaxX;
-		minY = tmpMinY;
-		maxY = tmpMaxY;
+		minY = blockY[0];
+		maxY = blockY[blockY.length-1];
 	}
 	
-	/** 
-	 * Create a Set containing all Blocks in the array provided. 
-	 * 
-	 * The array may not be null or empty. 
+	/**
+	 * Checks if a block weight is valid.
 	 * 
-	 * @param blocks the blocks to add to the set.
+	 * @param weight the weight to check.
+	 * @return the weight.
 	 */
-	public Set(Block [] blocks, int index) {
+	private static int checkWeight(int weight) {
 		
-		this.index = index;
+		if (weight < 1) { 
+			throw new IllegalArgumentException("Illegal block weight " + weight);
+		}
+		
+		return weight;
+	}
+	
+	/**
+	 * Checks if an array of blocks is not null or empty.
+	 * 
+	 * @param blocks the array to check.
+	 * @return the array.
+	 */
+	private static Block [] checkBlocks(Block [] blocks) {
 		
 		if (blocks == null || blocks.length == 0) { 
 			throw new IllegalArgumentException("Empty Set not allowed!");
 		}
-
-		this.blocks = blocks.clone();
-
-		Arrays.sort(this.blocks, new BlockComparator());
-
-		int tmpMinX = Integer.MAX_VALUE;
-		int tmpMinY = Integer.MAX_VALUE;
-
-		int tmpMaxX = Integer.MIN_VALUE;
-		int tmpMaxY = Integer.MIN_VALUE;
-
-		for (int i=0;i<this.blocks.length;i++) { 
-
-			Block block = this.blocks[i];
-
-			if (block.coordinate.x < tmpMinX) {   
-				tmpMinX = block.coordinate.x;
-			}
-
-			if (block.coordinate.x > tmpMaxX) { 
-				tmpMaxX = block.coordinate.x;
-			}
-
-			if (block.coordinate.y < tmpMinY) { 
-				tmpMinY = block.coordinate.y;
-			}
-
-			if (block.coordinate.y > tmpMaxY) { 
-				tmpMaxY = block.coordinate.y;
-			}
+		
+		return blocks;
+	}
+	
+	/**
+	 * Sorts an array of blocks row by row and returns their coordinates and weights. 
+	 * 
+	 * @param blocks the blocks to convert, which are sorted in place.
+	 * @return an array containing the x coordinates, y coordinates and weights (or null) of the blocks.
+	 */
+	private static int [][] toArrays(Block [] blocks) {
+		
+		Arrays.sort(blocks, BLOCK_COMPARATOR);
+		
+		int [] x = new int[blocks.length];
+		int [] y = new int[blocks.length];
+		int [] weight = new int[blocks.length];
+		boolean weighted = false;
+		
+		for (int i=0;i<blocks.length;i++) { 
+			x[i] = blocks[i].coordinate.x;
+			y[i] = blocks[i].coordinate.y;
+			weight[i] = blocks[i].getWeight();
+			weighted |= (weight[i] != 1);
 		}
-
-		minX = tmpMinX;
-		maxX = tmpMaxX;
-		minY = tmpMinY;
-		maxY = tmpMaxY;
+		
+		return new int [][] { x, y, weighted ? weight : null };
 	}
-
+	
 	/**
-	 * Creates a new containing the same blocks as the set provided.   
+	 * Returns the coordinates and weights of all blocks of a grid, row by row. 
 	 * 
-	 * @param set the set to copy the blocks from.  
+	 * @param grid the grid containing the blocks.
+	 * @return an array containing the x coordinates, y coordinates and weights (or null) of the blocks.
 	 */
-	public Set(Set set, int index) {
-
-		this.index = index;
+	private static int [][] toArrays(Grid grid) {
 		
-		minX = set.minX;
-		maxX = set.maxX;
-		minY = set.minY;
-		maxY = set.maxY;
+		int count = grid.getCount();
+		
+		int [] x = new int[count];
+		int [] y = new int[count];
+		int [] weight = new int[count];
+		boolean weighted = false;
+		
+		for (int i=0;i<count;i++) { 
+			
+			int location = grid.getLocation(i);
+			
+			x[i] = location % grid.width;
+			y[i] = location / grid.width;
+			weight[i] = grid.getWeight(i);
+			weighted |= (weight[i] != 1);
+		}
+		
+		return new int [][] { x, y, weighted ? weight : null };
+	}
+	
+	/**
+	 * Returns the coordinates and weights of a selection of the blocks of a set, row by row. 
+	 * 
+	 * @param set the set containing the blocks.
+	 * @param positions the positions of the selected blocks in the set.
+	 * @param count the number of selected blocks.
+	 * @return an array containing the x coordinates, y coordinates and weights (or null) of the blocks.
+	 */
+	private static int [][] toArrays(Set set, int [] positions, int count) {
+		
+		// The blocks of the set are sorted row by row, so sorting their positions sorts the selection row by row. 
+		int [] sorted = Arrays.copyOf(positions, count);
+		Arrays.sort(sorted);
+		
+		int [] x = new int[count];
+		int [] y = new int[count];
+		int [] weight = (set.blockWeight == null) ? null : new int[count];
 		
-		blocks = set.blocks.clone();
+		for (int i=0;i<count;i++) { 
+			
+			int position = sorted[i];
+			
+			if (position < 0 || position >= set.size() || (i > 0 && position == sorted[i-1])) { 
+				throw new IllegalArgumentException("Illegal block position " + position);
+			}
+			
+			x[i] = set.blockX[position];
+			y[i] = set.blockY[position];
+			
+			if (weight != null) { 
+				weight[i] = set.blockWeight[position];
+			}
+		}
+		
+		return new int [][] { x, y, weight };
 	}
 
 	/**
 	 * Determines if a block may be on the edge of the set, that is, it has neighbors that are not part of the set.
 	 *  
-	 * @param b the block to check
+	 * @param x the x coordinate of the block to check.
+	 * @param y the y coordinate of the block to check.
 	 * @return if the block may be on the edge of the set.
 	 */
-	private boolean onEdge(Block b) { 
+	private boolean onEdge(int x, int y) { 
 
 		for (int i=-1;i<=1;i++) { 
 			for (int j=-1;j<=1;j++) {
 				if (!(i == 0 && j == 0)) {
 
-					int nx = b.coordinate.x+i;
-					int ny = b.coordinate.y+j;
+					int nx = x+i;
+					int ny = y+j;
 					
 					if (nx < 0 || ny < 0) { 
 						return true;
@@ -247,43 +401,69 @@ public class Set implements Iterable<Block> {
 	}
 	
 	/** 
-	 * Retrieve the coordinates of the neighbor Blocks of this set.   
+	 * Compute the total amount of external (out of set) communication required by the Blocks in this set. If 
+	 * <code>result</code> is not <code>null</code>, the packed coordinates of the neighbor Blocks are added to it. 
+	 * No objects are created for the blocks that are scanned.
 	 *  
-	 * @param neighbours the neighbor generator.  
-	 * @return the coordinates of the neighbor Blocks of this set.
+	 * @param neighbours the neighbor generator.
+	 * @param result the set to add the packed neighbor coordinates to, or <code>null</code>.
+	 * @return the total amount of external (out of set) communication required by this set.
 	 */
-	public Coordinate [] getNeighbours(Neighbours neighbours) {
+	private int scanNeighbours(Neighbours neighbours, LongSet result) { 
 		
-		if (this.neighbours == null) { 
+		int total = 0;
 		
-			communication = 0;
+		for (int b=0;b<blockX.length;b++) { 
 			
-			HashSet<Coordinate> result = new HashSet<Coordinate>();
-		
-			for (Block b : blocks) { 
+			int x = blockX[b];
+			int y = blockY[b];
+			
+			if (onEdge(x, y)) { 
 				
-				if (onEdge(b)) { 
-					
-					Coordinate [][] tmp = neighbours.getNeighbours(b.coordinate, true);
-
-					for (int i=0;i<3;i++) { 
-						for (int j=0;j<3;j++) {
-							if (tmp[i][j] != null) { 
-
-								int nx = tmp[i][j].x;
-								int ny = tmp[i][j].y;
-
-								if (!contains(nx, ny)) {
-									communication += neighbours.getCommunication(b.coordinate, i-1, j-1);
-									result.add(new Coordinate(nx, ny));
-								}
+				for (int i=0;i<3;i++) { 
+					for (int j=0;j<3;j++) {
+						
+						long n = neighbours.getNeighbour(x, y, i, j, true);
+						
+						if (n != Coordinate.NONE && !contains(Coordinate.unpackX(n), Coordinate.unpackY(n))) {
+							
+							total += neighbours.getCommunication(x, y, i-1, j-1);
+							
+							if (result != null) { 
+								result.add(n);
 							}
 						}
 					}
 				}
 			}
-
-			this.neighbours = result.toArray(new Coordinate[result.size()]);
+		}
+		
+		return total;
+	}
+	
+	/** 
+	 * Retrieve the coordinates of the neighbor Blocks of this set.   
+	 *  
+	 * @param neighbours the neighbor generator.  
+	 * @return the coordinates of the neighbor Blocks of this set.
+	 */
+	public Coordinate [] getNeighbours(Neighbours neighbours) {
+		
+		if (this.neighbours == null) { 
+		
+			LongSet result = new LongSet(2 * (maxX-minX+maxY-minY+4));
+			
+			communication = scanNeighbours(neighbours, result);
+			
+			long [] tmp = result.toArray();
+			
+			Coordinate [] coordinates = new Coordinate[tmp.length];
+			
+			for (int i=0;i<tmp.length;i++) { 
+				coordinates[i] = new Coordinate(Coordinate.unpackX(tmp[i]), Coordinate.unpackY(tmp[i]));
+			}
+			
+			this.neighbours = coordinates;
 		}
 		
 		return this.neighbours;
@@ -291,7 +471,8 @@ public class Set implements Iterable<Block> {
 
 	/** 
 	 * Return the total amount of external (out of set) communication required by 
-	 * the Blocks in this set.  
+	 * the Blocks in this set. Unlike {@link #getNeighbours(Neighbours)}, this does 
+	 * not create the neighbor coordinates. 
 	 * 
 	 * @param neighbours the neighbor generator.
 	 * @return the  total amount of external (out of set) communication required by this set.
@@ -299,26 +480,69 @@ public class Set implements Iterable<Block> {
 	public int getCommunication(Neighbours neighbours) { 
 		
 		if (communication == -1) { 
-			getNeighbours(neighbours);
+			communication = scanNeighbours(neighbours, null);
 		}
 		
 		return communication;
 	}
 	
+	/** 
+	 * Returns the x coordinate of the block at the given position. The position must be between 0 (inclusive) and 
+	 * {@link #size()} (exclusive). Blocks are stored row by row.
+	 * 
+	 * @param position the position of the block. 
+	 * @return the x coordinate of the block. 
+	 */
+	public int getX(int position) { 
+		return blockX[position];
+	}
+	
+	/** 
+	 * Returns the y coordinate of the block at the given position. 
+	 * 
+	 * @param position the position of the block. 
+	 * @return the y coordinate of the block. 
+	 * @see #getX(int)
+	 */
+	public int getY(int position) { 
+		return blockY[position];
+	}
+	
+	/** 
+	 * Returns the weight of the block at the given position. 
+	 * 
+	 * @param position the position of the block. 
+	 * @return the weight of the block. 
+	 * @see #getX(int)
+	 */
+	public int getWeight(int position) { 
+		
+		if (blockWeight == null) {
+			
+			if (position < 0 || position >= blockX.length) { 
+				throw new ArrayIndexOutOfBoundsException(position);
+			}
+			
+			return 1;
+		}
+		
+		return blockWeight[position];
+	}
+	
 	/** 
 	 * Retrieve the Block at the given index. The index must be between 0 (inclusive) 
-	 * and {@link #size()} (exclusive).  
+	 * and {@link #size()} (exclusive). A new Block object is created on each call.   
 	 * 
 	 * @param index the index of the block to retrieve. 
 	 * @return the block at the given index. 
 	 */
 	public Block get(int index) { 
 		
-		if (index < 0 || index >= blocks.length) { 
+		if (index < 0 || index >= blockX.length) { 
 			throw new NoSuchElementException("Index out of bounds " + index);
 		}
 		
-		return blocks[index];
+		return new Block(new Coordinate(blockX[index], blockY[index]), getWeight(index));
 	}
 	
 	/** 
@@ -327,7 +551,14 @@ public class Set implements Iterable<Block> {
 	 * @return an array containing all blocks of this set. 
 	 */
 	public Block [] getAll() { 
-		return blocks.clone();
+		
+		Block [] result = new Block[blockX.length];
+		
+		for (int i=0;i<blockX.length;i++) { 
+			result[i] = get(i);
+		}
+		
+		return result;
 	}
 	
 	/** 
@@ -336,8 +567,8 @@ public class Set implements Iterable<Block> {
 	 * @param output the collection to add the blocks to. 
 	 */
 	public void getAll(Collection<Block> output) {
-		for (int i=0;i<blocks.length;i++) { 
-			output.add(blocks[i]);
+		for (int i=0;i<blockX.length;i++) { 
+			output.add(get(i));
 		}
 	}
 
@@ -349,9 +580,25 @@ public class Set implements Iterable<Block> {
 	 * @return if this set contains a block at the specified location.  
 	 */
 	public boolean contains(int x, int y) {
-		return (get(x, y) != null); 
+		return (getPosition(x, y) >= 0); 
 	}	
 
+	/** 
+	 * Returns the position of the block at location (x,y), as used by {@link #getX(int)}. 
+	 * 
+	 * @param x the x coordinate of the location.
+	 * @param y the y coordinate of the location.
+	 * @return the position of the block, or -1 if the location is not part of this set.  
+	 */
+	public int getPosition(int x, int y) {
+
+		if (x < minX || x > maxX || y < minY || y > maxY) { 
+			return -1;
+		}
+
+		return getLookup()[(y-minY)*(maxX-minX+1) + x-minX] - 1;
+	}	
+	
 	/** 
 	 * Retrieve the Block at location (x,y).
 	 * 
@@ -361,19 +608,281 @@ public class Set implements Iterable<Block> {
 	 */
 	public Block get(int x, int y) {
 
-		if (x < minX || x > maxX || y < minY || y > maxY) { 
+		int position = getPosition(x, y);
+		
+		if (position < 0) { 
 			return null;
 		}
+		
+		return get(position);
+	}	
 
-		// FIXME: optimize!
-		for (int i=0;i<blocks.length;i++) { 
-			if (blocks[i].coordinate.x == x && blocks[i].coordinate.y == y) { 
-				return blocks[i];
+	/**
+	 * Returns the lookup table of the bounding box, creating it first if needed. Since the blocks never change, a table 
+	 * created concurrently by several threads is identical, so it is safe to replace it.
+	 * 
+	 * @return the lookup table.
+	 */
+	private int [] getLookup() { 
+		
+		int [] result = lookup;
+		
+		if (result == null) { 
+			
+			int stride = maxX-minX+1;
+			
+			result = new int[stride * (maxY-minY+1)];
+			
+			for (int i=0;i<blockX.length;i++) { 
+				result[(blockY[i]-minY)*stride + blockX[i]-minX] = i+1;
 			}
+			
+			lookup = result;
 		}
 		
-		return null;
-	}	
+		return result;
+	}
+
+	/**
+	 * Returns the row index, creating it first if needed.
+	 * 
+	 * @return the row index.
+	 */
+	private int [] getRows() { 
+		
+		int [] result = rows;
+		
+		if (result == null) { 
+			
+			result = new int[maxY-minY+2];
+			
+			for (int i=0;i<blockY.length;i++) { 
+				result[blockY[i]-minY+1]++;
+			}
+			
+			for (int j=1;j<result.length;j++) { 
+				result[j] += result[j-1];
+			}
+			
+			rows = result;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the column index, creating it first if needed. The blocks are distributed over the columns in row by row order, 
+	 * so the blocks of each column are sorted by row.   
+	 * 
+	 * @return the column index.
+	 */
+	private int [] getColumns() { 
+		
+		int [] result = columns;
+		
+		if (result == null) { 
+			
+			int width = maxX-minX+1;
+			
+			result = new int[width + 1 + blockX.length];
+			
+			for (int i=0;i<blockX.length;i++) { 
+				result[blockX[i]-minX+1]++;
+			}
+			
+			for (int j=1;j<=width;j++) { 
+				result[j] += result[j-1];
+			}
+			
+			int [] next = Arrays.copyOf(result, width);
+			
+			for (int i=0;i<blockX.length;i++) { 
+				result[width + 1 + next[blockX[i]-minX]++] = i;
+			}
+			
+			columns = result;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the position of the first block of a row, as used by {@link #getX(int)}. The blocks of a row are stored at 
+	 * positions getRowStart(y) (inclusive) to getRowEnd(y) (exclusive), sorted by their x coordinate, so a row can be traversed 
+	 * in either direction without testing the empty locations of the bounding box.
+	 * 
+	 * @param y the y coordinate of the row.
+	 * @return the position of the first block of the row.
+	 */
+	public int getRowStart(int y) {
+		
+		if (y <= minY) { 
+			return 0;
+		}
+		
+		if (y > maxY) { 
+			return blockX.length;
+		}
+		
+		return getRows()[y-minY];
+	}
+	
+	/**
+	 * Returns the position after the last block of a row.
+	 * 
+	 * @param y the y coordinate of the row.
+	 * @return the position after the last block of the row.
+	 * @see #getRowStart(int)
+	 */
+	public int getRowEnd(int y) {
+		
+		if (y < minY) { 
+			return 0;
+		}
+		
+		if (y >= maxY) { 
+			return blockX.length;
+		}
+		
+		return getRows()[y-minY+1];
+	}
+	
+	/**
+	 * Returns the column position of the first block of a column. The blocks of a column are returned by 
+	 * {@link #getColumnPosition(int)} for column positions getColumnStart(x) (inclusive) to getColumnEnd(x) (exclusive), sorted by 
+	 * their y coordinate.
+	 * 
+	 * @param x the x coordinate of the column.
+	 * @return the column position of the first block of the column.
+	 */
+	public int getColumnStart(int x) {
+		
+		if (x <= minX) { 
+			return 0;
+		}
+		
+		if (x > maxX) { 
+			return blockX.length;
+		}
+		
+		return getColumns()[x-minX];
+	}
+	
+	/**
+	 * Returns the column position after the last block of a column.
+	 * 
+	 * @param x the x coordinate of the column.
+	 * @return the column position after the last block of the column.
+	 * @see #getColumnStart(int)
+	 */
+	public int getColumnEnd(int x) {
+		
+		if (x < minX) { 
+			return 0;
+		}
+		
+		if (x >= maxX) { 
+			return blockX.length;
+		}
+		
+		return getColumns()[x-minX+1];
+	}
+	
+	/**
+	 * Returns the position of a block, as used by {@link #getX(int)}, given its position in column order, that is, with the 
+	 * blocks sorted by column and then by row. 
+	 * 
+	 * @param position the column position of the block, between 0 (inclusive) and {@link #size()} (exclusive).
+	 * @return the position of the block at the given column position.
+	 * @see #getColumnStart(int)
+	 */
+	public int getColumnPosition(int position) { 
+		
+		if (position < 0 || position >= blockX.length) { 
+			throw new NoSuchElementException("Index out of bounds " + position);
+		}
+		
+		return getColumns()[maxX-minX+2+position];
+	}
+	
+	/**
+	 * Returns the position of the first block in this set at or after location (x,y), in row by row order.
+	 * 
+	 * @param x the x coordinate of the location.
+	 * @param y the y coordinate of the location.
+	 * @return the position of the first block at or after the location, or {@link #size()} if there is no such block. 
+	 */
+	private int lowerBound(int x, int y) { 
+		
+		int low = 0;
+		int high = blockX.length;
+		
+		while (low < high) { 
+			
+			int mid = (low + high) >>> 1;
+			
+			if (blockY[mid] < y || (blockY[mid] == y && blockX[mid] < x)) { 
+				low = mid + 1;
+			} else { 
+				high = mid;
+			}
+		}
+		
+		return low;
+	}
+	
+	/**
+	 * Visit all blocks in this set, row by row. The index passed to the visitor is the position of the block in this set, as 
+	 * used by {@link #get(int)}.
+	 * 
+	 * @param visitor the visitor to call for each block.
+	 * @return false if the visitor stopped the visit, true otherwise. 
+	 */
+	public boolean visit(BlockVisitor visitor) { 
+		
+		for (int i=0;i<blockX.length;i++) { 
+			if (!visitor.visit(blockX[i], blockY[i], i)) { 
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Visit all blocks of this set in a rectangular area, row by row. The area is enclosed by the locations (x,y) (inclusive) 
+	 * and (x+width,y+height) (exclusive). The first block of each row is found using a binary search, so only the blocks in 
+	 * the area are visited.
+	 * 
+	 * @param x the x coordinate of the area.  
+	 * @param y the y coordinate of the area.	  
+	 * @param width the width of the area. 
+	 * @param height the height of the area.
+	 * @param visitor the visitor to call for each block.
+	 * @return false if the visitor stopped the visit, true otherwise. 
+	 */
+	public boolean visitRectangle(int x, int y, int width, int height, BlockVisitor visitor) { 
+		
+		int x1 = x + width;
+		int y0 = Math.max(y, minY);
+		int y1 = Math.min(y + height, maxY + 1);
+		
+		for (int j=y0;j<y1;j++) { 
+			
+			int i = lowerBound(x, j);
+			
+			while (i < blockX.length && blockY[i] == j && blockX[i] < x1) { 
+				
+				if (!visitor.visit(blockX[i], j, i)) { 
+					return false;
+				}
+				
+				i++;
+			}
+		}
+		
+		return true;
+	}
 
 	/** 
 	 * Returns the number of Blocks in this set.  
@@ -381,7 +890,34 @@ public class Set implements Iterable<Block> {
 	 * @return the number of blocks in this set. 
 	 */
 	public int size() { 
-		return blocks.length;
+		return blockX.length;
+	}
+	
+	/** 
+	 * Returns the sum of the weights of the Blocks in this set.  
+	 * 
+	 * @return the sum of the weights of the Blocks in this set.
+	 * @see Block#getWeight()
+	 */
+	public long getWeight() { 
+		
+		if (weight == -1) { 
+			
+			long tmp = blockX.length;
+			
+			if (blockWeight != null) { 
+				
+				tmp = 0;
+				
+				for (int i=0;i<blockWeight.length;i++) { 
+					tmp += blockWeight[i];
+				}
+			}
+			
+			weight = tmp;
+		}
+		
+		return weight;
 	}
 	
 	/** 
@@ -458,8 +994,38 @@ public class Set implements Iterable<Block> {
 		return subSets; 
 	}
 
+	/** 
+	 * Returns an iterator over the blocks of this set. A new Block object is created for each block returned. 
+	 * 
+	 * @return an iterator over the blocks of this set.
+	 */
 	@Override
 	public Iterator<Block> iterator() {
-		return new BlockIterator(blocks);
+		
+		return new Iterator<Block>() {
+			
+			/** The position of the next block to return. */
+			private int position = 0;
+			
+			@Override
+			public boolean hasNext() {
+				return position < blockX.length;
+			}
+
+			@Override
+			public Block next() {
+				
+				if (!hasNext()) { 
+					throw new NoSuchElementException();
+				}
+				
+				return get(position++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Sets cannot be modified");
+			}
+		};
 	}
 }
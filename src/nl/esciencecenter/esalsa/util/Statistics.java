@@ -16,6 +16,9 @@
 package nl.esciencecenter.esalsa.util;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 
 import nl.esciencecenter.esalsa.util.Layer;
 import nl.esciencecenter.esalsa.util.Layers;
@@ -25,6 +28,10 @@ import nl.esciencecenter.esalsa.util.Set;
 /**
  * Statistics is a utility class capable of printing statistics for a given block distribution.
  * 
+ * The size and communication of each set are computed once and cached. When the Statistics is created from a 
+ * {@link Distribution}, it can be updated after an edit of the topography using {@link #update(Distribution, int[])}, which 
+ * only patches and recomputes the sets affected by the edit.
+ * 
  * @author Jason Maassen <J.Maassen@esciencecenter.nl>
  * @version 1.0
  * @since 1.0
@@ -36,6 +43,12 @@ public class Statistics {
 	private final Layers layers;
 	private final Neighbours neighbours;
 	
+	/** The distribution from which the layers were created, or null if the layers were provided directly. */
+	private final Distribution distribution;
+	
+	/** The size and communication of each set per layer name. Entries of sets that were not computed yet are null. */
+	private final HashMap<String, int [][]> cache = new HashMap<String, int [][]>();
+	
 	/**
 	 * Create a Statistics for a given set of layers.
 	 * 
@@ -43,8 +56,55 @@ public class Statistics {
 	 * @param neighbours the neighbour function to use.
 	 */
 	public Statistics(Layers layers, Neighbours neighbours) { 
+		this(layers, neighbours, null);
+	}
+	
+	/**
+	 * Create a Statistics for the layers of a distribution. 
+	 * 
+	 * @param distribution the distribution for which the statistics must be printed.
+	 * @param neighbours the neighbour function to use.
+	 * @see #update(Distribution, int[])
+	 */
+	public Statistics(Distribution distribution, Neighbours neighbours) { 
+		this(distribution.toLayers(), neighbours, distribution);
+	}
+	
+	/**
+	 * Create a Statistics for a given set of layers.
+	 * 
+	 * @param layers the layer for which the statistics must be printed.
+	 * @param neighbours the neighbour function to use.
+	 * @param distribution the distribution from which the layers were created, or null.
+	 */
+	private Statistics(Layers layers, Neighbours neighbours, Distribution distribution) { 
 		this.layers = layers;
 		this.neighbours = neighbours;
+		this.distribution = distribution;
+	}
+	
+	/** 
+	 * Returns the size and communication of a set, computing them first if needed. 
+	 * 
+	 * @param layer the layer containing the set.
+	 * @param index the index of the set in the layer.
+	 * @return an array containing the size and communication of the set.
+	 */
+	private int [] getSetStatistics(Layer layer, int index) { 
+		
+		int [][] values = cache.get(layer.name);
+		
+		if (values == null) { 
+			values = new int[layer.size()][];
+			cache.put(layer.name, values);
+		}
+		
+		if (values[index] == null) { 
+			Set tmp = layer.get(index);
+			values[index] = new int [] { tmp.size(), tmp.getCommunication(neighbours) };
+		}
+		
+		return values[index];
 	}
 	
 	/** 
@@ -62,9 +122,8 @@ public class Statistics {
 		output.println("  Sets: " + layer.size());
 	
 		for (int i=0;i<layer.size();i++) { 
-			Set tmp = layer.get(i);			
-			// output.println("   " + i + " (" + tmp.minX + "," + tmp.minY + ") - (" + tmp.maxX + "," + tmp.maxY + ") " + 
-			output.println("   " + i + " " + tmp.size() + " " + tmp.getCommunication(neighbours));
+			int [] tmp = getSetStatistics(layer, i);
+			output.println("   " + i + " " + tmp[0] + " " + tmp[1]);
 		}
 	}
 
@@ -89,5 +148,332 @@ public class Statistics {
 			
 			printStatistics(l, output);
 		}
-	}	
+	}
+
+	/** 
+	 * Mark the core owning a block as affected by an edit. 
+	 * 
+	 * @param d the distribution.
+	 * @param location the location of the block.
+	 * @param affected the affected cores.
+	 */
+	private static void markOwner(Distribution d, int location, boolean [] affected) { 
+		
+		int owner = d.getOwner(location);
+		
+		if (owner > 0) { 
+			affected[owner-1] = true;
+		}
+	}
+	
+	/**
+	 * Copy the cached statistics of the sets of a layer that are not affected by an edit to another Statistics.
+	 *  
+	 * @param target the Statistics to copy to. 
+	 * @param name the name of the layer.
+	 * @param affected the affected sets of the layer.
+	 */
+	private void copyCache(Statistics target, String name, boolean [] affected) { 
+		
+		int [][] values = cache.get(name);
+		
+		if (values == null || values.length != affected.length) { 
+			return;
+		}
+		
+		int [][] copy = new int[values.length][];
+		
+		for (int i=0;i<values.length;i++) { 
+			if (!affected[i]) { 
+				copy[i] = values[i];
+			}
+		}
+		
+		target.cache.put(name, copy);
+	}
+	
+	/**
+	 * Copy the cached statistics of the single block sets of the <code>"BLOCKS"</code> layer to another Statistics, except 
+	 * for the blocks that are affected by an edit. The sets are indexed by the position of their block in the set of all blocks, 
+	 * which changes if blocks are added or removed.  
+	 *  
+	 * @param target the Statistics to copy to.
+	 * @param before the set of all blocks before the edit.
+	 * @param after the set of all blocks after the edit.
+	 * @param gridWidth the width of the grid in blocks.
+	 * @param affected the locations of the affected blocks, sorted.
+	 */
+	private void copyBlockCache(Statistics target, Set before, Set after, int gridWidth, int [] affected) { 
+		
+		int [][] values = cache.get("BLOCKS");
+		
+		if (values == null) { 
+			return;
+		}
+		
+		int [][] copy = new int[after.size()][];
+		
+		for (int i=0;i<copy.length;i++) { 
+			
+			int x = after.getX(i);
+			int y = after.getY(i);
+			int position = (before == after) ? i : before.getPosition(x, y);
+			
+			if (position >= 0 && Arrays.binarySearch(affected, y*gridWidth + x) < 0) { 
+				copy[i] = values[position];
+			}
+		}
+		
+		target.cache.put("BLOCKS", copy);
+	}
+	
+	/** 
+	 * Returns the locations of the changed blocks and their neighbours.
+	 * 
+	 * @param gridWidth the width of the grid in blocks.
+	 * @param changed the locations of the changed blocks.
+	 * @return the sorted locations of the changed blocks and their neighbours.
+	 */
+	private int [] getAffectedLocations(int gridWidth, int [] changed) { 
+		
+		LongSet tmp = new LongSet(9 * changed.length);
+		
+		for (int location : changed) { 
+			
+			int x = location % gridWidth;
+			int y = location / gridWidth;
+			
+			tmp.add(location);
+			
+			for (int i=0;i<3;i++) { 
+				for (int j=0;j<3;j++) { 
+					
+					long n = neighbours.getNeighbour(x, y, i, j, true);
+					
+					if (n != Coordinate.NONE) { 
+						tmp.add(Coordinate.unpackY(n) * gridWidth + Coordinate.unpackX(n));
+					}
+				}
+			}
+		}
+		
+		long [] values = tmp.toArray();
+		int [] result = new int[values.length];
+		
+		for (int i=0;i<values.length;i++) { 
+			result[i] = (int) values[i];
+		}
+		
+		Arrays.sort(result);
+		return result;
+	}
+	
+	/** 
+	 * Create a copy of a set patched after an edit, which contains the blocks of the set that were not changed, and the changed 
+	 * blocks that are now owned by one of the cores of the set. 
+	 * 
+	 * @param set the set to patch.
+	 * @param patched the patched distribution. 
+	 * @param gridWidth the width of the grid in blocks.
+	 * @param changed the locations of the changed blocks, sorted and without duplicates. 
+	 * @param firstCore the first core (0-based) of the set.
+	 * @param cores the number of cores of the set.
+	 * @return the patched set.
+	 */
+	private static Set patch(Set set, Distribution patched, int gridWidth, int [] changed, int firstCore, int cores) { 
+		
+		// The blocks of a set are sorted row by row, which is the order of their locations, so a merge with the changed 
+		// locations produces the patched blocks in the same order.
+		int [] x = new int[set.size() + changed.length];
+		int [] y = new int[set.size() + changed.length];
+		int count = 0;
+		int next = 0;
+		
+		for (int i=0;i<=set.size();i++) { 
+			
+			int location = (i < set.size()) ? set.getY(i)*gridWidth + set.getX(i) : Integer.MAX_VALUE;
+			
+			while (next < changed.length && changed[next] <= location) { 
+				
+				int owner = patched.getOwner(changed[next]) - 1;
+				
+				if (owner >= firstCore && owner < firstCore + cores) { 
+					x[count] = changed[next] % gridWidth;
+					y[count] = changed[next] / gridWidth;
+					count++;
+				}
+				
+				next++;
+			}
+			
+			if (i < set.size() && (next == 0 || changed[next-1] != location)) { 
+				x[count] = set.getX(i);
+				y[count] = set.getY(i);
+				count++;
+			}
+		}
+		
+		return new Set(Arrays.copyOf(x, count), Arrays.copyOf(y, count), null, set.index);
+	}
+	
+	/** 
+	 * Create a copy of a layer patched after an edit, which shares all sets that are not affected by the edit. 
+	 * 
+	 * @param layer the layer to patch.
+	 * @param patched the patched distribution. 
+	 * @param gridWidth the width of the grid in blocks.
+	 * @param changed the locations of the changed blocks, sorted and without duplicates. 
+	 * @param affected the affected sets of the layer.
+	 * @param coresPerSet the number of cores of each set.
+	 * @param subSets the patched layer containing the subsets of the sets, or null if the sets have no subsets.
+	 * @return the patched layer.
+	 */
+	private static Layer patch(Layer layer, Distribution patched, int gridWidth, int [] changed, boolean [] affected, 
+			int coresPerSet, Layer subSets) { 
+		
+		Layer result = new Layer(layer.name);
+		
+		int subSetsPerSet = (subSets == null) ? 0 : subSets.size() / layer.size();
+		
+		for (int i=0;i<layer.size();i++) { 
+			
+			Set set = layer.get(i);
+			
+			if (affected[i]) { 
+				
+				set = patch(set, patched, gridWidth, changed, i*coresPerSet, coresPerSet);
+				
+				if (subSets != null) {
+					
+					ArrayList<Set> tmp = new ArrayList<Set>();
+					
+					for (int j=0;j<subSetsPerSet;j++) { 
+						tmp.add(subSets.get(i*subSetsPerSet + j));
+					}
+					
+					set.addSubSets(tmp);
+				}
+			}
+			
+			result.add(set);
+		}
+		
+		return result;
+	}
+	
+	/** 
+	 * Create a Statistics for a distribution patched after an edit of the topography. 
+	 * <p>
+	 * Only the sets affected by the edit are patched, all other sets of the layers are shared with this Statistics, and their 
+	 * statistics are reused. A set is affected if it contains a changed block or one of its neighbours, either before or after 
+	 * the edit, since only those sets may change in size or communication. The <code>"ALL"</code> and <code>"BLOCKS"</code> 
+	 * layers are only patched if blocks were added or removed, in which case only the statistics of the changed blocks and their 
+	 * neighbours are recomputed.  
+	 * 
+	 * @param patched the patched distribution, as returned by {@link Distribution#update(Grid, Neighbours, int[])}.
+	 * @param locations the locations of the changed blocks, as returned by 
+	 * {@link Grid#update(Topography, WorkModel, int, int, int, int)}.
+	 * @return the Statistics of the patched distribution.
+	 * @throws Exception if this Statistics was not created from a distribution, or the distributions do not match.
+	 */
+	public Statistics update(Distribution patched, int [] locations) throws Exception { 
+		
+		if (distribution == null) { 
+			throw new Exception("Statistics was not created from a distribution");
+		}
+		
+		if (patched.clusters != distribution.clusters || patched.nodesPerCluster != distribution.nodesPerCluster 
+				|| patched.coresPerNode != distribution.coresPerNode || patched.totalBlocks != distribution.totalBlocks) { 
+			throw new Exception("Patched distribution does not match distribution");
+		}
+		
+		int nodes = distribution.clusters * distribution.nodesPerCluster;
+		int cores = nodes * distribution.coresPerNode;
+		int gridWidth = distribution.topographyWidth / distribution.blockWidth;
+		
+		int [] changed = removeDuplicates(locations);
+		int [] affected = getAffectedLocations(gridWidth, changed);
+		
+		boolean [] affectedCores = new boolean[cores];
+		boolean activeChanged = false;
+		
+		for (int location : affected) { 
+			markOwner(distribution, location, affectedCores);
+			markOwner(patched, location, affectedCores);
+		}
+		
+		for (int location : changed) { 
+			activeChanged |= (distribution.getOwner(location) == 0) != (patched.getOwner(location) == 0);
+		}
+		
+		boolean [] affectedNodes = new boolean[nodes];
+		boolean [] affectedClusters = new boolean[distribution.clusters];
+		
+		for (int i=0;i<cores;i++) { 
+			if (affectedCores[i]) { 
+				affectedNodes[i / distribution.coresPerNode] = true;
+				affectedClusters[i / (distribution.coresPerNode * distribution.nodesPerCluster)] = true;
+			}
+		}
+		
+		Layer coresLayer = patch(layers.get("CORES"), patched, gridWidth, changed, affectedCores, 1, null);
+		Layer nodesLayer = patch(layers.get("NODES"), patched, gridWidth, changed, affectedNodes, 
+				distribution.coresPerNode, coresLayer);
+		Layer clusterLayer = patch(layers.get("CLUSTERS"), patched, gridWidth, changed, affectedClusters, 
+				distribution.coresPerNode * distribution.nodesPerCluster, nodesLayer);
+
+		Layer combinedLayer = layers.get("ALL");
+		Layer blockLayer = layers.get("BLOCKS");
+		
+		Set before = combinedLayer.get(0);
+		Set after = before;
+		
+		if (activeChanged) { 
+			after = patch(before, patched, gridWidth, changed, 0, cores);
+			
+			combinedLayer = new Layer("ALL");
+			combinedLayer.add(after);
+			
+			blockLayer = new BlockLayer("BLOCKS", after, gridWidth);
+		}
+		
+		Layers tmp = new Layers();
+		tmp.add(combinedLayer);
+		tmp.add(blockLayer);
+		tmp.add(coresLayer);
+		tmp.add(nodesLayer);
+		tmp.add(clusterLayer);
+		
+		Statistics result = new Statistics(tmp, neighbours, patched);
+		
+		copyCache(result, "CORES", affectedCores);
+		copyCache(result, "NODES", affectedNodes);
+		copyCache(result, "CLUSTERS", affectedClusters);
+		copyCache(result, "ALL", new boolean [] { activeChanged });
+		copyBlockCache(result, before, after, gridWidth, affected);
+		
+		return result;
+	}
+	
+	/** 
+	 * Returns a sorted copy of an array of locations without duplicates. 
+	 * 
+	 * @param locations the locations.
+	 * @return the sorted locations without duplicates.
+	 */
+	private static int [] removeDuplicates(int [] locations) { 
+		
+		int [] result = locations.clone();
+		Arrays.sort(result);
+		
+		int count = 0;
+		
+		for (int i=0;i<result.length;i++) { 
+			if (i == 0 || result[i] != result[i-1]) { 
+				result[count++] = result[i];
+			}
+		}
+		
+		return Arrays.copyOf(result, count);
+	}
 }
@@ -20,6 +20,13 @@ import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,296 +47,1541 @@ public class Topography {
 	/** A logger used for debugging */
 	private static final Logger logger = LoggerFactory.getLogger(Topography.class);
 	
-	/** The topography data as read from the input file */
-	private final int [][] topography;
+	/** The topography data as read from the input file, stored in the smallest type able to hold all values. */
+	private final TopographyData data;
+	
+	/** 
+	 * Summed area table of the topography values, or null if it has not been created yet. The entry at index y*(width+1)+x 
+	 * contains the sum of all values in the rectangle (0,0) (inclusive) to (x,y) (exclusive).  
+	 */
+	private volatile long [] sumTable;
+	
+	/** 
+	 * Summed area table of the ocean points, or null if it has not been created yet. The entry at index y*(width+1)+x 
+	 * contains the number of non-zero values in the rectangle (0,0) (inclusive) to (x,y) (exclusive).
+	 */
+	private volatile int [] workTable;
+	
+	/** 
+	 * Pyramid of maximum values, or null if it has not been created yet. Each entry of level k contains the maximum of a tile of 
+	 * 2^k x 2^k points. Level 0 is the topography itself, and is therefore not stored in the pyramid. 
+	 */
+	private volatile int [][] maxPyramid;
+	
+	/** Bit-packed mask of the ocean points, or null if it has not been created yet. */
+	private volatile OceanMask oceanMask;
+	
+	/** 
+	 * The rectangles changed by {@link #fill(int, int, int, int, int)} since the last call to {@link #clearDirtyRectangles()}, 
+	 * stored as {x, y, width, height}. 
+	 */
+	private final ArrayList<int []> dirty = new ArrayList<int []>();
 	
 	/** The width of the topography */
 	public final int width;
 	
-	/** The height of the topography */
-	public final int height;
+	/** The height of the topography */
+	public final int height;
+	
+	/** The maximum value found in the topography */
+	public final int max;
+	
+	/** The minimum value found in the topopgrapy */
+	public final int min;
+	
+	/** Constant used to select the stream based reader, which reads the topography one value at a time. */
+	public static final int STREAM = 0;
+	
+	/** Constant used to select the memory mapped reader, which maps the topography file and decodes it in bulk. */
+	public static final int MAPPED = 1;
+	
+	/** Constant used to select the parallel reader, which maps the topography file and decodes bands of rows in parallel. */
+	public static final int PARALLEL = 2;
+	
+	/** 
+	 * Constant used to select the tiled reader, which only scans the topography file when it is created, and reads tiles of 
+	 * rows on demand afterwards. Use this reader for topographies that do not fit in memory. 
+	 */
+	public static final int TILED = 3;
+	
+	/** The maximum number of bytes mapped at once by the memory mapped reader. */
+	private static final long MAX_MAPPING_SIZE = 256L * 1024L * 1024L;
+	
+	/** The number of bytes of the topography file in each tile used by the tiled reader. */
+	private static final long TILE_SIZE = 4L * 1024L * 1024L;
+	
+	/** The maximum number of bytes used by the tiles cached by the tiled reader. */
+	private static final long TILE_CACHE_SIZE = 256L * 1024L * 1024L;
+	
+	/** 
+	 * Summary collects the minimum, maximum, work and sum of the values seen while reading a topography.
+	 */
+	private static class Summary { 
+		
+		/** The maximum value seen so far. */
+		int max = Integer.MIN_VALUE;
+		
+		/** The minimum value seen so far. */
+		int min = Integer.MAX_VALUE;
+		
+		/** The number of nonzero values seen so far. */
+		long work = 0;
+		
+		/** The sum of all values seen so far. */
+		long sum = 0;
+		
+		/** 
+		 * Add a value to the summary.
+		 * 
+		 * @param value the value to add.
+		 */
+		void add(int value) { 
+			
+			if (value > max) { 
+				max = value;
+			}
+			
+			if (value < min) { 
+				min = value;
+			}
+			
+			if (value > 0) { 
+				work++;
+			}
+			
+			sum += value;
+		}
+		
+		/** 
+		 * Add the values collected by another summary to this summary.
+		 * 
+		 * @param other the summary to add.
+		 */
+		void add(Summary other) { 
+			
+			if (other.max > max) { 
+				max = other.max;
+			}
+			
+			if (other.min < min) { 
+				min = other.min;
+			}
+			
+			work += other.work;
+			sum += other.sum;
+		}
+	}
+	
+	/** 
+	 * Create a new topography by reading the data from the input file using the stream based reader.  
+	 * 
+	 * @param width the width of the topography to create.
+	 * @param height the height of the topography to create.
+	 * @param inputfile the input file from which to read the topography data.
+	 * @throws Exception if the topography could not be created. 
+	 */
+	public Topography(int width, int height, String inputfile) throws Exception {
+		this(width, height, inputfile, STREAM);
+	}
+	
+	/** 
+	 * Create a new topography by reading the data from the input file using the selected reader.
+	 * 
+	 * All readers expect the file to contain width*height big-endian 32-bit integers, stored row by row, and produce the same 
+	 * result. All readers except the tiled reader store the entire topography in memory, which limits its size to 2^31 points. 
+	 * 
+	 * @param width the width of the topography to create.
+	 * @param height the height of the topography to create.
+	 * @param inputfile the input file from which to read the topography data.
+	 * @param reader the reader to use (STREAM, MAPPED, PARALLEL or TILED).
+	 * @throws Exception if the topography could not be created. 
+	 */
+	public Topography(int width, int height, String inputfile, int reader) throws Exception {
+		this(width, height, inputfile, reader, false);
+	}
+	
+	/** 
+	 * Create a new topography by reading the data from the input file using the selected reader, optionally using a cache file.
+	 * 
+	 * If a cache is used, the topography is loaded from the cache file next to the input file if it exists and the input file 
+	 * has not changed since it was written. Otherwise, the topography is read using the selected reader, after which the cache 
+	 * file is (re)written. The cache file contains the topography in compact form as well as its summed area tables, so 
+	 * later runs skip both parsing the input file and creating the tables. 
+	 * 
+	 * @param width the width of the topography to create.
+	 * @param height the height of the topography to create.
+	 * @param inputfile the input file from which to read the topography data.
+	 * @param reader the reader to use (STREAM, MAPPED, PARALLEL or TILED).
+	 * @param cache if a cache file should be used. A cache file cannot be combined with the TILED reader.
+	 * @throws Exception if the topography could not be created. 
+	 */
+	public Topography(int width, int height, String inputfile, int reader, boolean cache) throws Exception {
+		this(width, height, inputfile, reader, cache, TopographyFormat.INT32_BIG_ENDIAN);
+	}
+	
+	/** 
+	 * Create a new topography by reading the data from the input file using the selected reader and format, optionally using a 
+	 * cache file.
+	 * 
+	 * If no format is given, it is detected from the length and contents of the input file using 
+	 * {@link TopographyFormat#detect(String, int, int)}. All readers decode the values of the selected format in bulk while 
+	 * reading the input file, so no intermediate conversion of the file is needed. 
+	 * 
+	 * @param width the width of the topography to create.
+	 * @param height the height of the topography to create.
+	 * @param inputfile the input file from which to read the topography data.
+	 * @param reader the reader to use (STREAM, MAPPED, PARALLEL or TILED).
+	 * @param cache if a cache file should be used. A cache file cannot be combined with the TILED reader.
+	 * @param format the format of the input file, or null to detect it.
+	 * @throws Exception if the topography could not be created. 
+	 */
+	public Topography(int width, int height, String inputfile, int reader, boolean cache, TopographyFormat format) 
+			throws Exception {
+	
+		this.width = width;
+		this.height = height;
+		
+		if (cache && reader == TILED) { 
+			throw new IllegalArgumentException("A cache file cannot be used with the tiled reader");
+		}
+		
+		if (format == null) { 
+			format = TopographyFormat.detect(inputfile, width, height);
+		}
+		
+		if (cache) { 
+			
+			TopographyCache cached = TopographyCache.load(inputfile, width, height, format);
+			
+			if (cached != null) { 
+				data = cached.data;
+				sumTable = cached.sumTable;
+				workTable = cached.workTable;
+				max = cached.max;
+				min = cached.min;
+				return;
+			}
+		}
+
+		if (reader != TILED && (long) width * (long) height > Integer.MAX_VALUE) { 
+			throw new Exception("Topography of " + width + "x" + height + " is too large to store in memory, use the tiled reader");
+		}
+		
+		Summary summary = new Summary();
+		
+		switch (reader) { 
+		case STREAM:
+			data = readStream(inputfile, format, summary);
+			break;
+		case MAPPED:
+			data = readMapped(inputfile, format, summary);
+			break;
+		case PARALLEL:
+			data = readParallel(inputfile, format, summary);
+			break;
+		case TILED:
+			data = readTiled(inputfile, format, summary);
+			break;
+		default:
+			throw new IllegalArgumentException("Illegal reader " + reader);
+		}
+			
+		max = summary.max;
+		min = summary.min;		
+		
+		if (logger.isDebugEnabled()) { 
+			logger.debug("Topography contains " + summary.work + " nonzero fields (sum = " + summary.sum + ") stored using " 
+					+ data.getBytesPerValue() + " bytes per value");
+		}
+		
+		if (cache) { 
+			
+			long [] sums = null;
+			int [] work = null;
+			
+			if (canUseTables()) { 
+				sums = getSumTable();
+				work = getWorkTable();
+			}
+			
+			new TopographyCache(width, height, min, max, summary.work, summary.sum, data, sums, work).save(inputfile, format);
+		}
+	}
+
+	/** 
+	 * Read the topography data from the input file one value at a time using a DataInputStream. 
+	 * 
+	 * @param inputfile the input file from which to read the topography data.
+	 * @param format the format of the input file.
+	 * @param summary the summary to add the values to.
+	 * @return the topography data.
+	 * @throws Exception if the topography could not be read. 
+	 */
+	private TopographyData readStream(String inputfile, TopographyFormat format, Summary summary) throws Exception {
+
+		DataInputStream in = null;
+		
+		try { 
+			FileInputStream file = new FileInputStream(new File(inputfile));
+			
+			// Skip any header preceding the values.
+			file.getChannel().position(format.offset);
+			
+			in = new DataInputStream(new BufferedInputStream(file));
+
+			TopographyData result = TopographyData.create(width, height, 0, 0);
+			
+			int [] row = new int[width];
+			
+			for (int y=0;y<height;y++) { 
+				for (int x=0;x<width;x++) {
+					int tmp = format.read(in);
+					row[x] = tmp;
+					summary.add(tmp);
+				}
+				
+				result = result.putRow(y, row, summary.min, summary.max);
+			}
+
+			in.close();
+			return result;
+		} catch (Exception e) { 
+			throw new Exception("Failed to read topography from file " + inputfile, e);
+		} finally { 
+			try { 
+				in.close();
+			} catch (Exception e) {
+				// ignored
+			}
+		}
+	}
+	
+	/** 
+	 * Read the topography data from the input file by mapping it into memory and decoding it in bulk using an IntBuffer or 
+	 * ShortBuffer view of the selected byte order. 
+	 * 
+	 * The file is mapped in bands of complete rows of at most {@link #MAX_MAPPING_SIZE} bytes, so files larger than 2 GB 
+	 * can be read as well. 
+	 * 
+	 * @param inputfile the input file from which to read the topography data.
+	 * @param format the format of the input file.
+	 * @param summary the summary to add the values to.
+	 * @return the topography data.
+	 * @throws Exception if the topography could not be read. 
+	 */
+	private TopographyData readMapped(String inputfile, TopographyFormat format, Summary summary) throws Exception {
+		
+		RandomAccessFile file = null;
+		
+		try { 
+			file = new RandomAccessFile(inputfile, "r");
+			
+			FileChannel channel = file.getChannel();
+		
+			long rowSize = format.getSize(width, 1);
+			
+			if (channel.size() < format.getPosition(width, height)) { 
+				throw new Exception("File too short: expected " + format.getPosition(width, height) + " bytes but found " 
+						+ channel.size());
+			}
+			
+			int rowsPerBand = (int) Math.max(1, MAX_MAPPING_SIZE / rowSize);
+			
+			TopographyData result = TopographyData.create(width, height, 0, 0);
+			
+			int [] row = new int[width];
+			
+			for (int y=0;y<height;y+=rowsPerBand) { 
+				
+				int rows = Math.min(rowsPerBand, height-y);
+				
+				TopographyFormat.Decoder values = mapRows(channel, format, y, rows);
+				
+				for (int j=y;j<y+rows;j++) { 
+					
+					values.get(row);
+					
+					for (int x=0;x<width;x++) {
+						summary.add(row[x]);
+					}
+					
+					result = result.putRow(j, row, summary.min, summary.max);
+				}
+			}
+			
+			return result;
+		} catch (Exception e) { 
+			throw new Exception("Failed to map topography from file " + inputfile, e);
+		} finally { 
+			try { 
+				file.close();
+			} catch (Exception e) {
+				// ignored
+			}
+		}
+	}
+	
+	/** 
+	 * Map a band of rows of the input file into memory.
+	 * 
+	 * @param channel the channel of the input file. 
+	 * @param format the format of the input file.
+	 * @param y the first row to map.
+	 * @param rows the number of rows to map.
+	 * @return a Decoder for the values of the rows.
+	 * @throws Exception if the rows could not be mapped.
+	 */
+	private TopographyFormat.Decoder mapRows(FileChannel channel, TopographyFormat format, int y, int rows) throws Exception { 
+		
+		long rowSize = format.getSize(width, 1);
+		
+		MappedByteBuffer band = channel.map(FileChannel.MapMode.READ_ONLY, format.getPosition(width, y), rows * rowSize);
+		return format.getDecoder(band);
+	}
+	
+	/** 
+	 * Split the rows of the topography into bands that can be mapped and processed in parallel. 
+	 * 
+	 * Several bands are used per thread to balance the load, but no band contains more than {@link #MAX_MAPPING_SIZE} bytes.   
+	 * 
+	 * @param format the format of the input file.
+	 * @return the first row of each band, followed by the height of the topography.
+	 */
+	private int [] getBands(TopographyFormat format) { 
+		
+		long rowSize = format.getSize(width, 1);
+
+		int rowsPerBand = (int) Math.max(1, MAX_MAPPING_SIZE / rowSize);
+		int bands = Math.max(4 * Parallel.getThreads(), (height + rowsPerBand - 1) / rowsPerBand);
+		
+		return Parallel.split(height, bands);
+	}
+	
+	/** 
+	 * Scan bands of rows of the input file in parallel and add their values to a summary.
+	 *  
+	 * @param channel the channel of the input file. 
+	 * @param format the format of the input file.
+	 * @param start the first row of each band, followed by the height of the topography.
+	 * @param summary the summary to add the values to.
+	 * @throws Exception if the input file could not be scanned. 
+	 */
+	private void scanParallel(final FileChannel channel, final TopographyFormat format, int [] start, Summary summary) 
+			throws Exception {
+		
+		ArrayList<Callable<Summary>> scans = new ArrayList<Callable<Summary>>();
+		
+		for (int i=0;i<start.length-1;i++) { 
+			
+			final int y = start[i];
+			final int rows = start[i+1] - start[i];
+			
+			scans.add(new Callable<Summary>() {
+				@Override
+				public Summary call() throws Exception {
+					
+					Summary partial = new Summary();
+					
+					TopographyFormat.Decoder values = mapRows(channel, format, y, rows);
+					
+					int [] row = new int[width];
+					
+					for (int j=0;j<rows;j++) { 
+						
+						values.get(row);
+						
+						for (int x=0;x<width;x++) {
+							partial.add(row[x]);
+						}
+					}
+					
+					return partial;
+				}
+			});
+		}
+		
+		List<Summary> partials = Parallel.invokeAll(scans);
+		
+		for (Summary partial : partials) { 
+			summary.add(partial);
+		}
+	}
+	
+	/** 
+	 * Read the topography data from the input file by mapping it into memory and decoding bands of rows in parallel. 
+	 * 
+	 * The file is read in two parallel passes. In the first pass each band computes a partial summary of its values. These 
+	 * partial summaries are merged to select the smallest type able to store all values. In the second pass each band decodes 
+	 * its rows directly into the topography data. 
+	 *  
+	 * @param inputfile the input file from which to read the topography data.
+	 * @param format the format of the input file.
+	 * @param summary the summary to add the values to.
+	 * @return the topography data.
+	 * @throws Exception if the topography could not be read. 
+	 */
+	private TopographyData readParallel(String inputfile, final TopographyFormat format, Summary summary) throws Exception {
+		
+		RandomAccessFile file = null;
+		
+		try { 
+			file = new RandomAccessFile(inputfile, "r");
+			
+			final FileChannel channel = file.getChannel();
+		
+			long rowSize = format.getSize(width, 1);
+			
+			if (channel.size() < format.getPosition(width, height)) { 
+				throw new Exception("File too short: expected " + format.getPosition(width, height) + " bytes but found " 
+						+ channel.size());
+			}
+
+			final int [] start = getBands(format);
+			
+			scanParallel(channel, format, start, summary);
+			
+			final TopographyData result = TopographyData.create(width, height, summary.min, summary.max);
+
+			ArrayList<Callable<Object>> decoders = new ArrayList<Callable<Object>>();
+			
+			for (int i=0;i<start.length-1;i++) { 
+				
+				final int y = start[i];
+				final int rows = start[i+1] - start[i];
+				
+				decoders.add(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						
+						TopographyFormat.Decoder values = mapRows(channel, format, y, rows);
+						
+						int [] row = new int[width];
+						
+						for (int j=y;j<y+rows;j++) { 
+							values.get(row);
+							result.setRow(j, row);
+						}
+						
+						return null;
+					}
+				});
+			}
+			
+			Parallel.invokeAll(decoders);
+			
+			return result;
+		} catch (Exception e) { 
+			throw new Exception("Failed to map topography from file " + inputfile, e);
+		} finally { 
+			try { 
+				file.close();
+			} catch (Exception e) {
+				// ignored
+			}
+		}
+	}
+	
+	/** 
+	 * Prepare the topography data to be read from the input file on demand. 
+	 * 
+	 * The input file is scanned once in parallel to determine the minimum and maximum value. Afterwards, tiles of rows are read 
+	 * and decoded when they are used, while a bounded number of recently used tiles is cached. Since no tables of the same size as 
+	 * the topography are created, rectangle queries scan the rows they cover.   
+	 * 
+	 * @param inputfile the input file from which to read the topography data.
+	 * @param format the format of the input file.
+	 * @param summary the summary to add the values to.
+	 * @return the topography data.
+	 * @throws Exception if the topography could not be read. 
+	 */
+	private TopographyData readTiled(String inputfile, TopographyFormat format, Summary summary) throws Exception {
+		
+		RandomAccessFile file = null;
+		
+		try { 
+			file = new RandomAccessFile(inputfile, "r");
+			
+			FileChannel channel = file.getChannel();
+		
+			long rowSize = format.getSize(width, 1);
+			
+			if (rowSize > MAX_MAPPING_SIZE) { 
+				throw new Exception("Row of " + rowSize + " bytes is too large to map");
+			}
+			
+			if (channel.size() < format.getPosition(width, height)) { 
+				throw new Exception("File too short: expected " + format.getPosition(width, height) + " bytes but found " 
+						+ channel.size());
+			}
+
+			scanParallel(channel, format, getBands(format), summary);
+			
+			int tileRows = (int) Math.max(1, Math.min(height, TILE_SIZE / rowSize));
+			
+			return new TopographyData.Tiled(inputfile, format, width, height, tileRows, TILE_CACHE_SIZE);
+		} catch (Exception e) { 
+			throw new Exception("Failed to map topography from file " + inputfile, e);
+		} finally { 
+			try { 
+				file.close();
+			} catch (Exception e) {
+				// ignored
+			}
+		}
+	}
+	
+	/** 
+	 * Create a new topography from existing data.  
+	 * 
+	 * @param data a square int matrix containing the data to store in the topography, indexed as data[x][y].
+	 * @throws Exception if the topography could not be created. 
+	 */
+	public Topography(int [][] data) throws Exception {
+	
+		this.width = data.length;
+		this.height = data[0].length;
+		
+		TopographyData result = TopographyData.create(width, height, 0, 0);
+		
+		Summary summary = new Summary();
+
+		int [] row = new int[width];
+		
+		for (int y=0;y<height;y++) { 
+			for (int x=0;x<width;x++) {
+				int tmp = data[x][y];
+				row[x] = tmp;
+				summary.add(tmp);
+			}
+			
+			result = result.putRow(y, row, summary.min, summary.max);
+		}
+			
+		this.data = result;
+		
+		max = summary.max;
+		min = summary.min;		
+		
+		if (logger.isDebugEnabled()) { 
+			logger.debug("Topography contains " + summary.work + " nonzero fields (sum = " + summary.sum + ")");
+		}
+	}
+	
+	/** 
+	 * Create a new topography from existing data stored row by row.  
+	 * 
+	 * @param width the width of the topography to create.
+	 * @param height the height of the topography to create.
+	 * @param values an array of length width*height containing the values, where the value at (x,y) is stored at index 
+	 * y*width+x.
+	 */
+	private Topography(int width, int height, int [] values) {
+		
+		this.width = width;
+		this.height = height;
+		
+		Summary summary = new Summary();
+		
+		for (int i=0;i<values.length;i++) { 
+			summary.add(values[i]);
+		}
+		
+		TopographyData result = TopographyData.create(width, height, summary.min, summary.max);
+		
+		int [] row = new int[width];
+		
+		for (int y=0;y<height;y++) { 
+			System.arraycopy(values, y*width, row, 0, width);
+			result.setRow(y, row);
+		}
+		
+		this.data = result;
+		
+		max = summary.max;
+		min = summary.min;		
+		
+		if (logger.isDebugEnabled()) { 
+			logger.debug("Topography contains " + summary.work + " nonzero fields (sum = " + summary.sum + ")");
+		}
+	}
+	
+	/** 
+	 * Create a new topography by down scaling an existing one.
+	 * 
+	 * The down scaling will be performed block wise. The original topography will be divided in blocks of size 
+	 * (blockWidth x blockHeight). Each block will become a single point in the new topography. The value of this point will be the 
+	 * sum of all values in the block in the original topography.       
+	 *  
+	 * @param orig the original topography. 
+	 * @param blockWidth the block width to use for down scaling.  
+	 * @param blockHeight the block height to use for down scaling.
+	 * @throws Exception if the topography could not be scaled down. 
+	 * @see #downscale(Topography, int[], int[])
+	 */
+	public Topography(Topography orig, int blockWidth, int blockHeight) throws Exception {
+		this(orig.width / blockWidth, orig.height / blockHeight, 
+				downscaleValues(orig, new int [] { blockWidth }, new int [] { blockHeight })[0]);
+	}
+	
+	/** 
+	 * Create a series of new topographies by down scaling an existing one using several block sizes.
+	 * 
+	 * The result is the same as creating a topography for each pair (blockWidths[i], blockHeights[i]) using 
+	 * {@link #Topography(Topography, int, int)}. However, all block sizes are computed in a single pass over the original 
+	 * topography, which is divided into bands of rows that are processed in parallel.   
+	 *  
+	 * @param orig the original topography. 
+	 * @param blockWidths the block widths to use for down scaling.  
+	 * @param blockHeights the block heights to use for down scaling.
+	 * @return an array containing a down scaled topography for each block size.
+	 * @throws Exception if the topography could not be scaled down. 
+	 */
+	public static Topography [] downscale(Topography orig, int [] blockWidths, int [] blockHeights) throws Exception {
+		
+		int [][] values = downscaleValues(orig, blockWidths, blockHeights);
+		
+		Topography [] result = new Topography[values.length];
+		
+		for (int i=0;i<values.length;i++) { 
+			result[i] = new Topography(orig.width / blockWidths[i], orig.height / blockHeights[i], values[i]);
+		}
+		
+		return result;
+	}
+	
+	/** 
+	 * Compute the values of a series of down scaled topographies in a single pass over the original topography.
+	 * 
+	 * The original topography is divided into bands of rows that are processed in parallel. Each band reads its rows in order, 
+	 * computes the prefix sums of each row, and adds the sum of each block segment to a partial result for each block size. 
+	 * The partial results of the bands are merged at the end.     
+	 *  
+	 * @param orig the original topography. 
+	 * @param blockWidths the block widths to use for down scaling.  
+	 * @param blockHeights the block heights to use for down scaling.
+	 * @return an array containing the values of each down scaled topography, stored row by row.
+	 * @throws Exception if the topography could not be scaled down. 
+	 */
+	private static int [][] downscaleValues(final Topography orig, final int [] blockWidths, final int [] blockHeights) 
+			throws Exception {
+		
+		if (blockWidths.length != blockHeights.length) { 
+			throw new Exception("Number of block widths and heights do not match");
+		}
+		
+		final int sizes = blockWidths.length;
+		
+		final int [] widths = new int[sizes];
+		final int [] heights = new int[sizes];
+		
+		for (int i=0;i<sizes;i++) { 
+			
+			if (blockWidths[i] <= 0 || orig.width % blockWidths[i] != 0) { 
+				throw new Exception("Illegal blockWidth");
+			}
+			
+			if (blockHeights[i] <= 0 || orig.height % blockHeights[i] != 0) { 
+				throw new Exception("Illegal blockHeight");
+			}
+			
+			widths[i] = orig.width / blockWidths[i];
+			heights[i] = orig.height / blockHeights[i];
+		}
+		
+		final int [] start = Parallel.split(orig.height, 4 * Parallel.getThreads());
+		
+		ArrayList<Callable<long [][]>> tasks = new ArrayList<Callable<long [][]>>();
+		
+		for (int b=0;b<start.length-1;b++) { 
+			
+			final int y0 = start[b];
+			final int y1 = start[b+1];
+			
+			tasks.add(new Callable<long [][]>() {
+				@Override
+				public long [][] call() throws Exception {
+					
+					// The partial result of block size i contains the output rows y0/blockHeights[i] to 
+					// (y1-1)/blockHeights[i] (inclusive).
+					long [][] partial = new long[sizes][];
+					
+					for (int i=0;i<sizes;i++) { 
+						partial[i] = new long[((y1-1)/blockHeights[i] - y0/blockHeights[i] + 1) * widths[i]];
+					}
+					
+					int [] row = new int[orig.width];
+					long [] prefix = new long[orig.width+1];
+					
+					for (int y=y0;y<y1;y++) { 
+					
+						orig.data.getRow(0, y, orig.width, row, 0);
+						
+						for (int x=0;x<orig.width;x++) { 
+							prefix[x+1] = prefix[x] + row[x];
+						}
+						
+						for (int i=0;i<sizes;i++) { 
+							
+							long [] target = partial[i];
+							
+							int bw = blockWidths[i];
+							int offset = (y/blockHeights[i] - y0/blockHeights[i]) * widths[i];
+						
+							for (int bx=0;bx<widths[i];bx++) { 
+								target[offset+bx] += prefix[(bx+1)*bw] - prefix[bx*bw];
+							}
+						}
+					}
+					
+					return partial;
+				}
+			});
+		}
+		
+		List<long [][]> partials = Parallel.invokeAll(tasks);
+		
+		int [][] result = new int[sizes][];
+		
+		for (int i=0;i<sizes;i++) { 
+			
+			long [] sums = new long[widths[i]*heights[i]];
+			
+			for (int b=0;b<partials.size();b++) { 
+				
+				long [] partial = partials.get(b)[i];
+				int offset = (start[b] / blockHeights[i]) * widths[i];
+				
+				for (int j=0;j<partial.length;j++) { 
+					sums[offset+j] += partial[j];
+				}
+			}
+			
+			result[i] = new int[sums.length];
+			
+			for (int j=0;j<sums.length;j++) { 
+				result[i][j] = (int) sums[j];
+			}
+		}
+		
+		return result;
+	}
+
+	/** 
+	 * Returns the width of a level in the pyramid of maximum values. 
+	 * 
+	 * @param level the level in the pyramid.
+	 * @return the number of tiles in a row of the given level.
+	 */
+	private int getLevelWidth(int level) { 
+		return ((width-1) >> level) + 1;
+	}
+	
+	/** 
+	 * Returns the height of a level in the pyramid of maximum values. 
+	 * 
+	 * @param level the level in the pyramid.
+	 * @return the number of tiles in a column of the given level.
+	 */
+	private int getLevelHeight(int level) { 
+		return ((height-1) >> level) + 1;
+	}
+	
+	/** 
+	 * Returns the pyramid of maximum values, creating it first if needed. 
+	 * 
+	 * Each level is half the width and height of the level below it, until a single tile covers the entire topography. Since 
+	 * level 0 is the topography itself, the additional levels require about a third of the number of entries of the topography.  
+	 * 
+	 * @return the pyramid of maximum values. 
+	 */
+	private int [][] getMaxPyramid() { 
+		
+		int [][] result = maxPyramid;
+		
+		if (result == null) {
+			synchronized (this) {
+				result = maxPyramid;
+
+				if (result == null) { 
+					
+					int levels = 1;
+					
+					while (getLevelWidth(levels-1) > 1 || getLevelHeight(levels-1) > 1) { 
+						levels++;
+					}
+
+					result = new int[levels][];
+					
+					if (levels > 1) { 
+						
+						// Level 1 is created from the topography itself.
+						int levelWidth = getLevelWidth(1);
+						int levelHeight = getLevelHeight(1);
+						
+						int [] current = new int[levelWidth*levelHeight];
+						
+						int [] row0 = new int[width];
+						int [] row1 = new int[width];
+						
+						for (int ty=0;ty<levelHeight;ty++) { 
+							
+							data.getRow(0, 2*ty, width, row0, 0);
+							
+							if (2*ty+1 < height) { 
+								data.getRow(0, 2*ty+1, width, row1, 0);
+							} else { 
+								System.arraycopy(row0, 0, row1, 0, width);
+							}
+							
+							for (int tx=0;tx<levelWidth;tx++) {
+								
+								int x0 = 2*tx;
+								int x1 = (x0+1 < width) ? x0+1 : x0;
+								
+								current[ty*levelWidth+tx] = Math.max(Math.max(row0[x0], row0[x1]), Math.max(row1[x0], row1[x1]));
+							}
+						}
+						
+						result[1] = current;
+					}
+					
+					for (int level=2;level<levels;level++) { 
+						
+						int [] prev = result[level-1];
+						int prevWidth = getLevelWidth(level-1);
+						int prevHeight = getLevelHeight(level-1);
+						
+						int levelWidth = getLevelWidth(level);
+						int levelHeight = getLevelHeight(level);
+						
+						int [] current = new int[levelWidth*levelHeight];
+						
+						for (int ty=0;ty<levelHeight;ty++) { 
+							
+							int y0 = 2*ty*prevWidth;
+							int y1 = (2*ty+1 < prevHeight) ? y0 + prevWidth : y0;
+							
+							for (int tx=0;tx<levelWidth;tx++) {
+							
+								int x0 = 2*tx;
+								int x1 = (x0+1 < prevWidth) ? x0+1 : x0;
+								
+								current[ty*levelWidth+tx] = Math.max(Math.max(prev[y0+x0], prev[y0+x1]), 
+										Math.max(prev[y1+x0], prev[y1+x1]));
+							}
+						}
+						
+						result[level] = current;
+					}
+
+					maxPyramid = result;
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	/** 
+	 * Returns the maximum of the current best value and the values found in the intersection of a tile of the pyramid of maximum 
+	 * values and the rectangle (x0,y0) (inclusive) to (x1,y1) (exclusive). The tile must intersect the rectangle.
+	 * 
+	 * Tiles that are completely covered by the rectangle are answered with a single lookup. Tiles that are partially covered 
+	 * are refined using the level below, unless their maximum cannot improve on the current best value.    
+	 * 
+	 * @param pyramid the pyramid of maximum values.
+	 * @param level the level of the tile in the pyramid.
+	 * @param tx the x position of the tile in its level. 
+	 * @param ty the y position of the tile in its level.
+	 * @param x0 the smallest x coordinate of the rectangle.
+	 * @param y0 the smallest y coordinate of the rectangle.
+	 * @param x1 the largest x coordinate of the rectangle (exclusive).
+	 * @param y1 the largest y coordinate of the rectangle (exclusive).
+	 * @param best the current best value. 
+	 * @return the maximum of best and the values in the intersection of tile and rectangle.
+	 */
+	private int getTileMax(int [][] pyramid, int level, int tx, int ty, int x0, int y0, int x1, int y1, int best) { 
+		
+		int value = (level == 0) ? data.get(tx, ty) : pyramid[level][ty*getLevelWidth(level)+tx];
+		
+		if (value <= best) { 
+			return best;
+		}
+		
+		int startX = tx << level;
+		int startY = ty << level;
+		int endX = Math.min(startX + (1 << level), width);
+		int endY = Math.min(startY + (1 << level), height);
+		
+		if (startX >= x0 && endX <= x1 && startY >= y0 && endY <= y1) { 
+			return value;
+		}
+		
+		// The tile is partially covered, so refine the result using the (up to four) tiles on the level below. 
+		int childLevel = level-1;
+		
+		int minX = Math.max(2*tx, x0 >> childLevel);
+		int maxX = Math.min(2*tx+1, (x1-1) >> childLevel);
+		int minY = Math.max(2*ty, y0 >> childLevel);
+		int maxY = Math.min(2*ty+1, (y1-1) >> childLevel);
+		
+		for (int cy=minY;cy<=maxY;cy++) { 
+			for (int cx=minX;cx<=maxX;cx++) {
+				best = getTileMax(pyramid, childLevel, cx, cy, x0, y0, x1, y1, best);
+			}
+		}
+		
+		return best;
+	}
+	
+	/** 
+	 * Returns the maximum value found in a rectangular area of the topography.  
+	 * 
+	 * The first call creates a pyramid of maximum values. Any rectangle is then answered from at most four tiles of the 
+	 * pyramid, which are only refined along the edges of the rectangle. Block aligned rectangles of 2^k x 2^k points require a 
+	 * single lookup. 
+	 * 
+	 * @param x the x position of the rectangle. 
+	 * @param y the y position of the rectangle.
+	 * @param w the width of the rectangle.
+	 * @param h the height of the rectangle.
+	 * @return the maximum value found in the specified rectangular area.
+	 */
+	public int getRectangleMax(int x, int y, int w, int h) {
+		
+		int endX = Math.min(x+w, width);
+		int endY = Math.min(y+h, height);
+		
+		if (endX <= x || endY <= y) { 
+			return Integer.MIN_VALUE;
+		}
+		
+		if (!data.isResident()) { 
+			
+			int max = Integer.MIN_VALUE;
+			
+			int [] values = new int[endX-x];
+			
+			for (int j=y;j<endY;j++) {
+				
+				data.getRow(x, j, values.length, values, 0);
+				
+				for (int i=0;i<values.length;i++) {
+					if (values[i] > max) { 
+						max = values[i];
+					}
+				}
+			}
+			
+			return max;
+		}
+		
+		int [][] pyramid = getMaxPyramid();
+		
+		// Select the lowest level at which the rectangle overlaps with at most 2x2 tiles.
+		int size = Math.max(endX-x, endY-y);
+		int level = 0;
+		
+		while (level < pyramid.length-1 && (1 << level) < size) { 
+			level++;
+		}
+		
+		int max = Integer.MIN_VALUE;
+		
+		for (int ty=(y >> level);ty<=((endY-1) >> level);ty++) { 
+			for (int tx=(x >> level);tx<=((endX-1) >> level);tx++) {
+				max = getTileMax(pyramid, level, tx, ty, x, y, endX, endY, max);
+			}
+		}
+		
+		return max;
+	}
+	
+	/** 
+	 * Returns the average value found in a rectangular area of the topography.  
+	 * 
+	 * @param x the x position of the rectangle. 
+	 * @param y the y position of the rectangle.
+	 * @param w the width of the rectangle.
+	 * @param h the height of the rectangle.
+	 * @return the average value found in the specified rectangular area.
+	 */
+	public int getRectangleAvg(int x, int y, int w, int h) {
+	
+		int endX = Math.min(x+w, width);
+		int endY = Math.min(y+h, height);
+		
+		long count = (long) Math.max(0, endX-x) * (long) Math.max(0, endY-y);
+		
+		if (count > 0) { 
+			return (int) (getRectangleSum(x, y, w, h)/count);
+		}
+		
+		return 0;
+	}
 	
-	/** The maximum value found in the topography */
-	public final int max;
+	/** 
+	 * Checks if the summed area tables for this topography can be stored in an array. No tables are created if the topography 
+	 * itself is not stored in memory.
+	 * 
+	 * @return if the summed area tables for this topography can be used.
+	 */
+	boolean canUseTables() { 
+		return data.isResident() && (long)(width+1) * (long)(height+1) < Integer.MAX_VALUE;
+	}
 	
-	/** The minimum value found in the topopgrapy */
-	public final int min;
+	/** 
+	 * Creates the summed area tables of this topography if they do not exist yet. This allows tasks running on the 
+	 * {@link Parallel} thread pool to use the tables without creating them. 
+	 * 
+	 * @see #canUseTables()
+	 */
+	void createTables() { 
+		getSumTable();
+		getWorkTable();
+	}
 	
 	/** 
-	 * Create a new topography by reading the data from the input file.  
+	 * Copies a row of the topography into an array.  
 	 * 
-	 * @param width the width of the topography to create.
-	 * @param height the height of the topography to create.
-	 * @param inputfile the input file from which to read the topography data.
-	 * @throws Exception if the topography could not be created. 
+	 * @param y the row to copy.
+	 * @param values the array to copy the row to, which must have a length of at least width.
 	 */
-	public Topography(int width, int height, String inputfile) throws Exception {
+	void getRow(int y, int [] values) { 
+		data.getRow(0, y, width, values, 0);
+	}
 	
-		int tmpMax = Integer.MIN_VALUE;
-		int tmpMin = Integer.MAX_VALUE;
-		
-		this.width = width;
-		this.height = height;
-		topography = new int[width][height];
-
-		int work = 0;
-		long sum = 0;
+	/** 
+	 * Returns the summed area table of the topography values, creating it first if needed. 
+	 * 
+	 * @return the summed area table of the topography values. 
+	 */
+	private long [] getSumTable() { 
 		
-		DataInputStream in = null;
+		long [] result = sumTable;
 		
-		try { 
-			in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(inputfile))));
+		if (result == null) {
+			synchronized (this) {
+				result = sumTable;
 
-			for (int y=0;y<height;y++) { 
-				for (int x=0;x<width;x++) {
-					int tmp = in.readInt();
+				if (result == null) { 
+					
+					final int stride = width+1;
 
-					//topography[x][height-y-1] = tmp;
-					topography[x][y] = tmp;
+					result = new long[stride*(height+1)];
 
-					if (tmp > tmpMax) { 
-						tmpMax = tmp;
-					}
+					int [] values = new int[width];
+					
+					for (int y=0;y<height;y++) {
 
-					if (tmp < tmpMin) { 
-						tmpMin = tmp;
-					}
+						data.getRow(0, y, width, values, 0);
+						
+						int prev = y*stride;
+						int next = prev+stride;
+						long row = 0;
 
-					if (tmp > 0) { 
-						work++;
+						for (int x=0;x<width;x++) { 
+							row += values[x];
+							result[next+x+1] = result[prev+x+1] + row;
+						}
 					}
 
-					sum += tmp;
+					sumTable = result;
 				}
 			}
-
-			in.close();
-		} catch (Exception e) { 
-			throw new Exception("Failed to read topography from file " + inputfile, e);
-		} finally { 
-			try { 
-				in.close();
-			} catch (Exception e) {
-				// ignored
-			}
 		}
-			
-		max = tmpMax;
-		min = tmpMin;		
 		
-		if (logger.isDebugEnabled()) { 
-			logger.debug("Topography contains " + work + " nonzero fields (sum = " + sum + ")");
-		}
+		return result;
 	}
-
+	
 	/** 
-	 * Create a new topography from existing data.  
+	 * Returns the summed area table of the ocean points, creating it first if needed. 
 	 * 
-	 * @param data a square int matrix containing the data to store in the topography.
-	 * @throws Exception if the topography could not be created. 
+	 * @return the summed area table of the ocean points. 
 	 */
-	public Topography(int [][] data) throws Exception {
-	
-		int tmpMax = Integer.MIN_VALUE;
-		int tmpMin = Integer.MAX_VALUE;
-		
-		this.width = data.length;
-		this.height = data[0].length;
+	private int [] getWorkTable() { 
 		
-		int work = 0;
-		long sum = 0;
-		
-		topography = data.clone(); 
+		int [] result = workTable;
 		
-		for (int y=0;y<height;y++) { 
-			for (int x=0;x<width;x++) {
+		if (result == null) {
+			synchronized (this) {
+				result = workTable;
+
+				if (result == null) { 
 					
-				int tmp = topography[x][y];
+					final int stride = width+1;
 
-				if (tmp > tmpMax) { 
-					tmpMax = tmp;
-				}
+					result = new int[stride*(height+1)];
 
-				if (tmp < tmpMin) { 
-					tmpMin = tmp;
-				}
+					int [] values = new int[width];
+					
+					for (int y=0;y<height;y++) {
 
-				if (tmp > 0) { 
-					work++;
-				}
+						data.getRow(0, y, width, values, 0);
+						
+						int prev = y*stride;
+						int next = prev+stride;
+						int row = 0;
+
+						for (int x=0;x<width;x++) { 
+							if (values[x] > 0) { 
+								row++;
+							}
+							
+							result[next+x+1] = result[prev+x+1] + row;
+						}
+					}
 
-				sum += tmp;
+					workTable = result;
+				}
 			}
 		}
-			
-		max = tmpMax;
-		min = tmpMin;		
 		
-		if (logger.isDebugEnabled()) { 
-			logger.debug("Topography contains " + work + " nonzero fields (sum = " + sum + ")");
-		}
+		return result;
 	}
 	
 	/** 
-	 * Create a new topography by down scaling an existing one.
+	 * Returns the sum of all values found in a rectangular area of the topography.  
 	 * 
-	 * The down scaling will be performed block wise. The original topography will be divided in blocks of size 
-	 * (blockWidth x blockHeight). Each block will become a single point in the new topography. The value of this point will be the 
-	 * sum of all values in the block in the original topography.       
-	 *  
-	 * @param orig the original topography. 
-	 * @param blockWidth the block width to use for down scaling.  
-	 * @param blockHeight the block height to use for down scaling.
-	 * @throws Exception if the topography could not be scaled down. 
+	 * The first call creates a summed area table of the topography, after which each call only requires four lookups.  
+	 * 
+	 * @param x the x position of the rectangle. 
+	 * @param y the y position of the rectangle.
+	 * @param w the width of the rectangle.
+	 * @param h the height of the rectangle.
+	 * @return the sum of all value in the specified rectangular area.
 	 */
-	public Topography(Topography orig, int blockWidth, int blockHeight) throws Exception {
+	public int getRectangleSum(int x, int y, int w, int h) {
 		
-		int tmpMax = Integer.MIN_VALUE;
-		int tmpMin = Integer.MAX_VALUE;
+		int endX = Math.min(x+w, width);
+		int endY = Math.min(y+h, height);
 		
-		if (orig.width % blockWidth != 0) { 
-			throw new Exception("Illegal blockWidth");
+		if (endX <= x || endY <= y) { 
+			return 0;
 		}
 		
-		if (orig.height % blockHeight != 0) { 
-			throw new Exception("Illegal blockHeight");
+		if (canUseTables()) { 
+			
+			long [] table = getSumTable();
+			
+			final int stride = width+1;
+			
+			return (int) (table[endY*stride + endX] - table[y*stride + endX] - table[endY*stride + x] + table[y*stride + x]);
 		}
 		
-		this.width = orig.width / blockWidth;
-		this.height = orig.height / blockHeight;
-		topography = new int[width][height];
+		int sum = 0;
 		
-		int work = 0;
-		long sum = 0;
+		int [] values = new int[endX-x];
 		
-		for (int y=0;y<height;y++) { 
-			for (int x=0;x<width;x++) {
-
-				int tmp = orig.getRectangleSum(x*blockWidth, y*blockHeight, blockWidth, blockHeight);
-				 
-				topography[x][y] = tmp;
-						
-				if (tmp > tmpMax) { 
-					tmpMax = tmp;
-				}
-				
-				if (tmp < tmpMin) { 
-					tmpMin = tmp;
-				}
-				
-				if (tmp > 0) { 
-					work++;
-				}
-				
-				sum += tmp;
+		for (int j=y;j<endY;j++) {
+			
+			data.getRow(x, j, values.length, values, 0);
+			
+			for (int i=0;i<values.length;i++) {
+				sum += values[i];
 			}
 		}
 		
-		max = tmpMax;
-		min = tmpMin;		
-		
-		if (logger.isDebugEnabled()) { 
-			logger.debug("Topography contains " + work + " nonzero fields (sum = " + sum + ")");
-		}
+		return sum;
 	}
-
+	
 	/** 
-	 * Returns the maximum value found in a rectangular area of the topography.  
+	 * Returns the amount of work (that is, non-0 values) found in a rectangular area of the topography.  
+	 * 
+	 * The first call creates a summed area table of the ocean points, after which each call only requires four lookups. If no 
+	 * summed area table can be used, the ocean points are counted using the mask returned by {@link #getOceanMask()}.  
 	 * 
 	 * @param x the x position of the rectangle. 
 	 * @param y the y position of the rectangle.
 	 * @param w the width of the rectangle.
 	 * @param h the height of the rectangle.
-	 * @return the maximum value found in the specified rectangular area.
+	 * @return the amount of work in the specified rectangular area.
 	 */
-	public int getRectangleMax(int x, int y, int w, int h) {
+	public int getRectangleWork(int x, int y, int w, int h) {
 		
-		int max = Integer.MIN_VALUE;
+		int endX = Math.min(x+w, width);
+		int endY = Math.min(y+h, height);
+		
+		if (endX <= x || endY <= y) { 
+			return 0;
+		}
+		
+		if (canUseTables()) { 
+			
+			int [] table = getWorkTable();
+			
+			final int stride = width+1;
+			
+			return table[endY*stride + endX] - table[y*stride + endX] - table[endY*stride + x] + table[y*stride + x];
+		}
+		
+		return getOceanMask().getRectangleWork(x, y, w, h);
+	}
+	
+	/** 
+	 * Returns a bit-packed mask of the ocean points of this topography, creating it first if needed. 
+	 * 
+	 * The mask is created in parallel by dividing the topography into bands of rows. 
+	 * 
+	 * @return a mask of the ocean points of this topography.
+	 */
+	public OceanMask getOceanMask() { 
+		
+		OceanMask result = oceanMask;
 		
-		for (int i=x;i<x+w && i<width;i++) {
-			for (int j=y;j<y+h && j<height;j++) {
-				int tmp = topography[i][j];
-				if (tmp > max) { 
-					max = tmp;
+		if (result == null) {
+			synchronized (this) {
+				result = oceanMask;
+
+				if (result == null) { 
+					
+					final OceanMask mask = new OceanMask(width, height);
+					
+					int [] start = Parallel.split(height, 4 * Parallel.getThreads());
+					
+					ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+					
+					for (int i=0;i<start.length-1;i++) { 
+						
+						final int y0 = start[i];
+						final int y1 = start[i+1];
+						
+						tasks.add(new Callable<Object>() {
+							@Override
+							public Object call() throws Exception {
+								
+								int [] row = new int[width];
+								
+								for (int y=y0;y<y1;y++) { 
+									data.getRow(0, y, width, row, 0);
+									mask.setRow(y, row);
+								}
+								
+								return null;
+							}
+						});
+					}
+					
+					try { 
+						Parallel.invokeAll(tasks);
+					} catch (RuntimeException e) { 
+						throw e;
+					} catch (Exception e) { 
+						throw new RuntimeException("Failed to create ocean mask", e);
+					}
+					
+					result = oceanMask = mask;
 				}
 			}
 		}
 		
-		return max;
+		return result;
 	}
 	
 	/** 
-	 * Returns the average value found in a rectangular area of the topography.  
+	 * Create a copy of this topography in which all ocean basins containing less than minSize ocean points are filled with 
+	 * land (that is, their values are set to 0).
 	 * 
-	 * @param x the x position of the rectangle. 
-	 * @param y the y position of the rectangle.
-	 * @param w the width of the rectangle.
-	 * @param h the height of the rectangle.
-	 * @return the average value found in the specified rectangular area.
+	 * @param components the connected components of the ocean points of this topography.
+	 * @param minSize the minimum number of points of a basin that is not filled.
+	 * @return a topography in which the small basins are filled.
+	 * @throws Exception if the components do not match this topography, or the topography is too large to copy.
+	 * @see Components
 	 */
-	public int getRectangleAvg(int x, int y, int w, int h) {
-	
-		int sum = 0;
-		int count = 0;
+	public Topography fillBasins(Components components, long minSize) throws Exception { 
 		
-		for (int i=x;i<x+w && i<width;i++) {
-			for (int j=y;j<y+h && j<height;j++) {
-				sum += topography[i][j];
-				count++;
-			}
+		if (components.width != width || components.height != height) { 
+			throw new IllegalArgumentException("Components of " + components.width + "x" + components.height 
+					+ " do not match topography of " + width + "x" + height);
 		}
 		
-		if (count > 0) { 
-			return sum/count;
+		if ((long) width * (long) height > Integer.MAX_VALUE) { 
+			throw new Exception("Topography of " + width + "x" + height + " is too large to copy");
 		}
 		
-		return 0;
+		int [] values = new int[width*height];
+		int [] labels = new int[width];
+		
+		for (int y=0;y<height;y++) { 
+			
+			data.getRow(0, y, width, values, y*width);
+			components.getRow(0, y, width, labels, 0);
+			
+			for (int x=0;x<width;x++) { 
+				if (labels[x] != Components.LAND && components.getSize(labels[x]) < minSize) { 
+					values[y*width + x] = 0;
+				}
+			}
+		}
+		
+		return new Topography(width, height, values);
 	}
 	
 	/** 
-	 * Returns the sum of all values found in a rectangular area of the topography.  
+	 * Change the value of a single point of the topography. 
+	 * 
+	 * @param x the x coordinate of the point to change.
+	 * @param y the y coordinate of the point to change.
+	 * @param value the new value of the point.
+	 * @see #fill(int, int, int, int, int)
+	 */
+	public void set(int x, int y, int value) { 
+		fill(x, y, 1, 1, value);
+	}
+	
+	/** 
+	 * Change the value of all points in a rectangular area of the topography, for example to close a strait or fill a lake 
+	 * with land (value 0). The rectangle is recorded as dirty, so grids and distributions derived from this topography can be 
+	 * updated using {@link Grid#update(Topography, WorkModel, int, int, int, int)} instead of being recreated.
+	 * 
+	 * The ocean mask is updated in place, while the summed area tables and the pyramid of maximum values are discarded and 
+	 * recreated when they are needed. The value must lie within the range ({@link #min} to {@link #max}) of the topography, so 
+	 * the range never changes. Edits must not be performed while other threads read the topography.  
 	 * 
 	 * @param x the x position of the rectangle. 
 	 * @param y the y position of the rectangle.
 	 * @param w the width of the rectangle.
 	 * @param h the height of the rectangle.
-	 * @return the sum of all value in the specified rectangular area.
+	 * @param value the new value of the points in the rectangle.
+	 * @throws UnsupportedOperationException if the topography was read using the {@link #TILED} reader.
+	 * @see #getDirtyRectangles()
 	 */
-	public int getRectangleSum(int x, int y, int w, int h) {
+	public void fill(int x, int y, int w, int h, int value) { 
 		
-		int sum = 0;
+		if (x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > width || y + h > height) { 
+			throw new IllegalArgumentException("Rectangle out of bounds! " + x + "x" + y + " " + w + "x" + h);
+		}
+		
+		if (value < min || value > max) { 
+			throw new IllegalArgumentException("Value " + value + " outside of topography range " + min + " to " + max);
+		}
 		
-		for (int i=x;i<x+w && i<width;i++) {
-			for (int j=y;j<y+h && j<height;j++) {
-				sum += topography[i][j];
+		synchronized (this) {
+			
+			OceanMask mask = oceanMask;
+			
+			int [] row = new int[width];
+			
+			for (int j=y;j<y+h;j++) { 
+			
+				data.getRow(0, j, width, row, 0);
+				
+				for (int i=x;i<x+w;i++) { 
+					row[i] = value;
+				}
+				
+				data.setRow(j, row);
+				
+				if (mask != null) { 
+					mask.setRow(j, row);
+				}
 			}
+			
+			sumTable = null;
+			workTable = null;
+			maxPyramid = null;
+			
+			dirty.add(new int [] { x, y, w, h });
 		}
 		
-		return sum;
+		if (logger.isDebugEnabled()) { 
+			logger.debug("Set rectangle " + x + "x" + y + " " + w + "x" + h + " of topography to " + value);
+		}
 	}
 	
 	/** 
-	 * Returns the amount of work (that is, non-0 values) found in a rectangular area of the topography.  
+	 * Returns the rectangles changed by {@link #set(int, int, int)} and {@link #fill(int, int, int, int, int)} since the 
+	 * topography was created, or since the last call to {@link #clearDirtyRectangles()}. 
 	 * 
-	 * @param x the x position of the rectangle. 
-	 * @param y the y position of the rectangle.
-	 * @param w the width of the rectangle.
-	 * @param h the height of the rectangle.
-	 * @return the amount of work in the specified rectangular area.
+	 * @return an array containing the x position, y position, width and height of each changed rectangle, in the order in 
+	 * which they were changed.
 	 */
-	public int getRectangleWork(int x, int y, int w, int h) {
+	public synchronized int [][] getDirtyRectangles() { 
+		
+		int [][] result = new int[dirty.size()][];
+		
+		for (int i=0;i<result.length;i++) { 
+			result[i] = dirty.get(i).clone();
+		}
+		
+		return result;
+	}
+	
+	/** 
+	 * Forget all rectangles changed so far, typically after all grids derived from this topography have been updated.
+	 */
+	public synchronized void clearDirtyRectangles() { 
+		dirty.clear();
+	}
+	
+	/** 
+	 * Write this topography to a file as width*height big-endian 32-bit integers, stored row by row. 
+	 * 
+	 * @param outputfile the file to write to.
+	 * @throws Exception if the topography could not be written.
+	 */
+	public void write(String outputfile) throws Exception { 
+		write(outputfile, TopographyFormat.INT32_BIG_ENDIAN);
+	}
+	
+	/** 
+	 * Write this topography to a file using the given format. The offset of the format must be 0. 
+	 * 
+	 * @param outputfile the file to write to.
+	 * @param format the format to use.
+	 * @throws Exception if the topography could not be written, or contains values that cannot be stored in the format.
+	 */
+	public void write(String outputfile, TopographyFormat format) throws Exception { 
 		
-		int work = 0;
+		if (format.offset != 0) { 
+			throw new IllegalArgumentException("Cannot write topography using format " + format);
+		}
+		
+		if (format.bytesPerValue == 2 && (min < Short.MIN_VALUE || max > Short.MAX_VALUE)) { 
+			throw new Exception("Topography values " + min + " to " + max + " cannot be stored using format " + format);
+		}
+		
+		RandomAccessFile file = null;
 		
-		for (int i=x;i<x+w && i<width;i++) {
-			for (int j=y;j<y+h && j<height;j++) {
-				if (topography[i][j] > 0) {
-					work++;
+		try { 
+			file = new RandomAccessFile(outputfile, "rw");
+			file.setLength(0);
+			
+			FileChannel channel = file.getChannel();
+			
+			ByteBuffer buffer = ByteBuffer.allocate((int) format.getSize(width, 1)).order(format.order);
+			
+			int [] row = new int[width];
+			
+			for (int y=0;y<height;y++) { 
+				
+				data.getRow(0, y, width, row, 0);
+				
+				buffer.clear();
+				
+				for (int x=0;x<width;x++) { 
+					if (format.bytesPerValue == 4) { 
+						buffer.putInt(row[x]);
+					} else { 
+						buffer.putShort((short) row[x]);
+					}
+				}
+				
+				buffer.flip();
+				
+				while (buffer.hasRemaining()) { 
+					channel.write(buffer);
 				}
 			}
+		} catch (Exception e) { 
+			throw new Exception("Failed to write topography to file " + outputfile, e);
+		} finally { 
+			try { 
+				file.close();
+			} catch (Exception e) {
+				// ignored
+			}
 		}
-		
-		return work;
 	}
 
 	/**
@@ -340,6 +1592,6 @@ public class Topography {
 	 * @return the value found at the specified location in the topography.
 	 */
 	public int get(int x, int y) {
-		return topography[x][y];
+		return data.get(x, y);
 	}
 }
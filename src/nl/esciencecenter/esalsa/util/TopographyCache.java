@@ -0,0 +1,559 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.util;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TopographyCache stores a preprocessed {@link Topography} in a binary file next to the topography file it was read from.
+ *
+ * A cache file contains a header with the dimensions, minimum, maximum, work and sum of the topography, a fingerprint of the
+ * topography file, the format used to decode the topography file, the values in the smallest type able to store them, and
+ * optionally the summed area tables of the values and ocean points. All numbers are stored in big-endian order. A cache file is
+ * only used if the fingerprint of the topography file still matches, in which case it is read using a memory map without
+ * parsing the topography file at all.
+ *
+ * The fingerprint consists of the length and modification time of the topography file, and a CRC32 checksum of a number of
+ * samples spread evenly over the file.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ * @see Topography
+ */
+class TopographyCache {
+
+	/** A logger used for debugging */
+	private static final Logger logger = LoggerFactory.getLogger(TopographyCache.class);
+
+	/** The extension added to the name of the topography file to get the name of the cache file. */
+	static final String EXTENSION = ".cache";
+
+	/** The magic number at the start of each cache file ("TOPC"). */
+	private static final int MAGIC = 0x544F5043;
+
+	/** The version of the cache file format. */
+	private static final int VERSION = 3;
+
+	/** The size of the header in bytes. */
+	private static final int HEADER_SIZE = 88;
+
+	/** Flag set in the header if the summed area table of the values is included. */
+	private static final int FLAG_SUM_TABLE = 1;
+
+	/** Flag set in the header if the summed area table of the ocean points is included. */
+	private static final int FLAG_WORK_TABLE = 2;
+
+	/** The number of samples of the topography file included in the fingerprint. */
+	private static final int SAMPLES = 64;
+
+	/** The size of each sample of the topography file included in the fingerprint. */
+	private static final int SAMPLE_SIZE = 4096;
+
+	/** The maximum number of bytes mapped or buffered at once. */
+	private static final int CHUNK_SIZE = 64 * 1024 * 1024;
+
+	/** The width of the topography. */
+	final int width;
+
+	/** The height of the topography. */
+	final int height;
+
+	/** The minimum value of the topography. */
+	final int min;
+
+	/** The maximum value of the topography. */
+	final int max;
+
+	/** The number of nonzero values of the topography. */
+	final long work;
+
+	/** The sum of all values of the topography. */
+	final long sum;
+
+	/** The values of the topography. */
+	final TopographyData data;
+
+	/** The summed area table of the values, or null if it was not cached. */
+	final long [] sumTable;
+
+	/** The summed area table of the ocean points, or null if it was not cached. */
+	final int [] workTable;
+
+	/**
+	 * Create a TopographyCache.
+	 *
+	 * @param width the width of the topography.
+	 * @param height the height of the topography.
+	 * @param min the minimum value of the topography.
+	 * @param max the maximum value of the topography.
+	 * @param work the number of nonzero values of the topography.
+	 * @param sum the sum of all values of the topography.
+	 * @param data the values of the topography.
+	 * @param sumTable the summed area table of the values, or null.
+	 * @param workTable the summed area table of the ocean points, or null.
+	 */
+	TopographyCache(int width, int height, int min, int max, long work, long sum, TopographyData data, long [] sumTable,
+			int [] workTable) {
+
+		this.width = width;
+		this.height = height;
+		this.min = min;
+		this.max = max;
+		this.work = work;
+		this.sum = sum;
+		this.data = data;
+		this.sumTable = sumTable;
+		this.workTable = workTable;
+	}
+
+	/**
+	 * Returns the name of the cache file belonging to a topography file.
+	 *
+	 * @param inputfile the topography file.
+	 * @return the name of the cache file.
+	 */
+	static String getCacheFile(String inputfile) {
+		return inputfile + EXTENSION;
+	}
+
+	/**
+	 * Compute the CRC32 checksum of a number of samples spread evenly over a file.
+	 *
+	 * @param channel the channel of the file.
+	 * @param length the length of the file.
+	 * @return the checksum of the samples.
+	 * @throws Exception if the file could not be read.
+	 */
+	private static long getChecksum(FileChannel channel, long length) throws Exception {
+
+		CRC32 crc = new CRC32();
+
+		ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+
+		long step = Math.max(SAMPLE_SIZE, length / SAMPLES);
+
+		for (long position=0;position<length;position+=step) {
+
+			// Make sure the end of the file is included in the last sample.
+			long start = Math.min(position, Math.max(0, length - SAMPLE_SIZE));
+
+			buffer.clear();
+
+			while (buffer.hasRemaining() && start + buffer.position() < length) {
+				if (channel.read(buffer, start + buffer.position()) < 0) {
+					break;
+				}
+			}
+
+			crc.update(buffer.array(), 0, buffer.position());
+		}
+
+		return crc.getValue();
+	}
+
+	/**
+	 * Load a cached topography, provided that the cache file exists, has the expected dimensions, matches the fingerprint of
+	 * the topography file, and was created using the same format.
+	 *
+	 * @param inputfile the topography file.
+	 * @param width the expected width of the topography.
+	 * @param height the expected height of the topography.
+	 * @param format the format used to decode the topography file.
+	 * @return the cached topography, or null if no valid cache file was found.
+	 */
+	static TopographyCache load(String inputfile, int width, int height, TopographyFormat format) {
+
+		File cacheFile = new File(getCacheFile(inputfile));
+
+		if (!cacheFile.isFile()) {
+			return null;
+		}
+
+		RandomAccessFile source = null;
+		RandomAccessFile cache = null;
+
+		try {
+			source = new RandomAccessFile(inputfile, "r");
+			cache = new RandomAccessFile(cacheFile, "r");
+
+			FileChannel channel = cache.getChannel();
+
+			if (channel.size() < HEADER_SIZE) {
+				return invalid(cacheFile, "file too short");
+			}
+
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				return invalid(cacheFile, "unknown format");
+			}
+
+			if (header.getInt() != width || header.getInt() != height) {
+				return invalid(cacheFile, "dimensions do not match");
+			}
+
+			int min = header.getInt();
+			int max = header.getInt();
+			long work = header.getLong();
+			long sum = header.getLong();
+
+			long length = new File(inputfile).length();
+
+			if (header.getLong() != length || header.getLong() != new File(inputfile).lastModified()
+					|| header.getLong() != getChecksum(source.getChannel(), length)) {
+				return invalid(cacheFile, "topography file has changed");
+			}
+
+			if (header.getInt() != format.bytesPerValue || header.getInt() != getOrder(format) || header.getLong() != format.offset) {
+				return invalid(cacheFile, "topography file was decoded using a different format");
+			}
+
+			int bytesPerValue = header.getInt();
+			int flags = header.getInt();
+
+			TopographyData data = TopographyData.create(width, height, min, max);
+
+			if (data.getBytesPerValue() != bytesPerValue) {
+				return invalid(cacheFile, "unexpected value size");
+			}
+
+			long tableSize = (long) (width+1) * (long) (height+1);
+
+			long expected = HEADER_SIZE + (long) width * height * bytesPerValue;
+
+			if ((flags & FLAG_SUM_TABLE) != 0) {
+				expected += 8 * tableSize;
+			}
+
+			if ((flags & FLAG_WORK_TABLE) != 0) {
+				expected += 4 * tableSize;
+			}
+
+			if (channel.size() != expected) {
+				return invalid(cacheFile, "unexpected file size");
+			}
+
+			long position = readData(channel, HEADER_SIZE, data);
+
+			long [] sumTable = null;
+			int [] workTable = null;
+
+			if ((flags & FLAG_SUM_TABLE) != 0) {
+				sumTable = new long[(int) tableSize];
+				position = readTable(channel, position, sumTable, null);
+			}
+
+			if ((flags & FLAG_WORK_TABLE) != 0) {
+				workTable = new int[(int) tableSize];
+				position = readTable(channel, position, null, workTable);
+			}
+
+			if (logger.isDebugEnabled()) {
+				logger.debug("Loaded topography from cache file " + cacheFile);
+			}
+
+			return new TopographyCache(width, height, min, max, work, sum, data, sumTable, workTable);
+
+		} catch (Exception e) {
+			logger.warn("Failed to load topography cache file " + cacheFile, e);
+			return null;
+		} finally {
+			close(source);
+			close(cache);
+		}
+	}
+
+	/**
+	 * Log why a cache file cannot be used.
+	 *
+	 * @param cacheFile the cache file.
+	 * @param reason the reason why the cache file cannot be used.
+	 * @return null
+	 */
+	private static TopographyCache invalid(File cacheFile, String reason) {
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("Ignoring topography cache file " + cacheFile + ": " + reason);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the byte order of a format as stored in the header: 0 for big-endian and 1 for little-endian.
+	 *
+	 * @param format the format.
+	 * @return the byte order of the format.
+	 */
+	private static int getOrder(TopographyFormat format) {
+		return format.order == ByteOrder.BIG_ENDIAN ? 0 : 1;
+	}
+
+	/**
+	 * Close a file, ignoring any errors.
+	 *
+	 * @param file the file to close, or null.
+	 */
+	private static void close(RandomAccessFile file) {
+		try {
+			if (file != null) {
+				file.close();
+			}
+		} catch (Exception e) {
+			// ignored
+		}
+	}
+
+	/**
+	 * Read the values of the topography from a cache file, mapping at most {@link #CHUNK_SIZE} bytes at once.
+	 *
+	 * @param channel the channel of the cache file.
+	 * @param position the position of the values in the cache file.
+	 * @param data the TopographyData to store the values in.
+	 * @return the position directly after the values.
+	 * @throws Exception if the values could not be read.
+	 */
+	private static long readData(FileChannel channel, long position, TopographyData data) throws Exception {
+
+		int bytesPerValue = data.getBytesPerValue();
+
+		long rowSize = (long) data.width * bytesPerValue;
+		int rowsPerChunk = (int) Math.max(1, CHUNK_SIZE / rowSize);
+
+		int [] row = new int[data.width];
+
+		for (int y=0;y<data.height;y+=rowsPerChunk) {
+
+			int rows = Math.min(rowsPerChunk, data.height-y);
+
+			MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, rows * rowSize);
+			chunk.order(ByteOrder.BIG_ENDIAN);
+
+			for (int j=y;j<y+rows;j++) {
+
+				for (int x=0;x<data.width;x++) {
+					switch (bytesPerValue) {
+					case 1:
+						row[x] = chunk.get();
+						break;
+					case 2:
+						row[x] = chunk.getShort();
+						break;
+					default:
+						row[x] = chunk.getInt();
+					}
+				}
+
+				data.setRow(j, row);
+			}
+
+			position += rows * rowSize;
+		}
+
+		return position;
+	}
+
+	/**
+	 * Read a summed area table from a cache file, mapping at most {@link #CHUNK_SIZE} bytes at once. Exactly one of longs and
+	 * ints must be non-null.
+	 *
+	 * @param channel the channel of the cache file.
+	 * @param position the position of the table in the cache file.
+	 * @param longs the table to read if it contains longs, or null.
+	 * @param ints the table to read if it contains ints, or null.
+	 * @return the position directly after the table.
+	 * @throws Exception if the table could not be read.
+	 */
+	private static long readTable(FileChannel channel, long position, long [] longs, int [] ints) throws Exception {
+
+		int bytesPerValue = (longs != null) ? 8 : 4;
+		int length = (longs != null) ? longs.length : ints.length;
+		int valuesPerChunk = CHUNK_SIZE / bytesPerValue;
+
+		for (int i=0;i<length;i+=valuesPerChunk) {
+
+			int count = Math.min(valuesPerChunk, length-i);
+
+			MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * bytesPerValue);
+			chunk.order(ByteOrder.BIG_ENDIAN);
+
+			if (longs != null) {
+				chunk.asLongBuffer().get(longs, i, count);
+			} else {
+				chunk.asIntBuffer().get(ints, i, count);
+			}
+
+			position += (long) count * bytesPerValue;
+		}
+
+		return position;
+	}
+
+	/**
+	 * Write this cached topography to the cache file of a topography file.
+	 *
+	 * The cache file is first written to a temporary file, which then replaces the cache file, so concurrent runs never see a
+	 * partially written cache file. Failures are logged and otherwise ignored, as the cache is only an optimization.
+	 *
+	 * @param inputfile the topography file.
+	 * @param format the format used to decode the topography file.
+	 */
+	void save(String inputfile, TopographyFormat format) {
+
+		File cacheFile = new File(getCacheFile(inputfile));
+		File tmpFile = new File(cacheFile.getPath() + ".tmp");
+
+		RandomAccessFile source = null;
+		RandomAccessFile out = null;
+
+		try {
+			source = new RandomAccessFile(inputfile, "r");
+
+			long length = new File(inputfile).length();
+			long modified = new File(inputfile).lastModified();
+			long checksum = getChecksum(source.getChannel(), length);
+
+			out = new RandomAccessFile(tmpFile, "rw");
+			out.setLength(0);
+
+			FileChannel channel = out.getChannel();
+
+			ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.BIG_ENDIAN);
+
+			int flags = (sumTable != null ? FLAG_SUM_TABLE : 0) | (workTable != null ? FLAG_WORK_TABLE : 0);
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(width);
+			buffer.putInt(height);
+			buffer.putInt(min);
+			buffer.putInt(max);
+			buffer.putLong(work);
+			buffer.putLong(sum);
+			buffer.putLong(length);
+			buffer.putLong(modified);
+			buffer.putLong(checksum);
+			buffer.putInt(format.bytesPerValue);
+			buffer.putInt(getOrder(format));
+			buffer.putLong(format.offset);
+			buffer.putInt(data.getBytesPerValue());
+			buffer.putInt(flags);
+
+			int bytesPerValue = data.getBytesPerValue();
+
+			int [] row = new int[width];
+
+			for (int y=0;y<height;y++) {
+
+				data.getRow(0, y, width, row, 0);
+
+				for (int x=0;x<width;x++) {
+
+					if (buffer.remaining() < bytesPerValue) {
+						flush(channel, buffer);
+					}
+
+					switch (bytesPerValue) {
+					case 1:
+						buffer.put((byte) row[x]);
+						break;
+					case 2:
+						buffer.putShort((short) row[x]);
+						break;
+					default:
+						buffer.putInt(row[x]);
+					}
+				}
+			}
+
+			if (sumTable != null) {
+				for (int i=0;i<sumTable.length;i++) {
+
+					if (buffer.remaining() < 8) {
+						flush(channel, buffer);
+					}
+
+					buffer.putLong(sumTable[i]);
+				}
+			}
+
+			if (workTable != null) {
+				for (int i=0;i<workTable.length;i++) {
+
+					if (buffer.remaining() < 4) {
+						flush(channel, buffer);
+					}
+
+					buffer.putInt(workTable[i]);
+				}
+			}
+
+			flush(channel, buffer);
+
+			out.close();
+			out = null;
+
+			if (!tmpFile.renameTo(cacheFile)) {
+				// Some platforms do not allow renaming to an existing file.
+				cacheFile.delete();
+
+				if (!tmpFile.renameTo(cacheFile)) {
+					throw new Exception("Failed to rename " + tmpFile + " to " + cacheFile);
+				}
+			}
+
+			if (logger.isDebugEnabled()) {
+				logger.debug("Saved topography to cache file " + cacheFile);
+			}
+
+		} catch (Exception e) {
+			logger.warn("Failed to save topography cache file " + cacheFile, e);
+			tmpFile.delete();
+		} finally {
+			close(source);
+			close(out);
+		}
+	}
+
+	/**
+	 * Write the contents of a buffer to a channel and clear the buffer.
+	 *
+	 * @param channel the channel to write to.
+	 * @param buffer the buffer to write.
+	 * @throws Exception if the buffer could not be written.
+	 */
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws Exception {
+
+		buffer.flip();
+
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+
+		buffer.clear();
+	}
+}
@@ -137,6 +137,9 @@ public class TopographyCanvas extends Canvas {
 	/**
 	 * Fill a block in a specified layer with a color. 
 	 * 
+	 * The block is drawn at the location of its topography points, taking the offset of the grid into account. A block that 
+	 * wraps around the edge of the topography is drawn on both sides.
+	 * 
 	 * @param layer the layer at which to draw.  
 	 * @param x the x coordinate of the block.
 	 * @param y the y coordinate of the block.
@@ -144,14 +147,33 @@ public class TopographyCanvas extends Canvas {
 	 * @throws Exception if the specified layer does not exist.
 	 */ 
 	public void fillBlock(String layer, int x, int y, Color color) throws Exception {		
-		int ny = grid.height-y-1;		
-		fill(layer, new Coordinate(x*grid.blockWidth, ny*grid.blockHeight), 
-				new Coordinate((x+1)*grid.blockWidth, (ny+1)*grid.blockHeight), color);
+		
+		int px = grid.getTopographyX(x);
+		int py = grid.getTopographyY(y);
+		
+		for (int dx=0;dx<=topography.width;dx+=topography.width) { 
+			for (int dy=0;dy<=topography.height;dy+=topography.height) {
+				
+				if ((dx == 0 || px + grid.blockWidth > topography.width) 
+						&& (dy == 0 || py + grid.blockHeight > topography.height)) { 
+					
+					// Flip the block, as the topography is stored upside down!
+					int ny = topography.height - (py - dy) - grid.blockHeight;
+					
+					fill(layer, new Coordinate(px - dx, ny), new Coordinate(px - dx + grid.blockWidth, ny + grid.blockHeight), 
+							color);
+				}
+			}
+		}
 	}
 		
 	/** 
 	 * Draw a line with a certain color and width in a specified layer. 
 	 * 
+	 * The line is given in block coordinates, and is drawn at the location of the corresponding topography points, taking the 
+	 * offset of the grid into account. If the grid is shifted, a line that extends beyond the edge of the topography is also 
+	 * drawn on the other side.
+	 * 
 	 * @param layer the layer at which to draw.  
 	 * @param line the line to draw. 
 	 * @param color the color of the line. 
@@ -164,11 +186,35 @@ public class TopographyCanvas extends Canvas {
 		int sx = topography.width / grid.width;
 		int sy = topography.height / grid.height;
 		
+		int x0 = line.start.x*sx + grid.offsetX;
+		int x1 = line.end.x*sx + grid.offsetX;
+		int y0 = line.start.y*sy + grid.offsetY;
+		int y1 = line.end.y*sy + grid.offsetY;
+		
+		if (grid.offsetX != 0 && Math.min(x0, x1) >= topography.width) { 
+			x0 -= topography.width;
+			x1 -= topography.width;
+		}
+
+		if (grid.offsetY != 0 && Math.min(y0, y1) >= topography.height) { 
+			y0 -= topography.height;
+			y1 -= topography.height;
+		}
+		
 		Graphics2D g = (Graphics2D) getLayer(layer).getGraphics();
 		
 		g.setColor(color);
 		g.setStroke(new BasicStroke(lineWidth));		
-		g.drawLine(line.start.x*sx, (topography.height-line.start.y*sy), line.end.x*sx, (topography.height-line.end.y*sy));	
+		
+		for (int dx=0;dx<=topography.width;dx+=topography.width) { 
+			for (int dy=0;dy<=topography.height;dy+=topography.height) {
+				
+				if ((dx == 0 || (grid.offsetX != 0 && Math.max(x0, x1) >= topography.width)) 
+						&& (dy == 0 || (grid.offsetY != 0 && Math.max(y0, y1) >= topography.height))) { 
+					g.drawLine(x0-dx, topography.height-(y0-dy), x1-dx, topography.height-(y1-dy));
+				}
+			}
+		}
 	}
 
 	/** 
@@ -0,0 +1,509 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.util;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TopographyData stores the values of a {@link Topography}.
+ *
+ * The values are stored row by row in the smallest primitive type that is able to hold them. Since a bottom topography usually
+ * contains level indices that fit in a single byte, this requires a quarter of the memory needed to store them as int values.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ * @see Topography
+ */
+abstract class TopographyData {
+
+	/** The width of the stored data. */
+	final int width;
+
+	/** The height of the stored data. */
+	final int height;
+
+	/**
+	 * Create a TopographyData of size width x height.
+	 *
+	 * @param width the width of the data.
+	 * @param height the height of the data.
+	 */
+	TopographyData(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Create an empty TopographyData of size width x height that uses the smallest type able to store all values between min and
+	 * max (inclusive).
+	 *
+	 * @param width the width of the data.
+	 * @param height the height of the data.
+	 * @param min the smallest value that must be stored.
+	 * @param max the largest value that must be stored.
+	 * @return a new TopographyData.
+	 */
+	static TopographyData create(int width, int height, int min, int max) {
+
+		if (min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE) {
+			return new Bytes(width, height);
+		}
+
+		if (min >= Short.MIN_VALUE && max <= Short.MAX_VALUE) {
+			return new Shorts(width, height);
+		}
+
+		return new Ints(width, height);
+	}
+
+	/**
+	 * Store a row of values, replacing this TopographyData by a wider one first if it cannot store all values between min and
+	 * max. In that case, the rows stored so far (that is, rows 0 to y) are copied to the new TopographyData.
+	 *
+	 * This allows data to be stored in the smallest possible type in a single pass, without knowing the range of the values
+	 * in advance.
+	 *
+	 * @param y the row to store.
+	 * @param values the values to store.
+	 * @param min the smallest value stored so far (including the values in this row).
+	 * @param max the largest value stored so far (including the values in this row).
+	 * @return the TopographyData containing the row, which must be used to store any further rows.
+	 */
+	TopographyData putRow(int y, int [] values, int min, int max) {
+
+		TopographyData target = this;
+
+		if (!canStore(min, max)) {
+
+			target = create(width, height, min, max);
+
+			int [] row = new int[width];
+
+			for (int j=0;j<y;j++) {
+				getRow(0, j, width, row, 0);
+				target.setRow(j, row);
+			}
+		}
+
+		target.setRow(y, values);
+		return target;
+	}
+
+	/**
+	 * Checks if all values are stored on the heap. If not, values are loaded on demand and should be scanned rather than copied
+	 * into additional tables of the same size.
+	 *
+	 * @return if all values are stored on the heap.
+	 */
+	boolean isResident() {
+		return true;
+	}
+
+	/**
+	 * Returns the number of bytes used to store a single value.
+	 *
+	 * @return the number of bytes used to store a single value.
+	 */
+	abstract int getBytesPerValue();
+
+	/**
+	 * Check if all values between min and max (inclusive) can be stored.
+	 *
+	 * @param min the smallest value.
+	 * @param max the largest value.
+	 * @return if all values between min and max can be stored.
+	 */
+	abstract boolean canStore(int min, int max);
+
+	/**
+	 * Retrieves the value at location (x,y).
+	 *
+	 * @param x the x coordinate of the value to retrieve.
+	 * @param y the y coordinate of the value to retrieve.
+	 * @return the value at the specified location.
+	 */
+	abstract int get(int x, int y);
+
+	/**
+	 * Copy a segment of a row into an int array.
+	 *
+	 * @param x the x coordinate of the first value to copy.
+	 * @param y the row to copy from.
+	 * @param length the number of values to copy.
+	 * @param dest the array to copy the values to.
+	 * @param offset the position in dest of the first value.
+	 */
+	abstract void getRow(int x, int y, int length, int [] dest, int offset);
+
+	/**
+	 * Store a complete row. All values must fit into this TopographyData.
+	 *
+	 * @param y the row to store.
+	 * @param values an array of length width containing the values to store.
+	 */
+	abstract void setRow(int y, int [] values);
+
+	/**
+	 * TopographyData that stores each value in a byte.
+	 */
+	static class Bytes extends TopographyData {
+
+		/** The data, stored row by row. */
+		private final byte [] data;
+
+		Bytes(int width, int height) {
+			super(width, height);
+			data = new byte[width*height];
+		}
+
+		@Override
+		int getBytesPerValue() {
+			return 1;
+		}
+
+		@Override
+		boolean canStore(int min, int max) {
+			return min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE;
+		}
+
+		@Override
+		int get(int x, int y) {
+			return data[y*width+x];
+		}
+
+		@Override
+		void getRow(int x, int y, int length, int [] dest, int offset) {
+
+			int start = y*width+x;
+
+			for (int i=0;i<length;i++) {
+				dest[offset+i] = data[start+i];
+			}
+		}
+
+		@Override
+		void setRow(int y, int [] values) {
+
+			int start = y*width;
+
+			for (int i=0;i<width;i++) {
+				data[start+i] = (byte) values[i];
+			}
+		}
+	}
+
+	/**
+	 * TopographyData that stores each value in a short.
+	 */
+	static class Shorts extends TopographyData {
+
+		/** The data, stored row by row. */
+		private final short [] data;
+
+		Shorts(int width, int height) {
+			super(width, height);
+			data = new short[width*height];
+		}
+
+		@Override
+		int getBytesPerValue() {
+			return 2;
+		}
+
+		@Override
+		boolean canStore(int min, int max) {
+			return min >= Short.MIN_VALUE && max <= Short.MAX_VALUE;
+		}
+
+		@Override
+		int get(int x, int y) {
+			return data[y*width+x];
+		}
+
+		@Override
+		void getRow(int x, int y, int length, int [] dest, int offset) {
+
+			int start = y*width+x;
+
+			for (int i=0;i<length;i++) {
+				dest[offset+i] = data[start+i];
+			}
+		}
+
+		@Override
+		void setRow(int y, int [] values) {
+
+			int start = y*width;
+
+			for (int i=0;i<width;i++) {
+				data[start+i] = (short) values[i];
+			}
+		}
+	}
+
+	/**
+	 * TopographyData that stores each value in an int.
+	 */
+	static class Ints extends TopographyData {
+
+		/** The data, stored row by row. */
+		private final int [] data;
+
+		Ints(int width, int height) {
+			super(width, height);
+			data = new int[width*height];
+		}
+
+		@Override
+		int getBytesPerValue() {
+			return 4;
+		}
+
+		@Override
+		boolean canStore(int min, int max) {
+			return true;
+		}
+
+		@Override
+		int get(int x, int y) {
+			return data[y*width+x];
+		}
+
+		@Override
+		void getRow(int x, int y, int length, int [] dest, int offset) {
+			System.arraycopy(data, y*width+x, dest, offset, length);
+		}
+
+		@Override
+		void setRow(int y, int [] values) {
+			System.arraycopy(values, 0, data, y*width, width);
+		}
+	}
+
+	/**
+	 * TopographyData that reads its values on demand from a topography file of a given {@link TopographyFormat}, stored row by
+	 * row.
+	 *
+	 * The file is divided into tiles of complete rows, which matches the layout of the file so that each tile can be read with
+	 * a single positional read. A tile is decoded into the smallest type able to store its values when first used. The most
+	 * recently used tiles are kept in a cache of bounded size, so the memory used does not depend on the size of the file. All
+	 * file offsets are computed as long values, so the number of points may exceed 2^31.
+	 *
+	 * Tiles are read rather than mapped, since a mapping is only released when it is garbage collected. Loading many tiles would
+	 * otherwise exhaust the number of mappings a process is allowed to create.
+	 */
+	static class Tiled extends TopographyData {
+
+		/** The file containing the values. */
+		private final String file;
+
+		/** The format of the file. */
+		private final TopographyFormat format;
+
+		/** The number of rows in each tile (except the last one). */
+		private final int tileRows;
+
+		/** The maximum number of bytes used by the decoded tiles in the cache. */
+		private final long cacheSize;
+
+		/** The decoded tiles, ordered from least to most recently used. Access must be synchronized on the cache. */
+		private final LinkedHashMap<Integer, TopographyData> cache = new LinkedHashMap<Integer, TopographyData>(16, 0.75f, true);
+
+		/** The number of bytes used by the decoded tiles in the cache. */
+		private long cached = 0;
+
+		/**
+		 * Create a Tiled TopographyData of size width x height.
+		 *
+		 * @param file the file containing the values.
+		 * @param format the format of the file.
+		 * @param width the width of the data.
+		 * @param height the height of the data.
+		 * @param tileRows the number of rows in each tile.
+		 * @param cacheSize the maximum number of bytes used by the decoded tiles in the cache. At least one tile is always cached.
+		 */
+		Tiled(String file, TopographyFormat format, int width, int height, int tileRows, long cacheSize) {
+			super(width, height);
+			this.file = file;
+			this.format = format;
+			this.tileRows = tileRows;
+			this.cacheSize = cacheSize;
+		}
+
+		/**
+		 * Returns the tile containing row y, loading it first if needed.
+		 *
+		 * @param y the row.
+		 * @return the tile containing row y. Row y is stored at row y % tileRows of the tile.
+		 */
+		private TopographyData getTile(int y) {
+
+			Integer index = y / tileRows;
+
+			synchronized (cache) {
+
+				TopographyData tile = cache.get(index);
+
+				if (tile != null) {
+					return tile;
+				}
+			}
+
+			// Tiles are loaded outside the lock, so several threads may load different tiles at the same time.
+			TopographyData tile = load(index);
+
+			synchronized (cache) {
+
+				TopographyData old = cache.put(index, tile);
+
+				if (old != null) {
+					cached -= getSize(old);
+				}
+
+				cached += getSize(tile);
+
+				Iterator<Map.Entry<Integer, TopographyData>> itt = cache.entrySet().iterator();
+
+				while (cached > cacheSize && cache.size() > 1) {
+					TopographyData evicted = itt.next().getValue();
+					itt.remove();
+					cached -= getSize(evicted);
+				}
+			}
+
+			return tile;
+		}
+
+		/**
+		 * Returns the number of bytes used by a decoded tile.
+		 *
+		 * @param tile the tile.
+		 * @return the number of bytes used by the tile.
+		 */
+		private static long getSize(TopographyData tile) {
+			return (long) tile.width * tile.height * tile.getBytesPerValue();
+		}
+
+		/**
+		 * Read a tile of the file and decode it.
+		 *
+		 * @param index the index of the tile.
+		 * @return the decoded tile.
+		 */
+		private TopographyData load(int index) {
+
+			int y = index * tileRows;
+			int rows = Math.min(tileRows, height - y);
+
+			RandomAccessFile in = null;
+
+			try {
+				in = new RandomAccessFile(file, "r");
+
+				FileChannel channel = in.getChannel();
+
+				long rowSize = (long) format.bytesPerValue * width;
+				long position = format.getPosition(width, y);
+
+				ByteBuffer buffer = ByteBuffer.allocate((int) (rows * rowSize));
+
+				while (buffer.hasRemaining()) {
+
+					int read = channel.read(buffer, position + buffer.position());
+
+					if (read < 0) {
+						throw new Exception("Unexpected end of file");
+					}
+				}
+
+				buffer.flip();
+
+				TopographyFormat.Decoder values = format.getDecoder(buffer);
+
+				TopographyData tile = create(width, rows, 0, 0);
+
+				int [] row = new int[width];
+
+				int min = 0;
+				int max = 0;
+
+				for (int j=0;j<rows;j++) {
+
+					values.get(row);
+
+					for (int x=0;x<width;x++) {
+						if (row[x] < min) {
+							min = row[x];
+						}
+
+						if (row[x] > max) {
+							max = row[x];
+						}
+					}
+
+					tile = tile.putRow(j, row, min, max);
+				}
+
+				return tile;
+			} catch (Exception e) {
+				throw new RuntimeException("Failed to read rows " + y + " to " + (y + rows) + " of topography file " + file, e);
+			} finally {
+				try {
+					in.close();
+				} catch (Exception e) {
+					// ignored
+				}
+			}
+		}
+
+		@Override
+		boolean isResident() {
+			return false;
+		}
+
+		@Override
+		int getBytesPerValue() {
+			return 4;
+		}
+
+		@Override
+		boolean canStore(int min, int max) {
+			return true;
+		}
+
+		@Override
+		int get(int x, int y) {
+			return getTile(y).get(x, y % tileRows);
+		}
+
+		@Override
+		void getRow(int x, int y, int length, int [] dest, int offset) {
+			getTile(y).getRow(x, y % tileRows, length, dest, offset);
+		}
+
+		@Override
+		void setRow(int y, int [] values) {
+			throw new UnsupportedOperationException("Tiled topography data is read only");
+		}
+	}
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.util;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TopographyFormat describes how the values of a topography file are encoded.
+ *
+ * A topography file contains width*height integers, stored row by row, using either 32-bit or 16-bit signed integers in either
+ * big-endian or little-endian byte order. The default format used by POP is {@link #INT32_BIG_ENDIAN}. The values may be
+ * preceded by a header, such as the header of a NetCDF file, which is skipped using an offset (see {@link #atOffset(long)}).
+ * The format of a file can be detected using {@link #detect(String, int, int)}.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ * @see Topography
+ */
+public class TopographyFormat {
+
+	/** A logger used for debugging */
+	private static final Logger logger = LoggerFactory.getLogger(TopographyFormat.class);
+
+	/** 32-bit big-endian integers, the default format. */
+	public static final TopographyFormat INT32_BIG_ENDIAN = new TopographyFormat("INT32BE", 4, ByteOrder.BIG_ENDIAN);
+
+	/** 32-bit little-endian integers. */
+	public static final TopographyFormat INT32_LITTLE_ENDIAN = new TopographyFormat("INT32LE", 4, ByteOrder.LITTLE_ENDIAN);
+
+	/** 16-bit big-endian integers. */
+	public static final TopographyFormat INT16_BIG_ENDIAN = new TopographyFormat("INT16BE", 2, ByteOrder.BIG_ENDIAN);
+
+	/** 16-bit little-endian integers. */
+	public static final TopographyFormat INT16_LITTLE_ENDIAN = new TopographyFormat("INT16LE", 2, ByteOrder.LITTLE_ENDIAN);
+
+	/** All supported formats. */
+	private static final TopographyFormat [] FORMATS = new TopographyFormat [] {
+		INT32_BIG_ENDIAN, INT32_LITTLE_ENDIAN, INT16_BIG_ENDIAN, INT16_LITTLE_ENDIAN
+	};
+
+	/**
+	 * The largest value considered plausible when detecting the byte order. Ocean level indices are smaller than 256, while
+	 * any non-zero index decoded in the wrong byte order is at least 256.
+	 */
+	private static final int MAX_PLAUSIBLE_VALUE = 255;
+
+	/** The number of values sampled when detecting the byte order. */
+	private static final int SAMPLES = 4096;
+
+	/** The name of the format. */
+	public final String name;
+
+	/** The number of bytes used to store each value. */
+	public final int bytesPerValue;
+
+	/** The byte order of the values. */
+	public final ByteOrder order;
+
+	/** The position of the first value in the file. */
+	public final long offset;
+
+	/**
+	 * Decoder converts consecutive values of a ByteBuffer into ints in bulk.
+	 */
+	public abstract static class Decoder {
+
+		/**
+		 * Decode the next values into an int array.
+		 *
+		 * @param dest the array to store the values in. Its length determines the number of values decoded.
+		 */
+		public abstract void get(int [] dest);
+	}
+
+	/**
+	 * Decoder for 32-bit values, which uses a bulk get on an IntBuffer view.
+	 */
+	private static class IntDecoder extends Decoder {
+
+		/** The view of the buffer. */
+		private final IntBuffer values;
+
+		IntDecoder(IntBuffer values) {
+			this.values = values;
+		}
+
+		@Override
+		public void get(int [] dest) {
+			values.get(dest);
+		}
+	}
+
+	/**
+	 * Decoder for 16-bit values, which uses a bulk get on a ShortBuffer view.
+	 */
+	private static class ShortDecoder extends Decoder {
+
+		/** The view of the buffer. */
+		private final ShortBuffer values;
+
+		/** Temporary storage for the values. */
+		private short [] tmp = new short[0];
+
+		ShortDecoder(ShortBuffer values) {
+			this.values = values;
+		}
+
+		@Override
+		public void get(int [] dest) {
+
+			if (tmp.length < dest.length) {
+				tmp = new short[dest.length];
+			}
+
+			values.get(tmp, 0, dest.length);
+
+			for (int i=0;i<dest.length;i++) {
+				dest[i] = tmp[i];
+			}
+		}
+	}
+
+	/**
+	 * Create a TopographyFormat.
+	 *
+	 * @param name the name of the format.
+	 * @param bytesPerValue the number of bytes used to store each value.
+	 * @param order the byte order of the values.
+	 */
+	private TopographyFormat(String name, int bytesPerValue, ByteOrder order) {
+		this(name, bytesPerValue, order, 0);
+	}
+
+	/**
+	 * Create a TopographyFormat.
+	 *
+	 * @param name the name of the format.
+	 * @param bytesPerValue the number of bytes used to store each value.
+	 * @param order the byte order of the values.
+	 * @param offset the position of the first value in the file.
+	 */
+	private TopographyFormat(String name, int bytesPerValue, ByteOrder order, long offset) {
+		this.name = name;
+		this.bytesPerValue = bytesPerValue;
+		this.order = order;
+		this.offset = offset;
+	}
+
+	/**
+	 * Returns a format that encodes the values in the same way as this format, but stores the first value at a given position
+	 * in the file.
+	 *
+	 * @param offset the position of the first value in the file.
+	 * @return a format storing the first value at position offset.
+	 */
+	public TopographyFormat atOffset(long offset) {
+
+		if (offset < 0) {
+			throw new IllegalArgumentException("Illegal offset " + offset);
+		}
+
+		return new TopographyFormat(name, bytesPerValue, order, offset);
+	}
+
+	/**
+	 * Returns the format with the given name (case insensitive). Valid names are INT32BE, INT32LE, INT16BE and INT16LE.
+	 *
+	 * @param name the name of the format.
+	 * @return the format with the given name, or null if there is no such format.
+	 */
+	public static TopographyFormat get(String name) {
+
+		for (TopographyFormat f : FORMATS) {
+			if (f.name.equalsIgnoreCase(name)) {
+				return f;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns a Decoder that decodes the values in a buffer, starting at its current position. The position of the buffer itself
+	 * is not changed.
+	 *
+	 * @param buffer the buffer containing the values.
+	 * @return a Decoder for the values in the buffer.
+	 */
+	public Decoder getDecoder(ByteBuffer buffer) {
+
+		ByteBuffer tmp = buffer.duplicate().order(order);
+
+		if (bytesPerValue == 4) {
+			return new IntDecoder(tmp.asIntBuffer());
+		} else {
+			return new ShortDecoder(tmp.asShortBuffer());
+		}
+	}
+
+	/**
+	 * Read a single value from a stream.
+	 *
+	 * @param in the stream to read from.
+	 * @return the value read.
+	 * @throws IOException if the value could not be read.
+	 */
+	public int read(DataInputStream in) throws IOException {
+
+		if (bytesPerValue == 4) {
+			int value = in.readInt();
+			return (order == ByteOrder.BIG_ENDIAN) ? value : Integer.reverseBytes(value);
+		} else {
+			short value = in.readShort();
+			return (order == ByteOrder.BIG_ENDIAN) ? value : Short.reverseBytes(value);
+		}
+	}
+
+	/**
+	 * Returns the position of row y of a topography of the given width in a file of this format.
+	 *
+	 * @param width the width of the topography.
+	 * @param y the row.
+	 * @return the position of the first value of row y.
+	 */
+	public long getPosition(int width, int y) {
+		return offset + (long) y * getSize(width, 1);
+	}
+
+	/**
+	 * Returns the number of bytes needed to store a topography of size width x height in this format, excluding the offset.
+	 *
+	 * @param width the width of the topography.
+	 * @param height the height of the topography.
+	 * @return the number of bytes needed to store the topography.
+	 */
+	public long getSize(int width, int height) {
+		return (long) bytesPerValue * (long) width * (long) height;
+	}
+
+	/**
+	 * Detect the format of a topography file of size width x height.
+	 *
+	 * A NetCDF file is recognized by its header, in which case the format of its topography variable is returned (see
+	 * {@link NetCDFFile#getFormat(String, String, int, int)}). Otherwise, the value size is derived from the length of the
+	 * file. A file containing (at least) 4 bytes per value is assumed to contain 32-bit values, a file containing (at least)
+	 * 2 bytes per value 16-bit values. The byte order is then determined by decoding a sample of the values in both byte
+	 * orders. The order producing the most plausible values (that is, values between 0 and {@value #MAX_PLAUSIBLE_VALUE}) is
+	 * selected. If both orders produce equally many plausible values, the order producing the smallest values is selected, since
+	 * swapping the bytes of a small value produces a large one. Big-endian is only preferred if the values are identical in both
+	 * orders, for example if all sampled values are 0.
+	 *
+	 * @param inputfile the topography file.
+	 * @param width the width of the topography.
+	 * @param height the height of the topography.
+	 * @return the detected format.
+	 * @throws Exception if the file is too short to contain a topography of size width x height.
+	 */
+	public static TopographyFormat detect(String inputfile, int width, int height) throws Exception {
+
+		if (NetCDFFile.isNetCDF(inputfile)) {
+			return NetCDFFile.getFormat(inputfile, null, width, height);
+		}
+
+		long length = new File(inputfile).length();
+
+		TopographyFormat big;
+		TopographyFormat little;
+
+		if (length >= INT32_BIG_ENDIAN.getSize(width, height)) {
+			big = INT32_BIG_ENDIAN;
+			little = INT32_LITTLE_ENDIAN;
+		} else if (length >= INT16_BIG_ENDIAN.getSize(width, height)) {
+			big = INT16_BIG_ENDIAN;
+			little = INT16_LITTLE_ENDIAN;
+		} else {
+			throw new Exception("File " + inputfile + " of " + length + " bytes is too short to contain a topography of " + width
+					+ "x" + height);
+		}
+
+		long values = (long) width * (long) height;
+		int samples = (int) Math.min(SAMPLES, values);
+		long step = Math.max(1, values / Math.max(1, samples));
+
+		int plausibleBig = 0;
+		int plausibleLittle = 0;
+
+		long magnitudeBig = 0;
+		long magnitudeLittle = 0;
+
+		RandomAccessFile file = null;
+
+		try {
+			file = new RandomAccessFile(inputfile, "r");
+
+			ByteBuffer buffer = ByteBuffer.allocate(big.bytesPerValue);
+
+			for (int i=0;i<samples;i++) {
+
+				buffer.clear();
+
+				long position = i * step * big.bytesPerValue;
+
+				while (buffer.hasRemaining()) {
+					if (file.getChannel().read(buffer, position + buffer.position()) < 0) {
+						throw new Exception("Unexpected end of file");
+					}
+				}
+
+				int valueBig = big.getValue(buffer);
+				int valueLittle = little.getValue(buffer);
+
+				if (isPlausible(valueBig)) {
+					plausibleBig++;
+				}
+
+				if (isPlausible(valueLittle)) {
+					plausibleLittle++;
+				}
+
+				magnitudeBig += Math.abs((long) valueBig);
+				magnitudeLittle += Math.abs((long) valueLittle);
+			}
+		} finally {
+			try {
+				file.close();
+			} catch (Exception e) {
+				// ignored
+			}
+		}
+
+		TopographyFormat result = big;
+
+		if (plausibleLittle > plausibleBig || (plausibleLittle == plausibleBig && magnitudeLittle < magnitudeBig)) {
+			result = little;
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("Detected format " + result + " for " + inputfile + " (" + plausibleBig + " plausible values as "
+					+ big + ", " + plausibleLittle + " as " + little + ")");
+		}
+
+		return result;
+	}
+
+	/**
+	 * Decode the single value stored in a buffer.
+	 *
+	 * @param buffer the buffer containing the value at position 0.
+	 * @return the value.
+	 */
+	private int getValue(ByteBuffer buffer) {
+
+		ByteBuffer tmp = buffer.duplicate().order(order);
+
+		if (bytesPerValue == 4) {
+			return tmp.getInt(0);
+		} else {
+			return tmp.getShort(0);
+		}
+	}
+
+	/**
+	 * Checks if a value is a plausible ocean level index.
+	 *
+	 * @param value the value to check.
+	 * @return if the value is plausible.
+	 */
+	private static boolean isPlausible(int value) {
+		return value >= 0 && value <= MAX_PLAUSIBLE_VALUE;
+	}
+
+	@Override
+	public String toString() {
+		return offset == 0 ? name : name + " at offset " + offset;
+	}
+}
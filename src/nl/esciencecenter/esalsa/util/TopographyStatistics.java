@@ -0,0 +1,386 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.util;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TopographyStatistics computes aggregate statistics of a topography file in a single pass, without storing the topography.
+ *
+ * The statistics consist of the minimum and maximum value, the number of ocean points (that is, non-0 values), the sum of all
+ * values, a histogram of the values, and for each requested block size the number of active blocks (that is, blocks containing
+ * at least one ocean point). The per block work can optionally be stored as well.
+ *
+ * The file is read one row at a time. Apart from the stored per block work, the memory used is proportional to the width of the
+ * topography times the number of block sizes, so the statistics of very large topographies can be computed on small machines.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ * @see Topography
+ */
+public class TopographyStatistics {
+
+	/** A logger used for debugging */
+	private static final Logger logger = LoggerFactory.getLogger(TopographyStatistics.class);
+
+	/** The values 0 (inclusive) to HISTOGRAM_SIZE (exclusive) are counted in an array, all others in a map. */
+	private static final int HISTOGRAM_SIZE = 65536;
+
+	/** The width of the topography */
+	public final int width;
+
+	/** The height of the topography */
+	public final int height;
+
+	/** The maximum value found in the topography */
+	public final int max;
+
+	/** The minimum value found in the topography */
+	public final int min;
+
+	/** The number of ocean points (non-0 values) found in the topography */
+	public final long oceanPoints;
+
+	/** The sum of all values found in the topography */
+	public final long sum;
+
+	/** The number of occurrences of each value between 0 and HISTOGRAM_SIZE. */
+	private final long [] histogram = new long[HISTOGRAM_SIZE];
+
+	/** The number of occurrences of all other values. */
+	private final TreeMap<Integer, Long> otherValues = new TreeMap<Integer, Long>();
+
+	/** The block widths for which the statistics are computed. */
+	private final int [] blockWidths;
+
+	/** The block heights for which the statistics are computed. */
+	private final int [] blockHeights;
+
+	/** The number of active blocks for each block size. */
+	private final int [] activeBlocks;
+
+	/** The work in each block for each block size, stored row by row, or null if the per block work is not stored. */
+	private final int [][] blockWork;
+
+	/**
+	 * Compute the statistics of a topography file, without any block statistics.
+	 *
+	 * @param width the width of the topography.
+	 * @param height the height of the topography.
+	 * @param inputfile the input file from which to read the topography data.
+	 * @throws Exception if the statistics could not be computed.
+	 */
+	public TopographyStatistics(int width, int height, String inputfile) throws Exception {
+		this(width, height, inputfile, new int[0], new int[0], false);
+	}
+
+	/**
+	 * Compute the statistics of a topography file, including the block statistics of each pair (blockWidths[i],
+	 * blockHeights[i]).
+	 *
+	 * The input file must contain width*height big-endian 32-bit integers, stored row by row.
+	 *
+	 * @param width the width of the topography.
+	 * @param height the height of the topography.
+	 * @param inputfile the input file from which to read the topography data.
+	 * @param blockWidths the block widths for which to compute the block statistics.
+	 * @param blockHeights the block heights for which to compute the block statistics.
+	 * @param storeBlockWork if the work of each block should be stored.
+	 * @throws Exception if the statistics could not be computed.
+	 */
+	public TopographyStatistics(int width, int height, String inputfile, int [] blockWidths, int [] blockHeights,
+			boolean storeBlockWork) throws Exception {
+		this(width, height, inputfile, TopographyFormat.INT32_BIG_ENDIAN, blockWidths, blockHeights, storeBlockWork);
+	}
+
+	/**
+	 * Compute the statistics of a topography file of the given format, including the block statistics of each pair
+	 * (blockWidths[i], blockHeights[i]).
+	 *
+	 * @param width the width of the topography.
+	 * @param height the height of the topography.
+	 * @param inputfile the input file from which to read the topography data.
+	 * @param format the format of the input file, or null to detect it.
+	 * @param blockWidths the block widths for which to compute the block statistics.
+	 * @param blockHeights the block heights for which to compute the block statistics.
+	 * @param storeBlockWork if the work of each block should be stored.
+	 * @throws Exception if the statistics could not be computed.
+	 */
+	public TopographyStatistics(int width, int height, String inputfile, TopographyFormat format, int [] blockWidths,
+			int [] blockHeights, boolean storeBlockWork) throws Exception {
+
+		if (blockWidths.length != blockHeights.length) {
+			throw new IllegalArgumentException("Number of block widths and heights do not match");
+		}
+
+		for (int i=0;i<blockWidths.length;i++) {
+
+			if (blockWidths[i] <= 0 || width % blockWidths[i] != 0) {
+				throw new Exception("Illegal blockWidth " + blockWidths[i]);
+			}
+
+			if (blockHeights[i] <= 0 || height % blockHeights[i] != 0) {
+				throw new Exception("Illegal blockHeight " + blockHeights[i]);
+			}
+		}
+
+		this.width = width;
+		this.height = height;
+		this.blockWidths = blockWidths.clone();
+		this.blockHeights = blockHeights.clone();
+
+		int sizes = blockWidths.length;
+
+		activeBlocks = new int[sizes];
+		blockWork = storeBlockWork ? new int[sizes][] : null;
+
+		// The work of each block in the current row of blocks for each block size.
+		int [][] current = new int[sizes][];
+
+		for (int i=0;i<sizes;i++) {
+
+			current[i] = new int[width / blockWidths[i]];
+
+			if (storeBlockWork) {
+				blockWork[i] = new int[(width / blockWidths[i]) * (height / blockHeights[i])];
+			}
+		}
+
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		long oceanPoints = 0;
+		long sum = 0;
+
+		if (format == null) {
+			format = TopographyFormat.detect(inputfile, width, height);
+		}
+
+		RandomAccessFile file = null;
+
+		try {
+			file = new RandomAccessFile(inputfile, "r");
+
+			FileChannel channel = file.getChannel();
+
+			long rowSize = format.getSize(width, 1);
+
+			if (channel.size() < format.getPosition(width, height)) {
+				throw new Exception("File too short: expected " + format.getPosition(width, height) + " bytes but found "
+						+ channel.size());
+			}
+
+			ByteBuffer buffer = ByteBuffer.allocate((int) rowSize);
+
+			int [] row = new int[width];
+
+			// The number of ocean points in row[0] to row[x-1] is stored at index x.
+			int [] prefix = new int[width+1];
+
+			for (int y=0;y<height;y++) {
+
+				buffer.clear();
+
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer, format.getPosition(width, y) + buffer.position()) < 0) {
+						throw new Exception("Unexpected end of file");
+					}
+				}
+
+				buffer.flip();
+				format.getDecoder(buffer).get(row);
+
+				for (int x=0;x<width;x++) {
+
+					int value = row[x];
+
+					if (value > max) {
+						max = value;
+					}
+
+					if (value < min) {
+						min = value;
+					}
+
+					if (value >= 0 && value < HISTOGRAM_SIZE) {
+						histogram[value]++;
+					} else {
+						Long count = otherValues.get(value);
+						otherValues.put(value, count == null ? 1 : count + 1);
+					}
+
+					sum += value;
+
+					prefix[x+1] = (value > 0) ? prefix[x] + 1 : prefix[x];
+				}
+
+				oceanPoints += prefix[width];
+
+				for (int i=0;i<sizes;i++) {
+
+					int [] work = current[i];
+					int bw = blockWidths[i];
+
+					for (int bx=0;bx<work.length;bx++) {
+						work[bx] += prefix[(bx+1)*bw] - prefix[bx*bw];
+					}
+
+					if ((y+1) % blockHeights[i] == 0) {
+
+						// The current row of blocks is complete.
+						for (int bx=0;bx<work.length;bx++) {
+							if (work[bx] > 0) {
+								activeBlocks[i]++;
+							}
+						}
+
+						if (storeBlockWork) {
+							System.arraycopy(work, 0, blockWork[i], (y / blockHeights[i]) * work.length, work.length);
+						}
+
+						for (int bx=0;bx<work.length;bx++) {
+							work[bx] = 0;
+						}
+					}
+				}
+			}
+		} catch (Exception e) {
+			throw new Exception("Failed to read topography statistics from file " + inputfile, e);
+		} finally {
+			try {
+				file.close();
+			} catch (Exception e) {
+				// ignored
+			}
+		}
+
+		this.min = min;
+		this.max = max;
+		this.oceanPoints = oceanPoints;
+		this.sum = sum;
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("Topography contains " + oceanPoints + " nonzero fields (sum = " + sum + ")");
+		}
+	}
+
+	/**
+	 * Returns the number of times a value occurs in the topography.
+	 *
+	 * @param value the value.
+	 * @return the number of times the value occurs.
+	 */
+	public long getHistogram(int value) {
+
+		if (value >= 0 && value < HISTOGRAM_SIZE) {
+			return histogram[value];
+		}
+
+		Long count = otherValues.get(value);
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * Returns the histogram of all values that occur in the topography.
+	 *
+	 * @return a sorted map containing the number of occurrences of each value that occurs at least once.
+	 */
+	public TreeMap<Integer, Long> getHistogram() {
+
+		TreeMap<Integer, Long> result = new TreeMap<Integer, Long>();
+
+		for (Map.Entry<Integer, Long> e : otherValues.headMap(0).entrySet()) {
+			result.put(e.getKey(), e.getValue());
+		}
+
+		for (int i=0;i<HISTOGRAM_SIZE;i++) {
+			if (histogram[i] > 0) {
+				result.put(i, histogram[i]);
+			}
+		}
+
+		for (Map.Entry<Integer, Long> e : otherValues.tailMap(0).entrySet()) {
+			result.put(e.getKey(), e.getValue());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the number of block sizes for which block statistics were computed.
+	 *
+	 * @return the number of block sizes.
+	 */
+	public int getBlockSizes() {
+		return blockWidths.length;
+	}
+
+	/**
+	 * Returns the block width of a block size.
+	 *
+	 * @param size the index of the block size.
+	 * @return the block width.
+	 */
+	public int getBlockWidth(int size) {
+		return blockWidths[size];
+	}
+
+	/**
+	 * Returns the block height of a block size.
+	 *
+	 * @param size the index of the block size.
+	 * @return the block height.
+	 */
+	public int getBlockHeight(int size) {
+		return blockHeights[size];
+	}
+
+	/**
+	 * Returns the number of active blocks (that is, blocks containing at least one ocean point) of a block size. This is the
+	 * number of blocks a {@link Grid} of this block size would contain.
+	 *
+	 * @param size the index of the block size.
+	 * @return the number of active blocks.
+	 */
+	public int getActiveBlocks(int size) {
+		return activeBlocks[size];
+	}
+
+	/**
+	 * Returns the work (that is, the number of ocean points) of each block of a block size.
+	 *
+	 * @param size the index of the block size.
+	 * @return an array containing the work of each block, stored row by row, where the work of block (x,y) is stored at index
+	 * y*(width/blockWidth)+x.
+	 * @throws IllegalStateException if the per block work was not stored.
+	 */
+	public int [] getBlockWork(int size) {
+
+		if (blockWork == null) {
+			throw new IllegalStateException("Per block work was not stored");
+		}
+
+		return blockWork[size];
+	}
+}
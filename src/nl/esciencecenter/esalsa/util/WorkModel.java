@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.util;
+
+/**
+ * WorkModel determines the weight of a block, that is, the relative amount of work needed to compute it.
+ * 
+ * The load balancer balances the sum of the block weights over the subsets it creates. The default model {@link #BLOCKS} gives 
+ * each block the same weight. Since the baroclinic cost in POP scales with the number of active ocean levels, {@link #LEVELS} 
+ * usually gives a better balance.    
+ * 
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ * @see Block
+ * @see Grid
+ */
+public interface WorkModel {
+
+	/** Work model that gives each block a weight of 1. */
+	public static final WorkModel BLOCKS = new WorkModel() {
+		@Override
+		public int getWeight(Topography topography, int x, int y, int width, int height) {
+			return 1;
+		}
+	};
+	
+	/** Work model that uses the number of ocean points in a block as its weight. */
+	public static final WorkModel POINTS = new WorkModel() {
+		@Override
+		public int getWeight(Topography topography, int x, int y, int width, int height) {
+			return topography.getRectangleWork(x, y, width, height);
+		}
+	};
+	
+	/** Work model that uses the number of active ocean levels in a block (that is, the sum of its depth indices) as its weight. */
+	public static final WorkModel LEVELS = new WorkModel() {
+		@Override
+		public int getWeight(Topography topography, int x, int y, int width, int height) {
+			return topography.getRectangleSum(x, y, width, height);
+		}
+	};
+	
+	/** 
+	 * Returns the weight of the block covering a rectangular area of the topography. The block contains at least one ocean 
+	 * point. Weights smaller than 1 are replaced by 1.
+	 * 
+	 * @param topography the topography.
+	 * @param x the x position of the block in topography points. 
+	 * @param y the y position of the block in topography points.
+	 * @param width the width of the block in topography points.
+	 * @param height the height of the block in topography points.
+	 * @return the weight of the block.
+	 */
+	public int getWeight(Topography topography, int x, int y, int width, int height);
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.esciencecenter.esalsa.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Regression checks for {@link TopographyFormat#detect(String, int, int)}, run by the <code>test</code> target of the build.
+ *
+ * Each check writes a topography in a known format to a temporary file, and verifies that the format is detected and the
+ * topography is loaded with the expected values. Topographies with a small maximum level are included, since their byte
+ * swapped values are small enough to be mistaken for level indices.
+ *
+ * @author Jason Maassen <J.Maassen@esciencecenter.nl>
+ * @version 1.0
+ * @since 1.0
+ */
+public class TopographyFormatTest {
+
+	/** The width of the generated topographies. */
+	private static final int WIDTH = 360;
+
+	/** The height of the generated topographies. */
+	private static final int HEIGHT = 240;
+
+	/** The number of failed checks. */
+	private static int failures = 0;
+
+	/**
+	 * Returns the value of the generated topography at (x,y), a mix of land (0) and ocean levels 1 to max.
+	 *
+	 * @param x the x coordinate.
+	 * @param y the y coordinate.
+	 * @param max the maximum level.
+	 * @return the value at (x,y).
+	 */
+	private static int value(int x, int y, int max) {
+
+		if ((x / 40 + y / 30) % 3 == 0) {
+			return 0;
+		}
+
+		return 1 + (x * 7 + y * 13) % max;
+	}
+
+	/**
+	 * Write a topography in the given format to a temporary file.
+	 *
+	 * @param format the format to use.
+	 * @param max the maximum level of the topography, or 0 to write land only.
+	 * @return the file.
+	 * @throws Exception if the file could not be written.
+	 */
+	private static File write(TopographyFormat format, int max) throws Exception {
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) format.getSize(WIDTH, HEIGHT)).order(format.order);
+
+		for (int y=0;y<HEIGHT;y++) {
+			for (int x=0;x<WIDTH;x++) {
+
+				int v = (max == 0) ? 0 : value(x, y, max);
+
+				if (format.bytesPerValue == 4) {
+					buffer.putInt(v);
+				} else {
+					buffer.putShort((short) v);
+				}
+			}
+		}
+
+		File file = File.createTempFile("topography", ".bin");
+		file.deleteOnExit();
+
+		FileOutputStream out = new FileOutputStream(file);
+
+		try {
+			out.write(buffer.array());
+		} finally {
+			out.close();
+		}
+
+		return file;
+	}
+
+	/**
+	 * Check that a topography written in a given format is detected as expected and loaded with the correct values.
+	 *
+	 * @param format the format in which the topography is written.
+	 * @param max the maximum level of the topography, or 0 to write land only.
+	 * @param expected the format that should be detected.
+	 * @throws Exception if the check could not be performed.
+	 */
+	private static void check(TopographyFormat format, int max, TopographyFormat expected) throws Exception {
+
+		File file = write(format, max);
+
+		TopographyFormat detected = TopographyFormat.detect(file.getPath(), WIDTH, HEIGHT);
+
+		String name = format + " max " + max;
+
+		if (detected != expected) {
+			fail(name + ": detected " + detected + ", expected " + expected);
+			return;
+		}
+
+		// Load the topography as the tools do by default, detecting the format again.
+		Topography t = new Topography(WIDTH, HEIGHT, file.getPath(), Topography.STREAM, false, null);
+
+		if (t.max != max) {
+			fail(name + ": loaded max " + t.max + ", expected " + max);
+			return;
+		}
+
+		for (int y=0;y<HEIGHT;y++) {
+			for (int x=0;x<WIDTH;x++) {
+
+				int v = (max == 0) ? 0 : value(x, y, max);
+
+				if (t.get(x, y) != v) {
+					fail(name + ": loaded " + t.get(x, y) + " at " + x + "x" + y + ", expected " + v);
+					return;
+				}
+			}
+		}
+
+		System.out.println("OK   " + name + " detected as " + detected);
+	}
+
+	/**
+	 * Report a failed check.
+	 *
+	 * @param message the reason of the failure.
+	 */
+	private static void fail(String message) {
+		System.out.println("FAIL " + message);
+		failures++;
+	}
+
+	/**
+	 * Run all checks. Exits with status 1 if any check failed.
+	 *
+	 * @param args ignored.
+	 * @throws Exception if a check could not be performed.
+	 */
+	public static void main(String [] args) throws Exception {
+
+		TopographyFormat [] formats = new TopographyFormat [] {
+			TopographyFormat.INT32_BIG_ENDIAN, TopographyFormat.INT32_LITTLE_ENDIAN,
+			TopographyFormat.INT16_BIG_ENDIAN, TopographyFormat.INT16_LITTLE_ENDIAN
+		};
+
+		for (TopographyFormat format : formats) {
+			check(format, 1, format);
+			check(format, 39, format);
+			check(format, 59, format);
+			check(format, 255, format);
+		}
+
+		// A land only topography decodes identically in both byte orders, so big-endian is selected.
+		check(TopographyFormat.INT16_LITTLE_ENDIAN, 0, TopographyFormat.INT16_BIG_ENDIAN);
+		check(TopographyFormat.INT32_LITTLE_ENDIAN, 0, TopographyFormat.INT32_BIG_ENDIAN);
+
+		if (failures > 0) {
+			System.out.println(failures + " check(s) failed");
+			System.exit(1);
+		}
+	}
+}